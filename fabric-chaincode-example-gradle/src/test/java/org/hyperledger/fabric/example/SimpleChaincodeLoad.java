@@ -0,0 +1,73 @@
+package org.hyperledger.fabric.example;
+
+import org.hyperledger.fabric.shim.mock.peer.LoadGenerator;
+import org.hyperledger.fabric.shim.mock.peer.NetworkConditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load scenarios of {@link SimpleChaincode}, run against an in-process mock peer:
+ * <ul>
+ * <li>transfer - transfers between accounts, two reads and two writes each</li>
+ * <li>query - reads of a single account</li>
+ * <li>mixed - three transfers for every query</li>
+ * </ul>
+ * Arguments: scenario, transactions, transactions in flight at once and the one-way
+ * latency between the peer and the chaincode in microseconds.
+ */
+public class SimpleChaincodeLoad {
+
+    private static final int ACCOUNTS = 10;
+
+    public static void main(String[] args) throws Exception {
+        String scenario = args.length > 0 ? args[0] : "mixed";
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        long latency = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        LoadGenerator load = new LoadGenerator(new SimpleChaincode())
+                .setTransactions(transactions)
+                .setWarmupTransactions(Math.min(transactions, 10000))
+                .setConcurrency(concurrency);
+        if (latency > 0) {
+            load.setNetworkConditions(new NetworkConditions().setLatency(latency, TimeUnit.MICROSECONDS));
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            load.putState(account(i), "100000000");
+        }
+        switch (scenario) {
+            case "transfer":
+                addTransfers(load, 1);
+                break;
+            case "query":
+                addQueries(load, 1);
+                break;
+            case "mixed":
+                addTransfers(load, 3);
+                addQueries(load, 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario + ", expecting one of: transfer, query, mixed");
+        }
+
+        System.out.println(scenario + ": " + load.run());
+        System.exit(0);
+    }
+
+    private static void addTransfers(LoadGenerator load, int weight) {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            load.addArgs(weight, "invoke", account(i), account((i + 1) % ACCOUNTS), "1");
+        }
+    }
+
+    private static void addQueries(LoadGenerator load, int weight) {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            load.addArgs(weight, "query", account(i));
+        }
+    }
+
+    private static String account(int i) {
+        return "account" + i;
+    }
+
+}
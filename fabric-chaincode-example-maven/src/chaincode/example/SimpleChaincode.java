@@ -1,13 +1,15 @@
 package chaincode.example;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hyperledger.fabric.shim.ChaincodeBase;
 import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.KeyPrefetcher;
 
-public class SimpleChaincode extends ChaincodeBase {
+public class SimpleChaincode extends ChaincodeBase implements KeyPrefetcher {
 
 	private static Log _logger = LogFactory.getLog(SimpleChaincode.class);
 	
@@ -60,6 +62,16 @@ public class SimpleChaincode extends ChaincodeBase {
 		}
 	}
 
+	// the accounts of a transfer are read before it runs
+	@Override
+	public List<String> prefetchKeys(ChaincodeStub stub) {
+		List<String> params = stub.getParameters();
+		if ("invoke".equals(stub.getFunction()) && params.size() == 3) {
+			return params.subList(0, 2);
+		}
+		return Collections.emptyList();
+	}
+
 	private Response invoke(ChaincodeStub stub, List<String> args) {
 		if (args.size() != 3) {
 			return newErrorResponse("Incorrect number of arguments. Expecting 3");
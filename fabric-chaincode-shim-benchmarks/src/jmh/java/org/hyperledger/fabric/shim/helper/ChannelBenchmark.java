@@ -0,0 +1,64 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.helper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of handing a message over through a {@link Channel}, by one thread and by
+ * several threads sharing the channel. Each thread takes only after adding, so a take
+ * never waits for good.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelBenchmark {
+
+    private static final Object MESSAGE = new Object();
+
+    @State(Scope.Thread)
+    public static class Owned {
+        final Channel<Object> channel = new Channel<>();
+
+        @TearDown
+        public void tearDown() {
+            channel.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final Channel<Object> channel = new Channel<>();
+
+        @TearDown
+        public void tearDown() {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object addTake(Owned owned) throws InterruptedException {
+        owned.channel.add(MESSAGE);
+        return owned.channel.take();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object addTakeShared(Shared shared) throws InterruptedException {
+        shared.channel.add(MESSAGE);
+        return shared.channel.take();
+    }
+
+}
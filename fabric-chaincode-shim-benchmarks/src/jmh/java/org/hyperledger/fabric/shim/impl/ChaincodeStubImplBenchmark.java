@@ -0,0 +1,91 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Timestamp;
+import org.hyperledger.fabric.protos.common.Common.ChannelHeader;
+import org.hyperledger.fabric.protos.common.Common.Header;
+import org.hyperledger.fabric.protos.common.Common.SignatureHeader;
+import org.hyperledger.fabric.protos.peer.ProposalPackage.ChaincodeProposalPayload;
+import org.hyperledger.fabric.protos.peer.ProposalPackage.Proposal;
+import org.hyperledger.fabric.protos.peer.ProposalPackage.SignedProposal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.hyperledger.fabric.protos.common.Common.HeaderType.ENDORSER_TRANSACTION_VALUE;
+
+/**
+ * Construction of the stub of a transaction, which parses the proposal and computes its
+ * binding. The proposal is sized like one from the Java SDK: a certificate as creator, a
+ * nonce, a signature and a transient map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChaincodeStubImplBenchmark {
+
+    private SignedProposal signedProposal;
+    private List<ByteString> args;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final Instant now = Instant.now();
+        signedProposal = SignedProposal.newBuilder()
+                .setProposalBytes(Proposal.newBuilder()
+                        .setHeader(Header.newBuilder()
+                                .setChannelHeader(ChannelHeader.newBuilder()
+                                        .setType(ENDORSER_TRANSACTION_VALUE)
+                                        .setChannelId("mychannel")
+                                        .setTxId("f3a6c1d2e4b5a6978877665544332211f3a6c1d2e4b5a6978877665544332211")
+                                        .setEpoch(0)
+                                        .setTimestamp(Timestamp.newBuilder().setSeconds(now.getEpochSecond()).setNanos(now.getNano()))
+                                        .build().toByteString())
+                                .setSignatureHeader(SignatureHeader.newBuilder()
+                                        .setCreator(randomBytes(random, 900))
+                                        .setNonce(randomBytes(random, 24))
+                                        .build().toByteString())
+                                .build().toByteString())
+                        .setPayload(ChaincodeProposalPayload.newBuilder()
+                                .setInput(randomBytes(random, 256))
+                                .putTransientMap("price", ByteString.copyFromUtf8("100"))
+                                .putTransientMap("secret", randomBytes(random, 64))
+                                .build().toByteString())
+                        .build().toByteString())
+                .setSignature(randomBytes(random, 72))
+                .build();
+        args = Arrays.asList(ByteString.copyFromUtf8("transfer"), ByteString.copyFromUtf8("a"), ByteString.copyFromUtf8("b"), ByteString.copyFromUtf8("10"));
+    }
+
+    @Benchmark
+    public ChaincodeStubImpl construct() {
+        return new ChaincodeStubImpl("mychannel", "txid", null, args, signedProposal);
+    }
+
+    @Benchmark
+    public byte[] constructAndGetBinding() {
+        return new ChaincodeStubImpl("mychannel", "txid", null, args, signedProposal).getBinding();
+    }
+
+    private static ByteString randomBytes(Random random, int length) {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+
+}
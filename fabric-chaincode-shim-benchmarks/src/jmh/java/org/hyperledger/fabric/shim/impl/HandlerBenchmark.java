@@ -0,0 +1,109 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeInput;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+
+/**
+ * Round trip of a transaction through the {@link Handler}: the TRANSACTION message is
+ * dispatched to the chaincode, which reads a number of keys, and the benchmark thread
+ * plays the peer, answering each GET_STATE until the COMPLETED message comes out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HandlerBenchmark {
+
+    private static final ByteString VALUE = ByteString.copyFromUtf8("{\"owner\":\"alice\",\"amount\":100}");
+
+    @Param({"0", "1", "10"})
+    public int reads;
+
+    private Handler handler;
+    private ByteString input;
+    private long transactions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        handler = new Handler(ChaincodeID.newBuilder().setName("benchcc").build(), new ReadingChaincode());
+        handler.nextOutboundChaincodeMessage();
+        handler.onChaincodeMessage(ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeMessage.newBuilder().setType(READY).build());
+        input = ChaincodeInput.newBuilder()
+                .addArgs(ByteString.copyFromUtf8("invoke"))
+                .addArgs(ByteString.copyFromUtf8(Integer.toString(reads)))
+                .build().toByteString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        handler.onStreamReset();
+    }
+
+    @Benchmark
+    public ChaincodeMessage transaction() {
+        handler.onChaincodeMessage(ChaincodeMessage.newBuilder()
+                .setType(TRANSACTION)
+                .setChannelId("mychannel")
+                .setTxid("tx" + transactions++)
+                .setPayload(input)
+                .build());
+        while (true) {
+            final ChaincodeMessage message = handler.nextOutboundChaincodeMessage();
+            switch (message.getType()) {
+                case GET_STATE:
+                    handler.onChaincodeMessage(ChaincodeMessage.newBuilder()
+                            .setType(RESPONSE)
+                            .setChannelId(message.getChannelId())
+                            .setTxid(message.getTxid())
+                            .setPayload(VALUE)
+                            .build());
+                    break;
+                case COMPLETED:
+                    return message;
+                default:
+                    throw new IllegalStateException("Unexpected " + message.getType());
+            }
+        }
+    }
+
+    private static class ReadingChaincode extends ChaincodeBase {
+
+        @Override
+        public Response init(ChaincodeStub stub) {
+            return newSuccessResponse();
+        }
+
+        @Override
+        public Response invoke(ChaincodeStub stub) {
+            final int reads = Integer.parseInt(stub.getParameters().get(0));
+            for (int i = 0; i < reads; i++) {
+                stub.getState("key" + i);
+            }
+            return newSuccessResponse();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.ledger.queryresult.KvQueryResult.KV;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResponse;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResultBytes;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iteration over one page of a range query, parsing each result into a {@link KeyValue}.
+ * The page is the last one, so no further page is requested from the peer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryResultsIteratorBenchmark {
+
+    @Param({"10", "100"})
+    public int pageSize;
+
+    private QueryResponse page;
+
+    @Setup
+    public void setUp() {
+        final QueryResponse.Builder builder = QueryResponse.newBuilder().setId("query").setHasMore(false);
+        for (int i = 0; i < pageSize; i++) {
+            builder.addResults(QueryResultBytes.newBuilder()
+                    .setResultBytes(KV.newBuilder()
+                            .setNamespace("benchcc")
+                            .setKey(String.format("asset%06d", i))
+                            .setValue(ByteString.copyFromUtf8("{\"owner\":\"alice\",\"amount\":" + i + "}"))
+                            .build().toByteString()));
+        }
+        page = builder.build();
+    }
+
+    @Benchmark
+    public void iteratePage(Blackhole blackhole) {
+        final QueryResultsIteratorImpl<KeyValue> results = new QueryResultsIteratorImpl<>(null, "mychannel", "txid", page,
+                ChaincodeStubImpl.queryResultBytesToKv.andThen(KeyValueImpl::new));
+        for (KeyValue keyValue : results) {
+            blackhole.consume(keyValue.getKey());
+            blackhole.consume(keyValue.getValue());
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.hyperledger.fabric.protos.peer.ProposalResponsePackage.Response;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of the response of a chaincode to the peer's message and back, as done for
+ * every transaction and every chaincode to chaincode invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResponseConversionBenchmark {
+
+    @Param({"0", "1024", "65536"})
+    public int payloadSize;
+
+    private Chaincode.Response response;
+    private Response protoResponse;
+
+    @Setup
+    public void setUp() {
+        final byte[] payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        response = new Chaincode.Response(Chaincode.Response.Status.SUCCESS, "OK", payload);
+        protoResponse = Handler.toProtoResponse(response);
+    }
+
+    @Benchmark
+    public Response toProtoResponse() {
+        return Handler.toProtoResponse(response);
+    }
+
+    @Benchmark
+    public byte[] toProtoResponseSerialized() {
+        return Handler.toProtoResponse(response).toByteArray();
+    }
+
+    @Benchmark
+    public Chaincode.Response toChaincodeResponse() {
+        return Handler.toChaincodeResponse(protoResponse);
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.ledger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of a composite key with a few attributes, and parsing it back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CompositeKeyBenchmark {
+
+    private final String[] attributes = {"alice", "2018-10-01", "0000042"};
+    private final String compositeKey = new CompositeKey("transfer", attributes).toString();
+
+    @Benchmark
+    public String create() {
+        return new CompositeKey("transfer", attributes).toString();
+    }
+
+    @Benchmark
+    public CompositeKey parse() {
+        return CompositeKey.parseCompositeKey(compositeKey);
+    }
+
+}
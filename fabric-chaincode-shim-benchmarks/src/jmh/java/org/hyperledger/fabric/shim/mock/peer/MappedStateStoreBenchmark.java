@@ -0,0 +1,118 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+
+/**
+ * Reads from a ledger of production size held in a {@link MappedStateStore}: point reads,
+ * scans of a range of simple keys and scans of the assets of an owner by partial
+ * composite key. The ledger is loaded into the directory of the system property
+ * {@code benchmark.state.dir}, or a temporary one, and reused by later runs of the same
+ * size, e.g. {@code -PjmhInclude=MappedStateStoreBenchmark} with {@code keys=50000000}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MappedStateStoreBenchmark {
+
+    private static final ByteString VALUE = ByteString.copyFromUtf8("{\"color\":\"blue\",\"size\":35,\"appraisedValue\":300}");
+    // end of the range of the keys starting with a partial composite key, as for the stubs
+    private static final String MAX_UNICODE_RUNE = "\udbff\udfff";
+
+    @Param({"1000000"})
+    public long keys;
+
+    @Param({"100"})
+    public int scanLength;
+
+    private MappedStateStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final String configured = System.getProperty("benchmark.state.dir");
+        final Path dir = configured != null ? Paths.get(configured, Long.toString(keys)) : Files.createTempDirectory("state");
+        if (!Files.exists(dir.resolve("loaded"))) {
+            try (MappedStateStore.Loader loader = MappedStateStore.loader(dir, "")) {
+                // composite keys start with U+0000, so they come before the simple keys
+                for (long i = 0; i < keys; i++) {
+                    loader.add(ownerKey(i / scanLength, i).toString(), VALUE);
+                }
+                for (long i = 0; i < keys; i++) {
+                    loader.add(assetKey(i), VALUE);
+                }
+            }
+            Files.createFile(dir.resolve("loaded"));
+        }
+        store = MappedStateStore.open(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Benchmark
+    public ByteString get() {
+        return store.get("", assetKey(ThreadLocalRandom.current().nextLong(keys)));
+    }
+
+    @Benchmark
+    public void rangeScan(Blackhole blackhole) {
+        final long start = ThreadLocalRandom.current().nextLong(keys - scanLength);
+        scan(store.range("", assetKey(start), assetKey(start + scanLength)), blackhole);
+    }
+
+    @Benchmark
+    public void compositeKeyScan(Blackhole blackhole) {
+        final String owner = new CompositeKey("owner", ownerName(ThreadLocalRandom.current().nextLong(keys / scanLength))).toString();
+        scan(store.range("", owner, owner + MAX_UNICODE_RUNE), blackhole);
+    }
+
+    private static void scan(Iterator<Map.Entry<String, ByteString>> range, Blackhole blackhole) {
+        while (range.hasNext()) {
+            final Map.Entry<String, ByteString> entry = range.next();
+            blackhole.consume(entry.getKey());
+            blackhole.consume(entry.getValue());
+        }
+    }
+
+    private static String assetKey(long i) {
+        return format("asset%010d", i);
+    }
+
+    private static String ownerName(long owner) {
+        return format("owner%010d", owner);
+    }
+
+    private static CompositeKey ownerKey(long owner, long asset) {
+        return new CompositeKey("owner", ownerName(owner), assetKey(asset));
+    }
+
+}
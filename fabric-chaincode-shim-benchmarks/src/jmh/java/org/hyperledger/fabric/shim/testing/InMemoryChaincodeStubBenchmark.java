@@ -0,0 +1,84 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.testing;
+
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chaincode logic alone, run against an in-memory ledger: a transfer between two
+ * accounts committed each time, and a scan of a composite key prefix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InMemoryChaincodeStubBenchmark {
+
+    private final ChaincodeBase chaincode = new ChaincodeBase() {
+        @Override
+        public Response init(ChaincodeStub stub) {
+            return newSuccessResponse();
+        }
+
+        @Override
+        public Response invoke(ChaincodeStub stub) {
+            final List<String> params = stub.getParameters();
+            if (stub.getFunction().equals("scan")) {
+                int results = 0;
+                for (KeyValue kv : stub.getStateByPartialCompositeKey("owner", params.get(0))) {
+                    results++;
+                }
+                return newSuccessResponse(Integer.toString(results));
+            }
+            final int amount = Integer.parseInt(params.get(2));
+            stub.putStringState(params.get(0), Integer.toString(Integer.parseInt(stub.getStringState(params.get(0))) - amount));
+            stub.putStringState(params.get(1), Integer.toString(Integer.parseInt(stub.getStringState(params.get(1))) + amount));
+            return newSuccessResponse();
+        }
+    };
+
+    private InMemoryChaincodeStub transfer;
+    private InMemoryChaincodeStub scan;
+
+    @Setup
+    public void setup() {
+        // without history the ledger does not grow with the transactions
+        final InMemoryLedger ledger = new InMemoryLedger()
+                .setHistoryEnabled(false)
+                .putStringState("a", Integer.toString(Integer.MAX_VALUE))
+                .putStringState("b", "0");
+        transfer = new InMemoryChaincodeStub(ledger).setArgs("transfer", "a", "b", "1");
+        scan = new InMemoryChaincodeStub(ledger).setArgs("scan", "alice");
+        for (int i = 0; i < 100; i++) {
+            ledger.putStringState(scan.createCompositeKey("owner", i % 2 == 0 ? "alice" : "bob", String.format("asset%03d", i)).toString(), "");
+        }
+    }
+
+    @Benchmark
+    public void transfer() {
+        chaincode.invoke(transfer);
+        transfer.commit();
+    }
+
+    @Benchmark
+    public ChaincodeBase.Response scan() {
+        final ChaincodeBase.Response response = chaincode.invoke(scan);
+        scan.rollback();
+        return response;
+    }
+
+}
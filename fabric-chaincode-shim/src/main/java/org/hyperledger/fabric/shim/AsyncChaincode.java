@@ -0,0 +1,37 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim;
+
+import org.hyperledger.fabric.shim.Chaincode.Response;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Chaincode that does not hold a thread while it waits for the peer.
+ * <p>
+ * The stub returns futures for every ledger access and the transaction completes
+ * when the returned stage completes. Continuations run on a small shared pool,
+ * so they must not block. It is run by a handler of its own rather than through
+ * {@link Chaincode}, and started by {@link AsyncChaincodeBase} or a {@link ChaincodeHost}.
+ *
+ * @see AsyncChaincodeBase
+ */
+public interface AsyncChaincode {
+
+    /**
+     * Called during an instantiate transaction after the container has been
+     * established, allowing the chaincode to initialize its internal data.
+     */
+    CompletionStage<Response> init(AsyncChaincodeStub stub);
+
+    /**
+     * Called for every Invoke transaction. The chaincode may change its state
+     * variables.
+     */
+    CompletionStage<Response> invoke(AsyncChaincodeStub stub);
+
+}
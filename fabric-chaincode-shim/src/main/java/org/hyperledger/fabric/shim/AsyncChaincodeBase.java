@@ -0,0 +1,95 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim;
+
+import io.grpc.ManagedChannelBuilder;
+import org.hyperledger.fabric.shim.Chaincode.Response;
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Base class of asynchronous chaincode, started and configured like a {@link ChaincodeBase}.
+ */
+public abstract class AsyncChaincodeBase implements AsyncChaincode {
+
+    private final ChaincodeSettings settings = new ChaincodeSettings();
+    private final ChaincodeLauncher launcher = new ChaincodeLauncher(settings, this);
+
+    @Override
+    public abstract CompletionStage<Response> init(AsyncChaincodeStub stub);
+
+    @Override
+    public abstract CompletionStage<Response> invoke(AsyncChaincodeStub stub);
+
+    /**
+     * Start chaincode
+     *
+     * @param args command line arguments
+     */
+    public void start(String[] args) {
+        start(args, null);
+    }
+
+    /**
+     * Start chaincode, connecting to the peer through the given channel builder, see
+     * {@link ChaincodeBase#start(String[], ManagedChannelBuilder)}.
+     *
+     * @param args           command line arguments
+     * @param channelBuilder builder of the channel to the peer, or null to use the configured peer address
+     */
+    public void start(String[] args, ManagedChannelBuilder<?> channelBuilder) {
+        launcher.start(args, channelBuilder);
+    }
+
+    /**
+     * @return metrics of this chaincode process
+     */
+    public MetricsRegistry getMetrics() {
+        return settings.getMetrics();
+    }
+
+    /**
+     * Declares the execution class of a function, see {@link ChaincodeBase#registerExecutionClass}.
+     *
+     * @param function       first argument of the invocations
+     * @param executionClass class to run them in
+     */
+    protected void registerExecutionClass(String function, ExecutionClass executionClass) {
+        launcher.registerExecutionClass(function, executionClass);
+    }
+
+    ExecutionClassifier getExecutionClassifier() {
+        return launcher.getExecutionClassifier();
+    }
+
+    protected static Response newSuccessResponse(String message, byte[] payload) {
+        return ChaincodeBase.newSuccessResponse(message, payload);
+    }
+
+    protected static Response newSuccessResponse(String message) {
+        return ChaincodeBase.newSuccessResponse(message);
+    }
+
+    protected static Response newErrorResponse(String message) {
+        return ChaincodeBase.newErrorResponse(message);
+    }
+
+    protected static Response newErrorResponse(Throwable throwable) {
+        return ChaincodeBase.newErrorResponse(throwable);
+    }
+
+    protected static CompletableFuture<Response> completedSuccessResponse(String message, byte[] payload) {
+        return CompletableFuture.completedFuture(newSuccessResponse(message, payload));
+    }
+
+    protected static CompletableFuture<Response> completedErrorResponse(String message) {
+        return CompletableFuture.completedFuture(newErrorResponse(message));
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim;
+
+import org.hyperledger.fabric.protos.peer.ChaincodeEventPackage.ChaincodeEvent;
+import org.hyperledger.fabric.protos.peer.ProposalPackage.SignedProposal;
+import org.hyperledger.fabric.shim.Chaincode.Response;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Non-blocking counterpart of {@link ChaincodeStub} passed to {@link AsyncChaincode}.
+ * <p>
+ * Ledger accesses return futures that complete on the shim's continuation pool once
+ * the peer responded. Range, rich and history queries fetch every page and
+ * complete with the full result. The semantics of each call are otherwise those of
+ * the {@link ChaincodeStub} method with the same name.
+ */
+public interface AsyncChaincodeStub {
+
+    /**
+     * @see ChaincodeStub#getArgs()
+     */
+    List<byte[]> getArgs();
+
+    /**
+     * @see ChaincodeStub#getStringArgs()
+     */
+    List<String> getStringArgs();
+
+    /**
+     * @see ChaincodeStub#getFunction()
+     */
+    String getFunction();
+
+    /**
+     * @see ChaincodeStub#getParameters()
+     */
+    List<String> getParameters();
+
+    /**
+     * @see ChaincodeStub#getTxId()
+     */
+    String getTxId();
+
+    /**
+     * @see ChaincodeStub#getChannelId()
+     */
+    String getChannelId();
+
+    /**
+     * @see ChaincodeStub#invokeChaincode(String, List, String)
+     */
+    CompletableFuture<Response> invokeChaincode(String chaincodeName, List<byte[]> args, String channel);
+
+    /**
+     * @see ChaincodeStub#getState(String)
+     */
+    CompletableFuture<byte[]> getState(String key);
+
+    /**
+     * @see ChaincodeStub#putState(String, byte[])
+     */
+    CompletableFuture<Void> putState(String key, byte[] value);
+
+    /**
+     * @see ChaincodeStub#delState(String)
+     */
+    CompletableFuture<Void> delState(String key);
+
+    /**
+     * @see ChaincodeStub#getStateByRange(String, String)
+     */
+    CompletableFuture<List<KeyValue>> getStateByRange(String startKey, String endKey);
+
+    /**
+     * @see ChaincodeStub#getStateByPartialCompositeKey(CompositeKey)
+     */
+    CompletableFuture<List<KeyValue>> getStateByPartialCompositeKey(CompositeKey compositeKey);
+
+    /**
+     * @see ChaincodeStub#createCompositeKey(String, String...)
+     */
+    CompositeKey createCompositeKey(String objectType, String... attributes);
+
+    /**
+     * @see ChaincodeStub#splitCompositeKey(String)
+     */
+    CompositeKey splitCompositeKey(String compositeKey);
+
+    /**
+     * @see ChaincodeStub#getQueryResult(String)
+     */
+    CompletableFuture<List<KeyValue>> getQueryResult(String query);
+
+    /**
+     * @see ChaincodeStub#getHistoryForKey(String)
+     */
+    CompletableFuture<List<KeyModification>> getHistoryForKey(String key);
+
+    /**
+     * @see ChaincodeStub#getPrivateData(String, String)
+     */
+    CompletableFuture<byte[]> getPrivateData(String collection, String key);
+
+    /**
+     * @see ChaincodeStub#putPrivateData(String, String, byte[])
+     */
+    CompletableFuture<Void> putPrivateData(String collection, String key, byte[] value);
+
+    /**
+     * @see ChaincodeStub#delPrivateData(String, String)
+     */
+    CompletableFuture<Void> delPrivateData(String collection, String key);
+
+    /**
+     * @see ChaincodeStub#getPrivateDataByRange(String, String, String)
+     */
+    CompletableFuture<List<KeyValue>> getPrivateDataByRange(String collection, String startKey, String endKey);
+
+    /**
+     * @see ChaincodeStub#getPrivateDataByPartialCompositeKey(String, CompositeKey)
+     */
+    CompletableFuture<List<KeyValue>> getPrivateDataByPartialCompositeKey(String collection, CompositeKey compositeKey);
+
+    /**
+     * @see ChaincodeStub#getPrivateDataQueryResult(String, String)
+     */
+    CompletableFuture<List<KeyValue>> getPrivateDataQueryResult(String collection, String query);
+
+    /**
+     * @see ChaincodeStub#setEvent(String, byte[])
+     */
+    void setEvent(String name, byte[] payload);
+
+    /**
+     * @see ChaincodeStub#getEvent()
+     */
+    ChaincodeEvent getEvent();
+
+    /**
+     * @see ChaincodeStub#getSignedProposal()
+     */
+    SignedProposal getSignedProposal();
+
+    /**
+     * @see ChaincodeStub#getTxTimestamp()
+     */
+    Instant getTxTimestamp();
+
+    /**
+     * @see ChaincodeStub#getCreator()
+     */
+    byte[] getCreator();
+
+    /**
+     * @see ChaincodeStub#getTransient()
+     */
+    Map<String, byte[]> getTransient();
+
+    /**
+     * @see ChaincodeStub#getBinding()
+     */
+    byte[] getBinding();
+
+    default CompletableFuture<Response> invokeChaincode(String chaincodeName, List<byte[]> args) {
+        return invokeChaincode(chaincodeName, args, null);
+    }
+
+    default CompletableFuture<String> getStringState(String key) {
+        return getState(key).thenApply(value -> new String(value, UTF_8));
+    }
+
+    default CompletableFuture<Void> putStringState(String key, String value) {
+        return putState(key, value.getBytes(UTF_8));
+    }
+
+    default CompletableFuture<List<KeyValue>> getStateByPartialCompositeKey(String objectType, String... attributes) {
+        return getStateByPartialCompositeKey(createCompositeKey(objectType, attributes));
+    }
+
+}
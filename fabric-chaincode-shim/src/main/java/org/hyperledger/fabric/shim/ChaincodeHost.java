@@ -0,0 +1,174 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim;
+
+import io.grpc.ManagedChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
+import org.hyperledger.fabric.shim.impl.ChaincodeSupportStream;
+import org.hyperledger.fabric.shim.impl.Handler;
+import org.hyperledger.fabric.shim.impl.HandlerOptions;
+import org.hyperledger.fabric.shim.impl.LocalInvocations;
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * Runs several chaincodes in one process, each registered with the peer under its own
+ * chaincode id. The chaincodes share one Netty event loop, the pools running their init
+ * and invoke calls, one per {@link ExecutionClass}, the async and timeout executors, and
+ * one metrics registry in which the metrics of each chaincode are prefixed with its name. When one of them invokes
+ * another, it takes the response of the callee over once the peer answered, instead of
+ * parsing it from the peer's message, see {@link LocalInvocations}.
+ * <p>
+ * The peer address, TLS, reconnect and tuning options are read from the environment and
+ * the command line like for a single {@link ChaincodeBase}, and apply to every chaincode.
+ * The chaincode id option is ignored. Server mode is not supported, as the peer could
+ * not tell which chaincode it connects to. With a trace directory, the messages of each
+ * chaincode are recorded in a subdirectory named after it, with the file limits applying
+ * to each of them.
+ * <pre>
+ * new ChaincodeHost()
+ *         .register("fabcar", new FabCar())
+ *         .register("marbles", new Marbles())
+ *         .start(args);
+ * </pre>
+ */
+public class ChaincodeHost {
+
+    private static Log logger = LogFactory.getLog(ChaincodeHost.class);
+
+    // Chaincode or AsyncChaincode of each name
+    private final Map<String, Object> chaincodes = new LinkedHashMap<>();
+    private final ChaincodeSettings settings = new ChaincodeSettings();
+    private EventLoopGroup eventLoopGroup;
+    private HandlerOptions sharedOptions;
+    private LocalInvocations localInvocations;
+
+    /**
+     * @param name      chaincode id the chaincode registers with
+     * @param chaincode the chaincode, for example a {@link ChaincodeBase}
+     */
+    public ChaincodeHost register(String name, Chaincode chaincode) {
+        return add(name, chaincode);
+    }
+
+    /**
+     * @param name      chaincode id the chaincode registers with
+     * @param chaincode the chaincode, for example an {@link AsyncChaincodeBase}
+     */
+    public ChaincodeHost register(String name, AsyncChaincode chaincode) {
+        return add(name, chaincode);
+    }
+
+    private synchronized ChaincodeHost add(String name, Object chaincode) {
+        if (name == null || name.isEmpty()) throw new IllegalArgumentException("name must not be empty");
+        if (chaincode == null) throw new IllegalArgumentException("chaincode must not be null");
+        if (chaincodes.containsKey(name)) {
+            throw new IllegalArgumentException(format("A chaincode named %s is already registered", name));
+        }
+        chaincodes.put(name, chaincode);
+        return this;
+    }
+
+    /**
+     * Connects every registered chaincode to the peer.
+     *
+     * @param args command line arguments
+     */
+    public void start(String[] args) {
+        start(args, null);
+    }
+
+    /**
+     * Connects every registered chaincode to the peer through a channel of its own from
+     * the given builders, instead of the configured peer address, see
+     * {@link ChaincodeBase#start(String[], ManagedChannelBuilder)}.
+     *
+     * @param args            command line arguments
+     * @param channelBuilders builder of the channel to the peer of each chaincode id, or null to use the configured peer address
+     */
+    public synchronized void start(String[] args, Function<ChaincodeID, ManagedChannelBuilder<?>> channelBuilders) {
+        try {
+            if (chaincodes.isEmpty()) {
+                throw new IllegalStateException("No chaincode is registered");
+            }
+            settings.processEnvironmentOptions();
+            settings.processCommandLineOptions(args);
+            settings.initializeLogging(chaincodes.values().stream().map(Object::getClass).toArray(Class<?>[]::new));
+            settings.validateTlsOptions();
+            if (settings.isServerMode()) {
+                throw new IllegalStateException("Several chaincodes cannot share a chaincode server, they must connect to the peer");
+            }
+            settings.startMetricsLogging();
+            for (Map.Entry<String, Object> entry : chaincodes.entrySet()) {
+                final ChaincodeID chaincodeId = ChaincodeID.newBuilder().setName(entry.getKey()).build();
+                final ManagedChannelBuilder<?> channelBuilder = channelBuilders != null ? channelBuilders.apply(chaincodeId) : settings.newChannelBuilder(getEventLoopGroup());
+                final HandlerOptions options = newHandlerOptions(entry.getKey());
+                final Handler handler = entry.getValue() instanceof AsyncChaincode
+                        ? new Handler(chaincodeId, (AsyncChaincode) entry.getValue(), options)
+                        : new Handler(chaincodeId, (Chaincode) entry.getValue(), options);
+                new ChaincodeSupportStream(channelBuilder, handler::onChaincodeMessage, handler::nextOutboundChaincodeMessage, handler::onStreamReset, settings.newReconnectBackoff(), settings.newMessageRecorder(entry.getKey()));
+                logger.info(format("Chaincode %s started", entry.getKey()));
+            }
+        } catch (Exception e) {
+            logger.fatal("Chaincodes could not start", e);
+        }
+    }
+
+    /**
+     * @return registry holding the metrics of every chaincode of this host
+     */
+    public MetricsRegistry getMetrics() {
+        return settings.getMetrics();
+    }
+
+    /**
+     * @return options of the handler of the named chaincode, sharing the executors of every
+     * other chaincode. Chaincodes registered later are not invoked locally.
+     */
+    synchronized HandlerOptions newHandlerOptions(String name) {
+        if (sharedOptions == null) {
+            sharedOptions = settings.newHandlerOptions();
+            localInvocations = new LocalInvocations(chaincodes.keySet());
+        }
+        final Object chaincode = chaincodes.get(name);
+        final ExecutionClassifier classifier;
+        if (chaincode instanceof ChaincodeBase) {
+            classifier = ((ChaincodeBase) chaincode).getExecutionClassifier();
+        } else if (chaincode instanceof AsyncChaincodeBase) {
+            classifier = ((AsyncChaincodeBase) chaincode).getExecutionClassifier();
+        } else {
+            classifier = null;
+        }
+        final HandlerOptions options = settings.newHandlerOptions()
+                .setExecutionClassifier(classifier)
+                .setMetrics(settings.getMetrics().withPrefix(name))
+                .setAsyncExecutor(sharedOptions.getAsyncExecutor())
+                .setTimeoutScheduler(sharedOptions.getTimeoutScheduler())
+                .setLocalInvocations(localInvocations);
+        for (ExecutionClass executionClass : ExecutionClass.values()) {
+            options.setDispatchExecutor(executionClass, sharedOptions.getDispatchExecutor(executionClass));
+        }
+        return options;
+    }
+
+    private synchronized EventLoopGroup getEventLoopGroup() {
+        if (eventLoopGroup == null) {
+            eventLoopGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("chaincode-netty", true));
+        }
+        return eventLoopGroup;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim;
+
+import io.grpc.ManagedChannelBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
+import org.hyperledger.fabric.shim.impl.ChaincodeSupportServer;
+import org.hyperledger.fabric.shim.impl.ChaincodeSupportStream;
+import org.hyperledger.fabric.shim.impl.Handler;
+import org.hyperledger.fabric.shim.impl.HandlerOptions;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Start-up shared by {@link ChaincodeBase} and {@link AsyncChaincodeBase}: reads the options
+ * of a chaincode, then connects it to the peer, or serves it in server mode, with a
+ * {@link Handler} calling it synchronously or asynchronously.
+ */
+final class ChaincodeLauncher {
+
+    private static Log logger = LogFactory.getLog(ChaincodeLauncher.class);
+
+    private final ChaincodeSettings settings;
+    // either chaincode or asyncChaincode is set
+    private final Chaincode chaincode;
+    private final AsyncChaincode asyncChaincode;
+    private final Map<String, ExecutionClass> executionClasses = new ConcurrentHashMap<>();
+
+    ChaincodeLauncher(ChaincodeSettings settings, Chaincode chaincode) {
+        this.settings = settings;
+        this.chaincode = chaincode;
+        this.asyncChaincode = null;
+    }
+
+    ChaincodeLauncher(ChaincodeSettings settings, AsyncChaincode asyncChaincode) {
+        this.settings = settings;
+        this.chaincode = null;
+        this.asyncChaincode = asyncChaincode;
+    }
+
+    /**
+     * @param args           command line arguments
+     * @param channelBuilder builder of the channel to the peer, or null to use the configured peer address
+     */
+    void start(String[] args, ManagedChannelBuilder<?> channelBuilder) {
+        try {
+            settings.processEnvironmentOptions();
+            settings.processCommandLineOptions(args);
+            settings.initializeLogging(chaincode != null ? chaincode.getClass() : asyncChaincode.getClass());
+            settings.validateOptions();
+            final ChaincodeID chaincodeId = ChaincodeID.newBuilder().setName(settings.getId()).build();
+            settings.startMetricsLogging();
+            final HandlerOptions options = newHandlerOptions();
+            if (settings.isServerMode()) {
+                final ChaincodeSupportServer server = chaincode != null
+                        ? new ChaincodeSupportServer(settings.newServerBuilder(), chaincodeId, chaincode, options)
+                        : new ChaincodeSupportServer(settings.newServerBuilder(), chaincodeId, asyncChaincode, options);
+                server.start();
+            } else {
+                final ManagedChannelBuilder<?> peerChannelBuilder = channelBuilder != null ? channelBuilder : settings.newChannelBuilder();
+                final Handler handler = chaincode != null
+                        ? new Handler(chaincodeId, chaincode, options)
+                        : new Handler(chaincodeId, asyncChaincode, options);
+                new ChaincodeSupportStream(peerChannelBuilder, handler::onChaincodeMessage, handler::nextOutboundChaincodeMessage, handler::onStreamReset, settings.newReconnectBackoff(), settings.newMessageRecorder());
+            }
+        } catch (Exception e) {
+            logger.fatal("Chaincode could not start", e);
+        }
+    }
+
+    HandlerOptions newHandlerOptions() {
+        return settings.newHandlerOptions()
+                .setExecutionClassifier(getExecutionClassifier());
+    }
+
+    void registerExecutionClass(String function, ExecutionClass executionClass) {
+        if (function == null) throw new IllegalArgumentException("function must not be null");
+        if (executionClass == null) throw new IllegalArgumentException("executionClass must not be null");
+        executionClasses.put(function, executionClass);
+    }
+
+    /**
+     * @return classifier of the functions declared with {@link #registerExecutionClass}
+     */
+    ExecutionClassifier getExecutionClassifier() {
+        return executionClasses::get;
+    }
+
+}
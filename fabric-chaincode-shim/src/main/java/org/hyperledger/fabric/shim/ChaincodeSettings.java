@@ -0,0 +1,576 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim;
+
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.ServerBuilder;
+import io.grpc.netty.GrpcSslContexts;
+import io.grpc.netty.NegotiationType;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.SslContext;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.hyperledger.fabric.shim.impl.HandlerOptions;
+import org.hyperledger.fabric.shim.impl.MessageRecorder;
+import org.hyperledger.fabric.shim.impl.ReconnectBackoff;
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Security;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import static java.lang.String.format;
+import static java.util.logging.Level.ALL;
+
+/**
+ * Options of a chaincode process, read from the environment and the command line, and the
+ * channels, servers and handler options built from them. Used by {@link ChaincodeBase} for
+ * its chaincode and by {@link ChaincodeHost} for every chaincode it hosts.
+ */
+final class ChaincodeSettings {
+
+    private static Log logger = LogFactory.getLog(ChaincodeSettings.class);
+
+    private static final String CORE_CHAINCODE_ID_NAME = "CORE_CHAINCODE_ID_NAME";
+    private static final String CORE_PEER_ADDRESS = "CORE_PEER_ADDRESS";
+    private static final String CORE_PEER_TLS_ENABLED = "CORE_PEER_TLS_ENABLED";
+    private static final String CORE_PEER_TLS_ROOTCERT_FILE = "CORE_PEER_TLS_ROOTCERT_FILE";
+    private static final String ENV_TLS_CLIENT_KEY_PATH = "CORE_TLS_CLIENT_KEY_PATH";
+    private static final String ENV_TLS_CLIENT_CERT_PATH = "CORE_TLS_CLIENT_CERT_PATH";
+    private static final String CORE_CHAINCODE_SERVER_ADDRESS = "CORE_CHAINCODE_SERVER_ADDRESS";
+    // PEM key and certificate chain the chaincode server presents to the peer
+    private static final String CORE_CHAINCODE_SERVER_TLS_KEY_PATH = "CORE_CHAINCODE_SERVER_TLS_KEY_PATH";
+    private static final String CORE_CHAINCODE_SERVER_TLS_CERT_PATH = "CORE_CHAINCODE_SERVER_TLS_CERT_PATH";
+    private static final String CORE_CHAINCODE_RECONNECT_ENABLED = "CORE_CHAINCODE_RECONNECT_ENABLED";
+    private static final String CORE_CHAINCODE_RECONNECT_INITIAL_DELAY = "CORE_CHAINCODE_RECONNECT_INITIAL_DELAY";
+    private static final String CORE_CHAINCODE_RECONNECT_MAX_DELAY = "CORE_CHAINCODE_RECONNECT_MAX_DELAY";
+    private static final String CORE_CHAINCODE_RECONNECT_MAX_ATTEMPTS = "CORE_CHAINCODE_RECONNECT_MAX_ATTEMPTS";
+    private static final String CORE_CHAINCODE_OUTBOUND_PRIORITY_ENABLED = "CORE_CHAINCODE_OUTBOUND_PRIORITY_ENABLED";
+    private static final String CORE_CHAINCODE_OUTBOUND_MAX_BYPASS = "CORE_CHAINCODE_OUTBOUND_MAX_BYPASS";
+    private static final String CORE_CHAINCODE_METRICS_LOG_INTERVAL = "CORE_CHAINCODE_METRICS_LOG_INTERVAL";
+    private static final String CORE_CHAINCODE_ASYNC_THREADS = "CORE_CHAINCODE_ASYNC_THREADS";
+    // milliseconds, unset or 0 to wait for the peer and run transactions without a deadline
+    private static final String CORE_CHAINCODE_REQUEST_TIMEOUT = "CORE_CHAINCODE_REQUEST_TIMEOUT";
+    private static final String CORE_CHAINCODE_TRANSACTION_TIMEOUT = "CORE_CHAINCODE_TRANSACTION_TIMEOUT";
+    private static final String CORE_CHAINCODE_MAX_CONCURRENCY = "CORE_CHAINCODE_MAX_CONCURRENCY";
+    // transactions waiting to start over all channels, see CORE_CHAINCODE_CHANNEL_MAX_QUEUED for a bound per channel
+    private static final String CORE_CHAINCODE_MAX_QUEUED = "CORE_CHAINCODE_MAX_QUEUED";
+    private static final String CORE_CHAINCODE_MAX_QUEUE_TIME = "CORE_CHAINCODE_MAX_QUEUE_TIME";
+    private static final String CORE_CHAINCODE_ADAPTIVE_CONCURRENCY_ENABLED = "CORE_CHAINCODE_ADAPTIVE_CONCURRENCY_ENABLED";
+    // followed by the name of an ExecutionClass, e.g. CORE_CHAINCODE_MAX_CONCURRENCY_READ_ONLY
+    private static final String CORE_CHAINCODE_MAX_CONCURRENCY_PREFIX = "CORE_CHAINCODE_MAX_CONCURRENCY_";
+    private static final String CORE_CHAINCODE_CHANNEL_MAX_CONCURRENCY = "CORE_CHAINCODE_CHANNEL_MAX_CONCURRENCY";
+    private static final String CORE_CHAINCODE_CHANNEL_MAX_QUEUED = "CORE_CHAINCODE_CHANNEL_MAX_QUEUED";
+    // comma separated channel=weight pairs, e.g. CORE_CHAINCODE_CHANNEL_WEIGHTS=ch1=3,ch2=1
+    private static final String CORE_CHAINCODE_CHANNEL_WEIGHTS = "CORE_CHAINCODE_CHANNEL_WEIGHTS";
+    private static final String CORE_CHAINCODE_MAX_PREFETCH_KEYS = "CORE_CHAINCODE_MAX_PREFETCH_KEYS";
+    private static final String CORE_CHAINCODE_PREFETCH_TRANSIENT_ENABLED = "CORE_CHAINCODE_PREFETCH_TRANSIENT_ENABLED";
+    // directory to record the messages exchanged with the peer to, see TraceReplayer. The traces
+    // hold the arguments, transient data, and the public and private data read and written, in
+    // clear: the directory must be as protected as the ledger and its contents deleted after use
+    private static final String CORE_CHAINCODE_TRACE_DIR = "CORE_CHAINCODE_TRACE_DIR";
+    private static final String CORE_CHAINCODE_TRACE_MAX_FILE_SIZE = "CORE_CHAINCODE_TRACE_MAX_FILE_SIZE";
+    private static final String CORE_CHAINCODE_TRACE_MAX_FILES = "CORE_CHAINCODE_TRACE_MAX_FILES";
+
+    private String host = ChaincodeBase.DEFAULT_HOST;
+    private int port = ChaincodeBase.DEFAULT_PORT;
+    private boolean tlsEnabled = false;
+    private String tlsClientKeyPath;
+    private String tlsClientCertPath;
+    private String tlsClientRootCertPath;
+    private String tlsServerKeyPath;
+    private String tlsServerCertPath;
+    private String serverHost;
+    private int serverPort;
+    private boolean reconnectEnabled = false;
+    private long reconnectInitialDelay = ReconnectBackoff.DEFAULT_INITIAL_DELAY;
+    private long reconnectMaxDelay = ReconnectBackoff.DEFAULT_MAX_DELAY;
+    private int reconnectMaxAttempts = ReconnectBackoff.DEFAULT_MAX_ATTEMPTS;
+    private boolean outboundPriorityEnabled = false;
+    private int outboundMaxBypass = HandlerOptions.DEFAULT_OUTBOUND_MAX_BYPASS;
+    private long metricsLogInterval = 0;
+    private int asyncThreads = HandlerOptions.DEFAULT_ASYNC_THREADS;
+    private long requestTimeout = HandlerOptions.DEFAULT_REQUEST_TIMEOUT;
+    private long transactionTimeout = HandlerOptions.DEFAULT_TRANSACTION_TIMEOUT;
+    private int maxConcurrency = HandlerOptions.DEFAULT_MAX_CONCURRENCY;
+    private int maxQueued = HandlerOptions.DEFAULT_MAX_QUEUED;
+    private long maxQueueTime = HandlerOptions.DEFAULT_MAX_QUEUE_TIME;
+    private boolean adaptiveConcurrencyEnabled = false;
+    private final Map<ExecutionClass, Integer> executionClassMaxConcurrency = new EnumMap<>(ExecutionClass.class);
+    private int channelMaxConcurrency = 0;
+    private int channelMaxQueued = 0;
+    private final Map<String, Integer> channelWeights = new HashMap<>();
+    private int maxPrefetchKeys = HandlerOptions.DEFAULT_MAX_PREFETCH_KEYS;
+    private boolean prefetchTransientEnabled = false;
+    private String traceDir;
+    private long traceMaxFileSize = MessageRecorder.DEFAULT_MAX_FILE_SIZE;
+    private int traceMaxFiles = MessageRecorder.DEFAULT_MAX_FILES;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    private String id;
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    /**
+     * @param chaincodeClasses classes of the chaincodes whose packages log at the chaincode logging level
+     */
+    void initializeLogging(Class<?>... chaincodeClasses) {
+        System.setProperty("java.util.logging.SimpleFormatter.format", "%1$tH:%1$tM:%1$tS:%1$tL %4$-7.7s %2$s %5$s%6$s%n");
+        final Logger rootLogger = Logger.getLogger("");
+        for (java.util.logging.Handler handler : rootLogger.getHandlers()) {
+            handler.setLevel(ALL);
+            handler.setFormatter(new SimpleFormatter() {
+                @Override
+                public synchronized String format(LogRecord record) {
+                    return super.format(record)
+                            .replaceFirst(".*SEVERE\\s*\\S*\\s*\\S*", "\u001B[1;31m$0\u001B[0m")
+                            .replaceFirst(".*WARNING\\s*\\S*\\s*\\S*", "\u001B[1;33m$0\u001B[0m")
+                            .replaceFirst(".*CONFIG\\s*\\S*\\s*\\S*", "\u001B[35m$0\u001B[0m")
+                            .replaceFirst(".*FINE\\s*\\S*\\s*\\S*", "\u001B[36m$0\u001B[0m")
+                            .replaceFirst(".*FINER\\s*\\S*\\s*\\S*", "\u001B[36m$0\u001B[0m")
+                            .replaceFirst(".*FINEST\\s*\\S*\\s*\\S*", "\u001B[36m$0\u001B[0m");
+                }
+            });
+        }
+        // set logging level of chaincode logger
+        Level chaincodeLogLevel = mapLevel(System.getenv(ChaincodeBase.CORE_CHAINCODE_LOGGING_LEVEL));
+        for (Class<?> chaincodeClass : chaincodeClasses) {
+            Package chaincodePackage = chaincodeClass.getPackage();
+            if (chaincodePackage != null) {
+                Logger.getLogger(chaincodePackage.getName()).setLevel(chaincodeLogLevel);
+            } else {
+                // If chaincode declared without package, i.e. default package, lets set level to root logger
+                // Chaincode should never be declared without package
+                Logger.getLogger("").setLevel(chaincodeLogLevel);
+            }
+        }
+
+        // set logging level of shim logger
+        Level shimLogLevel = mapLevel(System.getenv(ChaincodeBase.CORE_CHAINCODE_LOGGING_SHIM));
+        Logger.getLogger(ChaincodeBase.class.getPackage().getName()).setLevel(shimLogLevel);
+    }
+
+    private Level mapLevel(String level) {
+        if (level != null) {
+            switch (level) {
+                case "CRITICAL":
+                case "ERROR":
+                    return Level.SEVERE;
+                case "WARNING":
+                    return Level.WARNING;
+                case "INFO":
+                    return Level.INFO;
+                case "NOTICE":
+                    return Level.CONFIG;
+                case "DEBUG":
+                    return Level.FINEST;
+            }
+        }
+        return Level.INFO;
+    }
+
+    void validateOptions() {
+        if (this.id == null) {
+            throw new IllegalArgumentException(format("The chaincode id must be specified using either the -i or --i command line options or the %s environment variable.", CORE_CHAINCODE_ID_NAME));
+        }
+        validateTlsOptions();
+    }
+
+    void validateTlsOptions() {
+        if (this.tlsEnabled) {
+            if (isServerMode()) {
+                if (tlsServerCertPath == null) {
+                    throw new IllegalArgumentException(format("Server key certificate chain (%s) was not specified.", CORE_CHAINCODE_SERVER_TLS_CERT_PATH));
+                }
+                if (tlsServerKeyPath == null) {
+                    throw new IllegalArgumentException(format("Server key (%s) was not specified.", CORE_CHAINCODE_SERVER_TLS_KEY_PATH));
+                }
+            } else {
+                if (tlsClientCertPath == null) {
+                    throw new IllegalArgumentException(format("Client key certificate chain (%s) was not specified.", ENV_TLS_CLIENT_CERT_PATH));
+                }
+                if (tlsClientKeyPath == null) {
+                    throw new IllegalArgumentException(format("Client key (%s) was not specified.", ENV_TLS_CLIENT_KEY_PATH));
+                }
+            }
+            if (tlsClientRootCertPath == null) {
+                throw new IllegalArgumentException(format("Peer certificate trust store (%s) was not specified.", CORE_PEER_TLS_ROOTCERT_FILE));
+            }
+        }
+    }
+
+    void processCommandLineOptions(String[] args) {
+        Options options = new Options();
+        options.addOption("a", "peer.address", true, "Address of peer to connect to");
+        options.addOption(null, "peerAddress", true, "Address of peer to connect to");
+        options.addOption("i", "id", true, "Identity of chaincode");
+        options.addOption("s", "server.address", true, "Address to accept peer connections on, instead of connecting to the peer");
+
+        try {
+            CommandLine cl = new DefaultParser().parse(options, args);
+            if (cl.hasOption("peerAddress") || cl.hasOption('a')) {
+                String hostAddrStr;
+                if (cl.hasOption('a')) {
+                    hostAddrStr = cl.getOptionValue('a');
+                } else {
+                    hostAddrStr = cl.getOptionValue("peerAddress");
+                }
+                String[] hostArr = hostAddrStr.split(":");
+                if (hostArr.length == 2) {
+                    port = Integer.valueOf(hostArr[1].trim());
+                    host = hostArr[0].trim();
+                } else {
+                    String msg = String.format("peer address argument should be in host:port format, current %s in wrong", hostAddrStr);
+                    logger.error(msg);
+                    throw new IllegalArgumentException(msg);
+                }
+            }
+            if (cl.hasOption('i')) {
+                id = cl.getOptionValue('i');
+            }
+            if (cl.hasOption('s')) {
+                String serverAddrStr = cl.getOptionValue('s');
+                String[] serverArr = serverAddrStr.split(":");
+                if (serverArr.length == 2) {
+                    serverPort = Integer.valueOf(serverArr[1].trim());
+                    serverHost = serverArr[0].trim();
+                } else {
+                    String msg = String.format("server address argument should be in host:port format, current %s in wrong", serverAddrStr);
+                    logger.error(msg);
+                    throw new IllegalArgumentException(msg);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("cli parsing failed with exception", e);
+        }
+
+        logger.info("<<<<<<<<<<<<<CommandLine options>>>>>>>>>>>>");
+        logger.info("CORE_CHAINCODE_ID_NAME: " + this.id);
+        logger.info("CORE_PEER_ADDRESS: " + this.host + ":" + this.port);
+        logger.info("CORE_PEER_TLS_ENABLED: " + this.tlsEnabled);
+        logger.info("CORE_PEER_TLS_ROOTCERT_FILE" + this.tlsClientRootCertPath);
+        logger.info("CORE_TLS_CLIENT_KEY_PATH" + this.tlsClientKeyPath);
+        logger.info("CORE_TLS_CLIENT_CERT_PATH" + this.tlsClientCertPath);
+        logger.info("CORE_CHAINCODE_SERVER_ADDRESS: " + (isServerMode() ? this.serverHost + ":" + this.serverPort : null));
+    }
+
+    void processEnvironmentOptions() {
+        if (System.getenv().containsKey(CORE_CHAINCODE_ID_NAME)) {
+            this.id = System.getenv(CORE_CHAINCODE_ID_NAME);
+        }
+        if (System.getenv().containsKey(CORE_PEER_ADDRESS)) {
+            String[] hostArr = System.getenv(CORE_PEER_ADDRESS).split(":");
+            if (hostArr.length == 2) {
+                this.port = Integer.valueOf(hostArr[1].trim());
+                this.host = hostArr[0].trim();
+            } else {
+                String msg = String.format("peer address argument should be in host:port format, ignoring current %s", System.getenv(CORE_PEER_ADDRESS));
+                logger.error(msg);
+            }
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_SERVER_ADDRESS)) {
+            String[] serverArr = System.getenv(CORE_CHAINCODE_SERVER_ADDRESS).split(":");
+            if (serverArr.length == 2) {
+                this.serverPort = Integer.valueOf(serverArr[1].trim());
+                this.serverHost = serverArr[0].trim();
+            } else {
+                String msg = String.format("server address argument should be in host:port format, ignoring current %s", System.getenv(CORE_CHAINCODE_SERVER_ADDRESS));
+                logger.error(msg);
+            }
+        }
+        this.tlsEnabled = Boolean.parseBoolean(System.getenv(CORE_PEER_TLS_ENABLED));
+        if (this.tlsEnabled) {
+            this.tlsClientRootCertPath = System.getenv(CORE_PEER_TLS_ROOTCERT_FILE);
+            this.tlsClientKeyPath = System.getenv(ENV_TLS_CLIENT_KEY_PATH);
+            this.tlsClientCertPath = System.getenv(ENV_TLS_CLIENT_CERT_PATH);
+            this.tlsServerKeyPath = System.getenv(CORE_CHAINCODE_SERVER_TLS_KEY_PATH);
+            this.tlsServerCertPath = System.getenv(CORE_CHAINCODE_SERVER_TLS_CERT_PATH);
+        }
+        this.reconnectEnabled = Boolean.parseBoolean(System.getenv(CORE_CHAINCODE_RECONNECT_ENABLED));
+        if (System.getenv().containsKey(CORE_CHAINCODE_RECONNECT_INITIAL_DELAY)) {
+            this.reconnectInitialDelay = Long.parseLong(System.getenv(CORE_CHAINCODE_RECONNECT_INITIAL_DELAY).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_RECONNECT_MAX_DELAY)) {
+            this.reconnectMaxDelay = Long.parseLong(System.getenv(CORE_CHAINCODE_RECONNECT_MAX_DELAY).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_RECONNECT_MAX_ATTEMPTS)) {
+            this.reconnectMaxAttempts = Integer.parseInt(System.getenv(CORE_CHAINCODE_RECONNECT_MAX_ATTEMPTS).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_OUTBOUND_PRIORITY_ENABLED)) {
+            this.outboundPriorityEnabled = Boolean.parseBoolean(System.getenv(CORE_CHAINCODE_OUTBOUND_PRIORITY_ENABLED));
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_OUTBOUND_MAX_BYPASS)) {
+            this.outboundMaxBypass = Integer.parseInt(System.getenv(CORE_CHAINCODE_OUTBOUND_MAX_BYPASS).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_METRICS_LOG_INTERVAL)) {
+            this.metricsLogInterval = Long.parseLong(System.getenv(CORE_CHAINCODE_METRICS_LOG_INTERVAL).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_ASYNC_THREADS)) {
+            this.asyncThreads = Integer.parseInt(System.getenv(CORE_CHAINCODE_ASYNC_THREADS).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_REQUEST_TIMEOUT)) {
+            this.requestTimeout = Long.parseLong(System.getenv(CORE_CHAINCODE_REQUEST_TIMEOUT).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_TRANSACTION_TIMEOUT)) {
+            this.transactionTimeout = Long.parseLong(System.getenv(CORE_CHAINCODE_TRANSACTION_TIMEOUT).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_MAX_CONCURRENCY)) {
+            this.maxConcurrency = Integer.parseInt(System.getenv(CORE_CHAINCODE_MAX_CONCURRENCY).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_MAX_QUEUED)) {
+            this.maxQueued = Integer.parseInt(System.getenv(CORE_CHAINCODE_MAX_QUEUED).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_MAX_QUEUE_TIME)) {
+            this.maxQueueTime = Long.parseLong(System.getenv(CORE_CHAINCODE_MAX_QUEUE_TIME).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_ADAPTIVE_CONCURRENCY_ENABLED)) {
+            this.adaptiveConcurrencyEnabled = Boolean.parseBoolean(System.getenv(CORE_CHAINCODE_ADAPTIVE_CONCURRENCY_ENABLED));
+        }
+        for (ExecutionClass executionClass : ExecutionClass.values()) {
+            final String variable = CORE_CHAINCODE_MAX_CONCURRENCY_PREFIX + executionClass.name();
+            if (System.getenv().containsKey(variable)) {
+                this.executionClassMaxConcurrency.put(executionClass, Integer.parseInt(System.getenv(variable).trim()));
+            }
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_CHANNEL_MAX_CONCURRENCY)) {
+            this.channelMaxConcurrency = Integer.parseInt(System.getenv(CORE_CHAINCODE_CHANNEL_MAX_CONCURRENCY).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_CHANNEL_MAX_QUEUED)) {
+            this.channelMaxQueued = Integer.parseInt(System.getenv(CORE_CHAINCODE_CHANNEL_MAX_QUEUED).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_CHANNEL_WEIGHTS)) {
+            for (String pair : System.getenv(CORE_CHAINCODE_CHANNEL_WEIGHTS).split(",")) {
+                if (pair.trim().isEmpty()) {
+                    continue;
+                }
+                final String[] channelWeight = pair.split("=");
+                if (channelWeight.length != 2) {
+                    throw new IllegalArgumentException(format("%s must hold channel=weight pairs, got %s", CORE_CHAINCODE_CHANNEL_WEIGHTS, pair));
+                }
+                this.channelWeights.put(channelWeight[0].trim(), Integer.parseInt(channelWeight[1].trim()));
+            }
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_MAX_PREFETCH_KEYS)) {
+            this.maxPrefetchKeys = Integer.parseInt(System.getenv(CORE_CHAINCODE_MAX_PREFETCH_KEYS).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_PREFETCH_TRANSIENT_ENABLED)) {
+            this.prefetchTransientEnabled = Boolean.parseBoolean(System.getenv(CORE_CHAINCODE_PREFETCH_TRANSIENT_ENABLED));
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_TRACE_DIR)) {
+            this.traceDir = System.getenv(CORE_CHAINCODE_TRACE_DIR);
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_TRACE_MAX_FILE_SIZE)) {
+            this.traceMaxFileSize = Long.parseLong(System.getenv(CORE_CHAINCODE_TRACE_MAX_FILE_SIZE).trim());
+        }
+        if (System.getenv().containsKey(CORE_CHAINCODE_TRACE_MAX_FILES)) {
+            this.traceMaxFiles = Integer.parseInt(System.getenv(CORE_CHAINCODE_TRACE_MAX_FILES).trim());
+        }
+
+        logger.info("<<<<<<<<<<<<<Enviromental options>>>>>>>>>>>>");
+        logger.info("CORE_CHAINCODE_ID_NAME: " + this.id);
+        logger.info("CORE_PEER_ADDRESS: " + this.host);
+        logger.info("CORE_PEER_TLS_ENABLED: " + this.tlsEnabled);
+        logger.info("CORE_PEER_TLS_ROOTCERT_FILE" + this.tlsClientRootCertPath);
+        logger.info("CORE_TLS_CLIENT_KEY_PATH" + this.tlsClientKeyPath);
+        logger.info("CORE_TLS_CLIENT_CERT_PATH" + this.tlsClientCertPath);
+        logger.info("CORE_CHAINCODE_SERVER_ADDRESS: " + (isServerMode() ? this.serverHost + ":" + this.serverPort : null));
+        logger.info("CORE_CHAINCODE_SERVER_TLS_KEY_PATH: " + this.tlsServerKeyPath);
+        logger.info("CORE_CHAINCODE_SERVER_TLS_CERT_PATH: " + this.tlsServerCertPath);
+        logger.info("CORE_CHAINCODE_RECONNECT_ENABLED: " + this.reconnectEnabled);
+        logger.info("CORE_CHAINCODE_OUTBOUND_PRIORITY_ENABLED: " + this.outboundPriorityEnabled);
+        logger.info("CORE_CHAINCODE_METRICS_LOG_INTERVAL: " + this.metricsLogInterval);
+        logger.info("CORE_CHAINCODE_TRACE_DIR: " + this.traceDir);
+    }
+
+    HandlerOptions newHandlerOptions() {
+        final HandlerOptions options = new HandlerOptions()
+                .setMetrics(metrics)
+                .setOutboundPriorityEnabled(outboundPriorityEnabled)
+                .setOutboundMaxBypass(outboundMaxBypass)
+                .setAsyncThreads(asyncThreads)
+                .setRequestTimeout(requestTimeout)
+                .setTransactionTimeout(transactionTimeout)
+                .setMaxConcurrency(maxConcurrency)
+                .setMaxQueued(maxQueued)
+                .setMaxQueueTime(maxQueueTime)
+                .setAdaptiveConcurrencyEnabled(adaptiveConcurrencyEnabled)
+                .setChannelMaxConcurrency(channelMaxConcurrency)
+                .setChannelMaxQueued(channelMaxQueued)
+                .setMaxPrefetchKeys(maxPrefetchKeys)
+                .setPrefetchTransientEnabled(prefetchTransientEnabled);
+        executionClassMaxConcurrency.forEach(options::setMaxConcurrency);
+        channelWeights.forEach(options::setChannelWeight);
+        return options;
+    }
+
+    void startMetricsLogging() {
+        if (metricsLogInterval > 0) {
+            metrics.startLogging(metricsLogInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    ReconnectBackoff newReconnectBackoff() {
+        if (!reconnectEnabled) {
+            return null;
+        }
+        logger.info(format("Chaincode stream reconnects after %d ms, backing off up to %d ms", reconnectInitialDelay, reconnectMaxDelay));
+        return new ReconnectBackoff(reconnectInitialDelay, reconnectMaxDelay, reconnectMaxAttempts);
+    }
+
+    MessageRecorder newMessageRecorder() throws IOException {
+        return newMessageRecorder(null);
+    }
+
+    /**
+     * @param subdirectory directory of the traces of one of several chaincodes under the
+     *                     trace directory, or null to record in the trace directory itself
+     */
+    MessageRecorder newMessageRecorder(String subdirectory) throws IOException {
+        if (traceDir == null || traceDir.trim().isEmpty()) {
+            return null;
+        }
+        final Path directory = subdirectory == null ? Paths.get(traceDir) : Paths.get(traceDir, subdirectory);
+        final MessageRecorder recorder = new MessageRecorder(directory, traceMaxFileSize, traceMaxFiles);
+        // the last messages are buffered until the recorder is closed
+        Runtime.getRuntime().addShutdownHook(new Thread(recorder::close));
+        return recorder;
+    }
+
+    ManagedChannelBuilder<?> newChannelBuilder() throws IOException {
+        return newChannelBuilder(null);
+    }
+
+    /**
+     * @param eventLoopGroup event loop shared with other channels, or null for the default one
+     */
+    ManagedChannelBuilder<?> newChannelBuilder(EventLoopGroup eventLoopGroup) throws IOException {
+        final NettyChannelBuilder builder = NettyChannelBuilder.forAddress(host, port);
+        logger.info("Configuring channel connection to peer.");
+        if (eventLoopGroup != null) {
+            builder.eventLoopGroup(eventLoopGroup).channelType(NioSocketChannel.class);
+        }
+
+        if (tlsEnabled) {
+            builder.negotiationType(NegotiationType.TLS);
+            builder.sslContext(createSSLContext());
+        } else {
+            builder.usePlaintext(true);
+        }
+        return builder;
+    }
+
+    ServerBuilder<?> newServerBuilder() throws IOException {
+        final NettyServerBuilder builder = NettyServerBuilder.forAddress(new InetSocketAddress(serverHost, serverPort));
+        logger.info("Configuring chaincode server for peer connections.");
+
+        if (tlsEnabled) {
+            builder.sslContext(createServerSSLContext());
+        }
+        return builder;
+    }
+
+    /**
+     * The server presents its own key pair, the client key pair identifies the chaincode
+     * to the peer it dials and is not meant for serving. The peer must present a client
+     * certificate issued by the peer root certificate.
+     */
+    SslContext createServerSSLContext() throws IOException {
+        return GrpcSslContexts.forServer(new File(this.tlsServerCertPath), new File(this.tlsServerKeyPath))
+                .trustManager(new File(this.tlsClientRootCertPath))
+                .clientAuth(ClientAuth.REQUIRE)
+                .build();
+    }
+
+    SslContext createSSLContext() throws IOException {
+        byte ckb[] = Files.readAllBytes(Paths.get(this.tlsClientKeyPath));
+        byte ccb[] = Files.readAllBytes(Paths.get(this.tlsClientCertPath));
+
+        return GrpcSslContexts.forClient()
+                .trustManager(new File(this.tlsClientRootCertPath))
+                .keyManager(
+                        new ByteArrayInputStream(Base64.getDecoder().decode(ccb)),
+                        new ByteArrayInputStream(Base64.getDecoder().decode(ckb)))
+                .build();
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    boolean isTlsEnabled() {
+        return tlsEnabled;
+    }
+
+    String getTlsClientKeyPath() {
+        return tlsClientKeyPath;
+    }
+
+    String getTlsClientCertPath() {
+        return tlsClientCertPath;
+    }
+
+    String getTlsClientRootCertPath() {
+        return tlsClientRootCertPath;
+    }
+
+    String getTlsServerKeyPath() {
+        return tlsServerKeyPath;
+    }
+
+    String getTlsServerCertPath() {
+        return tlsServerCertPath;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    boolean isServerMode() {
+        return serverHost != null;
+    }
+
+    String getServerHost() {
+        return serverHost;
+    }
+
+    int getServerPort() {
+        return serverPort;
+    }
+
+    boolean isReconnectEnabled() {
+        return reconnectEnabled;
+    }
+
+    MetricsRegistry getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim;
+
+/**
+ * Kind of work a chaincode call does. Each class runs on its own pool with its own
+ * concurrency limit, so that a flood of one kind cannot starve the others.
+ *
+ * @see ExecutionClassifier
+ */
+public enum ExecutionClass {
+
+    /**
+     * Chaincode init, used for every INIT.
+     */
+    INIT,
+
+    /**
+     * Short call that may write state, the default for invoke.
+     */
+    WRITE,
+
+    /**
+     * Call that only reads state. Writes and deletes are refused by the stub.
+     */
+    READ_ONLY,
+
+    /**
+     * Expensive call, such as a rich query or a long range scan, which may write state.
+     */
+    HEAVY
+
+}
@@ -0,0 +1,26 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim;
+
+/**
+ * Implemented by chaincode that declares the {@link ExecutionClass} of its functions.
+ * Invocations of chaincode that does not implement it are all {@link ExecutionClass#WRITE},
+ * unless it is a {@link ChaincodeBase} that registered the class of its functions.
+ *
+ * @see ChaincodeBase#registerExecutionClass(String, ExecutionClass)
+ */
+public interface ExecutionClassifier {
+
+    /**
+     * Called for every invoke before it is dispatched, so it must be cheap.
+     *
+     * @param function the first argument of the invocation
+     * @return the class of the function, null for {@link ExecutionClass#WRITE}
+     */
+    ExecutionClass classify(String function);
+
+}
@@ -0,0 +1,37 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim;
+
+import java.util.List;
+
+/**
+ * Implemented by chaincode that knows which keys an invocation is going to read, e.g.
+ * from its arguments. The shim requests their state from the peer right before the
+ * chaincode runs, back to back without waiting for the chaincode in between, and
+ * {@link ChaincodeStub#getState(String)} of those keys takes the prefetched value.
+ * <p>
+ * Every prefetched key is in the read set of the transaction, whether the chaincode
+ * reads it or not, so only keys that are certainly read should be named.
+ */
+public interface KeyPrefetcher {
+
+    /**
+     * Name of a transient map entry holding further keys to prefetch, one per line in
+     * UTF-8. It is only taken into account when enabled in the shim, as it lets the
+     * client grow the read set of the transaction.
+     */
+    String TRANSIENT_KEY = "shim.prefetch.keys";
+
+    /**
+     * Called for every invoke before the chaincode runs, so it must not block.
+     *
+     * @param stub stub of the invocation, only its arguments, transient map and proposal may be used
+     * @return keys of the public state to prefetch, in the order they are read
+     */
+    List<String> prefetchKeys(ChaincodeStub stub);
+
+}
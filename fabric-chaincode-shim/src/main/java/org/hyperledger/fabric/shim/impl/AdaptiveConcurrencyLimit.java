@@ -0,0 +1,113 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+/**
+ * Concurrency limit following the round trip time of peer requests, using a gradient
+ * algorithm.
+ * <p>
+ * Samples are averaged over windows of {@code windowSize} requests. Each window is
+ * compared with a baseline, the fastest window seen: while it is no more than
+ * {@code tolerance} times slower than the baseline the limit grows by a small queue
+ * allowance, and beyond that it shrinks in proportion to the slowdown, by half at most.
+ * The baseline only moves up with windows measured under low load, so the queueing
+ * the limit itself causes is not mistaken for a slower peer. When shrinking the limit
+ * does not bring the latency down for {@code MAX_SLOW_WINDOWS} windows in a row the
+ * peer itself got slower, and the baseline is reset to the current latency.
+ * <p>
+ * The limit only moves while the transactions in flight use at least half of it, so an
+ * idle chaincode does not drift towards the maximum.
+ */
+class AdaptiveConcurrencyLimit {
+
+    static final int DEFAULT_WINDOW_SIZE = 20;
+    static final double DEFAULT_TOLERANCE = 1.5;
+
+    private static final double SMOOTHING = 0.2;
+    // weight of a low load window in the baseline
+    private static final double BASELINE_WEIGHT = 0.1;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final int MAX_SLOW_WINDOWS = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int windowSize;
+    private final double tolerance;
+    private double estimatedLimit;
+    private double baselineRtt;
+    private long windowRttSum;
+    private int windowCount;
+    private int slowWindows;
+    private volatile int limit;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, DEFAULT_WINDOW_SIZE, DEFAULT_TOLERANCE);
+    }
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, int windowSize, double tolerance) {
+        if (minLimit < 1) throw new IllegalArgumentException("minLimit must be at least 1");
+        if (maxLimit < minLimit) throw new IllegalArgumentException("maxLimit must not be less than minLimit");
+        if (initialLimit < minLimit || initialLimit > maxLimit) throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit");
+        if (windowSize < 1) throw new IllegalArgumentException("windowSize must be at least 1");
+        if (tolerance < 1) throw new IllegalArgumentException("tolerance must be at least 1");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowSize = windowSize;
+        this.tolerance = tolerance;
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Records the round trip time of a request.
+     *
+     * @param rttNanos time from sending the request to receiving its response
+     * @param inflight transactions running when the response arrived
+     * @return whether the limit grew
+     */
+    synchronized boolean onSample(long rttNanos, long inflight) {
+        windowRttSum += rttNanos;
+        if (++windowCount < windowSize) {
+            return false;
+        }
+        final double windowRtt = Math.max(1, (double) windowRttSum / windowCount);
+        windowRttSum = 0;
+        windowCount = 0;
+
+        final boolean lowLoad = inflight < estimatedLimit / 2;
+        if (baselineRtt == 0 || windowRtt < baselineRtt) {
+            baselineRtt = windowRtt;
+        } else if (lowLoad || limit == minLimit) {
+            // measured without much queueing of our own, the peer did get slower
+            baselineRtt = baselineRtt * (1 - BASELINE_WEIGHT) + windowRtt * BASELINE_WEIGHT;
+        }
+
+        if (lowLoad) {
+            // not using the limit, the sample says nothing about it
+            return false;
+        }
+
+        final double rawGradient = tolerance * baselineRtt / windowRtt;
+        if (rawGradient > MIN_GRADIENT) {
+            slowWindows = 0;
+        } else if (++slowWindows >= MAX_SLOW_WINDOWS) {
+            baselineRtt = windowRtt;
+            slowWindows = 0;
+        }
+        final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, rawGradient));
+        final double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+
+        final int previous = limit;
+        limit = (int) estimatedLimit;
+        return limit > previous;
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.hyperledger.fabric.shim.metrics.Counter;
+import org.hyperledger.fabric.shim.metrics.Histogram;
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.ToIntFunction;
+
+import static java.lang.String.format;
+
+/**
+ * Limits how many transactions run at once, to a fixed limit or one that changes over
+ * time, see {@link AdaptiveConcurrencyLimit}. A transaction over the limit waits in a
+ * bounded FIFO queue for a running one to finish; it is rejected straight away when
+ * the queue is full, or once it has waited longer than the max queue time.
+ * <p>
+ * Transactions may be partitioned by a key, such as their channel. Each partition has
+ * its own queue and may have its own concurrency quota and queue bound, while the max
+ * queued bounds the transactions waiting in all partitions together. Freed slots go to the waiting
+ * partitions in proportion to their weights (stride scheduling), so a busy partition
+ * cannot keep the others waiting.
+ * <p>
+ * Rejections are counted in {@code <name>.rejected.queue_full} and
+ * {@code <name>.rejected.queue_time}, the time admitted transactions waited in
+ * {@code <name>.wait}, and {@code <name>.running}, {@code <name>.queued} and
+ * {@code <name>.limit} report the current load. With a partition prefix, the same is
+ * reported per partition in {@code <prefix>.<key>.running}, {@code <prefix>.<key>.queued}
+ * and {@code <prefix>.<key>.rejected}.
+ */
+class AdmissionController {
+
+    private static final String DEFAULT_PARTITION = "";
+
+    private final IntSupplier maxConcurrency;
+    private final int maxQueued;
+    private final long maxQueueTime;
+    private final ScheduledExecutorService scheduler;
+    private final MetricsRegistry metrics;
+    private final String partitionPrefix;
+    private final int partitionMaxConcurrency;
+    private final int partitionMaxQueued;
+    private final ToIntFunction<String> partitionWeight;
+    private final Map<String, Partition> partitions = new HashMap<>();
+    private final Counter rejectedQueueFull;
+    private final Counter rejectedQueueTime;
+    private final Histogram waits;
+    private int running;
+    private int queued;
+    private long sequence;
+    // pass of the partition served last, where partitions that start waiting join
+    private double virtualTime;
+
+    /**
+     * @param maxConcurrency transactions allowed to run at once, 0 for no limit
+     * @param maxQueued      transactions allowed to wait for a running one to finish, in all partitions
+     * @param maxQueueTime   milliseconds a transaction may wait, 0 for no limit
+     * @param scheduler      scheduler expiring waiting transactions, required with a max queue time
+     */
+    AdmissionController(int maxConcurrency, int maxQueued, long maxQueueTime, ScheduledExecutorService scheduler, MetricsRegistry metrics) {
+        this(checkMaxConcurrency(maxConcurrency), maxQueued, maxQueueTime, scheduler, metrics);
+    }
+
+    /**
+     * @param maxConcurrency current limit, read on every admission, 0 for no limit
+     */
+    AdmissionController(IntSupplier maxConcurrency, int maxQueued, long maxQueueTime, ScheduledExecutorService scheduler, MetricsRegistry metrics) {
+        this("admission", maxConcurrency, maxQueued, maxQueueTime, scheduler, metrics);
+    }
+
+    /**
+     * @param name prefix of the metrics of this controller
+     */
+    AdmissionController(String name, IntSupplier maxConcurrency, int maxQueued, long maxQueueTime, ScheduledExecutorService scheduler, MetricsRegistry metrics) {
+        this(name, maxConcurrency, maxQueued, maxQueueTime, scheduler, metrics, null, 0, 0, key -> 1);
+    }
+
+    /**
+     * @param partitionPrefix         prefix of the metrics of each partition, null for none
+     * @param partitionMaxConcurrency transactions of a partition allowed to run at once, 0 for no limit
+     * @param partitionMaxQueued      transactions of a partition allowed to wait, 0 for no limit other than the max queued
+     * @param partitionWeight         share of freed slots a partition gets, relative to the others
+     */
+    AdmissionController(String name, IntSupplier maxConcurrency, int maxQueued, long maxQueueTime, ScheduledExecutorService scheduler, MetricsRegistry metrics,
+                        String partitionPrefix, int partitionMaxConcurrency, int partitionMaxQueued, ToIntFunction<String> partitionWeight) {
+        if (maxQueued < 0) throw new IllegalArgumentException("maxQueued must not be negative");
+        if (maxQueueTime < 0) throw new IllegalArgumentException("maxQueueTime must not be negative");
+        if (maxQueueTime > 0 && scheduler == null) throw new IllegalArgumentException("scheduler is required with a max queue time");
+        if (partitionMaxConcurrency < 0) throw new IllegalArgumentException("partitionMaxConcurrency must not be negative");
+        if (partitionMaxQueued < 0) throw new IllegalArgumentException("partitionMaxQueued must not be negative");
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueued = maxQueued;
+        this.maxQueueTime = maxQueueTime;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.partitionPrefix = partitionPrefix;
+        this.partitionMaxConcurrency = partitionMaxConcurrency;
+        this.partitionMaxQueued = partitionMaxQueued;
+        this.partitionWeight = partitionWeight;
+        this.rejectedQueueFull = metrics.counter(name + ".rejected.queue_full");
+        this.rejectedQueueTime = metrics.counter(name + ".rejected.queue_time");
+        this.waits = metrics.histogram(name + ".wait");
+        metrics.gauge(name + ".running", this::getRunning);
+        metrics.gauge(name + ".queued", this::getQueued);
+        metrics.gauge(name + ".limit", () -> maxConcurrency.getAsInt());
+    }
+
+    private static IntSupplier checkMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 0) throw new IllegalArgumentException("maxConcurrency must not be negative");
+        return () -> maxConcurrency;
+    }
+
+    /**
+     * Starts the transaction now, queues it, or rejects it. Each started transaction
+     * must be followed by a call to {@link #release()} once it has finished.
+     *
+     * @param start  starts the transaction, called at most once
+     * @param reject called at most once with the reason when the transaction is not admitted
+     */
+    void submit(Runnable start, Consumer<String> reject) {
+        submit(DEFAULT_PARTITION, start, reject);
+    }
+
+    /**
+     * Like {@link #submit(Runnable, Consumer)}, for a transaction of the partition. It must
+     * be followed by a call to {@link #release(String)} with the same key.
+     */
+    void submit(String key, Runnable start, Consumer<String> reject) {
+        final String rejection;
+        synchronized (this) {
+            final Partition partition = partition(key);
+            if (hasCapacity() && partition.hasCapacity()) {
+                running++;
+                partition.running++;
+                rejection = null;
+            } else if (queued < maxQueued && partition.hasQueueCapacity()) {
+                if (partition.queue.isEmpty()) {
+                    // no credit for the time it was not waiting
+                    partition.pass = Math.max(partition.pass, virtualTime);
+                }
+                final Waiting waiting = new Waiting(partition, sequence++, start, reject);
+                partition.queue.addLast(waiting);
+                queued++;
+                if (maxQueueTime > 0) {
+                    waiting.expiry = scheduler.schedule(() -> expire(waiting), maxQueueTime, TimeUnit.MILLISECONDS);
+                }
+                return;
+            } else {
+                rejectedQueueFull.inc();
+                if (partition.rejected != null) {
+                    partition.rejected.inc();
+                }
+                rejection = format("Chaincode is overloaded: %d transactions running, %d queued", running, queued);
+            }
+        }
+        if (rejection == null) {
+            start.run();
+        } else {
+            reject.accept(rejection);
+        }
+    }
+
+    /**
+     * Frees the slot of a finished transaction, starting the oldest waiting one in its place.
+     */
+    void release() {
+        release(DEFAULT_PARTITION);
+    }
+
+    /**
+     * Frees the slot of a finished transaction of the partition, starting a waiting one in its place.
+     */
+    void release(String key) {
+        synchronized (this) {
+            running--;
+            partitions.get(key).running--;
+        }
+        drain();
+    }
+
+    /**
+     * Starts waiting transactions while the limit allows, to be called when it grew.
+     */
+    void drain() {
+        final List<Waiting> admitted = new ArrayList<>();
+        synchronized (this) {
+            while (queued > 0 && hasCapacity()) {
+                final Partition next = nextPartition();
+                if (next == null) {
+                    // all waiting partitions are at their quota
+                    break;
+                }
+                final Waiting waiting = next.queue.pollFirst();
+                if (waiting.expiry != null) {
+                    waiting.expiry.cancel(false);
+                }
+                queued--;
+                virtualTime = next.pass;
+                next.pass += 1.0 / next.weight;
+                running++;
+                next.running++;
+                admitted.add(waiting);
+            }
+        }
+        for (Waiting waiting : admitted) {
+            waits.recordSince(waiting.queuedNanos);
+            waiting.start.run();
+        }
+    }
+
+    synchronized long getRunning() {
+        return running;
+    }
+
+    synchronized long getQueued() {
+        return queued;
+    }
+
+    private boolean hasCapacity() {
+        final int limit = maxConcurrency.getAsInt();
+        return limit <= 0 || running < limit;
+    }
+
+    /**
+     * @return the waiting partition below its quota that is furthest behind its share,
+     * on a tie the one waiting longest
+     */
+    private Partition nextPartition() {
+        Partition next = null;
+        for (Partition partition : partitions.values()) {
+            if (partition.queue.isEmpty() || !partition.hasCapacity()) {
+                continue;
+            }
+            if (next == null || partition.pass < next.pass
+                    || partition.pass == next.pass && partition.queue.peekFirst().sequence < next.queue.peekFirst().sequence) {
+                next = partition;
+            }
+        }
+        return next;
+    }
+
+    private Partition partition(String key) {
+        Partition partition = partitions.get(key);
+        if (partition == null) {
+            partition = new Partition(Math.max(1, partitionWeight.applyAsInt(key)));
+            if (partitionPrefix != null && !key.isEmpty()) {
+                final Partition registered = partition;
+                final String prefix = partitionPrefix + "." + key;
+                partition.rejected = metrics.counter(prefix + ".rejected");
+                metrics.gauge(prefix + ".running", () -> {
+                    synchronized (this) {
+                        return registered.running;
+                    }
+                });
+                metrics.gauge(prefix + ".queued", () -> {
+                    synchronized (this) {
+                        return registered.queue.size();
+                    }
+                });
+            }
+            partitions.put(key, partition);
+        }
+        return partition;
+    }
+
+    private void expire(Waiting waiting) {
+        synchronized (this) {
+            if (!waiting.partition.queue.remove(waiting)) {
+                // started in the meantime
+                return;
+            }
+            queued--;
+            rejectedQueueTime.inc();
+            if (waiting.partition.rejected != null) {
+                waiting.partition.rejected.inc();
+            }
+        }
+        waiting.reject.accept(format("Chaincode is overloaded: transaction waited more than %d ms to start", maxQueueTime));
+    }
+
+    private final class Partition {
+        private final ArrayDeque<Waiting> queue = new ArrayDeque<>();
+        private final int weight;
+        private int running;
+        private double pass;
+        private Counter rejected;
+
+        Partition(int weight) {
+            this.weight = weight;
+        }
+
+        boolean hasCapacity() {
+            return partitionMaxConcurrency == 0 || running < partitionMaxConcurrency;
+        }
+
+        boolean hasQueueCapacity() {
+            return partitionMaxQueued == 0 || queue.size() < partitionMaxQueued;
+        }
+    }
+
+    private static final class Waiting {
+        private final Partition partition;
+        private final long sequence;
+        private final Runnable start;
+        private final Consumer<String> reject;
+        private final long queuedNanos = System.nanoTime();
+        private ScheduledFuture<?> expiry;
+
+        Waiting(Partition partition, long sequence, Runnable start, Consumer<String> reject) {
+            this.partition = partition;
+            this.sequence = sequence;
+            this.start = start;
+            this.reject = reject;
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import org.hyperledger.fabric.protos.peer.ChaincodeEventPackage.ChaincodeEvent;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResponse;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResultBytes;
+import org.hyperledger.fabric.protos.peer.ProposalPackage.SignedProposal;
+import org.hyperledger.fabric.shim.AsyncChaincodeStub;
+import org.hyperledger.fabric.shim.Chaincode.Response;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.hyperledger.fabric.shim.impl.ChaincodeStubImpl.MAX_UNICODE_RUNE;
+import static org.hyperledger.fabric.shim.impl.ChaincodeStubImpl.UNSPECIFIED_KEY;
+import static org.hyperledger.fabric.shim.impl.ChaincodeStubImpl.queryResultBytesToKeyModification;
+import static org.hyperledger.fabric.shim.impl.ChaincodeStubImpl.queryResultBytesToKv;
+import static org.hyperledger.fabric.shim.impl.ChaincodeStubImpl.validateCollection;
+import static org.hyperledger.fabric.shim.impl.ChaincodeStubImpl.validateKey;
+
+/**
+ * Asynchronous stub, taking the proposal details from a {@link ChaincodeStubImpl}
+ * and sending its requests through the non-blocking methods of {@link Handler}.
+ */
+class AsyncChaincodeStubImpl implements AsyncChaincodeStub {
+
+    private final ChaincodeStubImpl stub;
+    private final Handler handler;
+    private final String channelId;
+    private final String txId;
+
+    AsyncChaincodeStubImpl(ChaincodeStubImpl stub, Handler handler) {
+        this.stub = stub;
+        this.handler = handler;
+        this.channelId = stub.getChannelId();
+        this.txId = stub.getTxId();
+    }
+
+    @Override
+    public List<byte[]> getArgs() {
+        return stub.getArgs();
+    }
+
+    @Override
+    public List<String> getStringArgs() {
+        return stub.getStringArgs();
+    }
+
+    @Override
+    public String getFunction() {
+        return stub.getFunction();
+    }
+
+    @Override
+    public List<String> getParameters() {
+        return stub.getParameters();
+    }
+
+    @Override
+    public String getTxId() {
+        return txId;
+    }
+
+    @Override
+    public String getChannelId() {
+        return channelId;
+    }
+
+    @Override
+    public CompletableFuture<Response> invokeChaincode(String chaincodeName, List<byte[]> args, String channel) {
+        // internally we handle chaincode name as a composite name
+        final String compositeName;
+        if (channel != null && !channel.trim().isEmpty()) {
+            compositeName = chaincodeName + "/" + channel;
+        } else {
+            compositeName = chaincodeName;
+        }
+        return handler.invokeChaincodeAsync(channelId, txId, compositeName, args);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getState(String key) {
+        final CompletableFuture<ByteString> prefetched = stub.getPrefetched(key);
+        return (prefetched != null ? prefetched : handler.getStateAsync(channelId, txId, "", key)).thenApply(ByteString::toByteArray);
+    }
+
+    @Override
+    public CompletableFuture<Void> putState(String key, byte[] value) {
+        validateKey(key);
+        // the value is serialized into the PUT_STATE payload before putStateAsync returns
+        return handler.putStateAsync(channelId, txId, "", key, UnsafeByteOperations.unsafeWrap(value));
+    }
+
+    @Override
+    public CompletableFuture<Void> delState(String key) {
+        return handler.deleteStateAsync(channelId, txId, "", key);
+    }
+
+    @Override
+    public CompletableFuture<List<KeyValue>> getStateByRange(String startKey, String endKey) {
+        if (startKey == null || startKey.isEmpty()) {
+            startKey = UNSPECIFIED_KEY;
+        }
+        if (endKey == null || endKey.isEmpty()) {
+            endKey = UNSPECIFIED_KEY;
+        }
+        CompositeKey.validateSimpleKeys(startKey, endKey);
+
+        return collect(handler.getStateByRangeAsync(channelId, txId, "", startKey, endKey), queryResultBytesToKv.andThen(KeyValueImpl::new));
+    }
+
+    @Override
+    public CompletableFuture<List<KeyValue>> getStateByPartialCompositeKey(CompositeKey compositeKey) {
+        if (compositeKey == null) {
+            compositeKey = new CompositeKey(UNSPECIFIED_KEY);
+        }
+        final String cKeyAsString = compositeKey.toString();
+        return collect(handler.getStateByRangeAsync(channelId, txId, "", cKeyAsString, cKeyAsString + MAX_UNICODE_RUNE), queryResultBytesToKv.andThen(KeyValueImpl::new));
+    }
+
+    @Override
+    public CompositeKey createCompositeKey(String objectType, String... attributes) {
+        return new CompositeKey(objectType, attributes);
+    }
+
+    @Override
+    public CompositeKey splitCompositeKey(String compositeKey) {
+        return CompositeKey.parseCompositeKey(compositeKey);
+    }
+
+    @Override
+    public CompletableFuture<List<KeyValue>> getQueryResult(String query) {
+        return collect(handler.getQueryResultAsync(channelId, txId, "", query), queryResultBytesToKv.andThen(KeyValueImpl::new));
+    }
+
+    @Override
+    public CompletableFuture<List<KeyModification>> getHistoryForKey(String key) {
+        return collect(handler.getHistoryForKeyAsync(channelId, txId, key), queryResultBytesToKeyModification.andThen(KeyModificationImpl::new));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getPrivateData(String collection, String key) {
+        validateCollection(collection);
+        return handler.getStateAsync(channelId, txId, collection, key).thenApply(ByteString::toByteArray);
+    }
+
+    @Override
+    public CompletableFuture<Void> putPrivateData(String collection, String key, byte[] value) {
+        validateKey(key);
+        validateCollection(collection);
+        return handler.putStateAsync(channelId, txId, collection, key, UnsafeByteOperations.unsafeWrap(value));
+    }
+
+    @Override
+    public CompletableFuture<Void> delPrivateData(String collection, String key) {
+        validateCollection(collection);
+        return handler.deleteStateAsync(channelId, txId, collection, key);
+    }
+
+    @Override
+    public CompletableFuture<List<KeyValue>> getPrivateDataByRange(String collection, String startKey, String endKey) {
+        validateCollection(collection);
+        if (startKey == null || startKey.isEmpty()) {
+            startKey = UNSPECIFIED_KEY;
+        }
+        if (endKey == null || endKey.isEmpty()) {
+            endKey = UNSPECIFIED_KEY;
+        }
+        CompositeKey.validateSimpleKeys(startKey, endKey);
+
+        return collect(handler.getStateByRangeAsync(channelId, txId, collection, startKey, endKey), queryResultBytesToKv.andThen(KeyValueImpl::new));
+    }
+
+    @Override
+    public CompletableFuture<List<KeyValue>> getPrivateDataByPartialCompositeKey(String collection, CompositeKey compositeKey) {
+        validateCollection(collection);
+        if (compositeKey == null) {
+            compositeKey = new CompositeKey(UNSPECIFIED_KEY);
+        }
+        final String cKeyAsString = compositeKey.toString();
+        return collect(handler.getStateByRangeAsync(channelId, txId, collection, cKeyAsString, cKeyAsString + MAX_UNICODE_RUNE), queryResultBytesToKv.andThen(KeyValueImpl::new));
+    }
+
+    @Override
+    public CompletableFuture<List<KeyValue>> getPrivateDataQueryResult(String collection, String query) {
+        validateCollection(collection);
+        return collect(handler.getQueryResultAsync(channelId, txId, collection, query), queryResultBytesToKv.andThen(KeyValueImpl::new));
+    }
+
+    @Override
+    public void setEvent(String name, byte[] payload) {
+        stub.setEvent(name, payload);
+    }
+
+    @Override
+    public ChaincodeEvent getEvent() {
+        return stub.getEvent();
+    }
+
+    @Override
+    public SignedProposal getSignedProposal() {
+        return stub.getSignedProposal();
+    }
+
+    @Override
+    public Instant getTxTimestamp() {
+        return stub.getTxTimestamp();
+    }
+
+    @Override
+    public byte[] getCreator() {
+        return stub.getCreator();
+    }
+
+    @Override
+    public Map<String, byte[]> getTransient() {
+        return stub.getTransient();
+    }
+
+    @Override
+    public byte[] getBinding() {
+        return stub.getBinding();
+    }
+
+    /**
+     * Fetches the remaining pages of a query one after the other, then closes it.
+     */
+    private <T> CompletableFuture<List<T>> collect(CompletableFuture<QueryResponse> firstPage, Function<QueryResultBytes, T> mapper) {
+        return firstPage.thenCompose(page -> collect(page, mapper, new ArrayList<>()));
+    }
+
+    private <T> CompletableFuture<List<T>> collect(QueryResponse page, Function<QueryResultBytes, T> mapper, List<T> results) {
+        for (QueryResultBytes resultBytes : page.getResultsList()) {
+            results.add(mapper.apply(resultBytes));
+        }
+        if (page.getHasMore()) {
+            final Object event = ShimEvents.beginPageFetch();
+            return handler.queryStateNextAsync(channelId, txId, page.getId())
+                    .thenCompose(next -> {
+                        ShimEvents.endPageFetch(event, channelId, txId, next.getId(), next.getResultsCount(), next.getHasMore());
+                        return collect(next, mapper, results);
+                    });
+        }
+        return handler.queryStateCloseAsync(channelId, txId, page.getId()).thenApply(closed -> results);
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.protos.peer.ChaincodeSupportGrpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Marshaller for ChaincodeMessage which copies an inbound message once, into an
+ * exactly sized array, and parses it with aliasing enabled. The payload and every
+ * nested message parsed through {@link #parseAliased(Parser, ByteString)} share that
+ * array instead of copying their bytes again.
+ * <p>
+ * grpc does not hand the underlying Netty buffer to marshallers, so the single copy
+ * out of the transport cannot be avoided. In-process transports skip even that copy.
+ */
+public final class ChaincodeMessageMarshaller implements MethodDescriptor.Marshaller<ChaincodeMessage> {
+
+    public static final ChaincodeMessageMarshaller INSTANCE = new ChaincodeMessageMarshaller();
+
+    /**
+     * ChaincodeSupport.Register using this marshaller for both directions.
+     */
+    public static final MethodDescriptor<ChaincodeMessage, ChaincodeMessage> REGISTER_METHOD = MethodDescriptor.<ChaincodeMessage, ChaincodeMessage>newBuilder()
+            .setType(MethodDescriptor.MethodType.BIDI_STREAMING)
+            .setFullMethodName(ChaincodeSupportGrpc.getRegisterMethod().getFullMethodName())
+            .setRequestMarshaller(INSTANCE)
+            .setResponseMarshaller(INSTANCE)
+            .build();
+
+    private static final int MAX_OUTPUT_BUFFER_SIZE = 4096;
+
+    private ChaincodeMessageMarshaller() {
+    }
+
+    @Override
+    public InputStream stream(ChaincodeMessage message) {
+        return new ChaincodeMessageInputStream(message);
+    }
+
+    @Override
+    public ChaincodeMessage parse(InputStream stream) {
+        if (stream instanceof ChaincodeMessageInputStream) {
+            final ChaincodeMessage message = ((ChaincodeMessageInputStream) stream).message;
+            if (message != null) {
+                // in-process transport handed over the message object itself
+                return message;
+            }
+        }
+        try {
+            return parseAliased(ChaincodeMessage.parser(), UnsafeByteOperations.unsafeWrap(readAll(stream)));
+        } catch (IOException e) {
+            throw Status.INTERNAL.withDescription("Invalid ChaincodeMessage byte sequence").withCause(e).asRuntimeException();
+        }
+    }
+
+    /**
+     * Parses a nested message, sharing the bytes of the enclosing message
+     * for its own bytes fields instead of copying them.
+     */
+    static <T> T parseAliased(Parser<T> parser, ByteString bytes) throws InvalidProtocolBufferException {
+        final CodedInputStream input = bytes.newCodedInput();
+        input.enableAliasing(true);
+        final T message = parser.parseFrom(input);
+        // as ByteString parsing does, reject bytes ending in a stray end group tag
+        input.checkLastTagWas(0);
+        return message;
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        if (stream instanceof KnownLength) {
+            final byte[] buffer = new byte[stream.available()];
+            int read = 0;
+            while (read < buffer.length) {
+                final int count = stream.read(buffer, read, buffer.length - read);
+                if (count == -1) {
+                    throw new IOException(String.format("Message truncated, %d of %d bytes read", read, buffer.length));
+                }
+                read += count;
+            }
+            return buffer;
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(MAX_OUTPUT_BUFFER_SIZE);
+        final byte[] chunk = new byte[MAX_OUTPUT_BUFFER_SIZE];
+        int count;
+        while ((count = stream.read(chunk)) != -1) {
+            buffer.write(chunk, 0, count);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Serializes the message lazily, straight into grpc's framing buffers when drained.
+     */
+    private static final class ChaincodeMessageInputStream extends InputStream implements Drainable, KnownLength {
+
+        private ChaincodeMessage message;
+        private ByteArrayInputStream partial;
+
+        ChaincodeMessageInputStream(ChaincodeMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public int drainTo(OutputStream target) throws IOException {
+            final int written;
+            if (message != null) {
+                written = message.getSerializedSize();
+                final CodedOutputStream output = CodedOutputStream.newInstance(target, Math.min(written, MAX_OUTPUT_BUFFER_SIZE));
+                message.writeTo(output);
+                output.flush();
+                message = null;
+            } else if (partial != null) {
+                written = partial.available();
+                final byte[] remaining = new byte[written];
+                partial.read(remaining, 0, written);
+                target.write(remaining);
+                partial = null;
+            } else {
+                written = 0;
+            }
+            return written;
+        }
+
+        @Override
+        public int read() throws IOException {
+            toPartial();
+            return partial == null ? -1 : partial.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            toPartial();
+            return partial == null ? -1 : partial.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (message != null) {
+                return message.getSerializedSize();
+            }
+            return partial == null ? 0 : partial.available();
+        }
+
+        private void toPartial() {
+            if (message != null) {
+                partial = new ByteArrayInputStream(message.toByteArray());
+                message = null;
+            }
+        }
+    }
+
+}
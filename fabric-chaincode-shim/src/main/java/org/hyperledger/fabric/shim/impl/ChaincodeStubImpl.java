@@ -9,6 +9,7 @@ package org.hyperledger.fabric.shim.impl;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Timestamp;
+import com.google.protobuf.UnsafeByteOperations;
 import org.hyperledger.fabric.protos.common.Common;
 import org.hyperledger.fabric.protos.common.Common.ChannelHeader;
 import org.hyperledger.fabric.protos.common.Common.Header;
@@ -27,23 +28,30 @@ import org.hyperledger.fabric.shim.ledger.CompositeKey;
 import org.hyperledger.fabric.shim.ledger.KeyModification;
 import org.hyperledger.fabric.shim.ledger.KeyValue;
 import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.hyperledger.fabric.shim.metrics.Counter;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.toList;
+import static org.hyperledger.fabric.shim.impl.ChaincodeMessageMarshaller.parseAliased;
 
 class ChaincodeStubImpl implements ChaincodeStub {
 
-    private static final String UNSPECIFIED_KEY = new String(Character.toChars(0x000001));
+    static final String UNSPECIFIED_KEY = new String(Character.toChars(0x000001));
     public static final String MAX_UNICODE_RUNE = "\udbff\udfff";
     private final String channelId;
     private final String txId;
@@ -54,7 +62,10 @@ class ChaincodeStubImpl implements ChaincodeStub {
     private final ByteString creator;
     private final Map<String, ByteString> transientMap;
     private final byte[] binding;
-    private ChaincodeEvent event;
+    private volatile ChaincodeEvent event;
+    // public state of keys requested before the chaincode ran, see KeyPrefetcher
+    private final Map<String, CompletableFuture<ByteString>> prefetched = new ConcurrentHashMap<>();
+    private volatile Counter prefetchHits;
 
     ChaincodeStubImpl(String channelId, String txId, Handler handler, List<ByteString> args, SignedProposal signedProposal) {
         this.channelId = channelId;
@@ -69,12 +80,12 @@ class ChaincodeStubImpl implements ChaincodeStub {
             this.binding = null;
         } else {
             try {
-                final Proposal proposal = Proposal.parseFrom(signedProposal.getProposalBytes());
-                final Header header = Header.parseFrom(proposal.getHeader());
-                final ChannelHeader channelHeader = ChannelHeader.parseFrom(header.getChannelHeader());
+                final Proposal proposal = parseAliased(Proposal.parser(), signedProposal.getProposalBytes());
+                final Header header = parseAliased(Header.parser(), proposal.getHeader());
+                final ChannelHeader channelHeader = parseAliased(ChannelHeader.parser(), header.getChannelHeader());
                 validateProposalType(channelHeader);
-                final SignatureHeader signatureHeader = SignatureHeader.parseFrom(header.getSignatureHeader());
-                final ChaincodeProposalPayload chaincodeProposalPayload = ChaincodeProposalPayload.parseFrom(proposal.getPayload());
+                final SignatureHeader signatureHeader = parseAliased(SignatureHeader.parser(), header.getSignatureHeader());
+                final ChaincodeProposalPayload chaincodeProposalPayload = parseAliased(ChaincodeProposalPayload.parser(), proposal.getPayload());
                 final Timestamp timestamp = channelHeader.getTimestamp();
 
                 this.txTimestamp = Instant.ofEpochSecond(timestamp.getSeconds(), timestamp.getNanos());
@@ -163,13 +174,57 @@ class ChaincodeStubImpl implements ChaincodeStub {
 
     @Override
     public byte[] getState(String key) {
+        final CompletableFuture<ByteString> prefetched = getPrefetched(key);
+        if (prefetched != null) {
+            try {
+                return prefetched.join().toByteArray();
+            } catch (CompletionException | CancellationException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
         return handler.getState(channelId, txId, "", key).toByteArray();
     }
 
+    /**
+     * Requests the public state of the keys from the peer without waiting for it. The
+     * peer serves committed state only, so a prefetched value stays valid whatever the
+     * transaction writes.
+     *
+     * @param hits counts the reads served by a prefetched value
+     */
+    void prefetch(Collection<String> keys, Counter hits) {
+        this.prefetchHits = hits;
+        for (String key : keys) {
+            validateKey(key);
+            prefetched.computeIfAbsent(key, k -> handler.getStateAsync(channelId, txId, "", k));
+        }
+    }
+
+    /**
+     * @return completes once every prefetch request was answered, successfully or not.
+     * The result of the transaction must wait for it, so that the keys are in its read
+     * set whether the chaincode read them or not.
+     */
+    CompletableFuture<Void> prefetchesDone() {
+        return CompletableFuture.allOf(prefetched.values().toArray(new CompletableFuture<?>[0])).handle((done, throwable) -> null);
+    }
+
+    /**
+     * @return the prefetched state of the key, or null when it was not prefetched
+     */
+    CompletableFuture<ByteString> getPrefetched(String key) {
+        final CompletableFuture<ByteString> state = prefetched.get(key);
+        if (state != null) {
+            prefetchHits.inc();
+        }
+        return state;
+    }
+
     @Override
     public void putState(String key, byte[] value) {
         validateKey(key);
-        handler.putState(channelId, txId, "", key, ByteString.copyFrom(value));
+        // the value is serialized into the PUT_STATE payload before putState returns, so it need not be copied
+        handler.putState(channelId, txId, "", key, UnsafeByteOperations.unsafeWrap(value));
     }
 
     @Override
@@ -197,10 +252,10 @@ class ChaincodeStubImpl implements ChaincodeStub {
         );
     }
 
-    private Function<QueryResultBytes, KV> queryResultBytesToKv = new Function<QueryResultBytes, KV>() {
+    static final Function<QueryResultBytes, KV> queryResultBytesToKv = new Function<QueryResultBytes, KV>() {
         public KV apply(QueryResultBytes queryResultBytes) {
             try {
-                return KV.parseFrom(queryResultBytes.getResultBytes());
+                return parseAliased(KV.parser(), queryResultBytes.getResultBytes());
             } catch (InvalidProtocolBufferException e) {
                 throw new RuntimeException(e);
             }
@@ -264,10 +319,10 @@ class ChaincodeStubImpl implements ChaincodeStub {
         );
     }
 
-    private Function<QueryResultBytes, KvQueryResult.KeyModification> queryResultBytesToKeyModification = new Function<QueryResultBytes, KvQueryResult.KeyModification>() {
+    static final Function<QueryResultBytes, KvQueryResult.KeyModification> queryResultBytesToKeyModification = new Function<QueryResultBytes, KvQueryResult.KeyModification>() {
         public KvQueryResult.KeyModification apply(QueryResultBytes queryResultBytes) {
             try {
-                return KvQueryResult.KeyModification.parseFrom(queryResultBytes.getResultBytes());
+                return parseAliased(KvQueryResult.KeyModification.parser(), queryResultBytes.getResultBytes());
             } catch (InvalidProtocolBufferException e) {
                 throw new RuntimeException(e);
             }
@@ -285,7 +340,7 @@ class ChaincodeStubImpl implements ChaincodeStub {
     public void putPrivateData(String collection, String key, byte[] value) {
         validateKey(key);
         validateCollection(collection);
-        handler.putState(channelId, txId, collection, key, ByteString.copyFrom(value));
+        handler.putState(channelId, txId, collection, key, UnsafeByteOperations.unsafeWrap(value));
     }
 
     @Override
@@ -391,7 +446,7 @@ class ChaincodeStubImpl implements ChaincodeStub {
         return this.binding;
     }
 
-    private void validateKey(String key) {
+    static void validateKey(String key) {
         if (key == null) {
             throw new NullPointerException("key cannot be null");
         }
@@ -400,7 +455,7 @@ class ChaincodeStubImpl implements ChaincodeStub {
         }
     }
 
-    private void validateCollection(String collection) {
+    static void validateCollection(String collection) {
         if (collection == null) {
             throw new NullPointerException("collection cannot be null");
         }
@@ -0,0 +1,143 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.protos.peer.ChaincodeSupportGrpc;
+import org.hyperledger.fabric.shim.AsyncChaincode;
+import org.hyperledger.fabric.shim.Chaincode;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Hosts the ChaincodeSupport service so that the peer connects to a long-running
+ * chaincode process instead of the chaincode dialing out to the peer.
+ * Every accepted stream gets its own {@link Handler}, which starts by sending REGISTER.
+ */
+public class ChaincodeSupportServer {
+
+    private static final Logger logger = Logger.getLogger(ChaincodeSupportServer.class.getName());
+    private final ChaincodeID chaincodeId;
+    private final Supplier<Handler> handlers;
+    private final Server server;
+    private final AtomicInteger connections = new AtomicInteger();
+
+    public ChaincodeSupportServer(ServerBuilder<?> serverBuilder, ChaincodeID chaincodeId, Chaincode chaincode) {
+        this(serverBuilder, chaincodeId, chaincode, new HandlerOptions());
+    }
+
+    public ChaincodeSupportServer(ServerBuilder<?> serverBuilder, ChaincodeID chaincodeId, Chaincode chaincode, HandlerOptions options) {
+        this(serverBuilder, chaincodeId, () -> new Handler(chaincodeId, chaincode, options));
+    }
+
+    public ChaincodeSupportServer(ServerBuilder<?> serverBuilder, ChaincodeID chaincodeId, AsyncChaincode chaincode, HandlerOptions options) {
+        this(serverBuilder, chaincodeId, () -> new Handler(chaincodeId, chaincode, options));
+    }
+
+    private ChaincodeSupportServer(ServerBuilder<?> serverBuilder, ChaincodeID chaincodeId, Supplier<Handler> handlers) {
+        this.chaincodeId = chaincodeId;
+        this.handlers = handlers;
+        final ChaincodeSupportService service = new ChaincodeSupportService();
+        this.server = serverBuilder.addService(ServerServiceDefinition.builder(ChaincodeSupportGrpc.SERVICE_NAME)
+                .addMethod(ChaincodeMessageMarshaller.REGISTER_METHOD, ServerCalls.asyncBidiStreamingCall(service::register))
+                .build()).build();
+    }
+
+    /**
+     * Starts accepting peer connections. A non-daemon thread keeps the
+     * process alive until the server is stopped.
+     */
+    public void start() throws IOException {
+        server.start();
+        logger.info(format("Chaincode server for %s listening on port %d", chaincodeId.getName(), server.getPort()));
+        final Thread terminationThread = new Thread(() -> {
+            try {
+                server.awaitTermination();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "chaincode-server-" + chaincodeId.getName());
+        terminationThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+    }
+
+    public void stop() {
+        server.shutdown();
+        try {
+            if (!server.awaitTermination(5, TimeUnit.SECONDS)) {
+                server.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            server.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    private class ChaincodeSupportService {
+
+        StreamObserver<ChaincodeMessage> register(final StreamObserver<ChaincodeMessage> responseObserver) {
+            final int connection = connections.incrementAndGet();
+            logger.info(format("Peer connection %d accepted", connection));
+            final Handler handler = handlers.get();
+            final AtomicBoolean completed = new AtomicBoolean();
+            final Thread sender = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    final ChaincodeMessage message = handler.nextOutboundChaincodeMessage();
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    responseObserver.onNext(message);
+                }
+                // the response observer is not thread safe, so it is only ever touched by this thread
+                if (completed.get()) {
+                    responseObserver.onCompleted();
+                }
+            }, "chaincode-server-connection-" + connection);
+            sender.start();
+
+            return new StreamObserver<ChaincodeMessage>() {
+                @Override
+                public void onNext(ChaincodeMessage chaincodeMessage) {
+                    handler.onChaincodeMessage(chaincodeMessage);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    logger.log(Level.SEVERE, format("An error occured on peer connection %d. Closing the connection.", connection), t);
+                    sender.interrupt();
+                    handler.onStreamClosed();
+                }
+
+                @Override
+                public void onCompleted() {
+                    logger.info(format("Peer connection %d closed.", connection));
+                    completed.set(true);
+                    sender.interrupt();
+                    handler.onStreamClosed();
+                }
+            };
+        }
+    }
+
+}
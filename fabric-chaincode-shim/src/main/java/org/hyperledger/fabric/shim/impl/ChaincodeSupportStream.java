@@ -9,55 +9,195 @@ import io.grpc.ManagedChannelBuilder;
 import io.grpc.stub.StreamObserver;
 import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.REGISTER;
+
 public class ChaincodeSupportStream {
 
     private final Logger logger = Logger.getLogger(ChaincodeSupportStream.class.getName());
     private final ChaincodeSupportClient chaincodeSupportClient;
     private final Consumer<ChaincodeMessage> consumer;
     private final Supplier<ChaincodeMessage> supplier;
-    private final StreamObserver<ChaincodeMessage> requestObserver;
-    private final StreamObserver<ChaincodeMessage> responseObserver = new StreamObserver<ChaincodeMessage>() {
-        @Override
-        public void onNext(ChaincodeMessage chaincodeMessage) {
-            consumer.accept(chaincodeMessage);
-        }
+    private final Runnable resetAction;
+    private final ReconnectBackoff backoff;
+    private final ScheduledExecutorService reconnectScheduler;
+    private final MessageRecorder recorder;
+    private final Object connectionLock = new Object();
+    private StreamObserver<ChaincodeMessage> requestObserver;
+    private volatile long connection;
 
-        @Override
-        public void onError(Throwable t) {
-            logger.log(Level.SEVERE, "An error occured on the chaincode stream. Shutting down the chaincode stream.", t);
-            ChaincodeSupportStream.this.shutdown();
-        }
-
-        @Override
-        public void onCompleted() {
-            logger.info("Chaincode stream is shutting down.");
-            ChaincodeSupportStream.this.shutdown();
-        }
-    };
     final private Thread supplierComsumptionThread = new Thread() {
         @Override
         public void run() {
+            long registeredConnection = -1;
             while (!Thread.currentThread().isInterrupted()) {
-                ChaincodeSupportStream.this.requestObserver.onNext(ChaincodeSupportStream.this.supplier.get());
+                final long takenConnection = ChaincodeSupportStream.this.connection;
+                final ChaincodeMessage message = ChaincodeSupportStream.this.supplier.get();
+                final StreamObserver<ChaincodeMessage> observer;
+                final long currentConnection;
+                try {
+                    synchronized (connectionLock) {
+                        while (requestObserver == null) {
+                            connectionLock.wait();
+                        }
+                        observer = requestObserver;
+                        currentConnection = ChaincodeSupportStream.this.connection;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (message.getType() == REGISTER) {
+                    // every reset queues a REGISTER, only the first one belongs on a new stream
+                    if (registeredConnection == currentConnection) {
+                        continue;
+                    }
+                    registeredConnection = currentConnection;
+                } else if (takenConnection != currentConnection) {
+                    // taken from the queue before the stream was reset, the new stream must start with REGISTER
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(String.format("[%-8.8s] Dropping %s queued for a previous chaincode stream", message.getTxid(), message.getType()));
+                    }
+                    continue;
+                }
+                if (recorder != null) {
+                    recorder.recordOutbound(message);
+                }
+                observer.onNext(message);
             }
         }
     };
 
     public ChaincodeSupportStream(ManagedChannelBuilder<?> channelBuilder, Consumer<ChaincodeMessage> consumer, Supplier<ChaincodeMessage> supplier) {
+        this(channelBuilder, consumer, supplier, null, null);
+    }
+
+    /**
+     * Creates a stream which re-establishes itself after errors.
+     *
+     * @param channelBuilder builder of the channel to the peer
+     * @param consumer       receives messages sent by the peer
+     * @param supplier       provides messages to send to the peer
+     * @param resetAction    invoked once a stream is lost; expected to fail pending work and queue a new REGISTER message
+     * @param backoff        delays between reconnection attempts, or null to shut down on the first error
+     */
+    public ChaincodeSupportStream(ManagedChannelBuilder<?> channelBuilder, Consumer<ChaincodeMessage> consumer, Supplier<ChaincodeMessage> supplier, Runnable resetAction, ReconnectBackoff backoff) {
+        this(channelBuilder, consumer, supplier, resetAction, backoff, null);
+    }
+
+    /**
+     * Creates a stream which re-establishes itself after errors.
+     *
+     * @param channelBuilder builder of the channel to the peer
+     * @param consumer       receives messages sent by the peer
+     * @param supplier       provides messages to send to the peer
+     * @param resetAction    invoked once a stream is lost; expected to fail pending work and queue a new REGISTER message
+     * @param backoff        delays between reconnection attempts, or null to shut down on the first error
+     * @param recorder       records the messages sent and received, or null not to record them
+     */
+    public ChaincodeSupportStream(ManagedChannelBuilder<?> channelBuilder, Consumer<ChaincodeMessage> consumer, Supplier<ChaincodeMessage> supplier, Runnable resetAction, ReconnectBackoff backoff, MessageRecorder recorder) {
+        if (backoff != null && resetAction == null) {
+            throw new IllegalArgumentException("A reset action is required to reconnect the chaincode stream");
+        }
         this.chaincodeSupportClient = new ChaincodeSupportClient(channelBuilder);
         this.consumer = consumer;
-        this.requestObserver = this.chaincodeSupportClient.register(this.responseObserver);
         this.supplier = supplier;
+        this.resetAction = resetAction;
+        this.backoff = backoff;
+        this.recorder = recorder;
+        this.reconnectScheduler = backoff == null ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "chaincode-stream-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        connect();
         this.supplierComsumptionThread.start();
     }
 
+    private void connect() {
+        synchronized (connectionLock) {
+            this.requestObserver = this.chaincodeSupportClient.register(newResponseObserver(this.connection));
+            connectionLock.notifyAll();
+        }
+    }
+
+    private StreamObserver<ChaincodeMessage> newResponseObserver(final long connection) {
+        return new StreamObserver<ChaincodeMessage>() {
+            @Override
+            public void onNext(ChaincodeMessage chaincodeMessage) {
+                if (backoff != null && backoff.getAttempts() > 0) {
+                    logger.info("Chaincode stream re-established.");
+                    backoff.reset();
+                }
+                if (recorder != null) {
+                    recorder.recordInbound(chaincodeMessage);
+                }
+                consumer.accept(chaincodeMessage);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (backoff == null) {
+                    logger.log(Level.SEVERE, "An error occured on the chaincode stream. Shutting down the chaincode stream.", t);
+                    ChaincodeSupportStream.this.shutdown();
+                } else {
+                    logger.log(Level.SEVERE, "An error occured on the chaincode stream. Reconnecting to the peer.", t);
+                    ChaincodeSupportStream.this.disconnected(connection);
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                if (backoff == null) {
+                    logger.info("Chaincode stream is shutting down.");
+                    ChaincodeSupportStream.this.shutdown();
+                } else {
+                    // e.g. the peer restarting
+                    logger.warning("Chaincode stream was closed by the peer. Reconnecting to the peer.");
+                    ChaincodeSupportStream.this.disconnected(connection);
+                }
+            }
+        };
+    }
+
+    private void disconnected(long connection) {
+        synchronized (connectionLock) {
+            if (connection != this.connection) {
+                return;
+            }
+            this.requestObserver = null;
+            this.connection++;
+        }
+        resetAction.run();
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        if (!backoff.hasMoreAttempts()) {
+            logger.severe(String.format("Chaincode stream could not be re-established after %d attempts. Shutting down the chaincode stream.", backoff.getAttempts()));
+            shutdown();
+            return;
+        }
+        final long delay = backoff.nextDelay();
+        logger.info(String.format("Reconnecting to the peer in %d ms (attempt %d).", delay, backoff.getAttempts()));
+        reconnectScheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+
     private void shutdown() {
         this.supplierComsumptionThread.interrupt();
+        if (this.reconnectScheduler != null) {
+            this.reconnectScheduler.shutdownNow();
+        }
+        if (this.recorder != null) {
+            this.recorder.close();
+        }
         try {
             this.chaincodeSupportClient.shutdown();
         } catch (InterruptedException e) {
@@ -8,6 +8,7 @@ package org.hyperledger.fabric.shim.impl;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
 import com.google.protobuf.util.JsonFormat;
 import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
 import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeInput;
@@ -17,33 +18,155 @@ import org.hyperledger.fabric.protos.peer.ChaincodeShim.*;
 import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type;
 import org.hyperledger.fabric.protos.peer.ProposalResponsePackage.Response;
 import org.hyperledger.fabric.protos.peer.ProposalResponsePackage.Response.Builder;
+import org.hyperledger.fabric.shim.AsyncChaincode;
+import org.hyperledger.fabric.shim.AsyncChaincodeStub;
 import org.hyperledger.fabric.shim.Chaincode;
 import org.hyperledger.fabric.shim.ChaincodeStub;
-import org.hyperledger.fabric.shim.helper.Channel;
+import org.hyperledger.fabric.shim.ExecutionClass;
+import org.hyperledger.fabric.shim.ExecutionClassifier;
+import org.hyperledger.fabric.shim.KeyPrefetcher;
+import org.hyperledger.fabric.shim.metrics.Counter;
+import org.hyperledger.fabric.shim.metrics.Histogram;
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static java.lang.String.format;
 import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+import static org.hyperledger.fabric.shim.impl.ChaincodeMessageMarshaller.parseAliased;
 
 public class Handler {
 
     private static Logger logger = Logger.getLogger(Handler.class.getName());
+    private final ChaincodeID chaincodeId;
+    // either chaincode or asyncChaincode is set
     private final Chaincode chaincode;
-    private final Map<String, Boolean> isTransaction = new HashMap<>();
-    private final Map<String, Channel<ChaincodeMessage>> responseChannel = new HashMap<>();
-    private Channel<ChaincodeMessage> outboundChaincodeMessages = new Channel<>();
-    private CCState state;
+    private final AsyncChaincode asyncChaincode;
+    private final ExecutionClassifier classifier;
+    private final KeyPrefetcher keyPrefetcher;
+    private final Map<String, Boolean> isTransaction = new ConcurrentHashMap<>();
+    // requests of each tx, the first one is with the peer and the others wait for its response
+    private final Map<String, Deque<PendingRequest>> pendingRequests = new HashMap<>();
+    // start time of each INIT or TRANSACTION whose result has not been sent yet
+    private final Map<String, Long> runningTransactions = new ConcurrentHashMap<>();
+    // flight recorder event of each running INIT or TRANSACTION, while a recording enables them
+    private final Map<String, Object> transactionEvents = new ConcurrentHashMap<>();
+    // cancelled INIT or TRANSACTION still executing in the chaincode, whose requests are refused
+    private final Set<String> cancelledTransactions = new HashSet<>();
+    // cancelled INIT or TRANSACTION whose last request reached the peer, its response is dropped
+    private final Set<String> lateResponses = new HashSet<>();
+    private final OutboundMessageQueue outboundChaincodeMessages;
+    private final Executor asyncExecutor;
+    private final Map<ExecutionClass, ExecutionLane> lanes = new EnumMap<>(ExecutionClass.class);
+    private final AdmissionController admissionController;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final Histogram requestRtt;
+    private final MetricsRegistry metrics;
+    private final Map<String, Histogram> channelLatencies = new ConcurrentHashMap<>();
+    private final LocalInvocations localInvocations;
+    private final Histogram localInvokeLatency;
+    private final Histogram remoteInvokeLatency;
+    private final int maxPrefetchKeys;
+    private final boolean prefetchTransientEnabled;
+    private final Counter prefetchKeys;
+    private final Counter prefetchHits;
+    private final long requestTimeout;
+    private final long transactionTimeout;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final Counter requestTimeouts;
+    private final Counter transactionTimeouts;
+    private volatile CCState state;
+    // incremented on every stream reset, transactions received before are not answered
+    private long streamGeneration;
 
     public Handler(ChaincodeID chaincodeId, Chaincode chaincode) {
+        this(chaincodeId, chaincode, new HandlerOptions());
+    }
+
+    public Handler(ChaincodeID chaincodeId, Chaincode chaincode, HandlerOptions options) {
+        this(chaincodeId, chaincode, null, options);
+    }
+
+    public Handler(ChaincodeID chaincodeId, AsyncChaincode chaincode, HandlerOptions options) {
+        this(chaincodeId, null, chaincode, options);
+    }
+
+    private Handler(ChaincodeID chaincodeId, Chaincode chaincode, AsyncChaincode asyncChaincode, HandlerOptions options) {
+        final Object implementation = chaincode != null ? chaincode : asyncChaincode;
+        this.chaincodeId = chaincodeId;
         this.chaincode = chaincode;
+        this.asyncChaincode = asyncChaincode;
+        this.classifier = implementation instanceof ExecutionClassifier ? (ExecutionClassifier) implementation : options.getExecutionClassifier();
+        this.keyPrefetcher = implementation instanceof KeyPrefetcher ? (KeyPrefetcher) implementation : null;
+        this.outboundChaincodeMessages = new OutboundMessageQueue(options.isOutboundPriorityEnabled(), options.getOutboundMaxBypass(), options.getMetrics());
+        this.asyncExecutor = asyncChaincode != null ? options.getAsyncExecutor() : Runnable::run;
+        this.requestTimeout = options.getRequestTimeout();
+        this.transactionTimeout = options.getTransactionTimeout();
+        this.timeoutScheduler = requestTimeout > 0 || transactionTimeout > 0 ? options.getTimeoutScheduler() : null;
+        this.requestTimeouts = options.getMetrics().counter("request.timeouts");
+        this.transactionTimeouts = options.getMetrics().counter("transaction.timeouts");
+        final int maxConcurrency = options.getMaxConcurrency();
+        final IntSupplier limit;
+        if (options.isAdaptiveConcurrencyEnabled()) {
+            final int ceiling = maxConcurrency > 0 ? maxConcurrency : HandlerOptions.DEFAULT_ADAPTIVE_MAX_CONCURRENCY;
+            this.concurrencyLimit = new AdaptiveConcurrencyLimit(Math.min(options.getInitialConcurrency(), ceiling), 1, ceiling);
+            limit = concurrencyLimit::getLimit;
+        } else {
+            this.concurrencyLimit = null;
+            limit = () -> maxConcurrency;
+        }
+        // transactions only queue when there is a limit
+        final int channelMaxConcurrency = options.getChannelMaxConcurrency();
+        final long maxQueueTime = concurrencyLimit != null || maxConcurrency > 0 || channelMaxConcurrency > 0 ? options.getMaxQueueTime() : 0;
+        this.admissionController = new AdmissionController("admission", limit, options.getMaxQueued(), maxQueueTime,
+                maxQueueTime > 0 ? options.getTimeoutScheduler() : null, options.getMetrics(),
+                "channel", channelMaxConcurrency, options.getChannelMaxQueued(), options::getChannelWeight);
+        this.metrics = options.getMetrics();
+        this.localInvocations = options.getLocalInvocations();
+        this.localInvokeLatency = options.getMetrics().histogram("invoke_chaincode.latency.local");
+        this.remoteInvokeLatency = options.getMetrics().histogram("invoke_chaincode.latency.remote");
+        this.maxPrefetchKeys = options.getMaxPrefetchKeys();
+        this.prefetchTransientEnabled = options.isPrefetchTransientEnabled();
+        this.prefetchKeys = options.getMetrics().counter("prefetch.keys");
+        this.prefetchHits = options.getMetrics().counter("prefetch.hits");
+        this.requestRtt = options.getMetrics().histogram("request.rtt");
+        for (ExecutionClass executionClass : ExecutionClass.values()) {
+            final String name = executionClass.name().toLowerCase(Locale.ROOT);
+            final int classMaxConcurrency = options.getMaxConcurrency(executionClass);
+            final long classMaxQueueTime = classMaxConcurrency > 0 ? options.getMaxQueueTime() : 0;
+            lanes.put(executionClass, new ExecutionLane(
+                    new AdmissionController("admission." + name, () -> classMaxConcurrency, options.getMaxQueued(), classMaxQueueTime,
+                            classMaxQueueTime > 0 ? options.getTimeoutScheduler() : null, options.getMetrics()),
+                    asyncChaincode != null ? asyncExecutor : options.getDispatchExecutor(executionClass),
+                    options.getMetrics().histogram("transaction.latency." + name)));
+        }
         this.state = CCState.CREATED;
         queueOutboundChaincodeMessage(newRegisterChaincodeMessage(chaincodeId));
     }
@@ -60,6 +183,63 @@ public class Handler {
         }
     }
 
+    /**
+     * Prepares the handler for a new chaincode stream after the previous one was lost.
+     * Requests waiting for a peer response are failed, messages not yet sent are
+     * discarded and a REGISTER message is queued for the new stream.
+     */
+    public synchronized void onStreamReset() {
+        final int pending = this.pendingRequests.values().stream().mapToInt(Deque::size).sum();
+        logger.warning(format("Chaincode stream reset in state %s, failing %d pending requests", this.state, pending));
+        this.state = CCState.CREATED;
+        abandonStream();
+        queueOutboundChaincodeMessage(newRegisterChaincodeMessage(this.chaincodeId));
+    }
+
+    /**
+     * Tears the handler down once its stream has ended for good, as a handler of a
+     * {@link ChaincodeSupportServer} connection does. Requests waiting for a peer
+     * response fail straight away and the running transactions are not answered.
+     */
+    public synchronized void onStreamClosed() {
+        final int pending = this.pendingRequests.values().stream().mapToInt(Deque::size).sum();
+        logger.info(format("Chaincode stream closed in state %s, failing %d pending requests", this.state, pending));
+        this.state = CCState.CREATED;
+        abandonStream();
+    }
+
+    /**
+     * Fails the requests waiting for the lost stream, discards the messages not yet sent
+     * on it, and cancels the transactions it delivered: their further requests fail and
+     * their results are dropped, so that they are not sent on a later stream. They release
+     * their admission slots once the chaincode returns.
+     */
+    private void abandonStream() {
+        this.streamGeneration++;
+        this.outboundChaincodeMessages.clear();
+        // the ones cancelled earlier may still be executing too
+        this.cancelledTransactions.addAll(this.runningTransactions.keySet());
+        // responses of the lost stream cannot arrive any more
+        this.lateResponses.clear();
+        this.runningTransactions.clear();
+        for (Object event : this.transactionEvents.values()) {
+            ShimEvents.endTransaction(event, "STREAM_RESET");
+        }
+        this.transactionEvents.clear();
+        final ChaincodeMessage error = ChaincodeMessage.newBuilder()
+                .setType(ERROR)
+                .setPayload(ByteString.copyFromUtf8("Chaincode stream was reset before a response was received"))
+                .build();
+        for (Deque<PendingRequest> requests : this.pendingRequests.values()) {
+            for (PendingRequest request : requests) {
+                request.cancelTimeout();
+                request.endEvent("STREAM_RESET");
+                request.response.complete(error);
+            }
+        }
+        this.pendingRequests.clear();
+    }
+
     public void onChaincodeMessage(ChaincodeMessage chaincodeMessage) {
         if (logger.isLoggable(Level.FINE)) {
             logger.fine(format("[%-8.8s] %s", chaincodeMessage.getTxid(), toJsonString(chaincodeMessage)));
@@ -139,12 +319,14 @@ public class Handler {
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine(format("[%-8.8s] Received INIT: invoking chaincode init", message.getTxid()));
                 }
+                beginTransactionEvent(message);
                 handleInit(message);
                 break;
             case TRANSACTION:
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine(format("[%-8.8s] Received TRANSACTION: invoking chaincode", message.getTxid()));
                 }
+                beginTransactionEvent(message);
                 handleTransaction(message);
                 break;
             default:
@@ -159,50 +341,194 @@ public class Handler {
         return channelId + txid;
     }
 
-    private void queueOutboundChaincodeMessage(ChaincodeMessage chaincodeMessage) {
-        this.outboundChaincodeMessages.add(chaincodeMessage);
+    private boolean queueOutboundChaincodeMessage(ChaincodeMessage chaincodeMessage) {
+        return queueOutboundChaincodeMessage(chaincodeMessage, 0);
+    }
+
+    private boolean queueOutboundChaincodeMessage(ChaincodeMessage chaincodeMessage, long transactionStartNanos) {
+        if (transactionStartNanos != 0 && !transactionEvents.isEmpty()) {
+            // every result of an INIT or TRANSACTION goes through here, dropped or not
+            ShimEvents.endTransaction(transactionEvents.remove(getTxKey(chaincodeMessage.getChannelId(), chaincodeMessage.getTxid())),
+                    chaincodeMessage.getType().name());
+        }
+        if (this.state != CCState.READY && chaincodeMessage.getType() != REGISTER) {
+            // results of transactions started on a stream that has since been reset
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.warning(format("[%-8.8s] Dropping %s, handler state %s", chaincodeMessage.getTxid(), chaincodeMessage.getType(), this.state));
+            }
+            return false;
+        }
+        this.outboundChaincodeMessages.add(chaincodeMessage, transactionStartNanos);
+        return true;
+    }
+
+    private void beginTransactionEvent(ChaincodeMessage message) {
+        final Object event = ShimEvents.beginTransaction(message.getType().name(), message.getChannelId(), message.getTxid());
+        if (event != null) {
+            transactionEvents.put(getTxKey(message.getChannelId(), message.getTxid()), event);
+        }
     }
 
-    private synchronized Channel<ChaincodeMessage> aquireResponseChannelForTx(final String channelId, final String txId) {
-        final Channel<ChaincodeMessage> channel = new Channel<>();
-        String key = getTxKey(channelId, txId);
-        if (this.responseChannel.putIfAbsent(key, channel) != null) {
-            throw new IllegalStateException(format("[%-8.8s] Response channel already exists. Another request must be pending.", txId));
+    /**
+     * Sends a request of a transaction to the peer. The peer tells responses apart by
+     * channel and txid only, so while a request of the same transaction is outstanding
+     * the new one waits, and is sent once the response of the earlier one arrives.
+     * This lets several threads share the stub of one transaction.
+     *
+     * @return future completed with the RESPONSE or ERROR message of the peer
+     */
+    private synchronized CompletableFuture<ChaincodeMessage> sendRequest(final ChaincodeMessage message) {
+        final String key = getTxKey(message.getChannelId(), message.getTxid());
+        if (cancelledTransactions.contains(key)) {
+            return failedFuture(new CancellationException(format("[%-8.8s] Transaction was cancelled, %s not sent", message.getTxid(), message.getType())));
         }
-        if (logger.isLoggable(Level.FINEST)) {
-            logger.finest(format("[%-8.8s] Response channel created.", txId));
+        final PendingRequest request = new PendingRequest(message);
+        final Deque<PendingRequest> requests = pendingRequests.computeIfAbsent(key, k -> new ArrayDeque<>());
+        requests.addLast(request);
+        if (requests.size() == 1) {
+            sendNextRequest(key, requests);
+        } else if (logger.isLoggable(Level.FINEST)) {
+            logger.finest(format("[%-8.8s] %s waiting for %d earlier requests.", message.getTxid(), message.getType(), requests.size() - 1));
+        }
+        return request.response;
+    }
+
+    /**
+     * Sends the first request of the transaction, failing the ones that cannot be sent.
+     */
+    private void sendNextRequest(final String key, final Deque<PendingRequest> requests) {
+        while (!requests.isEmpty()) {
+            final PendingRequest next = requests.peekFirst();
+            if (queueOutboundChaincodeMessage(next.message)) {
+                next.sentNanos = System.nanoTime();
+                next.event = ShimEvents.beginRequest();
+                if (requestTimeout > 0) {
+                    next.timeout = timeoutScheduler.schedule(() -> onRequestTimeout(next), requestTimeout, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            requests.removeFirst();
+            next.response.completeExceptionally(new IllegalStateException(format("[%-8.8s] Chaincode stream is not ready, %s not sent", next.message.getTxid(), next.message.getType())));
         }
-        return channel;
+        pendingRequests.remove(key);
     }
 
     private synchronized void sendChannel(ChaincodeMessage message) {
         String key = getTxKey(message.getChannelId(), message.getTxid());
-        if (!responseChannel.containsKey(key)) {
+        final Deque<PendingRequest> requests = pendingRequests.get(key);
+        if (requests == null) {
+            if (lateResponses.remove(key) || cancelledTransactions.contains(key)) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(format("[%-8.8s] Dropping %s of a cancelled transaction", message.getTxid(), message.getType()));
+                }
+                return;
+            }
             throw new IllegalStateException(format("[%-8.8s] sendChannel does not exist", message.getTxid()));
         }
-        responseChannel.get(key).add(message);
+        final PendingRequest answered = requests.removeFirst();
+        answered.cancelTimeout();
+        answered.endEvent(message.getType().name());
+        onRoundTrip(answered);
+        sendNextRequest(key, requests);
+        answered.response.complete(message);
+    }
+
+    /**
+     * Feeds the round trip time of point reads and writes to the concurrency limit.
+     */
+    private void onRoundTrip(PendingRequest request) {
+        final Type type = request.message.getType();
+        if (type != GET_STATE && type != PUT_STATE) {
+            return;
+        }
+        requestRtt.recordSince(request.sentNanos);
+        if (concurrencyLimit != null && concurrencyLimit.onSample(System.nanoTime() - request.sentNanos, admissionController.getRunning())) {
+            admissionController.drain();
+        }
+    }
+
+    private synchronized void onRequestTimeout(PendingRequest request) {
+        final String channelId = request.message.getChannelId();
+        final String txId = request.message.getTxid();
+        final Deque<PendingRequest> requests = pendingRequests.get(getTxKey(channelId, txId));
+        if (requests == null || requests.peekFirst() != request) {
+            // answered in the meantime
+            return;
+        }
+        requestTimeouts.inc();
+        // a late response could no longer be told apart from the response to the next request
+        cancelTransaction(channelId, txId, format("%s request timed out after %d ms", request.message.getType(), requestTimeout));
+    }
+
+    /**
+     * Cancels a transaction: its pending requests fail, further requests are refused,
+     * late responses are dropped and an ERROR is sent to the peer in place of its result.
+     * The peer releases the iterators of the transaction when it receives the ERROR.
+     *
+     * @return whether the transaction was still running
+     */
+    private synchronized boolean cancelTransaction(String channelId, String txId, String reason) {
+        final String key = getTxKey(channelId, txId);
+        final Long startNanos = runningTransactions.remove(key);
+        if (startNanos == null) {
+            // already cancelled, or its result was sent
+            return false;
+        }
+        cancelledTransactions.add(key);
+        final Deque<PendingRequest> requests = pendingRequests.remove(key);
+        // a prioritized ERROR would otherwise overtake them, a request already on the stream is still answered
+        if (outboundChaincodeMessages.discardRequests(channelId, txId) == 0 && requests != null) {
+            lateResponses.add(key);
+        }
+        final CancellationException cancellation = new CancellationException(format("[%-8.8s] %s", txId, reason));
+        if (requests != null) {
+            for (PendingRequest request : requests) {
+                request.cancelTimeout();
+                request.endEvent("CANCELLED");
+                request.response.completeExceptionally(cancellation);
+            }
+        }
+        logger.severe(format("[%-8.8s] Transaction cancelled. Sending %s: %s", txId, ERROR, reason));
+        queueOutboundChaincodeMessage(newErrorEventMessage(channelId, txId, reason), startNanos);
+        return true;
+    }
+
+    private synchronized boolean isStreamGeneration(long generation) {
+        return generation == streamGeneration;
+    }
+
+    private synchronized boolean isCancelled(String channelId, String txId) {
+        return cancelledTransactions.contains(getTxKey(channelId, txId));
     }
 
-    private ChaincodeMessage receiveChannel(Channel<ChaincodeMessage> channel) {
+    private ChaincodeMessage receiveChannel(String txId, CompletableFuture<ChaincodeMessage> channel) {
         try {
-            return channel.take();
+            return channel.get();
         } catch (InterruptedException e) {
             if (logger.isLoggable(Level.FINE)) {
-                logger.fine("channel.take() failed with InterruptedException");
+                logger.fine(format("[%-8.8s] channel.get() failed with InterruptedException", txId));
             }
-
-            // Channel has been closed?
-            // TODO
-            return null;
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(format("[%-8.8s] Interrupted while waiting for a response", txId), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
         }
     }
 
-    private synchronized void releaseResponseChannelForTx(String channelId, String txId) {
-        String key = getTxKey(channelId, txId);
-        final Channel<ChaincodeMessage> channel = responseChannel.remove(key);
-        if (channel != null) channel.close();
+    /**
+     * Gives up waiting for a request. A request not sent yet is dropped, one already
+     * sent stays first in line so that its response is not taken for the next one.
+     */
+    private synchronized void abandonRequest(String channelId, String txId, CompletableFuture<ChaincodeMessage> channel) {
+        final Deque<PendingRequest> requests = pendingRequests.get(getTxKey(channelId, txId));
+        if (requests != null && requests.peekFirst() != null && requests.peekFirst().response != channel) {
+            requests.removeIf(request -> request.response == channel);
+        }
         if (logger.isLoggable(Level.FINER)) {
-            logger.finer(format("[%-8.8s] Response channel closed.", txId));
+            logger.finer(format("[%-8.8s] Request abandoned.", txId));
         }
     }
 
@@ -228,20 +554,155 @@ public class Handler {
         isTransaction.remove(key);
     }
 
+    /**
+     * Registers a running INIT or TRANSACTION and arms its deadline. One received on a
+     * stream that has since been reset is cancelled instead, it is not answered.
+     *
+     * @param generation stream generation when the transaction was received
+     * @return the deadline to cancel once the result is sent, or null
+     */
+    private ScheduledFuture<?> startTransaction(ChaincodeMessage message, long startNanos, ExecutionClass executionClass, long generation) {
+        final String channelId = message.getChannelId();
+        final String txId = message.getTxid();
+        // Mark as a transaction (allow put/del state), unless declared read-only
+        markIsTransaction(channelId, txId, executionClass != ExecutionClass.READ_ONLY);
+        synchronized (this) {
+            if (generation != streamGeneration) {
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.warning(format("[%-8.8s] %s was received on a previous chaincode stream, it will not be answered", txId, message.getType()));
+                }
+                cancelledTransactions.add(getTxKey(channelId, txId));
+                return null;
+            }
+            runningTransactions.put(getTxKey(channelId, txId), startNanos);
+        }
+        if (transactionTimeout == 0) {
+            return null;
+        }
+        return timeoutScheduler.schedule(() -> {
+            if (cancelTransaction(channelId, txId, format("Transaction timed out after %d ms", transactionTimeout))) {
+                transactionTimeouts.inc();
+            }
+        }, transactionTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the COMPLETED or ERROR result of a transaction, unless it was cancelled and
+     * the peer already got an ERROR.
+     */
+    private void finishTransaction(ChaincodeMessage message, ChaincodeMessage result, long startNanos, ScheduledFuture<?> deadline, ExecutionClass executionClass) {
+        final ExecutionLane lane = lanes.get(executionClass);
+        try {
+            lane.latency.recordSince(startNanos);
+            channelLatency(message.getChannelId()).recordSince(startNanos);
+            sendTransactionResult(message, result, startNanos, deadline);
+        } finally {
+            admissionController.release(message.getChannelId());
+            lane.admissionController.release();
+        }
+    }
+
+    private Histogram channelLatency(String channelId) {
+        final Histogram latency = channelLatencies.get(channelId);
+        if (latency != null) {
+            return latency;
+        }
+        return channelLatencies.computeIfAbsent(channelId, id -> metrics.histogram("channel." + id + ".latency"));
+    }
+
+    private synchronized void sendTransactionResult(ChaincodeMessage message, ChaincodeMessage result, long startNanos, ScheduledFuture<?> deadline) {
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        // delete isTransaction entry
+        deleteIsTransaction(message.getChannelId(), message.getTxid());
+        final String key = getTxKey(message.getChannelId(), message.getTxid());
+        if (runningTransactions.remove(key) == null) {
+            cancelledTransactions.remove(key);
+            if (result != null && logger.isLoggable(Level.WARNING)) {
+                logger.warning(format("[%-8.8s] Dropping %s of a cancelled transaction", message.getTxid(), result.getType()));
+            }
+            return;
+        }
+        if (result != null) {
+            queueOutboundChaincodeMessage(result, startNanos);
+        }
+    }
+
+    /**
+     * Runs the INIT or TRANSACTION on the pool of its class once admitted, first by the
+     * limit of its class then by the overall limit, shared fairly between channels, or
+     * answers it with an ERROR straight away when the chaincode is overloaded.
+     *
+     * @param generation stream generation when the transaction was received
+     */
+    private void dispatch(ChaincodeMessage message, long startNanos, ExecutionClass executionClass, long generation, Runnable transaction) {
+        final ExecutionLane lane = lanes.get(executionClass);
+        final Consumer<String> reject = reason -> {
+            if (!isStreamGeneration(generation)) {
+                // the peer of that stream is gone
+                return;
+            }
+            logger.warning(format("[%-8.8s] %s %s rejected. Sending %s: %s", message.getTxid(), executionClass, message.getType(), ERROR, reason));
+            queueOutboundChaincodeMessage(newErrorEventMessage(message.getChannelId(), message.getTxid(), reason), startNanos);
+        };
+        lane.admissionController.submit(() -> admissionController.submit(message.getChannelId(), () -> lane.executor.execute(transaction), reason -> {
+            lane.admissionController.release();
+            reject.accept(reason);
+        }), reject);
+    }
+
+    /**
+     * Parses the function and args of an INIT or TRANSACTION, answering it with an ERROR
+     * when they cannot be parsed.
+     *
+     * @return the input, or null
+     */
+    private ChaincodeInput parseInput(ChaincodeMessage message, long startNanos) {
+        try {
+            return parseAliased(ChaincodeInput.parser(), message.getPayload());
+        } catch (InvalidProtocolBufferException e) {
+            logger.severe(format("[%-8.8s] %s failed. Sending %s: %s", message.getTxid(), message.getType(), ERROR, e));
+            queueOutboundChaincodeMessage(newErrorEventMessage(message.getChannelId(), message.getTxid(), e), startNanos);
+            return null;
+        }
+    }
+
+    private ExecutionClass classify(ChaincodeMessage message, ChaincodeInput input) {
+        if (classifier == null || input.getArgsCount() == 0) {
+            return ExecutionClass.WRITE;
+        }
+        try {
+            final ExecutionClass executionClass = classifier.classify(input.getArgs(0).toStringUtf8());
+            return executionClass == null ? ExecutionClass.WRITE : executionClass;
+        } catch (RuntimeException e) {
+            logger.warning(format("[%-8.8s] Classifying the transaction failed, running it as %s: %s", message.getTxid(), ExecutionClass.WRITE, e));
+            return ExecutionClass.WRITE;
+        }
+    }
+
     /**
      * Handles requests to initialize chaincode
      *
      * @param message chaincode to be initialized
      */
     private void handleInit(ChaincodeMessage message) {
-        new Thread(() -> {
-            try {
+        final long startNanos = System.nanoTime();
+        final long generation = streamGeneration;
 
-                // Get the function and args from Payload
-                final ChaincodeInput input = ChaincodeInput.parseFrom(message.getPayload());
-
-                // Mark as a transaction (allow put/del state)
-                markIsTransaction(message.getChannelId(), message.getTxid(), true);
+        // Get the function and args from Payload
+        final ChaincodeInput input = parseInput(message, startNanos);
+        if (input == null) {
+            return;
+        }
+        if (asyncChaincode != null) {
+            handleAsync(message, input, startNanos, ExecutionClass.INIT, generation);
+            return;
+        }
+        dispatch(message, startNanos, ExecutionClass.INIT, generation, () -> {
+            final ScheduledFuture<?> deadline = startTransaction(message, startNanos, ExecutionClass.INIT, generation);
+            ChaincodeMessage resultMessage = null;
+            try {
 
                 // Create the ChaincodeStub which the chaincode can use to
                 // callback
@@ -253,62 +714,165 @@ public class Handler {
                 if (result.getStatus().getCode() >= Chaincode.Response.Status.INTERNAL_SERVER_ERROR.getCode()) {
                     // Send ERROR with entire result.Message as payload
                     logger.severe(format("[%-8.8s] Init failed. Sending %s", message.getTxid(), ERROR));
-                    queueOutboundChaincodeMessage(newErrorEventMessage(message.getChannelId(), message.getTxid(), result.getMessage(), stub.getEvent()));
+                    resultMessage = newErrorEventMessage(message.getChannelId(), message.getTxid(), result.getMessage(), stub.getEvent());
                 } else {
                     // Send COMPLETED with entire result as payload
                     if (logger.isLoggable(Level.FINE)) {
                         logger.fine(format(format("[%-8.8s] Init succeeded. Sending %s", message.getTxid(), COMPLETED)));
                     }
-                    queueOutboundChaincodeMessage(newCompletedEventMessage(message.getChannelId(), message.getTxid(), result, stub.getEvent()));
+                    resultMessage = newCompletedEventMessage(message.getChannelId(), message.getTxid(), result, stub.getEvent());
                 }
-            } catch (InvalidProtocolBufferException | RuntimeException e) {
+            } catch (RuntimeException e) {
                 logger.severe(format("[%-8.8s] Init failed. Sending %s: %s", message.getTxid(), ERROR, e));
-                queueOutboundChaincodeMessage(newErrorEventMessage(message.getChannelId(), message.getTxid(), e));
+                resultMessage = newErrorEventMessage(message.getChannelId(), message.getTxid(), e);
             } finally {
-                // delete isTransaction entry
-                deleteIsTransaction(message.getChannelId(), message.getTxid());
+                finishTransaction(message, resultMessage, startNanos, deadline, ExecutionClass.INIT);
             }
-        }).start();
+        });
     }
 
     // handleTransaction Handles request to execute a transaction.
     private void handleTransaction(ChaincodeMessage message) {
-        new Thread(() -> {
-            try {
-
-                // Get the function and args from Payload
-                final ChaincodeInput input = ChaincodeInput.parseFrom(message.getPayload());
+        final long startNanos = System.nanoTime();
+        final long generation = streamGeneration;
 
-                // Mark as a transaction (allow put/del state)
-                markIsTransaction(message.getChannelId(), message.getTxid(), true);
+        // Get the function and args from Payload
+        final ChaincodeInput input = parseInput(message, startNanos);
+        if (input == null) {
+            return;
+        }
+        final ExecutionClass executionClass = classify(message, input);
+        if (asyncChaincode != null) {
+            handleAsync(message, input, startNanos, executionClass, generation);
+            return;
+        }
+        dispatch(message, startNanos, executionClass, generation, () -> {
+            final ScheduledFuture<?> deadline = startTransaction(message, startNanos, executionClass, generation);
+            ChaincodeMessage resultMessage = null;
+            try {
 
                 // Create the ChaincodeStub which the chaincode can use to
                 // callback
-                final ChaincodeStub stub = new ChaincodeStubImpl(message.getChannelId(), message.getTxid(), this, input.getArgsList(), message.getProposal());
+                final ChaincodeStubImpl stub = new ChaincodeStubImpl(message.getChannelId(), message.getTxid(), this, input.getArgsList(), message.getProposal());
+                prefetch(stub);
 
                 // Call chaincode's invoke
                 final Chaincode.Response result = chaincode.invoke(stub);
+                stub.prefetchesDone().join();
 
                 if (result.getStatus().getCode() >= Chaincode.Response.Status.INTERNAL_SERVER_ERROR.getCode()) {
                     // Send ERROR with entire result.Message as payload
                     logger.severe(format("[%-8.8s] Invoke failed. Sending %s", message.getTxid(), ERROR));
-                    queueOutboundChaincodeMessage(newErrorEventMessage(message.getChannelId(), message.getTxid(), result.getMessage(), stub.getEvent()));
+                    resultMessage = newErrorEventMessage(message.getChannelId(), message.getTxid(), result.getMessage(), stub.getEvent());
                 } else {
                     // Send COMPLETED with entire result as payload
                     if (logger.isLoggable(Level.FINE)) {
                         logger.fine(format(format("[%-8.8s] Invoke succeeded. Sending %s", message.getTxid(), COMPLETED)));
                     }
-                    queueOutboundChaincodeMessage(newCompletedEventMessage(message.getChannelId(), message.getTxid(), result, stub.getEvent()));
+                    resultMessage = newCompletedEventMessage(message.getChannelId(), message.getTxid(), result, stub.getEvent());
+                    completeLocalInvocation(message, result);
                 }
 
-            } catch (InvalidProtocolBufferException | RuntimeException e) {
+            } catch (RuntimeException e) {
                 logger.severe(format("[%-8.8s] Invoke failed. Sending %s: %s", message.getTxid(), ERROR, e));
-                queueOutboundChaincodeMessage(newErrorEventMessage(message.getChannelId(), message.getTxid(), e));
+                resultMessage = newErrorEventMessage(message.getChannelId(), message.getTxid(), e);
             } finally {
-                // delete isTransaction entry
-                deleteIsTransaction(message.getChannelId(), message.getTxid());
+                finishTransaction(message, resultMessage, startNanos, deadline, executionClass);
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Runs an INIT or TRANSACTION through {@link AsyncChaincode} on the continuation pool.
+     * No thread is held while the chaincode waits for the peer.
+     */
+    private void handleAsync(ChaincodeMessage message, ChaincodeInput input, long startNanos, ExecutionClass executionClass, long generation) {
+        final boolean init = executionClass == ExecutionClass.INIT;
+        final String action = init ? "Init" : "Invoke";
+        dispatch(message, startNanos, executionClass, generation, () -> {
+            final ScheduledFuture<?> deadline = startTransaction(message, startNanos, executionClass, generation);
+            CompletionStage<Chaincode.Response> result;
+            AsyncChaincodeStub stub = null;
+            ChaincodeStubImpl syncStub = null;
+            try {
+                syncStub = new ChaincodeStubImpl(message.getChannelId(), message.getTxid(), this, input.getArgsList(), message.getProposal());
+                if (!init) {
+                    prefetch(syncStub);
+                }
+                stub = new AsyncChaincodeStubImpl(syncStub, this);
+                result = init ? asyncChaincode.init(stub) : asyncChaincode.invoke(stub);
+                if (result == null) {
+                    result = failedFuture(new IllegalStateException(action + " returned no result"));
+                }
+            } catch (RuntimeException e) {
+                result = failedFuture(e);
+            }
+            if (syncStub != null) {
+                result = result.thenCombine(syncStub.prefetchesDone(), (response, done) -> response);
+            }
+            final AsyncChaincodeStub completedStub = stub;
+            result.whenComplete((response, throwable) -> {
+                ChaincodeMessage resultMessage = null;
+                try {
+                    if (throwable == null && response == null) {
+                        throwable = new IllegalStateException(action + " completed without a response");
+                    }
+                    if (throwable != null) {
+                        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                        logger.severe(format("[%-8.8s] %s failed. Sending %s: %s", message.getTxid(), action, ERROR, cause));
+                        resultMessage = newErrorEventMessage(message.getChannelId(), message.getTxid(), cause);
+                    } else if (response.getStatus().getCode() >= Chaincode.Response.Status.INTERNAL_SERVER_ERROR.getCode()) {
+                        logger.severe(format("[%-8.8s] %s failed. Sending %s", message.getTxid(), action, ERROR));
+                        resultMessage = newErrorEventMessage(message.getChannelId(), message.getTxid(), response.getMessage(), completedStub.getEvent());
+                    } else {
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine(format("[%-8.8s] %s succeeded. Sending %s", message.getTxid(), action, COMPLETED));
+                        }
+                        resultMessage = newCompletedEventMessage(message.getChannelId(), message.getTxid(), response, completedStub.getEvent());
+                        if (!init) {
+                            completeLocalInvocation(message, response);
+                        }
+                    }
+                } finally {
+                    finishTransaction(message, resultMessage, startNanos, deadline, executionClass);
+                }
+            });
+        });
+    }
+
+    /**
+     * Requests the keys the chaincode or the client named before the invocation runs. The
+     * requests of a transaction are answered one at a time, as responses only carry the
+     * txid, but they follow each other without waiting for the chaincode.
+     */
+    private void prefetch(ChaincodeStubImpl stub) {
+        if (maxPrefetchKeys == 0) {
+            return;
+        }
+        final Set<String> keys = new LinkedHashSet<>();
+        try {
+            if (keyPrefetcher != null) {
+                final List<String> declared = keyPrefetcher.prefetchKeys(stub);
+                if (declared != null) {
+                    keys.addAll(declared);
+                }
+            }
+            if (prefetchTransientEnabled) {
+                final byte[] hint = stub.getTransient().get(KeyPrefetcher.TRANSIENT_KEY);
+                if (hint != null) {
+                    for (String key : new String(hint, StandardCharsets.UTF_8).split("\n")) {
+                        if (!key.isEmpty()) {
+                            keys.add(key);
+                        }
+                    }
+                }
+            }
+            final List<String> requested = keys.stream().limit(maxPrefetchKeys).collect(Collectors.toList());
+            stub.prefetch(requested, prefetchHits);
+            prefetchKeys.add(requested.size());
+        } catch (RuntimeException e) {
+            logger.warning(format("[%-8.8s] Prefetching keys failed, reading them on demand: %s", stub.getTxId(), e));
+        }
     }
 
     // handleGetState communicates with the validator to fetch the requested state information from the ledger.
@@ -335,41 +899,69 @@ public class Handler {
     }
 
     QueryResponse getStateByRange(String channelId, String txId, String collection, String startKey, String endKey) {
-        return invokeQueryResponseMessage(channelId, txId, GET_STATE_BY_RANGE, GetStateByRange.newBuilder()
-                .setCollection(collection)
-                .setStartKey(startKey)
-                .setEndKey(endKey)
-                .build().toByteString());
+        return toQueryResponse(txId, invokeChaincodeSupport(newGetStateByRangeEventMessage(channelId, txId, collection, startKey, endKey)));
     }
 
     QueryResponse queryStateNext(String channelId, String txId, String queryId) {
-        return invokeQueryResponseMessage(channelId, txId, QUERY_STATE_NEXT, QueryStateNext.newBuilder()
-                .setId(queryId)
-                .build().toByteString());
+        return toQueryResponse(txId, invokeChaincodeSupport(newQueryStateNextEventMessage(channelId, txId, queryId)));
     }
 
     void queryStateClose(String channelId, String txId, String queryId) {
-        invokeQueryResponseMessage(channelId, txId, QUERY_STATE_CLOSE, QueryStateClose.newBuilder()
-                .setId(queryId)
-                .build().toByteString());
+        if (isCancelled(channelId, txId)) {
+            // the peer releases the iterators of a transaction when it ends
+            return;
+        }
+        toQueryResponse(txId, invokeChaincodeSupport(newQueryStateCloseEventMessage(channelId, txId, queryId)));
     }
 
     QueryResponse getQueryResult(String channelId, String txId, String collection, String query) {
-        return invokeQueryResponseMessage(channelId, txId, GET_QUERY_RESULT, GetQueryResult.newBuilder()
-                .setCollection(collection)
-                .setQuery(query)
-                .build().toByteString());
+        return toQueryResponse(txId, invokeChaincodeSupport(newGetQueryResultEventMessage(channelId, txId, collection, query)));
     }
 
     QueryResponse getHistoryForKey(String channelId, String txId, String key) {
-        return invokeQueryResponseMessage(channelId, txId, Type.GET_HISTORY_FOR_KEY, GetQueryResult.newBuilder()
-                .setQuery(key)
-                .build().toByteString());
+        return toQueryResponse(txId, invokeChaincodeSupport(newGetHistoryForKeyEventMessage(channelId, txId, key)));
+    }
+
+    CompletableFuture<ByteString> getStateAsync(String channelId, String txId, String collection, String key) {
+        return invokeChaincodeSupportAsync(newGetStateEventMessage(channelId, txId, collection, key));
+    }
+
+    CompletableFuture<Void> putStateAsync(String channelId, String txId, String collection, String key, ByteString value) {
+        if (!isTransaction(channelId, txId)) return failedFuture(new IllegalStateException("Cannot put state in query context"));
+        return invokeChaincodeSupportAsync(newPutStateEventMessage(channelId, txId, collection, key, value)).thenApply(payload -> null);
     }
 
-    private QueryResponse invokeQueryResponseMessage(String channelId, String txId, ChaincodeMessage.Type type, ByteString payload) {
+    CompletableFuture<Void> deleteStateAsync(String channelId, String txId, String collection, String key) {
+        if (!isTransaction(channelId, txId)) return failedFuture(new IllegalStateException("Cannot del state in query context"));
+        return invokeChaincodeSupportAsync(newDeleteStateEventMessage(channelId, txId, collection, key)).thenApply(payload -> null);
+    }
+
+    CompletableFuture<QueryResponse> getStateByRangeAsync(String channelId, String txId, String collection, String startKey, String endKey) {
+        return invokeChaincodeSupportAsync(newGetStateByRangeEventMessage(channelId, txId, collection, startKey, endKey)).thenApply(payload -> toQueryResponse(txId, payload));
+    }
+
+    CompletableFuture<QueryResponse> queryStateNextAsync(String channelId, String txId, String queryId) {
+        return invokeChaincodeSupportAsync(newQueryStateNextEventMessage(channelId, txId, queryId)).thenApply(payload -> toQueryResponse(txId, payload));
+    }
+
+    CompletableFuture<Void> queryStateCloseAsync(String channelId, String txId, String queryId) {
+        if (isCancelled(channelId, txId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return invokeChaincodeSupportAsync(newQueryStateCloseEventMessage(channelId, txId, queryId)).thenApply(payload -> null);
+    }
+
+    CompletableFuture<QueryResponse> getQueryResultAsync(String channelId, String txId, String collection, String query) {
+        return invokeChaincodeSupportAsync(newGetQueryResultEventMessage(channelId, txId, collection, query)).thenApply(payload -> toQueryResponse(txId, payload));
+    }
+
+    CompletableFuture<QueryResponse> getHistoryForKeyAsync(String channelId, String txId, String key) {
+        return invokeChaincodeSupportAsync(newGetHistoryForKeyEventMessage(channelId, txId, key)).thenApply(payload -> toQueryResponse(txId, payload));
+    }
+
+    private static QueryResponse toQueryResponse(String txId, ByteString payload) {
         try {
-            return QueryResponse.parseFrom(invokeChaincodeSupport(newEventMessage(type, channelId, txId, payload)));
+            return parseAliased(QueryResponse.parser(), payload);
         } catch (InvalidProtocolBufferException e) {
             logger.severe(String.format("[%-8.8s] unmarshall error", txId));
             throw new RuntimeException("Error unmarshalling QueryResponse.", e);
@@ -380,63 +972,113 @@ public class Handler {
         final String channelId = message.getChannelId();
         final String txId = message.getTxid();
 
+        // send the message, after earlier requests of the tx
+        final CompletableFuture<ChaincodeMessage> responseChannel = sendRequest(message);
         try {
-            // create a new response channel
-            Channel<ChaincodeMessage> responseChannel = aquireResponseChannelForTx(channelId, txId);
-
-            // send the message
-            queueOutboundChaincodeMessage(message);
-
             // wait for response
-            final ChaincodeMessage response = receiveChannel(responseChannel);
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine(format("[%-8.8s] %s response received.", txId, response.getType()));
+            return toResponsePayload(txId, receiveChannel(txId, responseChannel));
+        } finally {
+            if (!responseChannel.isDone()) {
+                abandonRequest(channelId, txId, responseChannel);
             }
+        }
+    }
 
-            // handle response
-            switch (response.getType()) {
-                case RESPONSE:
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine(format("[%-8.8s] Successful response received.", txId));
-                    }
-                    return response.getPayload();
-                case ERROR:
-                    logger.severe(format("[%-8.8s] Unsuccessful response received.", txId));
-                    throw new RuntimeException(format("[%-8.8s]Unsuccessful response received.", txId));
-                default:
-                    logger.severe(format("[%-8.8s] Unexpected %s response received. Expected %s or %s.", txId, response.getType(), RESPONSE, ERROR));
-                    throw new RuntimeException(format("[%-8.8s]Unexpected %s response received. Expected %s or %s.", txId, response.getType(), RESPONSE, ERROR));
-            }
-        } finally {
-            releaseResponseChannelForTx(channelId, txId);
+    /**
+     * Sends the message without waiting for the response. The returned future
+     * completes on the continuation pool with the payload of the response.
+     */
+    private CompletableFuture<ByteString> invokeChaincodeSupportAsync(final ChaincodeMessage message) {
+        final String txId = message.getTxid();
+        return sendRequest(message).thenApplyAsync(response -> toResponsePayload(txId, response), asyncExecutor);
+    }
+
+    private static ByteString toResponsePayload(String txId, ChaincodeMessage response) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(format("[%-8.8s] %s response received.", txId, response.getType()));
+        }
+
+        // handle response
+        switch (response.getType()) {
+            case RESPONSE:
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(format("[%-8.8s] Successful response received.", txId));
+                }
+                return response.getPayload();
+            case ERROR:
+                logger.severe(format("[%-8.8s] Unsuccessful response received.", txId));
+                throw new RuntimeException(format("[%-8.8s]Unsuccessful response received.", txId));
+            default:
+                logger.severe(format("[%-8.8s] Unexpected %s response received. Expected %s or %s.", txId, response.getType(), RESPONSE, ERROR));
+                throw new RuntimeException(format("[%-8.8s]Unexpected %s response received. Expected %s or %s.", txId, response.getType(), RESPONSE, ERROR));
         }
     }
 
     Chaincode.Response invokeChaincode(String channelId, String txId, String chaincodeName, List<byte[]> args) {
+        final long startNanos = System.nanoTime();
+        final String localKey = localInvocations == null ? null : localInvocations.expect(channelId, txId, chaincodeName);
         try {
-            // create invocation specification of the chaincode to invoke
-            final ChaincodeSpec invocationSpec = ChaincodeSpec.newBuilder()
-                    .setChaincodeId(ChaincodeID.newBuilder()
-                            .setName(chaincodeName)
-                            .build())
-                    .setInput(ChaincodeInput.newBuilder()
-                            .addAllArgs(args.stream().map(ByteString::copyFrom).collect(Collectors.toList()))
-                            .build())
-                    .build();
-
             // invoke other chaincode
-            final ByteString payload = invokeChaincodeSupport(newInvokeChaincodeMessage(channelId, txId, invocationSpec.toByteString()));
+            final ByteString payload = invokeChaincodeSupport(newInvokeChaincodeMessage(channelId, txId, chaincodeName, args));
+            return toChaincodeResponse(txId, payload, localKey, startNanos);
+        } finally {
+            if (localKey != null) {
+                localInvocations.take(localKey);
+            }
+        }
+    }
+
+    CompletableFuture<Chaincode.Response> invokeChaincodeAsync(String channelId, String txId, String chaincodeName, List<byte[]> args) {
+        final long startNanos = System.nanoTime();
+        final String localKey = localInvocations == null ? null : localInvocations.expect(channelId, txId, chaincodeName);
+        return invokeChaincodeSupportAsync(newInvokeChaincodeMessage(channelId, txId, chaincodeName, args))
+                .thenApply(payload -> toChaincodeResponse(txId, payload, localKey, startNanos))
+                .whenComplete((response, throwable) -> {
+                    if (localKey != null) {
+                        localInvocations.take(localKey);
+                    }
+                });
+    }
+
+    /**
+     * Takes the response the invoked chaincode handed over when it runs in this process,
+     * otherwise parses it from the payload of the peer's response.
+     */
+    private Chaincode.Response toChaincodeResponse(String txId, ByteString payload, String localKey, long startNanos) {
+        final Chaincode.Response local = localKey == null ? null : localInvocations.take(localKey);
+        if (local != null) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(format("[%-8.8s] Response of co-located chaincode taken over.", txId));
+            }
+            localInvokeLatency.recordSince(startNanos);
+            return local;
+        }
+        final Chaincode.Response response = toChaincodeResponse(txId, payload);
+        remoteInvokeLatency.recordSince(startNanos);
+        return response;
+    }
+
+    /**
+     * Hands the response of a completed transaction over to a co-located chaincode waiting for it.
+     */
+    private void completeLocalInvocation(ChaincodeMessage message, Chaincode.Response response) {
+        if (localInvocations != null) {
+            localInvocations.complete(message.getChannelId(), message.getTxid(), chaincodeId.getName(), response);
+        }
+    }
 
+    private static Chaincode.Response toChaincodeResponse(String txId, ByteString payload) {
+        try {
             // response message payload should be yet another chaincode
             // message (the actual response message)
-            final ChaincodeMessage responseMessage = ChaincodeMessage.parseFrom(payload);
+            final ChaincodeMessage responseMessage = parseAliased(ChaincodeMessage.parser(), payload);
             // the actual response message must be of type COMPLETED
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(format("[%-8.8s] %s response received from other chaincode.", txId, responseMessage.getType()));
             }
             if (responseMessage.getType() == COMPLETED) {
                 // success
-                return toChaincodeResponse(Response.parseFrom(responseMessage.getPayload()));
+                return toChaincodeResponse(parseAliased(Response.parser(), responseMessage.getPayload()));
             } else {
                 // error
                 return newErrorChaincodeResponse(responseMessage.getPayload().toStringUtf8());
@@ -446,6 +1088,12 @@ public class Handler {
         }
     }
 
+    private static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
     private static String toJsonString(ChaincodeMessage message) {
         try {
             return JsonFormat.printer().print(message);
@@ -497,8 +1145,50 @@ public class Handler {
         return message;
     }
 
-    private static ChaincodeMessage newInvokeChaincodeMessage(final String channelId, final String txId, final ByteString payload) {
-        return newEventMessage(INVOKE_CHAINCODE, channelId, txId, payload, null);
+    private static ChaincodeMessage newGetStateByRangeEventMessage(final String channelId, final String txId, final String collection, final String startKey, final String endKey) {
+        return newEventMessage(GET_STATE_BY_RANGE, channelId, txId, GetStateByRange.newBuilder()
+                .setCollection(collection)
+                .setStartKey(startKey)
+                .setEndKey(endKey)
+                .build().toByteString());
+    }
+
+    private static ChaincodeMessage newQueryStateNextEventMessage(final String channelId, final String txId, final String queryId) {
+        return newEventMessage(QUERY_STATE_NEXT, channelId, txId, QueryStateNext.newBuilder()
+                .setId(queryId)
+                .build().toByteString());
+    }
+
+    private static ChaincodeMessage newQueryStateCloseEventMessage(final String channelId, final String txId, final String queryId) {
+        return newEventMessage(QUERY_STATE_CLOSE, channelId, txId, QueryStateClose.newBuilder()
+                .setId(queryId)
+                .build().toByteString());
+    }
+
+    private static ChaincodeMessage newGetQueryResultEventMessage(final String channelId, final String txId, final String collection, final String query) {
+        return newEventMessage(GET_QUERY_RESULT, channelId, txId, GetQueryResult.newBuilder()
+                .setCollection(collection)
+                .setQuery(query)
+                .build().toByteString());
+    }
+
+    private static ChaincodeMessage newGetHistoryForKeyEventMessage(final String channelId, final String txId, final String key) {
+        return newEventMessage(GET_HISTORY_FOR_KEY, channelId, txId, GetQueryResult.newBuilder()
+                .setQuery(key)
+                .build().toByteString());
+    }
+
+    private static ChaincodeMessage newInvokeChaincodeMessage(final String channelId, final String txId, final String chaincodeName, final List<byte[]> args) {
+        // create invocation specification of the chaincode to invoke
+        final ChaincodeSpec invocationSpec = ChaincodeSpec.newBuilder()
+                .setChaincodeId(ChaincodeID.newBuilder()
+                        .setName(chaincodeName)
+                        .build())
+                .setInput(ChaincodeInput.newBuilder()
+                        .addAllArgs(args.stream().map(ByteString::copyFrom).collect(Collectors.toList()))
+                        .build())
+                .build();
+        return newEventMessage(INVOKE_CHAINCODE, channelId, txId, invocationSpec.toByteString(), null);
     }
 
     private static ChaincodeMessage newRegisterChaincodeMessage(final ChaincodeID chaincodeId) {
@@ -524,19 +1214,20 @@ public class Handler {
         return builder.build();
     }
 
-    private static Response toProtoResponse(Chaincode.Response response) {
+    static Response toProtoResponse(Chaincode.Response response) {
         final Builder builder = Response.newBuilder();
         builder.setStatus(response.getStatus().getCode());
         if (response.getMessage() != null) {
             builder.setMessage(response.getMessage());
         }
         if (response.getPayload() != null) {
-            builder.setPayload(ByteString.copyFrom(response.getPayload()));
+            // serialized into the COMPLETED payload straight away, so the array is not copied
+            builder.setPayload(UnsafeByteOperations.unsafeWrap(response.getPayload()));
         }
         return builder.build();
     }
 
-    private static Chaincode.Response toChaincodeResponse(Response response) {
+    static Chaincode.Response toChaincodeResponse(Response response) {
         return new Chaincode.Response(
                 Chaincode.Response.Status.forCode(response.getStatus()),
                 response.getMessage(),
@@ -544,6 +1235,53 @@ public class Handler {
         );
     }
 
+    /**
+     * @return key, range start, query id, query or chaincode a request is about, prefixed by
+     * its collection for private data
+     */
+    private static String requestKey(ChaincodeMessage request) {
+        try {
+            switch (request.getType()) {
+                case GET_STATE: {
+                    final GetState payload = GetState.parseFrom(request.getPayload());
+                    return collectionKey(payload.getCollection(), payload.getKey());
+                }
+                case PUT_STATE: {
+                    final PutState payload = PutState.parseFrom(request.getPayload());
+                    return collectionKey(payload.getCollection(), payload.getKey());
+                }
+                case DEL_STATE: {
+                    final DelState payload = DelState.parseFrom(request.getPayload());
+                    return collectionKey(payload.getCollection(), payload.getKey());
+                }
+                case GET_STATE_BY_RANGE: {
+                    final GetStateByRange payload = GetStateByRange.parseFrom(request.getPayload());
+                    return collectionKey(payload.getCollection(), payload.getStartKey());
+                }
+                case GET_QUERY_RESULT: {
+                    final GetQueryResult payload = GetQueryResult.parseFrom(request.getPayload());
+                    return collectionKey(payload.getCollection(), payload.getQuery());
+                }
+                case GET_HISTORY_FOR_KEY:
+                    return GetHistoryForKey.parseFrom(request.getPayload()).getKey();
+                case QUERY_STATE_NEXT:
+                    return QueryStateNext.parseFrom(request.getPayload()).getId();
+                case QUERY_STATE_CLOSE:
+                    return QueryStateClose.parseFrom(request.getPayload()).getId();
+                case INVOKE_CHAINCODE:
+                    return ChaincodeSpec.parseFrom(request.getPayload()).getChaincodeId().getName();
+                default:
+                    return null;
+            }
+        } catch (InvalidProtocolBufferException e) {
+            return null;
+        }
+    }
+
+    private static String collectionKey(String collection, String key) {
+        return collection.isEmpty() ? key : collection + ':' + key;
+    }
+
     private static String printStackTrace(Throwable throwable) {
         if (throwable == null) return null;
         final StringWriter buffer = new StringWriter();
@@ -551,6 +1289,47 @@ public class Handler {
         return buffer.toString();
     }
 
+    /**
+     * Admission, pool and latency of one {@link ExecutionClass}.
+     */
+    private static final class ExecutionLane {
+        private final AdmissionController admissionController;
+        private final Executor executor;
+        private final Histogram latency;
+
+        ExecutionLane(AdmissionController admissionController, Executor executor, Histogram latency) {
+            this.admissionController = admissionController;
+            this.executor = executor;
+            this.latency = latency;
+        }
+    }
+
+    private static final class PendingRequest {
+        private final ChaincodeMessage message;
+        private final CompletableFuture<ChaincodeMessage> response = new CompletableFuture<>();
+        private ScheduledFuture<?> timeout;
+        private long sentNanos;
+        // flight recorder event of the round trip, from sending the request
+        private Object event;
+
+        PendingRequest(ChaincodeMessage message) {
+            this.message = message;
+        }
+
+        void cancelTimeout() {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+
+        void endEvent(String response) {
+            if (event != null) {
+                ShimEvents.endRequest(event, message.getType().name(), message.getChannelId(), message.getTxid(), requestKey(message), response);
+                event = null;
+            }
+        }
+    }
+
     public enum CCState {
         CREATED,
         ESTABLISHED,
@@ -0,0 +1,394 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.hyperledger.fabric.shim.ExecutionClass;
+import org.hyperledger.fabric.shim.ExecutionClassifier;
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tuning options of a {@link Handler}. The defaults match the behaviour of a
+ * handler created without options.
+ */
+public class HandlerOptions {
+
+    public static final int DEFAULT_OUTBOUND_MAX_BYPASS = 16;
+    public static final int DEFAULT_ASYNC_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final long DEFAULT_REQUEST_TIMEOUT = 0;
+    public static final long DEFAULT_TRANSACTION_TIMEOUT = 0;
+    public static final int DEFAULT_MAX_CONCURRENCY = 0;
+    public static final int DEFAULT_MAX_QUEUED = 100;
+    public static final long DEFAULT_MAX_QUEUE_TIME = 5000;
+    public static final int DEFAULT_INITIAL_CONCURRENCY = 16;
+    public static final int DEFAULT_ADAPTIVE_MAX_CONCURRENCY = 1000;
+    public static final int DEFAULT_MAX_PREFETCH_KEYS = 64;
+
+    private MetricsRegistry metrics = new MetricsRegistry();
+    private boolean outboundPriorityEnabled = false;
+    private int outboundMaxBypass = DEFAULT_OUTBOUND_MAX_BYPASS;
+    private int asyncThreads = DEFAULT_ASYNC_THREADS;
+    private Executor asyncExecutor;
+    private long requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    private long transactionTimeout = DEFAULT_TRANSACTION_TIMEOUT;
+    private ScheduledExecutorService timeoutScheduler;
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private int maxQueued = DEFAULT_MAX_QUEUED;
+    private long maxQueueTime = DEFAULT_MAX_QUEUE_TIME;
+    private boolean adaptiveConcurrencyEnabled = false;
+    private int initialConcurrency = DEFAULT_INITIAL_CONCURRENCY;
+    private final Map<ExecutionClass, Integer> executionClassMaxConcurrency = new EnumMap<>(ExecutionClass.class);
+    private final Map<ExecutionClass, Executor> dispatchExecutors = new EnumMap<>(ExecutionClass.class);
+    private Executor dispatchExecutor;
+    private int channelMaxConcurrency = 0;
+    private int channelMaxQueued = 0;
+    private final Map<String, Integer> channelWeights = new HashMap<>();
+    private LocalInvocations localInvocations;
+    private ExecutionClassifier executionClassifier;
+    private int maxPrefetchKeys = DEFAULT_MAX_PREFETCH_KEYS;
+    private boolean prefetchTransientEnabled = false;
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public HandlerOptions setMetrics(MetricsRegistry metrics) {
+        if (metrics == null) throw new IllegalArgumentException("metrics must not be null");
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @return whether COMPLETED/ERROR messages overtake queued peer requests, and point
+     * requests overtake range and query paging requests, false to send messages in the
+     * order they are queued
+     */
+    public boolean isOutboundPriorityEnabled() {
+        return outboundPriorityEnabled;
+    }
+
+    public HandlerOptions setOutboundPriorityEnabled(boolean outboundPriorityEnabled) {
+        this.outboundPriorityEnabled = outboundPriorityEnabled;
+        return this;
+    }
+
+    /**
+     * @return how many times a queued lower priority message may be overtaken before it is sent anyway
+     */
+    public int getOutboundMaxBypass() {
+        return outboundMaxBypass;
+    }
+
+    public HandlerOptions setOutboundMaxBypass(int outboundMaxBypass) {
+        if (outboundMaxBypass < 1) throw new IllegalArgumentException("outboundMaxBypass must be at least 1");
+        this.outboundMaxBypass = outboundMaxBypass;
+        return this;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    /**
+     * @param asyncThreads size of the continuation pool created when no executor is set
+     */
+    public HandlerOptions setAsyncThreads(int asyncThreads) {
+        if (asyncThreads < 1) throw new IllegalArgumentException("asyncThreads must be at least 1");
+        this.asyncThreads = asyncThreads;
+        return this;
+    }
+
+    /**
+     * @return executor running {@link org.hyperledger.fabric.shim.AsyncChaincode} invocations and the
+     * continuations of their requests, shared by all handlers created with these options
+     */
+    public synchronized Executor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            final AtomicInteger threads = new AtomicInteger();
+            asyncExecutor = Executors.newFixedThreadPool(asyncThreads, r -> {
+                final Thread thread = new Thread(r, "chaincode-async-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return asyncExecutor;
+    }
+
+    public synchronized HandlerOptions setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        return this;
+    }
+
+    /**
+     * @return milliseconds to wait for the peer to answer a request before the transaction
+     * is cancelled, 0 to wait forever, the default. Rich queries and invocations of other
+     * chaincodes may legitimately take long, so the timeout should leave room for them.
+     */
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public HandlerOptions setRequestTimeout(long requestTimeout) {
+        if (requestTimeout < 0) throw new IllegalArgumentException("requestTimeout must not be negative");
+        this.requestTimeout = requestTimeout;
+        return this;
+    }
+
+    /**
+     * @return milliseconds an INIT or TRANSACTION may run before it is cancelled, 0 for no limit
+     */
+    public long getTransactionTimeout() {
+        return transactionTimeout;
+    }
+
+    public HandlerOptions setTransactionTimeout(long transactionTimeout) {
+        if (transactionTimeout < 0) throw new IllegalArgumentException("transactionTimeout must not be negative");
+        this.transactionTimeout = transactionTimeout;
+        return this;
+    }
+
+    /**
+     * @return scheduler firing request and transaction deadlines, shared by all handlers created with these options
+     */
+    public synchronized ScheduledExecutorService getTimeoutScheduler() {
+        if (timeoutScheduler == null) {
+            timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "chaincode-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timeoutScheduler;
+    }
+
+    public synchronized HandlerOptions setTimeoutScheduler(ScheduledExecutorService timeoutScheduler) {
+        this.timeoutScheduler = timeoutScheduler;
+        return this;
+    }
+
+    /**
+     * @return transactions allowed to run at once, 0 for no limit. With an adaptive
+     * limit, the most it may grow to, 0 for {@link #DEFAULT_ADAPTIVE_MAX_CONCURRENCY}
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public HandlerOptions setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 0) throw new IllegalArgumentException("maxConcurrency must not be negative");
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * @return whether the concurrency limit follows the round trip time of GET_STATE and
+     * PUT_STATE requests instead of staying at the max concurrency
+     */
+    public boolean isAdaptiveConcurrencyEnabled() {
+        return adaptiveConcurrencyEnabled;
+    }
+
+    public HandlerOptions setAdaptiveConcurrencyEnabled(boolean adaptiveConcurrencyEnabled) {
+        this.adaptiveConcurrencyEnabled = adaptiveConcurrencyEnabled;
+        return this;
+    }
+
+    /**
+     * @return the adaptive concurrency limit before any round trip was measured
+     */
+    public int getInitialConcurrency() {
+        return initialConcurrency;
+    }
+
+    public HandlerOptions setInitialConcurrency(int initialConcurrency) {
+        if (initialConcurrency < 1) throw new IllegalArgumentException("initialConcurrency must be at least 1");
+        this.initialConcurrency = initialConcurrency;
+        return this;
+    }
+
+    /**
+     * @return transactions allowed to wait while the max concurrency is reached, over all
+     * channels, further ones are rejected. Each execution class queues up to as many.
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public HandlerOptions setMaxQueued(int maxQueued) {
+        if (maxQueued < 0) throw new IllegalArgumentException("maxQueued must not be negative");
+        this.maxQueued = maxQueued;
+        return this;
+    }
+
+    /**
+     * @return milliseconds a transaction may wait to start before it is rejected, 0 for no limit
+     */
+    public long getMaxQueueTime() {
+        return maxQueueTime;
+    }
+
+    public HandlerOptions setMaxQueueTime(long maxQueueTime) {
+        if (maxQueueTime < 0) throw new IllegalArgumentException("maxQueueTime must not be negative");
+        this.maxQueueTime = maxQueueTime;
+        return this;
+    }
+
+    /**
+     * @return transactions of the class allowed to run at once, 0 for no limit other than
+     * {@link #getMaxConcurrency()}
+     */
+    public int getMaxConcurrency(ExecutionClass executionClass) {
+        return executionClassMaxConcurrency.getOrDefault(executionClass, 0);
+    }
+
+    public HandlerOptions setMaxConcurrency(ExecutionClass executionClass, int maxConcurrency) {
+        if (maxConcurrency < 0) throw new IllegalArgumentException("maxConcurrency must not be negative");
+        this.executionClassMaxConcurrency.put(executionClass, maxConcurrency);
+        return this;
+    }
+
+    /**
+     * @return transactions of a single channel allowed to run at once, 0 for no limit
+     * other than {@link #getMaxConcurrency()}
+     */
+    public int getChannelMaxConcurrency() {
+        return channelMaxConcurrency;
+    }
+
+    public HandlerOptions setChannelMaxConcurrency(int channelMaxConcurrency) {
+        if (channelMaxConcurrency < 0) throw new IllegalArgumentException("channelMaxConcurrency must not be negative");
+        this.channelMaxConcurrency = channelMaxConcurrency;
+        return this;
+    }
+
+    /**
+     * @return transactions of a single channel allowed to wait, 0 for no limit other than
+     * {@link #getMaxQueued()}
+     */
+    public int getChannelMaxQueued() {
+        return channelMaxQueued;
+    }
+
+    public HandlerOptions setChannelMaxQueued(int channelMaxQueued) {
+        if (channelMaxQueued < 0) throw new IllegalArgumentException("channelMaxQueued must not be negative");
+        this.channelMaxQueued = channelMaxQueued;
+        return this;
+    }
+
+    /**
+     * @return share of the freed slots the channel gets while transactions of several
+     * channels wait, relative to the other channels, 1 unless set
+     */
+    public synchronized int getChannelWeight(String channelId) {
+        return channelWeights.getOrDefault(channelId, 1);
+    }
+
+    public synchronized HandlerOptions setChannelWeight(String channelId, int weight) {
+        if (weight < 1) throw new IllegalArgumentException("weight must be at least 1");
+        this.channelWeights.put(channelId, weight);
+        return this;
+    }
+
+    /**
+     * @return keys prefetched before an invocation runs at most, 0 to disable prefetching
+     */
+    public int getMaxPrefetchKeys() {
+        return maxPrefetchKeys;
+    }
+
+    public HandlerOptions setMaxPrefetchKeys(int maxPrefetchKeys) {
+        if (maxPrefetchKeys < 0) throw new IllegalArgumentException("maxPrefetchKeys must not be negative");
+        this.maxPrefetchKeys = maxPrefetchKeys;
+        return this;
+    }
+
+    /**
+     * @return whether the keys listed by the client in the transient map entry
+     * {@link org.hyperledger.fabric.shim.KeyPrefetcher#TRANSIENT_KEY} are prefetched too
+     */
+    public boolean isPrefetchTransientEnabled() {
+        return prefetchTransientEnabled;
+    }
+
+    public HandlerOptions setPrefetchTransientEnabled(boolean prefetchTransientEnabled) {
+        this.prefetchTransientEnabled = prefetchTransientEnabled;
+        return this;
+    }
+
+    /**
+     * @return classifier of the invocations of chaincode that does not implement
+     * {@link ExecutionClassifier} itself, such as the functions a
+     * {@link org.hyperledger.fabric.shim.ChaincodeBase} registered, or null to run them all as
+     * {@link ExecutionClass#WRITE}
+     */
+    public ExecutionClassifier getExecutionClassifier() {
+        return executionClassifier;
+    }
+
+    public HandlerOptions setExecutionClassifier(ExecutionClassifier executionClassifier) {
+        this.executionClassifier = executionClassifier;
+        return this;
+    }
+
+    /**
+     * @return results of the chaincodes hosted in the same process, handed over to the
+     * chaincodes invoking them, or null when no other chaincode is hosted
+     */
+    public LocalInvocations getLocalInvocations() {
+        return localInvocations;
+    }
+
+    public HandlerOptions setLocalInvocations(LocalInvocations localInvocations) {
+        this.localInvocations = localInvocations;
+        return this;
+    }
+
+    /**
+     * @return executor running the init and invoke calls of synchronous chaincode in the
+     * class, shared by all handlers created with these options. Unless an executor was
+     * set, each class has a pool of its own.
+     */
+    public synchronized Executor getDispatchExecutor(ExecutionClass executionClass) {
+        if (dispatchExecutor != null) {
+            return dispatchExecutor;
+        }
+        return dispatchExecutors.computeIfAbsent(executionClass, c -> {
+            final String name = "chaincode-" + c.name().toLowerCase(Locale.ROOT).replace('_', '-') + "-";
+            final AtomicInteger threads = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                final Thread thread = new Thread(r, name + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        });
+    }
+
+    /**
+     * @param executionClass   class whose calls the executor runs
+     * @param dispatchExecutor executor for the class instead of a pool of its own
+     */
+    public synchronized HandlerOptions setDispatchExecutor(ExecutionClass executionClass, Executor dispatchExecutor) {
+        this.dispatchExecutors.put(executionClass, dispatchExecutor);
+        return this;
+    }
+
+    /**
+     * @param dispatchExecutor executor for all classes instead of a pool per class
+     */
+    public synchronized HandlerOptions setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        return this;
+    }
+
+}
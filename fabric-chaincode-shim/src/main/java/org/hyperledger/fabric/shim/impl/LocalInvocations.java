@@ -0,0 +1,85 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.hyperledger.fabric.shim.Chaincode;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the result of a chaincode over to a chaincode of the same process that invoked it.
+ * <p>
+ * The invocation still goes through the peer, which runs the transaction of the callee,
+ * serves its state and decides whether it succeeded. When the peer then answers the
+ * caller, the caller takes the {@link Chaincode.Response} the callee returned instead of
+ * parsing it back from the nested COMPLETED message. Results are only kept for
+ * invocations a caller is waiting for.
+ */
+public class LocalInvocations {
+
+    private final Set<String> chaincodeNames;
+    private final Map<String, AtomicReference<Chaincode.Response>> expected = new ConcurrentHashMap<>();
+
+    /**
+     * @param chaincodeNames names of the chaincodes hosted in this process, optionally followed by a colon and their version
+     */
+    public LocalInvocations(Collection<String> chaincodeNames) {
+        this.chaincodeNames = new HashSet<>();
+        chaincodeNames.forEach(chaincodeName -> this.chaincodeNames.add(withoutVersion(chaincodeName)));
+    }
+
+    /**
+     * Starts waiting for the result of a chaincode, if it is hosted in this process.
+     *
+     * @param chaincodeName name of the invoked chaincode, optionally followed by a slash and its channel
+     * @return the key to take the result with, or null when the chaincode is not hosted here
+     */
+    String expect(String channelId, String txId, String chaincodeName) {
+        final int slash = chaincodeName.indexOf('/');
+        final String name = withoutVersion(slash < 0 ? chaincodeName : chaincodeName.substring(0, slash));
+        if (!chaincodeNames.contains(name)) {
+            return null;
+        }
+        final String key = key(slash < 0 ? channelId : chaincodeName.substring(slash + 1), txId, name);
+        expected.put(key, new AtomicReference<>());
+        return key;
+    }
+
+    /**
+     * Records the result of a transaction of a hosted chaincode, if another one waits for it.
+     */
+    void complete(String channelId, String txId, String chaincodeName, Chaincode.Response response) {
+        final AtomicReference<Chaincode.Response> result = expected.get(key(channelId, txId, withoutVersion(chaincodeName)));
+        if (result != null) {
+            result.set(response);
+        }
+    }
+
+    /**
+     * Stops waiting for the result.
+     *
+     * @return the result, or null when the callee completed no transaction in the meantime
+     */
+    Chaincode.Response take(String key) {
+        final AtomicReference<Chaincode.Response> result = expected.remove(key);
+        return result == null ? null : result.get();
+    }
+
+    private static String withoutVersion(String chaincodeName) {
+        final int colon = chaincodeName.indexOf(':');
+        return colon < 0 ? chaincodeName : chaincodeName.substring(0, colon);
+    }
+
+    private static String key(String channelId, String txId, String chaincodeName) {
+        return channelId + '\0' + txId + '\0' + chaincodeName;
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.CodedOutputStream;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Records the messages exchanged with the peer to trace files, to be read by
+ * {@link MessageTrace} and replayed by {@link TraceReplayer}.
+ * <p>
+ * The files of a recording are named <code>trace-&lt;start millis&gt;-&lt;index&gt;.bin</code>.
+ * A file holds a header, then for each message its direction, the nanoseconds since the
+ * recording started and the length-delimited message. A new file is started once a file
+ * reaches its maximum size, and the oldest files are deleted to keep a maximum number of
+ * them. Recording stops on the first I/O error, the chaincode is not affected.
+ * <p>
+ * The messages are recorded as they are exchanged, so the files hold the transient data
+ * of the transactions and the private data they read and write, unencrypted.
+ */
+public class MessageRecorder implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(MessageRecorder.class.getName());
+
+    public static final long DEFAULT_MAX_FILE_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 16;
+    static final int MAGIC = 0x43435452;
+    static final int VERSION = 1;
+    static final String SUFFIX = ".bin";
+
+    private final Path directory;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final String prefix;
+    private final long startNanos = System.nanoTime();
+    private final Deque<Path> files = new ArrayDeque<>();
+    private DataOutputStream out;
+    private long fileSize;
+    private int index;
+    private boolean closed;
+
+    /**
+     * @param directory   directory of the trace files, created if missing
+     * @param maxFileSize bytes after which a new file is started
+     * @param maxFiles    files kept, the oldest ones are deleted
+     */
+    public MessageRecorder(Path directory, long maxFileSize, int maxFiles) throws IOException {
+        if (maxFileSize <= 0 || maxFileSize > Integer.MAX_VALUE) throw new IllegalArgumentException("maxFileSize must be between 1 and " + Integer.MAX_VALUE);
+        if (maxFiles < 1) throw new IllegalArgumentException("maxFiles must be at least 1");
+        this.directory = Files.createDirectories(directory);
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.prefix = format("trace-%013d-", System.currentTimeMillis());
+        nextFile();
+        logger.info(format("Recording chaincode messages to %s", directory.resolve(prefix + "*" + SUFFIX)));
+    }
+
+    /**
+     * Records a message sent by the peer
+     */
+    public void recordInbound(ChaincodeMessage message) {
+        record(MessageTrace.Direction.INBOUND, message);
+    }
+
+    /**
+     * Records a message sent to the peer
+     */
+    public void recordOutbound(ChaincodeMessage message) {
+        record(MessageTrace.Direction.OUTBOUND, message);
+    }
+
+    private synchronized void record(MessageTrace.Direction direction, ChaincodeMessage message) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (fileSize >= maxFileSize) {
+                nextFile();
+            }
+            final int size = message.getSerializedSize();
+            out.writeByte(direction.ordinal());
+            out.writeLong(System.nanoTime() - startNanos);
+            message.writeDelimitedTo(out);
+            fileSize += 1 + Long.BYTES + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not record chaincode message, recording stopped", e);
+            close();
+        }
+    }
+
+    private void nextFile() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        final Path file = directory.resolve(format("%s%06d%s", prefix, index++, SUFFIX));
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        fileSize = 2 * Integer.BYTES;
+        files.addLast(file);
+        while (files.size() > maxFiles) {
+            Files.deleteIfExists(files.removeFirst());
+        }
+    }
+
+    /**
+     * Writes the buffered messages and stops recording
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close trace file", e);
+        }
+    }
+
+}
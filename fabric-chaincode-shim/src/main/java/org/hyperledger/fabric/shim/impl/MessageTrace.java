@@ -0,0 +1,199 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static org.hyperledger.fabric.shim.impl.ChaincodeMessageMarshaller.parseAliased;
+
+/**
+ * Messages of a recording made by {@link MessageRecorder}, in the order they were recorded.
+ * <p>
+ * The trace files are memory-mapped and parsed as they are iterated. The bytes fields of
+ * the messages share the mapped memory rather than being copied. A record cut short at the
+ * end of a file, because the process stopped while writing it, ends that file.
+ */
+public class MessageTrace implements Iterable<MessageTrace.Record> {
+
+    private static final Logger logger = Logger.getLogger(MessageTrace.class.getName());
+
+    /**
+     * Direction of a message, seen from the chaincode
+     */
+    public enum Direction {
+        /**
+         * From the peer to the chaincode
+         */
+        INBOUND,
+        /**
+         * From the chaincode to the peer
+         */
+        OUTBOUND
+    }
+
+    private final List<ByteBuffer> files;
+
+    private MessageTrace(List<ByteBuffer> files) {
+        this.files = files;
+    }
+
+    /**
+     * Opens the latest recording of a directory
+     */
+    public static MessageTrace open(Path directory) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "trace-*" + MessageRecorder.SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        if (paths.isEmpty()) {
+            throw new IOException(format("No trace files in %s", directory));
+        }
+        Collections.sort(paths);
+        // names start with the start time of their recording, followed by their index
+        final String latest = recording(paths.get(paths.size() - 1));
+        final List<ByteBuffer> files = new ArrayList<>();
+        for (Path path : paths) {
+            if (recording(path).equals(latest)) {
+                files.add(map(path));
+            }
+        }
+        return new MessageTrace(files);
+    }
+
+    private static String recording(Path path) {
+        final String name = path.getFileName().toString();
+        return name.substring(0, name.lastIndexOf('-'));
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != MessageRecorder.MAGIC) {
+                throw new IOException(format("%s is not a trace file", path));
+            }
+            final int version = buffer.getInt();
+            if (version != MessageRecorder.VERSION) {
+                throw new IOException(format("%s has unsupported version %d", path, version));
+            }
+            // the mapping stays valid once the channel is closed
+            return buffer;
+        }
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new Iterator<Record>() {
+            private int file;
+            private ByteBuffer buffer = files.get(0).duplicate();
+            private Record next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (!buffer.hasRemaining()) {
+                        if (++file == files.size()) {
+                            return false;
+                        }
+                        buffer = files.get(file).duplicate();
+                        continue;
+                    }
+                    next = read(buffer);
+                }
+                return true;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Record record = next;
+                next = null;
+                return record;
+            }
+        };
+    }
+
+    /**
+     * @return next record of the file, or null when the rest of the file is cut short
+     */
+    private static Record read(ByteBuffer buffer) {
+        try {
+            final Direction direction = Direction.values()[buffer.get()];
+            final long nanos = buffer.getLong();
+            final int size = readVarint32(buffer);
+            if (size > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            final ByteBuffer bytes = buffer.slice();
+            bytes.limit(size);
+            buffer.position(buffer.position() + size);
+            return new Record(direction, nanos, parseAliased(ChaincodeMessage.parser(), UnsafeByteOperations.unsafeWrap(bytes)));
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException | InvalidProtocolBufferException e) {
+            logger.warning(format("Trace file ends with an incomplete record, skipping its last %d bytes", buffer.remaining()));
+            buffer.position(buffer.limit());
+            return null;
+        }
+    }
+
+    private static int readVarint32(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+
+    public static class Record {
+        private final Direction direction;
+        private final long nanos;
+        private final ChaincodeMessage message;
+
+        Record(Direction direction, long nanos, ChaincodeMessage message) {
+            this.direction = direction;
+            this.nanos = nanos;
+            this.message = message;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+
+        /**
+         * @return nanoseconds between the start of the recording and the message
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public ChaincodeMessage getMessage() {
+            return message;
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.shim.metrics.Histogram;
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of messages waiting to be sent to the peer.
+ * <p>
+ * When prioritized, transaction results leave ahead of peer requests, and point
+ * requests ahead of range and paging requests, so that a finished transaction does
+ * not wait behind the state traffic of others. A queued message that has been
+ * overtaken {@code maxBypass} times is sent next regardless of its priority.
+ * Otherwise messages leave in FIFO order.
+ * <p>
+ * The time every message spends queued is recorded per priority in
+ * {@code outbound.wait.<priority>}, and the time from receiving a transaction to
+ * sending its result in {@code transaction.latency}. Long waits are also recorded as
+ * flight recorder events, see {@link ShimEvents}.
+ */
+class OutboundMessageQueue {
+
+    enum Priority {
+        COMPLETION, POINT, BULK;
+
+        static Priority of(ChaincodeMessage.Type type) {
+            switch (type) {
+                case GET_STATE_BY_RANGE:
+                case GET_QUERY_RESULT:
+                case GET_HISTORY_FOR_KEY:
+                case QUERY_STATE_NEXT:
+                    return BULK;
+                case GET_STATE:
+                case PUT_STATE:
+                case DEL_STATE:
+                case INVOKE_CHAINCODE:
+                case QUERY_STATE_CLOSE:
+                    return POINT;
+                default:
+                    return COMPLETION;
+            }
+        }
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final boolean prioritized;
+    private final int maxBypass;
+    private final List<ArrayDeque<Entry>> lanes;
+    private final int[] bypassed;
+    private final Histogram[] waits;
+    private final Histogram transactionLatency;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int size;
+
+    OutboundMessageQueue(boolean prioritized, int maxBypass, MetricsRegistry metrics) {
+        this.prioritized = prioritized;
+        this.maxBypass = maxBypass;
+        final int laneCount = prioritized ? PRIORITIES.length : 1;
+        this.lanes = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            lanes.add(new ArrayDeque<>());
+        }
+        this.bypassed = new int[laneCount];
+        this.waits = new Histogram[PRIORITIES.length];
+        for (Priority priority : PRIORITIES) {
+            waits[priority.ordinal()] = metrics.histogram("outbound.wait." + priority.name().toLowerCase(Locale.ROOT));
+        }
+        this.transactionLatency = metrics.histogram("transaction.latency");
+    }
+
+    void add(ChaincodeMessage message) {
+        add(message, 0);
+    }
+
+    /**
+     * @param message                 message to send
+     * @param transactionStartNanos   {@link System#nanoTime()} when the transaction this message
+     *                                completes was received, 0 if it does not complete a transaction
+     */
+    void add(ChaincodeMessage message, long transactionStartNanos) {
+        final Priority priority = Priority.of(message.getType());
+        final Entry entry = new Entry(message, priority, System.nanoTime(), transactionStartNanos);
+        lock.lock();
+        try {
+            lanes.get(prioritized ? priority.ordinal() : 0).addLast(entry);
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ChaincodeMessage take() throws InterruptedException {
+        final Entry entry;
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            entry = lanes.get(nextLane()).pollFirst();
+            size--;
+        } finally {
+            lock.unlock();
+        }
+        waits[entry.priority.ordinal()].recordSince(entry.enqueuedNanos);
+        ShimEvents.endOutboundWait(entry.event, entry.message.getType().name(), entry.priority.name(), entry.message.getTxid());
+        if (entry.transactionStartNanos != 0) {
+            transactionLatency.recordSince(entry.transactionStartNanos);
+        }
+        return entry.message;
+    }
+
+    /**
+     * Removes the queued requests of a transaction, so that the ERROR cancelling it
+     * cannot be sent ahead of them.
+     *
+     * @return number of requests removed
+     */
+    int discardRequests(String channelId, String txId) {
+        int removed = 0;
+        lock.lock();
+        try {
+            for (ArrayDeque<Entry> lane : lanes) {
+                final Iterator<Entry> entries = lane.iterator();
+                while (entries.hasNext()) {
+                    final ChaincodeMessage message = entries.next().message;
+                    if (Priority.of(message.getType()) != Priority.COMPLETION
+                            && message.getTxid().equals(txId) && message.getChannelId().equals(channelId)) {
+                        entries.remove();
+                        removed++;
+                    }
+                }
+            }
+            size -= removed;
+        } finally {
+            lock.unlock();
+        }
+        return removed;
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            for (int i = 0; i < lanes.size(); i++) {
+                lanes.get(i).clear();
+                bypassed[i] = 0;
+            }
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int nextLane() {
+        if (lanes.size() == 1) {
+            return 0;
+        }
+        int lane = -1;
+        // starving lanes first, lowest priority first
+        for (int i = lanes.size() - 1; i > 0; i--) {
+            if (bypassed[i] >= maxBypass && !lanes.get(i).isEmpty()) {
+                lane = i;
+                break;
+            }
+        }
+        if (lane < 0) {
+            for (int i = 0; i < lanes.size(); i++) {
+                if (!lanes.get(i).isEmpty()) {
+                    lane = i;
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < lanes.size(); i++) {
+            if (i == lane || lanes.get(i).isEmpty()) {
+                bypassed[i] = 0;
+            } else if (i > lane) {
+                bypassed[i]++;
+            }
+        }
+        return lane;
+    }
+
+    private static final class Entry {
+        final ChaincodeMessage message;
+        final Priority priority;
+        final long enqueuedNanos;
+        final long transactionStartNanos;
+        // flight recorder event of the wait, recorded when it is long enough to be a stall
+        final Object event = ShimEvents.beginOutboundWait();
+
+        Entry(ChaincodeMessage message, Priority priority, long enqueuedNanos, long transactionStartNanos) {
+            this.message = message;
+            this.priority = priority;
+            this.enqueuedNanos = enqueuedNanos;
+            this.transactionStartNanos = transactionStartNanos;
+        }
+    }
+}
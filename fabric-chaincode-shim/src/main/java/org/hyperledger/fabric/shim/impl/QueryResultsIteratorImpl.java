@@ -52,7 +52,9 @@ class QueryResultsIteratorImpl<T> implements QueryResultsIterator<T> {
                 if (!currentQueryResponse.getHasMore()) throw new NoSuchElementException();
 
                 // get more results from peer
+                final Object event = ShimEvents.beginPageFetch();
                 currentQueryResponse = handler.queryStateNext(channelId, txId, currentQueryResponse.getId());
+                ShimEvents.endPageFetch(event, channelId, txId, currentQueryResponse.getId(), currentQueryResponse.getResultsCount(), currentQueryResponse.getHasMore());
                 currentIterator = currentQueryResponse.getResultsList().iterator();
 
                 // return next fetched result
@@ -0,0 +1,82 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff used between attempts to re-establish
+ * the chaincode stream with the peer.
+ */
+public class ReconnectBackoff {
+
+    public static final long DEFAULT_INITIAL_DELAY = 1000;
+    public static final long DEFAULT_MAX_DELAY = 120000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 0;
+
+    private static final double MULTIPLIER = 1.6;
+    private static final double JITTER = 0.2;
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+    private final Random random;
+    private long nextDelay;
+    private int attempts;
+
+    /**
+     * @param initialDelay delay before the first attempt, in milliseconds
+     * @param maxDelay     upper bound of the delay between two attempts, in milliseconds
+     * @param maxAttempts  number of attempts before giving up, 0 for unlimited
+     */
+    public ReconnectBackoff(long initialDelay, long maxDelay, int maxAttempts) {
+        this(initialDelay, maxDelay, maxAttempts, new Random());
+    }
+
+    ReconnectBackoff(long initialDelay, long maxDelay, int maxAttempts, Random random) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException(String.format("Invalid reconnect delays: initial %d, max %d", initialDelay, maxDelay));
+        }
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("Maximum reconnect attempts cannot be negative");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+        this.nextDelay = initialDelay;
+    }
+
+    public synchronized boolean hasMoreAttempts() {
+        return maxAttempts == 0 || attempts < maxAttempts;
+    }
+
+    /**
+     * Returns the delay to wait before the next attempt, and advances the backoff.
+     *
+     * @return delay in milliseconds
+     */
+    public synchronized long nextDelay() {
+        attempts++;
+        final long current = nextDelay;
+        nextDelay = Math.min((long) (current * MULTIPLIER), maxDelay);
+        final double spread = current * JITTER;
+        return Math.max(0, current + (long) ((random.nextDouble() * 2 - 1) * spread));
+    }
+
+    /**
+     * Resets the backoff once a connection was successfully re-established.
+     */
+    public synchronized void reset() {
+        attempts = 0;
+        nextDelay = initialDelay;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CPU time of the process and CPU time and bytes allocated by each of its threads, or of
+ * some of them, where the JVM tells them. The difference between two measures covers the threads alive at the later
+ * one, what threads that ended in between used is missed.
+ */
+final class ResourceUsage {
+
+    private final long processCpuNanos;
+    private final Map<Long, Long> threadCpuNanos = new HashMap<>();
+    private final Map<Long, Long> allocatedBytes = new HashMap<>();
+
+    private ResourceUsage(long processCpuNanos) {
+        this.processCpuNanos = processCpuNanos;
+    }
+
+    static ResourceUsage measure() {
+        return measure(ManagementFactory.getThreadMXBean().getAllThreadIds());
+    }
+
+    /**
+     * Measures the given threads only, leaving out threads of unrelated work in the JVM
+     */
+    static ResourceUsage measure(Thread... threads) {
+        final long[] ids = new long[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            ids[i] = threads[i].getId();
+        }
+        return measure(ids);
+    }
+
+    private static ResourceUsage measure(long[] ids) {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        final ResourceUsage usage = new ResourceUsage(os instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1);
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            final long[] cpu = sunThreads.getThreadCpuTime(ids);
+            final long[] bytes = sunThreads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                // -1 for a thread that ended or when measuring is disabled
+                if (cpu[i] >= 0) {
+                    usage.threadCpuNanos.put(ids[i], cpu[i]);
+                }
+                if (bytes[i] >= 0) {
+                    usage.allocatedBytes.put(ids[i], bytes[i]);
+                }
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * @return nanoseconds of CPU used by the process since the earlier measure, GC and
+     * compilation included, -1 if unknown
+     */
+    long processCpuNanosSince(ResourceUsage before) {
+        return processCpuNanos < 0 ? -1 : processCpuNanos - before.processCpuNanos;
+    }
+
+    /**
+     * @return nanoseconds of CPU used since the earlier measure by the threads alive now, -1 if unknown
+     */
+    long threadCpuNanosSince(ResourceUsage before) {
+        return since(threadCpuNanos, before.threadCpuNanos);
+    }
+
+    /**
+     * @return bytes allocated since the earlier measure by the threads alive now, -1 if unknown
+     */
+    long allocatedBytesSince(ResourceUsage before) {
+        return since(allocatedBytes, before.allocatedBytes);
+    }
+
+    private static long since(Map<Long, Long> now, Map<Long, Long> before) {
+        if (now.isEmpty()) {
+            return -1;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : now.entrySet()) {
+            total += thread.getValue() - before.getOrDefault(thread.getKey(), 0L);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+/**
+ * Java Flight Recorder events of the shim: transactions, requests to the peer, pages of
+ * query results and messages held up in the outbound queue.
+ * <p>
+ * This is the Java 8 version, which records nothing. The version in src/main/java11
+ * replaces it in the multi-release jar on Java 11 and later, where JFR is part of the JDK.
+ * A begin method returns the event to pass to its end method, or null when the event is
+ * not recorded, and end methods do nothing with null.
+ */
+final class ShimEvents {
+
+    /**
+     * @param type INIT or TRANSACTION
+     */
+    static Object beginTransaction(String type, String channelId, String txId) {
+        return null;
+    }
+
+    /**
+     * @param result type of the message ending the transaction
+     */
+    static void endTransaction(Object event, String result) {
+    }
+
+    static Object beginRequest() {
+        return null;
+    }
+
+    /**
+     * @param key      key, range start, query id or chaincode the request is about
+     * @param response type of the peer's answer, or why there was none
+     */
+    static void endRequest(Object event, String type, String channelId, String txId, String key, String response) {
+    }
+
+    static Object beginPageFetch() {
+        return null;
+    }
+
+    static void endPageFetch(Object event, String channelId, String txId, String queryId, int results, boolean hasMore) {
+    }
+
+    static Object beginOutboundWait() {
+        return null;
+    }
+
+    /**
+     * @param priority priority the message was queued with
+     */
+    static void endOutboundWait(Object event, String type, String priority, String txId) {
+    }
+
+}
@@ -0,0 +1,362 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+
+/**
+ * Replays the INIT and TRANSACTION messages of a {@link MessageTrace} to a {@link Handler}
+ * running a chaincode, e.g. a newer build of the recorded one, to compare their CPU time
+ * and allocations offline.
+ * <p>
+ * The requests of the chaincode are answered with the responses recorded for the same
+ * request of the same transaction, so the chaincode sees the ledger as it was when it was
+ * recorded. A request that was not recorded is answered with an ERROR. Results which differ
+ * from the recorded ones are counted as divergent. A trace in which a transaction id occurs
+ * more than once in a channel is not replayed, as its requests and results could not be told
+ * apart.
+ * <p>
+ * Transactions are sent at the pace they were recorded, or as fast as the chaincode completes
+ * them with up to a number of them in flight at once.
+ * <pre>
+ * TraceReplayer.Report report = new TraceReplayer(new MyChaincode(), MessageTrace.open(Paths.get("/var/trace")))
+ *         .setRecordedSpeed(false)
+ *         .setConcurrency(64)
+ *         .run();
+ * </pre>
+ * The test fixtures of the shim run it from the command line, see
+ * <code>org.hyperledger.fabric.shim.tools.ReplayTrace</code>.
+ */
+public class TraceReplayer {
+
+    private static final Logger logger = Logger.getLogger(TraceReplayer.class.getName());
+
+    private final Chaincode chaincode;
+    private final MessageTrace trace;
+    private HandlerOptions options = new HandlerOptions();
+    private boolean recordedSpeed = true;
+    private int concurrency = 64;
+    private long timeout = TimeUnit.MINUTES.toMillis(5);
+
+    // built from the trace by run()
+    private final List<MessageTrace.Record> invocations = new ArrayList<>();
+    private final Map<String, List<Exchange>> exchanges = new HashMap<>();
+    private final Map<String, ChaincodeMessage> recordedResults = new HashMap<>();
+    private ChaincodeID chaincodeId = ChaincodeID.newBuilder().setName("replay").build();
+
+    private final Map<String, Long> started = new ConcurrentHashMap<>();
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private final AtomicLong divergent = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+    private final Histogram latencies = new Histogram();
+    private Semaphore inFlight;
+    private CountDownLatch completed;
+
+    public TraceReplayer(Chaincode chaincode, MessageTrace trace) {
+        this.chaincode = chaincode;
+        this.trace = trace;
+    }
+
+    /**
+     * @param options options of the handler running the chaincode
+     */
+    public TraceReplayer setOptions(HandlerOptions options) {
+        this.options = options;
+        return this;
+    }
+
+    /**
+     * @param recordedSpeed whether transactions are sent at the pace they were recorded,
+     *                      rather than as fast as they complete
+     */
+    public TraceReplayer setRecordedSpeed(boolean recordedSpeed) {
+        this.recordedSpeed = recordedSpeed;
+        return this;
+    }
+
+    /**
+     * @param concurrency transactions in flight at once when not replaying at recorded speed
+     */
+    public TraceReplayer setConcurrency(int concurrency) {
+        if (concurrency <= 0) throw new IllegalArgumentException("concurrency must be positive");
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param timeout milliseconds the replay may take once every transaction was sent
+     */
+    public TraceReplayer setTimeout(long timeout) {
+        if (timeout <= 0) throw new IllegalArgumentException("timeout must be positive");
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Starts a handler running the chaincode and replays the transactions of the trace
+     *
+     * @return outcome of the replayed transactions and resources they took
+     */
+    public Report run() throws Exception {
+        index();
+        if (invocations.isEmpty()) throw new IllegalStateException("The trace holds no INIT or TRANSACTION message");
+        inFlight = new Semaphore(concurrency);
+        completed = new CountDownLatch(invocations.size());
+
+        final Handler handler = new Handler(chaincodeId, chaincode, options);
+        final Thread peer = new Thread(() -> servePeer(handler), "trace-replay-peer");
+        peer.setDaemon(true);
+        peer.start();
+        try {
+            if (!registered.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("Chaincode did not register");
+            }
+            final ResourceUsage before = ResourceUsage.measure();
+            final long startNanos = System.nanoTime();
+            final long firstNanos = invocations.get(0).getNanos();
+            for (MessageTrace.Record invocation : invocations) {
+                if (recordedSpeed) {
+                    final long due = startNanos + invocation.getNanos() - firstNanos;
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else if (!inFlight.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                    throw new TimeoutException(format("No transaction completed in %d ms", timeout));
+                }
+                final ChaincodeMessage message = invocation.getMessage();
+                started.put(key(message), System.nanoTime());
+                handler.onChaincodeMessage(message);
+            }
+            if (!completed.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException(format("%d transactions did not complete", completed.getCount()));
+            }
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            final ResourceUsage after = ResourceUsage.measure();
+            return new Report(invocations.size(), divergent.get(), unmatched.get(), elapsedNanos,
+                    after.processCpuNanosSince(before), after.allocatedBytesSince(before), latencies);
+        } finally {
+            peer.interrupt();
+        }
+    }
+
+    /**
+     * Pairs the recorded requests with their responses, which the peer tells apart by
+     * channel and txid only, as a transaction has one request outstanding at a time.
+     */
+    private void index() throws InvalidProtocolBufferException {
+        final Map<String, ChaincodeMessage> outstanding = new HashMap<>();
+        final Set<String> invoked = new HashSet<>();
+        for (MessageTrace.Record record : trace) {
+            final ChaincodeMessage message = record.getMessage();
+            final String key = key(message);
+            if (record.getDirection() == MessageTrace.Direction.INBOUND) {
+                switch (message.getType()) {
+                    case INIT:
+                    case TRANSACTION:
+                        if (!invoked.add(key)) {
+                            throw new IllegalStateException(format("Transaction %s of channel %s occurs more than once in the trace", message.getTxid(), message.getChannelId()));
+                        }
+                        invocations.add(record);
+                        break;
+                    case RESPONSE:
+                    case ERROR:
+                        final ChaincodeMessage request = outstanding.remove(key);
+                        if (request != null) {
+                            exchanges.computeIfAbsent(key, k -> new ArrayList<>()).add(new Exchange(request, message));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } else {
+                switch (message.getType()) {
+                    case REGISTER:
+                        chaincodeId = ChaincodeID.parseFrom(message.getPayload());
+                        break;
+                    case COMPLETED:
+                    case ERROR:
+                        recordedResults.put(key, message);
+                        break;
+                    case KEEPALIVE:
+                        break;
+                    default:
+                        outstanding.put(key, message);
+                        break;
+                }
+            }
+        }
+        logger.info(format("Replaying %d transactions of %s", invocations.size(), chaincodeId.getName()));
+    }
+
+    private void servePeer(Handler handler) {
+        while (true) {
+            final ChaincodeMessage message = handler.nextOutboundChaincodeMessage();
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            switch (message.getType()) {
+                case REGISTER:
+                    handler.onChaincodeMessage(ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+                    handler.onChaincodeMessage(ChaincodeMessage.newBuilder().setType(READY).build());
+                    registered.countDown();
+                    break;
+                case COMPLETED:
+                case ERROR:
+                    onResult(message);
+                    break;
+                case KEEPALIVE:
+                    break;
+                default:
+                    handler.onChaincodeMessage(respond(message));
+                    break;
+            }
+        }
+    }
+
+    private ChaincodeMessage respond(ChaincodeMessage request) {
+        final List<Exchange> recorded = exchanges.get(key(request));
+        if (recorded != null) {
+            for (Exchange exchange : recorded) {
+                if (!exchange.replayed && exchange.request.getType() == request.getType() && exchange.request.getPayload().equals(request.getPayload())) {
+                    exchange.replayed = true;
+                    return exchange.response;
+                }
+            }
+        }
+        unmatched.incrementAndGet();
+        return ChaincodeMessage.newBuilder()
+                .setType(ERROR)
+                .setChannelId(request.getChannelId())
+                .setTxid(request.getTxid())
+                .setPayload(ByteString.copyFromUtf8(format("%s request was not recorded", request.getType())))
+                .build();
+    }
+
+    private void onResult(ChaincodeMessage result) {
+        final String key = key(result);
+        final Long startNanos = started.remove(key);
+        if (startNanos == null) {
+            return;
+        }
+        latencies.recordSince(startNanos);
+        final ChaincodeMessage recorded = recordedResults.get(key);
+        if (recorded == null || recorded.getType() != result.getType() || !recorded.getPayload().equals(result.getPayload())) {
+            divergent.incrementAndGet();
+        }
+        inFlight.release();
+        completed.countDown();
+    }
+
+    private static String key(ChaincodeMessage message) {
+        return message.getChannelId() + '\0' + message.getTxid();
+    }
+
+    private static class Exchange {
+        final ChaincodeMessage request;
+        final ChaincodeMessage response;
+        boolean replayed;
+
+        Exchange(ChaincodeMessage request, ChaincodeMessage response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Outcome of a replay, latencies are in microseconds
+     */
+    public static class Report {
+        private final int transactions;
+        private final long divergent;
+        private final long unmatched;
+        private final long elapsedNanos;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+        private final Histogram latencies;
+
+        Report(int transactions, long divergent, long unmatched, long elapsedNanos, long cpuNanos, long allocatedBytes, Histogram latencies) {
+            this.transactions = transactions;
+            this.divergent = divergent;
+            this.unmatched = unmatched;
+            this.elapsedNanos = elapsedNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.latencies = latencies;
+        }
+
+        public int getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return transactions whose result differs from the recorded one
+         */
+        public long getDivergent() {
+            return divergent;
+        }
+
+        /**
+         * @return requests of the chaincode without a recorded response
+         */
+        public long getUnmatched() {
+            return unmatched;
+        }
+
+        public double getThroughput() {
+            return transactions * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return CPU time of the whole process during the replay, -1 if the JVM does not tell it
+         */
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        /**
+         * @return bytes allocated during the replay by the threads alive at its end, -1 if the
+         * JVM does not tell them
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getLatencyAtPercentile(double percentile) {
+            return latencies.getValueAtPercentile(percentile);
+        }
+
+        @Override
+        public String toString() {
+            return format("%d transactions (%d divergent, %d unmatched requests) in %.2f s, %.0f tx/s, cpu %.0f us/tx, allocated %d bytes/tx, latency p50=%d us p99=%d us max=%d us",
+                    transactions, divergent, unmatched, elapsedNanos / 1e9, getThroughput(), cpuNanos / 1e3 / transactions,
+                    allocatedBytes / transactions, getLatencyAtPercentile(50), getLatencyAtPercentile(99), latencies.getMax());
+        }
+    }
+
+}
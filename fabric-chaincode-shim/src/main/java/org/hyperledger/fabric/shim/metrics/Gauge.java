@@ -0,0 +1,16 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.metrics;
+
+/**
+ * Instantaneous value read when metrics are reported, e.g. a queue size or a limit.
+ */
+@FunctionalInterface
+public interface Gauge {
+
+    long getValue();
+
+}
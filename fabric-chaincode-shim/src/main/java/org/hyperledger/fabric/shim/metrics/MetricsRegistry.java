@@ -0,0 +1,113 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Named counters, gauges and histograms of a chaincode process.
+ * Metrics are created on first use and live as long as the registry.
+ */
+public class MetricsRegistry {
+
+    private static final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
+
+    private final Map<String, Counter> counters;
+    private final Map<String, Gauge> gauges;
+    private final Map<String, Histogram> histograms;
+    private final String prefix;
+    private ScheduledExecutorService reporter;
+
+    public MetricsRegistry() {
+        this(new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), "");
+    }
+
+    private MetricsRegistry(Map<String, Counter> counters, Map<String, Gauge> gauges, Map<String, Histogram> histograms, String prefix) {
+        this.counters = counters;
+        this.gauges = gauges;
+        this.histograms = histograms;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return view of this registry which puts the prefix and a dot in front of the names
+     * of the metrics it creates, e.g. to tell apart the chaincodes of a process. Reports
+     * of the view include every metric of the registry.
+     */
+    public MetricsRegistry withPrefix(String prefix) {
+        return new MetricsRegistry(counters, gauges, histograms, this.prefix + prefix + ".");
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(prefix + name, n -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(prefix + name, n -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge registered under the same name.
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(prefix + name, gauge);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(prefix + name);
+    }
+
+    public SortedMap<String, Counter> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    public SortedMap<String, Gauge> getGauges() {
+        return new TreeMap<>(gauges);
+    }
+
+    public SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * @return one line per metric, sorted by name
+     */
+    public String report() {
+        final StringBuilder report = new StringBuilder();
+        getCounters().forEach((name, counter) -> report.append(name).append(": ").append(counter).append('\n'));
+        getGauges().forEach((name, gauge) -> report.append(name).append(": ").append(gauge.getValue()).append('\n'));
+        getHistograms().forEach((name, histogram) -> report.append(name).append(": ").append(histogram).append('\n'));
+        return report.toString();
+    }
+
+    /**
+     * Logs the report at INFO level every period until {@link #stopLogging()} is called.
+     */
+    public synchronized void startLogging(long period, TimeUnit unit) {
+        stopLogging();
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "chaincode-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> logger.info("Chaincode metrics\n" + report()), period, period, unit);
+    }
+
+    public synchronized void stopLogging() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+}
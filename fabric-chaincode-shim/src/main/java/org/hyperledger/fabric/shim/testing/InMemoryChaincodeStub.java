@@ -0,0 +1,522 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.testing;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.peer.ChaincodeEventPackage.ChaincodeEvent;
+import org.hyperledger.fabric.protos.peer.ProposalPackage.SignedProposal;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.Chaincode.Response;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hyperledger.fabric.shim.testing.InMemoryLedger.PUBLIC;
+
+/**
+ * {@link ChaincodeStub} reading and writing an {@link InMemoryLedger}, to unit test or
+ * benchmark chaincode without a peer.
+ * <p>
+ * Like on a peer, reads see the state committed before the transaction and not its own
+ * writes. The writes are applied to the ledger by {@link #commit()} or discarded by
+ * {@link #rollback()}, both of which start the next transaction with the same args. Rich
+ * queries and calls to other chaincodes are not supported.
+ * <pre>
+ * InMemoryLedger ledger = new InMemoryLedger().putStringState("a", "100").putStringState("b", "100");
+ * InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+ * Response response = stub.invoke(new SimpleChaincode(), "invoke", "a", "b", "10");
+ * assertEquals("90", ledger.getStringState("a"));
+ * </pre>
+ * A stub runs one transaction at a time, stubs of different threads may share a ledger.
+ */
+public class InMemoryChaincodeStub implements ChaincodeStub {
+
+    static final String UNSPECIFIED_KEY = new String(Character.toChars(0x000001));
+    static final String MAX_UNICODE_RUNE = "\udbff\udfff";
+    private static final byte[] EMPTY = new byte[0];
+
+    private final InMemoryLedger ledger;
+    // values by key by collection, a null value deletes the key
+    private final Map<String, Map<String, byte[]>> writes = new HashMap<>();
+    private String channelId = "channel";
+    private String txId;
+    private long transactions;
+    private List<byte[]> args = Collections.emptyList();
+    private List<String> stringArgs = Collections.emptyList();
+    private Map<String, byte[]> transientMap = Collections.emptyMap();
+    private byte[] creator;
+    private byte[] binding;
+    private SignedProposal signedProposal;
+    private Instant txTimestamp;
+    private boolean fixedTxTimestamp;
+    private ChaincodeEvent event;
+    private ChaincodeEvent committedEvent;
+
+    public InMemoryChaincodeStub(InMemoryLedger ledger) {
+        this.ledger = ledger;
+        begin();
+    }
+
+    public InMemoryChaincodeStub setChannelId(String channelId) {
+        this.channelId = channelId;
+        return this;
+    }
+
+    /**
+     * @param txId id of the current transaction, the next ones get generated ids
+     */
+    public InMemoryChaincodeStub setTxId(String txId) {
+        this.txId = txId;
+        return this;
+    }
+
+    /**
+     * @param args function name and parameters of this and the next transactions
+     */
+    public InMemoryChaincodeStub setArgs(String... args) {
+        final List<byte[]> bytes = new ArrayList<>(args.length);
+        final List<String> strings = new ArrayList<>(args.length);
+        for (String arg : args) {
+            bytes.add(arg.getBytes(UTF_8));
+            strings.add(arg);
+        }
+        this.args = Collections.unmodifiableList(bytes);
+        this.stringArgs = Collections.unmodifiableList(strings);
+        return this;
+    }
+
+    /**
+     * @param args function name and parameters of this and the next transactions
+     */
+    public InMemoryChaincodeStub setArgs(List<byte[]> args) {
+        final List<byte[]> bytes = new ArrayList<>(args.size());
+        final List<String> strings = new ArrayList<>(args.size());
+        for (byte[] arg : args) {
+            bytes.add(arg.clone());
+            strings.add(new String(arg, UTF_8));
+        }
+        this.args = Collections.unmodifiableList(bytes);
+        this.stringArgs = Collections.unmodifiableList(strings);
+        return this;
+    }
+
+    /**
+     * @param transientMap transient data of this and the next transactions
+     */
+    public InMemoryChaincodeStub setTransient(Map<String, byte[]> transientMap) {
+        final Map<String, byte[]> copy = new HashMap<>();
+        transientMap.forEach((key, value) -> copy.put(key, value.clone()));
+        this.transientMap = copy;
+        return this;
+    }
+
+    public InMemoryChaincodeStub setCreator(byte[] creator) {
+        this.creator = creator == null ? null : creator.clone();
+        return this;
+    }
+
+    public InMemoryChaincodeStub setBinding(byte[] binding) {
+        this.binding = binding == null ? null : binding.clone();
+        return this;
+    }
+
+    public InMemoryChaincodeStub setSignedProposal(SignedProposal signedProposal) {
+        this.signedProposal = signedProposal;
+        return this;
+    }
+
+    /**
+     * @param txTimestamp timestamp of this and the next transactions, null for the time
+     *                    each one starts
+     */
+    public InMemoryChaincodeStub setTxTimestamp(Instant txTimestamp) {
+        this.fixedTxTimestamp = txTimestamp != null;
+        this.txTimestamp = txTimestamp == null ? Instant.now() : txTimestamp;
+        return this;
+    }
+
+    /**
+     * Runs a transaction, committed when the chaincode succeeds and rolled back when it
+     * fails or throws, as the peer would.
+     *
+     * @param args function name and parameters
+     * @return response of the chaincode
+     */
+    public Response invoke(Chaincode chaincode, String... args) {
+        setArgs(args);
+        final Response response;
+        try {
+            response = chaincode.invoke(this);
+        } catch (RuntimeException | Error e) {
+            rollback();
+            throw e;
+        }
+        if (response.getStatus().getCode() >= Response.Status.INTERNAL_SERVER_ERROR.getCode()) {
+            rollback();
+        } else {
+            commit();
+        }
+        return response;
+    }
+
+    /**
+     * Applies the writes of the current transaction to the ledger and starts the next one
+     */
+    public void commit() {
+        ledger.commit(txId, txTimestamp, writes);
+        committedEvent = event;
+        begin();
+    }
+
+    /**
+     * Discards the writes of the current transaction and starts the next one
+     */
+    public void rollback() {
+        begin();
+    }
+
+    /**
+     * @return public and private writes of the current transaction, a null value deletes
+     * the key. Public writes are in the collection named by the empty string.
+     */
+    public Map<String, Map<String, byte[]>> getWrites() {
+        final Map<String, Map<String, byte[]>> copy = new HashMap<>();
+        writes.forEach((collection, values) -> {
+            if (!values.isEmpty()) {
+                copy.put(collection, Collections.unmodifiableMap(new LinkedHashMap<>(values)));
+            }
+        });
+        return copy;
+    }
+
+    /**
+     * @return event posted to clients by the last committed transaction, null if it set
+     * none. The events of rolled back transactions are never posted.
+     */
+    public ChaincodeEvent getCommittedEvent() {
+        return committedEvent;
+    }
+
+    private void begin() {
+        // the maps are cleared rather than replaced, not to allocate them for every transaction
+        for (Map<String, byte[]> values : writes.values()) {
+            values.clear();
+        }
+        event = null;
+        txId = "tx" + transactions++;
+        if (!fixedTxTimestamp) {
+            txTimestamp = Instant.now();
+        }
+    }
+
+    @Override
+    public List<byte[]> getArgs() {
+        final List<byte[]> copy = new ArrayList<>(args.size());
+        for (byte[] arg : args) {
+            copy.add(arg.clone());
+        }
+        return copy;
+    }
+
+    @Override
+    public List<String> getStringArgs() {
+        return stringArgs;
+    }
+
+    @Override
+    public String getFunction() {
+        return stringArgs.size() > 0 ? stringArgs.get(0) : null;
+    }
+
+    @Override
+    public List<String> getParameters() {
+        return stringArgs.size() > 0 ? stringArgs.subList(1, stringArgs.size()) : stringArgs;
+    }
+
+    @Override
+    public String getTxId() {
+        return txId;
+    }
+
+    @Override
+    public String getChannelId() {
+        return channelId;
+    }
+
+    @Override
+    public Response invokeChaincode(String chaincodeName, List<byte[]> args, String channel) {
+        throw new UnsupportedOperationException("Calling another chaincode is not supported by the in-memory stub");
+    }
+
+    @Override
+    public byte[] getState(String key) {
+        final byte[] value = ledger.get(PUBLIC, key);
+        return value == null ? EMPTY : value;
+    }
+
+    @Override
+    public void putState(String key, byte[] value) {
+        validateKey(key);
+        write(PUBLIC, key, value.clone());
+    }
+
+    @Override
+    public void delState(String key) {
+        write(PUBLIC, key, null);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByRange(String startKey, String endKey) {
+        return range(PUBLIC, startKey, endKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(String compositeKey) {
+        return getStateByPartialCompositeKey(parsePartialCompositeKey(compositeKey));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(String objectType, String... attributes) {
+        return getStateByPartialCompositeKey(new CompositeKey(objectType, attributes));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getStateByPartialCompositeKey(CompositeKey compositeKey) {
+        return partialCompositeKey(PUBLIC, compositeKey);
+    }
+
+    @Override
+    public CompositeKey createCompositeKey(String objectType, String... attributes) {
+        return new CompositeKey(objectType, attributes);
+    }
+
+    @Override
+    public CompositeKey splitCompositeKey(String compositeKey) {
+        return CompositeKey.parseCompositeKey(compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getQueryResult(String query) {
+        throw new UnsupportedOperationException("Rich queries are not supported by the in-memory ledger");
+    }
+
+    @Override
+    public QueryResultsIterator<KeyModification> getHistoryForKey(String key) {
+        return new Results<>(ledger.history(key));
+    }
+
+    @Override
+    public byte[] getPrivateData(String collection, String key) {
+        validateCollection(collection);
+        final byte[] value = ledger.get(collection, key);
+        return value == null ? EMPTY : value;
+    }
+
+    @Override
+    public void putPrivateData(String collection, String key, byte[] value) {
+        validateKey(key);
+        validateCollection(collection);
+        write(collection, key, value.clone());
+    }
+
+    @Override
+    public void delPrivateData(String collection, String key) {
+        validateCollection(collection);
+        write(collection, key, null);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByRange(String collection, String startKey, String endKey) {
+        validateCollection(collection);
+        return range(collection, startKey, endKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(String collection, String compositeKey) {
+        return getPrivateDataByPartialCompositeKey(collection, parsePartialCompositeKey(compositeKey == null ? "" : compositeKey));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(String collection, CompositeKey compositeKey) {
+        validateCollection(collection);
+        return partialCompositeKey(collection, compositeKey);
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataByPartialCompositeKey(String collection, String objectType, String... attributes) {
+        return getPrivateDataByPartialCompositeKey(collection, new CompositeKey(objectType, attributes));
+    }
+
+    @Override
+    public QueryResultsIterator<KeyValue> getPrivateDataQueryResult(String collection, String query) {
+        throw new UnsupportedOperationException("Rich queries are not supported by the in-memory ledger");
+    }
+
+    @Override
+    public void setEvent(String name, byte[] payload) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("event name can not be nil string");
+        }
+        final ChaincodeEvent.Builder builder = ChaincodeEvent.newBuilder()
+                .setEventName(name);
+        if (payload != null) {
+            builder.setPayload(ByteString.copyFrom(payload));
+        }
+        this.event = builder.build();
+    }
+
+    @Override
+    public ChaincodeEvent getEvent() {
+        return event;
+    }
+
+    @Override
+    public SignedProposal getSignedProposal() {
+        return signedProposal;
+    }
+
+    @Override
+    public Instant getTxTimestamp() {
+        return txTimestamp;
+    }
+
+    @Override
+    public byte[] getCreator() {
+        return creator == null ? null : creator.clone();
+    }
+
+    @Override
+    public Map<String, byte[]> getTransient() {
+        final Map<String, byte[]> copy = new HashMap<>();
+        transientMap.forEach((key, value) -> copy.put(key, value.clone()));
+        return copy;
+    }
+
+    @Override
+    public byte[] getBinding() {
+        return binding == null ? null : binding.clone();
+    }
+
+    private void write(String collection, String key, byte[] value) {
+        writes.computeIfAbsent(collection, c -> new LinkedHashMap<>()).put(key, value);
+    }
+
+    private QueryResultsIterator<KeyValue> range(String collection, String startKey, String endKey) {
+        if (startKey == null || startKey.isEmpty()) {
+            startKey = UNSPECIFIED_KEY;
+        }
+        if (endKey == null || endKey.isEmpty()) {
+            endKey = null;
+        }
+        CompositeKey.validateSimpleKeys(startKey, endKey == null ? "" : endKey);
+        return keyValues(ledger.range(collection, startKey, endKey));
+    }
+
+    private QueryResultsIterator<KeyValue> partialCompositeKey(String collection, CompositeKey compositeKey) {
+        if (compositeKey == null) {
+            compositeKey = new CompositeKey(UNSPECIFIED_KEY);
+        }
+        final String prefix = compositeKey.toString();
+        return keyValues(ledger.range(collection, prefix, prefix + MAX_UNICODE_RUNE));
+    }
+
+    private static CompositeKey parsePartialCompositeKey(String compositeKey) {
+        if (compositeKey.startsWith(CompositeKey.NAMESPACE)) {
+            return CompositeKey.parseCompositeKey(compositeKey);
+        }
+        return new CompositeKey(compositeKey);
+    }
+
+    private static QueryResultsIterator<KeyValue> keyValues(Map<String, byte[]> state) {
+        return new Results<>(() -> new Iterator<KeyValue>() {
+            private final Iterator<Map.Entry<String, byte[]>> entries = state.entrySet().iterator();
+
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public KeyValue next() {
+                final Map.Entry<String, byte[]> entry = entries.next();
+                return new Entry(entry.getKey(), entry.getValue());
+            }
+        });
+    }
+
+    static void validateKey(String key) {
+        if (key == null) {
+            throw new NullPointerException("key cannot be null");
+        }
+        if (key.length() == 0) {
+            throw new IllegalArgumentException("key cannot not be an empty string");
+        }
+    }
+
+    static void validateCollection(String collection) {
+        if (collection == null) {
+            throw new NullPointerException("collection cannot be null");
+        }
+        if (collection.isEmpty()) {
+            throw new IllegalArgumentException("collection must not be an empty string");
+        }
+    }
+
+    private static class Results<T> implements QueryResultsIterator<T> {
+        private final Iterable<T> results;
+
+        Results(Iterable<T> results) {
+            this.results = results;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return results.iterator();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class Entry implements KeyValue {
+        private final String key;
+        private final byte[] value;
+
+        Entry(String key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value.clone();
+        }
+
+        @Override
+        public String getStringValue() {
+            return new String(value, UTF_8);
+        }
+    }
+
+}
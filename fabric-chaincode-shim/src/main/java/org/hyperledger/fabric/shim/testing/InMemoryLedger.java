@@ -0,0 +1,218 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.testing;
+
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Committed state of a chaincode, read and written by {@link InMemoryChaincodeStub}s.
+ * <p>
+ * Keys are ordered by code point, the order of their UTF-8 bytes the peer uses. The
+ * public state is the collection named by the empty string. Writes of a transaction are
+ * applied at once when it commits, without checking its reads against transactions
+ * committed in the meantime.
+ */
+public class InMemoryLedger {
+
+    static final String PUBLIC = "";
+
+    // the order of the UTF-8 bytes of the keys, which String.compareTo is not for supplementary characters
+    static final Comparator<String> KEY_ORDER = (a, b) -> {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            final int ca = a.codePointAt(i);
+            final int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    };
+
+    private final Map<String, NavigableMap<String, byte[]>> collections = new ConcurrentHashMap<>();
+    private final Map<String, List<KeyModification>> history = new ConcurrentHashMap<>();
+    private volatile boolean historyEnabled = true;
+    private long committed;
+
+    /**
+     * @param historyEnabled whether the modifications of public keys are recorded for
+     *                       {@link InMemoryChaincodeStub#getHistoryForKey(String)}, like
+     *                       <code>core.ledger.history.enableHistoryDatabase</code> of the peer.
+     *                       Long benchmarks may disable it not to run out of memory.
+     */
+    public InMemoryLedger setHistoryEnabled(boolean historyEnabled) {
+        this.historyEnabled = historyEnabled;
+        return this;
+    }
+
+    /**
+     * Sets the committed public state of a key, without recording its history
+     */
+    public InMemoryLedger putState(String key, byte[] value) {
+        collection(PUBLIC).put(key, value.clone());
+        return this;
+    }
+
+    public InMemoryLedger putStringState(String key, String value) {
+        return putState(key, value.getBytes(UTF_8));
+    }
+
+    /**
+     * Sets the committed state of a key of a private data collection
+     */
+    public InMemoryLedger putPrivateData(String collection, String key, byte[] value) {
+        collection(collection).put(key, value.clone());
+        return this;
+    }
+
+    /**
+     * @return committed public state of the key, null if it has none
+     */
+    public byte[] getState(String key) {
+        return get(PUBLIC, key);
+    }
+
+    /**
+     * @return committed public state of the key decoded as UTF-8, null if it has none
+     */
+    public String getStringState(String key) {
+        final byte[] value = getState(key);
+        return value == null ? null : new String(value, UTF_8);
+    }
+
+    /**
+     * @return committed state of the key in a private data collection, null if it has none
+     */
+    public byte[] getPrivateData(String collection, String key) {
+        return get(collection, key);
+    }
+
+    /**
+     * @return transactions committed so far
+     */
+    public synchronized long getCommitted() {
+        return committed;
+    }
+
+    byte[] get(String collection, String key) {
+        final NavigableMap<String, byte[]> state = collections.get(collection);
+        final byte[] value = state == null ? null : state.get(key);
+        return value == null ? null : value.clone();
+    }
+
+    /**
+     * @param endKey exclusive end of the range, null for no end
+     * @return view of the committed state of the keys in the range
+     */
+    NavigableMap<String, byte[]> range(String collection, String startKey, String endKey) {
+        final NavigableMap<String, byte[]> state = collection(collection);
+        if (endKey == null) {
+            return state.tailMap(startKey, true);
+        }
+        if (KEY_ORDER.compare(startKey, endKey) >= 0) {
+            return Collections.emptyNavigableMap();
+        }
+        return state.subMap(startKey, true, endKey, false);
+    }
+
+    /**
+     * @return modifications of the public key, the latest first
+     */
+    List<KeyModification> history(String key) {
+        final List<KeyModification> modifications = history.get(key);
+        if (modifications == null) {
+            return Collections.emptyList();
+        }
+        synchronized (modifications) {
+            final List<KeyModification> latestFirst = new ArrayList<>(modifications);
+            Collections.reverse(latestFirst);
+            return latestFirst;
+        }
+    }
+
+    /**
+     * Applies the writes of a transaction
+     *
+     * @param writes values by key by collection, a null value deletes the key
+     */
+    synchronized void commit(String txId, Instant timestamp, Map<String, Map<String, byte[]>> writes) {
+        for (Map.Entry<String, Map<String, byte[]>> collectionWrites : writes.entrySet()) {
+            final NavigableMap<String, byte[]> state = collection(collectionWrites.getKey());
+            final boolean isPublic = collectionWrites.getKey().equals(PUBLIC);
+            for (Map.Entry<String, byte[]> write : collectionWrites.getValue().entrySet()) {
+                if (write.getValue() == null) {
+                    state.remove(write.getKey());
+                } else {
+                    state.put(write.getKey(), write.getValue());
+                }
+                if (isPublic && historyEnabled) {
+                    final List<KeyModification> modifications = history.computeIfAbsent(write.getKey(), k -> new ArrayList<>());
+                    synchronized (modifications) {
+                        modifications.add(new Modification(txId, write.getValue(), timestamp));
+                    }
+                }
+            }
+        }
+        committed++;
+    }
+
+    private NavigableMap<String, byte[]> collection(String collection) {
+        return collections.computeIfAbsent(collection, c -> new ConcurrentSkipListMap<>(KEY_ORDER));
+    }
+
+    private static class Modification implements KeyModification {
+        private final String txId;
+        private final byte[] value;
+        private final Instant timestamp;
+
+        Modification(String txId, byte[] value, Instant timestamp) {
+            this.txId = txId;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String getTxId() {
+            return txId;
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value == null ? new byte[0] : value.clone();
+        }
+
+        @Override
+        public String getStringValue() {
+            return value == null ? "" : new String(value, UTF_8);
+        }
+
+        @Override
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean isDeleted() {
+            return value == null;
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the shim: transactions, requests to the peer, pages of
+ * query results and messages held up in the outbound queue.
+ * <p>
+ * This is the Java 11 version, packaged in META-INF/versions/11 of the multi-release jar.
+ * An event is only created while a recording enables it, so the shim allocates nothing
+ * for JFR otherwise. Outbound waits are recorded from 1 ms, the threshold of each event
+ * can be set in the recording settings.
+ */
+final class ShimEvents {
+
+    private static final EventType TRANSACTION = EventType.getEventType(TransactionEvent.class);
+    private static final EventType REQUEST = EventType.getEventType(RequestEvent.class);
+    private static final EventType PAGE_FETCH = EventType.getEventType(PageFetchEvent.class);
+    private static final EventType OUTBOUND_WAIT = EventType.getEventType(OutboundWaitEvent.class);
+
+    static Object beginTransaction(String type, String channelId, String txId) {
+        if (!TRANSACTION.isEnabled()) {
+            return null;
+        }
+        final TransactionEvent event = new TransactionEvent();
+        event.type = type;
+        event.channelId = channelId;
+        event.txId = txId;
+        event.begin();
+        return event;
+    }
+
+    static void endTransaction(Object event, String result) {
+        if (event == null) {
+            return;
+        }
+        final TransactionEvent transaction = (TransactionEvent) event;
+        transaction.end();
+        if (transaction.shouldCommit()) {
+            transaction.result = result;
+            transaction.commit();
+        }
+    }
+
+    static Object beginRequest() {
+        if (!REQUEST.isEnabled()) {
+            return null;
+        }
+        final RequestEvent event = new RequestEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endRequest(Object event, String type, String channelId, String txId, String key, String response) {
+        if (event == null) {
+            return;
+        }
+        final RequestEvent request = (RequestEvent) event;
+        request.end();
+        if (request.shouldCommit()) {
+            request.type = type;
+            request.channelId = channelId;
+            request.txId = txId;
+            request.key = key;
+            request.response = response;
+            request.commit();
+        }
+    }
+
+    static Object beginPageFetch() {
+        if (!PAGE_FETCH.isEnabled()) {
+            return null;
+        }
+        final PageFetchEvent event = new PageFetchEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endPageFetch(Object event, String channelId, String txId, String queryId, int results, boolean hasMore) {
+        if (event == null) {
+            return;
+        }
+        final PageFetchEvent pageFetch = (PageFetchEvent) event;
+        pageFetch.end();
+        if (pageFetch.shouldCommit()) {
+            pageFetch.channelId = channelId;
+            pageFetch.txId = txId;
+            pageFetch.queryId = queryId;
+            pageFetch.results = results;
+            pageFetch.hasMore = hasMore;
+            pageFetch.commit();
+        }
+    }
+
+    static Object beginOutboundWait() {
+        if (!OUTBOUND_WAIT.isEnabled()) {
+            return null;
+        }
+        final OutboundWaitEvent event = new OutboundWaitEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endOutboundWait(Object event, String type, String priority, String txId) {
+        if (event == null) {
+            return;
+        }
+        final OutboundWaitEvent outboundWait = (OutboundWaitEvent) event;
+        outboundWait.end();
+        if (outboundWait.shouldCommit()) {
+            outboundWait.type = type;
+            outboundWait.priority = priority;
+            outboundWait.txId = txId;
+            outboundWait.commit();
+        }
+    }
+
+    @Name("org.hyperledger.fabric.shim.Transaction")
+    @Label("Transaction")
+    @Category({"Hyperledger Fabric", "Chaincode Shim"})
+    @Description("INIT or TRANSACTION, from its receipt to queueing its result for the peer")
+    static class TransactionEvent extends Event {
+        @Label("Type")
+        String type;
+
+        @Label("Channel")
+        String channelId;
+
+        @Label("Transaction Id")
+        String txId;
+
+        @Label("Result")
+        String result;
+    }
+
+    @Name("org.hyperledger.fabric.shim.PeerRequest")
+    @Label("Peer Request")
+    @Category({"Hyperledger Fabric", "Chaincode Shim"})
+    @Description("Round trip of a request of the chaincode to the peer, from queueing it to receiving the answer")
+    static class RequestEvent extends Event {
+        @Label("Type")
+        String type;
+
+        @Label("Channel")
+        String channelId;
+
+        @Label("Transaction Id")
+        String txId;
+
+        @Label("Key")
+        @Description("Key, range start, query id or chaincode the request is about")
+        String key;
+
+        @Label("Response")
+        String response;
+    }
+
+    @Name("org.hyperledger.fabric.shim.PageFetch")
+    @Label("Query Page Fetch")
+    @Category({"Hyperledger Fabric", "Chaincode Shim"})
+    @Description("Fetch of the next page of query results by an iterator")
+    static class PageFetchEvent extends Event {
+        @Label("Channel")
+        String channelId;
+
+        @Label("Transaction Id")
+        String txId;
+
+        @Label("Query Id")
+        String queryId;
+
+        @Label("Results")
+        int results;
+
+        @Label("Has More")
+        boolean hasMore;
+    }
+
+    @Name("org.hyperledger.fabric.shim.OutboundWait")
+    @Label("Outbound Queue Stall")
+    @Category({"Hyperledger Fabric", "Chaincode Shim"})
+    @Description("Message held up in the queue of messages to the peer")
+    @Threshold("1 ms")
+    static class OutboundWaitEvent extends Event {
+        @Label("Type")
+        String type;
+
+        @Label("Priority")
+        String priority;
+
+        @Label("Transaction Id")
+        String txId;
+    }
+
+}
@@ -7,8 +7,11 @@ SPDX-License-Identifier: Apache-2.0
 package org.hyperledger.fabric.shim;
 
 import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
 import org.hamcrest.Matchers;
 import org.hyperledger.fabric.shim.chaincode.EmptyChaincode;
+import org.hyperledger.fabric.shim.impl.HandlerOptions;
+import org.hyperledger.fabric.shim.impl.ReconnectBackoff;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.EnvironmentVariables;
@@ -149,6 +152,161 @@ public class ChaincodeBaseTest {
         assertEquals("Port incorrect", cb.getPort(), 7053);
     }
 
+    @Test
+    public void testServerOptions() {
+        ChaincodeBase cb = new EmptyChaincode();
+        cb.processEnvironmentOptions();
+        assertFalse("Server mode should not be enabled", cb.isServerMode());
+
+        environmentVariables.set("CORE_CHAINCODE_SERVER_ADDRESS", "0.0.0.0:9999");
+        cb.processEnvironmentOptions();
+        assertTrue("Server mode should be enabled", cb.isServerMode());
+        assertEquals("Server host incorrect", "0.0.0.0", cb.getServerHost());
+        assertEquals("Server port incorrect", 9999, cb.getServerPort());
+
+        cb.processCommandLineOptions(new String[]{"-i", "mycc1", "--server.address", "localhost:7055"});
+        assertEquals("Server host incorrect", "localhost", cb.getServerHost());
+        assertEquals("Server port incorrect", 7055, cb.getServerPort());
+    }
+
+    @Test
+    public void testNewServerBuilder() throws Exception {
+        ChaincodeBase cb = new EmptyChaincode();
+        cb.processCommandLineOptions(new String[]{"-i", "mycc", "-s", "127.0.0.1:7055"});
+        cb.validateOptions();
+        assertTrue("Not correct builder", cb.newServerBuilder() instanceof NettyServerBuilder);
+    }
+
+    @Test
+    public void testNewServerBuilderWithTls() throws Exception {
+        ChaincodeBase cb = new EmptyChaincode();
+        environmentVariables.set("CORE_CHAINCODE_ID_NAME", "mycc");
+        environmentVariables.set("CORE_CHAINCODE_SERVER_ADDRESS", "127.0.0.1:7055");
+        environmentVariables.set("CORE_PEER_TLS_ENABLED", "true");
+        environmentVariables.set("CORE_PEER_TLS_ROOTCERT_FILE", "src/test/resources/ca.crt");
+        environmentVariables.set("CORE_CHAINCODE_SERVER_TLS_KEY_PATH", "src/test/resources/client.key");
+        environmentVariables.set("CORE_CHAINCODE_SERVER_TLS_CERT_PATH", "src/test/resources/client.crt");
+
+        cb.processEnvironmentOptions();
+        cb.validateOptions();
+        assertEquals("Server key file", "src/test/resources/client.key", cb.getTlsServerKeyPath());
+        assertEquals("Server certificate file", "src/test/resources/client.crt", cb.getTlsServerCertPath());
+        assertTrue("Not correct builder", cb.newServerBuilder() instanceof NettyServerBuilder);
+    }
+
+    @Test
+    public void testUnsetOptionServerKeyPath() {
+        ChaincodeBase cb = new EmptyChaincode();
+        environmentVariables.set("CORE_CHAINCODE_ID_NAME", "mycc");
+        environmentVariables.set("CORE_CHAINCODE_SERVER_ADDRESS", "127.0.0.1:7055");
+        environmentVariables.set("CORE_PEER_TLS_ENABLED", "true");
+        environmentVariables.set("CORE_CHAINCODE_SERVER_TLS_CERT_PATH", "non_exist_path3");
+        cb.processEnvironmentOptions();
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage(Matchers.containsString("Server key ("));
+        cb.validateOptions();
+    }
+
+    @Test
+    public void testReconnectOptions() {
+        ChaincodeBase cb = new EmptyChaincode();
+        cb.processEnvironmentOptions();
+        assertFalse("Reconnect should not be enabled", cb.isReconnectEnabled());
+        assertNull("No backoff expected", cb.newReconnectBackoff());
+
+        environmentVariables.set("CORE_CHAINCODE_RECONNECT_ENABLED", "true");
+        environmentVariables.set("CORE_CHAINCODE_RECONNECT_INITIAL_DELAY", "10");
+        environmentVariables.set("CORE_CHAINCODE_RECONNECT_MAX_DELAY", "100");
+        environmentVariables.set("CORE_CHAINCODE_RECONNECT_MAX_ATTEMPTS", "1");
+        cb.processEnvironmentOptions();
+        assertTrue("Reconnect should be enabled", cb.isReconnectEnabled());
+        ReconnectBackoff backoff = cb.newReconnectBackoff();
+        assertTrue(backoff.hasMoreAttempts());
+        assertTrue("Delay should honour the initial delay", backoff.nextDelay() <= 12);
+        assertFalse(backoff.hasMoreAttempts());
+    }
+
+    @Test
+    public void testHandlerOptions() {
+        ChaincodeBase cb = new EmptyChaincode();
+        cb.processEnvironmentOptions();
+        HandlerOptions options = cb.newHandlerOptions();
+        assertFalse("Outbound priority should be disabled by default", options.isOutboundPriorityEnabled());
+        assertSame(cb.getMetrics(), options.getMetrics());
+
+        environmentVariables.set("CORE_CHAINCODE_OUTBOUND_PRIORITY_ENABLED", "true");
+        environmentVariables.set("CORE_CHAINCODE_OUTBOUND_MAX_BYPASS", "4");
+        cb.processEnvironmentOptions();
+        options = cb.newHandlerOptions();
+        assertTrue("Outbound priority should be enabled", options.isOutboundPriorityEnabled());
+        assertEquals(4, options.getOutboundMaxBypass());
+
+        assertEquals("Request deadlines should be disabled by default", 0, options.getRequestTimeout());
+        environmentVariables.set("CORE_CHAINCODE_REQUEST_TIMEOUT", "5000");
+        environmentVariables.set("CORE_CHAINCODE_TRANSACTION_TIMEOUT", "20000");
+        cb.processEnvironmentOptions();
+        options = cb.newHandlerOptions();
+        assertEquals(5000, options.getRequestTimeout());
+        assertEquals(20000, options.getTransactionTimeout());
+
+        assertEquals(0, options.getMaxConcurrency());
+        environmentVariables.set("CORE_CHAINCODE_MAX_CONCURRENCY", "8");
+        environmentVariables.set("CORE_CHAINCODE_MAX_QUEUED", "16");
+        environmentVariables.set("CORE_CHAINCODE_MAX_QUEUE_TIME", "250");
+        cb.processEnvironmentOptions();
+        options = cb.newHandlerOptions();
+        assertEquals(8, options.getMaxConcurrency());
+        assertEquals(16, options.getMaxQueued());
+        assertEquals(250, options.getMaxQueueTime());
+        assertFalse("Adaptive concurrency should be disabled by default", options.isAdaptiveConcurrencyEnabled());
+
+        environmentVariables.set("CORE_CHAINCODE_ADAPTIVE_CONCURRENCY_ENABLED", "true");
+        cb.processEnvironmentOptions();
+        assertTrue("Adaptive concurrency should be enabled", cb.newHandlerOptions().isAdaptiveConcurrencyEnabled());
+
+        environmentVariables.set("CORE_CHAINCODE_MAX_CONCURRENCY_READ_ONLY", "2");
+        cb.processEnvironmentOptions();
+        options = cb.newHandlerOptions();
+        assertEquals(2, options.getMaxConcurrency(ExecutionClass.READ_ONLY));
+        assertEquals(0, options.getMaxConcurrency(ExecutionClass.WRITE));
+
+        assertEquals(0, options.getChannelMaxConcurrency());
+        assertEquals(0, options.getChannelMaxQueued());
+        environmentVariables.set("CORE_CHAINCODE_CHANNEL_MAX_CONCURRENCY", "4");
+        environmentVariables.set("CORE_CHAINCODE_CHANNEL_MAX_QUEUED", "25");
+        environmentVariables.set("CORE_CHAINCODE_CHANNEL_WEIGHTS", "ch1=3, ch2=2");
+        cb.processEnvironmentOptions();
+        options = cb.newHandlerOptions();
+        assertEquals(4, options.getChannelMaxConcurrency());
+        assertEquals(25, options.getChannelMaxQueued());
+        assertEquals(3, options.getChannelWeight("ch1"));
+        assertEquals(2, options.getChannelWeight("ch2"));
+        assertEquals(1, options.getChannelWeight("ch3"));
+
+        assertEquals(HandlerOptions.DEFAULT_MAX_PREFETCH_KEYS, options.getMaxPrefetchKeys());
+        assertFalse("Transient prefetch hints should be ignored by default", options.isPrefetchTransientEnabled());
+        environmentVariables.set("CORE_CHAINCODE_MAX_PREFETCH_KEYS", "8");
+        environmentVariables.set("CORE_CHAINCODE_PREFETCH_TRANSIENT_ENABLED", "true");
+        cb.processEnvironmentOptions();
+        options = cb.newHandlerOptions();
+        assertEquals(8, options.getMaxPrefetchKeys());
+        assertTrue("Transient prefetch hints should be enabled", options.isPrefetchTransientEnabled());
+    }
+
+    @Test
+    public void testRegisteredExecutionClasses() {
+        ChaincodeBase cb = new EmptyChaincode() {
+            {
+                registerExecutionClass("query", ExecutionClass.READ_ONLY);
+            }
+        };
+        cb.processEnvironmentOptions();
+        ExecutionClassifier classifier = cb.newHandlerOptions().getExecutionClassifier();
+        assertEquals(ExecutionClass.READ_ONLY, classifier.classify("query"));
+        assertNull("Functions not registered should run as WRITE", classifier.classify("invoke"));
+        assertFalse("ChaincodeBase should not expose a classifier", cb instanceof ExecutionClassifier);
+    }
+
     @Test
     public void testUnsetOptionId() {
         ChaincodeBase cb = new EmptyChaincode();
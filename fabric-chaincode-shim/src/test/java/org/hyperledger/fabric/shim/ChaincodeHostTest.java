@@ -0,0 +1,50 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim;
+
+import org.hyperledger.fabric.shim.chaincode.EmptyChaincode;
+import org.hyperledger.fabric.shim.impl.HandlerOptions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.*;
+
+public class ChaincodeHostTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testRegisterTwice() {
+        final ChaincodeHost host = new ChaincodeHost().register("cc1", new EmptyChaincode());
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("cc1");
+        host.register("cc1", new EmptyChaincode());
+    }
+
+    @Test
+    public void testSharedOptions() {
+        final ChaincodeHost host = new ChaincodeHost()
+                .register("cc1", new EmptyChaincode())
+                .register("cc2", new EmptyChaincode());
+        final HandlerOptions options1 = host.newHandlerOptions("cc1");
+        final HandlerOptions options2 = host.newHandlerOptions("cc2");
+        assertSame(options1.getDispatchExecutor(ExecutionClass.WRITE), options2.getDispatchExecutor(ExecutionClass.WRITE));
+        assertSame(options1.getDispatchExecutor(ExecutionClass.READ_ONLY), options2.getDispatchExecutor(ExecutionClass.READ_ONLY));
+        assertNotSame(options1.getDispatchExecutor(ExecutionClass.WRITE), options2.getDispatchExecutor(ExecutionClass.READ_ONLY));
+        assertSame(options1.getAsyncExecutor(), options2.getAsyncExecutor());
+        assertSame(options1.getTimeoutScheduler(), options2.getTimeoutScheduler());
+
+        options1.getMetrics().counter("transactions").inc();
+        options2.getMetrics().gauge("running", () -> 2);
+        assertEquals(1, host.getMetrics().getCounters().get("cc1.transactions").getCount());
+        assertEquals(2, host.getMetrics().getGauges().get("cc2.running").getValue());
+        assertFalse(host.getMetrics().getCounters().containsKey("cc2.transactions"));
+    }
+
+}
@@ -9,7 +9,10 @@ import com.google.protobuf.ByteString;
 import org.hyperledger.fabric.protos.peer.Chaincode;
 import org.hyperledger.fabric.protos.peer.ChaincodeShim;
 import org.hyperledger.fabric.protos.peer.ProposalResponsePackage;
+import org.hyperledger.fabric.shim.AsyncChaincodeBase;
+import org.hyperledger.fabric.shim.AsyncChaincodeStub;
 import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeHost;
 import org.hyperledger.fabric.shim.ChaincodeStub;
 import org.hyperledger.fabric.shim.chaincode.EmptyChaincode;
 import org.hyperledger.fabric.shim.ledger.KeyModification;
@@ -23,10 +26,17 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.EnvironmentVariables;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
@@ -68,6 +78,271 @@ public class ChaincodeFVTest {
         assertThat(server.getLastMessageRcvd().getType(), is(REGISTER));
     }
 
+    @Test
+    public void testRegisterInProcess() throws Exception {
+        ChaincodeBase cb = new EmptyChaincode();
+
+        List<ScenarioStep> scenario = new ArrayList<>();
+        scenario.add(new RegisterStep());
+
+        server = ChaincodeMockPeer.startInProcessServer(scenario);
+
+        cb.start(new String[]{"-i", "testId"}, server.newChannelBuilder());
+
+        checkScenarioStepEnded(server, 1, 5000, TimeUnit.MILLISECONDS);
+
+        assertThat(server.getLastMessageSend().getType(), is(READY));
+        assertThat(server.getLastMessageRcvd().getType(), is(REGISTER));
+    }
+
+    @Test
+    public void testManyInProcessPeers() throws Exception {
+        ByteString payload = org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8("")).build().toByteString();
+        ChaincodeShim.ChaincodeMessage initMsg = MessageUtil.newEventMessage(INIT, "testChannel", "0", payload, null);
+
+        List<ChaincodeMockPeer> peers = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                List<ScenarioStep> scenario = new ArrayList<>();
+                scenario.add(new RegisterStep());
+                scenario.add(new CompleteStep());
+                ChaincodeMockPeer peer = ChaincodeMockPeer.startInProcessServer(scenario);
+                peers.add(peer);
+                new EmptyChaincode().start(new String[]{"-i", "testId" + i}, peer.newChannelBuilder());
+            }
+            for (ChaincodeMockPeer peer : peers) {
+                checkScenarioStepEnded(peer, 1, 5000, TimeUnit.MILLISECONDS);
+                peer.send(initMsg);
+            }
+            for (ChaincodeMockPeer peer : peers) {
+                checkScenarioStepEnded(peer, 2, 5000, TimeUnit.MILLISECONDS);
+                assertThat(peer.getLastMessageRcvd().getType(), is(COMPLETED));
+            }
+        } finally {
+            peers.forEach(ChaincodeMockPeer::stop);
+        }
+    }
+
+    @Test
+    public void testChaincodeHost() throws Exception {
+        ByteString payload = org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8("")).build().toByteString();
+        ChaincodeShim.ChaincodeMessage initMsg = MessageUtil.newEventMessage(INIT, "testChannel", "0", payload, null);
+
+        Map<String, ChaincodeMockPeer> peers = new LinkedHashMap<>();
+        ChaincodeHost host = new ChaincodeHost();
+        try {
+            for (int i = 0; i < 3; i++) {
+                List<ScenarioStep> scenario = new ArrayList<>();
+                scenario.add(new RegisterStep());
+                scenario.add(new CompleteStep());
+                peers.put("testId" + i, ChaincodeMockPeer.startInProcessServer(scenario));
+                host.register("testId" + i, new EmptyChaincode());
+            }
+            host.start(new String[]{}, chaincodeId -> peers.get(chaincodeId.getName()).newChannelBuilder());
+            for (Map.Entry<String, ChaincodeMockPeer> entry : peers.entrySet()) {
+                checkScenarioStepEnded(entry.getValue(), 1, 5000, TimeUnit.MILLISECONDS);
+                assertThat(Chaincode.ChaincodeID.parseFrom(entry.getValue().getLastMessageRcvd().getPayload()).getName(), is(entry.getKey()));
+                entry.getValue().send(initMsg);
+            }
+            for (ChaincodeMockPeer peer : peers.values()) {
+                checkScenarioStepEnded(peer, 2, 5000, TimeUnit.MILLISECONDS);
+                assertThat(peer.getLastMessageRcvd().getType(), is(COMPLETED));
+            }
+            assertThat(host.getMetrics().getHistograms().get("testId1.transaction.latency.init").getCount(), is(1L));
+        } finally {
+            peers.values().forEach(ChaincodeMockPeer::stop);
+        }
+    }
+
+    @Test
+    public void testLoadGenerator() throws Exception {
+        ChaincodeBase cb = new ChaincodeBase() {
+            @Override
+            public Response init(ChaincodeStub stub) {
+                return newSuccessResponse();
+            }
+
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                String key = stub.getParameters().get(0);
+                if (stub.getFunction().equals("add")) {
+                    stub.putStringState(key, Integer.toString(Integer.parseInt(stub.getStringState(key)) + 1));
+                }
+                return newSuccessResponse(stub.getStringState(key));
+            }
+        };
+
+        LoadGenerator load = new LoadGenerator(cb)
+                .putState("a", "0")
+                .addArgs(1, "add", "a")
+                .addArgs(1, "query", "a")
+                .setWarmupTransactions(10)
+                .setTransactions(200)
+                .setConcurrency(1)
+                .setTimeout(10000);
+        LoadGenerator.Report report = load.run();
+
+        assertThat(report.getTransactions(), is(200));
+        assertThat(report.getFailed(), is(0L));
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getLatencyAtPercentile(99.9) >= report.getLatencyAtPercentile(50));
+        // one transaction at a time, so each one commits
+        assertThat(report.getConflicts(), is(0L));
+        assertThat(load.getLedger().getCommitted(), is(210L));
+        int adds = Integer.parseInt(load.getLedger().getState("a").toStringUtf8());
+        assertTrue(adds > 0 && adds < 210);
+    }
+
+    @Test
+    public void testLedgerSimulator() throws Exception {
+        CountDownLatch read = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        ChaincodeBase cb = new ChaincodeBase() {
+            @Override
+            public Response init(ChaincodeStub stub) {
+                return newSuccessResponse();
+            }
+
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                List<String> params = stub.getParameters();
+                switch (stub.getFunction()) {
+                    case "put":
+                        stub.putStringState(params.get(0), params.get(1));
+                        stub.putPrivateData("collection", params.get(0), params.get(1).getBytes(StandardCharsets.UTF_8));
+                        return newSuccessResponse();
+                    case "waitAndPut":
+                        String value = stub.getStringState(params.get(0));
+                        read.countDown();
+                        try {
+                            written.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            return newErrorResponse(e);
+                        }
+                        stub.putStringState(params.get(0), value + params.get(1));
+                        return newSuccessResponse();
+                    case "range":
+                        int results = 0;
+                        for (KeyValue kv : stub.getStateByRange("key0", "key9")) {
+                            results++;
+                        }
+                        return newSuccessResponse(Integer.toString(results));
+                    case "history":
+                        int modifications = 0;
+                        for (KeyModification km : stub.getHistoryForKey(params.get(0))) {
+                            modifications++;
+                        }
+                        return newSuccessResponse(Integer.toString(modifications));
+                    case "invoke":
+                        return stub.invokeChaincodeWithStringArgs(params.get(0), params.subList(1, params.size()));
+                    default:
+                        return newErrorResponse();
+                }
+            }
+        };
+
+        BlockingQueue<ChaincodeShim.ChaincodeMessage> results = new LinkedBlockingQueue<>();
+        LedgerSimulator ledger = new LedgerSimulator(results::add).setPageSize(2);
+        for (int i = 0; i < 5; i++) {
+            ledger.putState("key" + i, ByteString.copyFromUtf8("value" + i));
+        }
+        server = ChaincodeMockPeer.startInProcessServer(ledger);
+        cb.start(new String[]{"-i", "testId"}, server.newChannelBuilder());
+        for (int i = 0; i < 500 && (server.getLastMessageSend() == null || server.getLastMessageSend().getType() != READY); i++) {
+            Thread.sleep(10);
+        }
+
+        // pages of 2, 2 and 1 results
+        server.send(newTransaction("tx1", "range"));
+        assertThat(nextResponse(results).getMessage(), is("5"));
+
+        server.send(newTransaction("tx2", "put", "key1", "new"));
+        assertThat(nextResponse(results).getStatus(), is(200));
+        server.send(newTransaction("tx3", "put", "key1", "newer"));
+        assertThat(nextResponse(results).getStatus(), is(200));
+        server.send(newTransaction("tx4", "history", "key1"));
+        assertThat(nextResponse(results).getMessage(), is("2"));
+        assertThat(ledger.getState("key1").toStringUtf8(), is("newer"));
+        assertThat(ledger.getPrivateData("collection", "key1").toStringUtf8(), is("newer"));
+
+        // key2 is committed by tx6 after tx5 read it, so tx5 does not commit
+        server.send(newTransaction("tx5", "waitAndPut", "key2", "-tx5"));
+        assertTrue(read.await(5, TimeUnit.SECONDS));
+        server.send(newTransaction("tx6", "put", "key2", "tx6"));
+        assertThat(results.poll(5, TimeUnit.SECONDS).getTxid(), is("tx6"));
+        written.countDown();
+        assertThat(results.poll(5, TimeUnit.SECONDS).getTxid(), is("tx5"));
+        assertThat(ledger.getConflicts(), is(1L));
+        // read-only tx1 and tx4 commit too
+        assertThat(ledger.getCommitted(), is(5L));
+        assertThat(ledger.getState("key2").toStringUtf8(), is("tx6"));
+
+        ledger.setInvokedChaincode("other", args -> new ChaincodeBase.Response(ChaincodeBase.Response.Status.SUCCESS, args.get(0).toStringUtf8(), null));
+        server.send(newTransaction("tx7", "invoke", "other", "called"));
+        assertThat(nextResponse(results).getMessage(), is("called"));
+    }
+
+    @Test
+    public void testNetworkConditions() throws Exception {
+        ChaincodeBase cb = new ChaincodeBase() {
+            @Override
+            public Response init(ChaincodeStub stub) {
+                return newSuccessResponse();
+            }
+
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                String key = stub.getParameters().get(0);
+                if (stub.getFunction().equals("put")) {
+                    stub.putStringState(key, "b");
+                }
+                return newSuccessResponse(stub.getStringState(key));
+            }
+        };
+
+        BlockingQueue<ChaincodeShim.ChaincodeMessage> results = new LinkedBlockingQueue<>();
+        LedgerSimulator ledger = new LedgerSimulator(results::add);
+        ledger.putState("key", ByteString.copyFromUtf8("a"));
+        NetworkConditions conditions = new NetworkConditions()
+                .setLatency(GET_STATE, 20, TimeUnit.MILLISECONDS)
+                .setErrorRate(PUT_STATE, 1.0);
+        server = ChaincodeMockPeer.startInProcessServer(ledger);
+        server.setNetworkConditions(conditions);
+        cb.start(new String[]{"-i", "testId"}, server.newChannelBuilder());
+        for (int i = 0; i < 500 && (server.getLastMessageSend() == null || server.getLastMessageSend().getType() != READY); i++) {
+            Thread.sleep(10);
+        }
+
+        // GET_STATE and its RESPONSE are delayed by 20 ms each
+        long start = System.nanoTime();
+        server.send(newTransaction("tx1", "get", "key"));
+        assertThat(nextResponse(results).getMessage(), is("a"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+
+        // PUT_STATE is answered with an ERROR, so the transaction fails
+        server.send(newTransaction("tx2", "put", "key"));
+        ChaincodeShim.ChaincodeMessage message = results.poll(5, TimeUnit.SECONDS);
+        assertTrue(message.getType() == ERROR
+                || ProposalResponsePackage.Response.parseFrom(message.getPayload()).getStatus() >= 400);
+        assertThat(conditions.getInjectedErrors(), is(1L));
+        assertThat(conditions.getDropped(), is(0L));
+        assertThat(ledger.getState("key").toStringUtf8(), is("a"));
+    }
+
+    private static ChaincodeShim.ChaincodeMessage newTransaction(String txId, String... args) {
+        Chaincode.ChaincodeInput.Builder input = Chaincode.ChaincodeInput.newBuilder();
+        for (String arg : args) {
+            input.addArgs(ByteString.copyFromUtf8(arg));
+        }
+        return MessageUtil.newEventMessage(TRANSACTION, "testChannel", txId, input.build().toByteString(), null);
+    }
+
+    private static ProposalResponsePackage.Response nextResponse(BlockingQueue<ChaincodeShim.ChaincodeMessage> results) throws Exception {
+        ChaincodeShim.ChaincodeMessage message = results.poll(5, TimeUnit.SECONDS);
+        assertThat(message.getType(), is(COMPLETED));
+        return ProposalResponsePackage.Response.parseFrom(message.getPayload());
+    }
+
     @Test
     public void testRegisterAndEmptyInit() throws Exception {
         ChaincodeBase cb = new ChaincodeBase() {
@@ -247,6 +522,58 @@ public class ChaincodeFVTest {
         assertThat(ProposalResponsePackage.Response.parseFrom(server.getLastMessageRcvd().getPayload()).getMessage(), is("OK response2"));
     }
 
+    @Test
+    public void testAsyncInvokeRangeQ() throws Exception {
+        AsyncChaincodeBase cb = new AsyncChaincodeBase() {
+            @Override
+            public CompletionStage<ChaincodeBase.Response> init(AsyncChaincodeStub stub) {
+                return completedSuccessResponse("OK response1", null);
+            }
+
+            @Override
+            public CompletionStage<ChaincodeBase.Response> invoke(AsyncChaincodeStub stub) {
+                return stub.getStateByRange(stub.getParameters().get(0), stub.getParameters().get(1))
+                        .thenApply(results -> newSuccessResponse("OK response2", Integer.toString(results.size()).getBytes()));
+            }
+        };
+
+        ByteString initPayload = Chaincode.ChaincodeInput.newBuilder()
+                .addArgs(ByteString.copyFromUtf8(""))
+                .build().toByteString();
+        ChaincodeShim.ChaincodeMessage initMsg = MessageUtil.newEventMessage(INIT, "testChannel", "0", initPayload, null);
+
+        ByteString invokePayload = Chaincode.ChaincodeInput.newBuilder()
+                .addArgs(ByteString.copyFromUtf8("invoke"))
+                .addArgs(ByteString.copyFromUtf8("a"))
+                .addArgs(ByteString.copyFromUtf8("b"))
+                .build().toByteString();
+        ChaincodeShim.ChaincodeMessage invokeMsg = MessageUtil.newEventMessage(TRANSACTION, "testChannel", "0", invokePayload, null);
+
+        List<ScenarioStep> scenario = new ArrayList<>();
+        scenario.add(new RegisterStep());
+        scenario.add(new CompleteStep());
+        scenario.add(new GetStateByRangeStep(true, "a", "b"));
+        scenario.add(new QueryNextStep(false, "c"));
+        scenario.add(new QueryCloseStep());
+        scenario.add(new CompleteStep());
+
+        server = ChaincodeMockPeer.startServer(scenario);
+
+        cb.start(new String[]{"-a", "127.0.0.1:7052", "-i", "testId"});
+        checkScenarioStepEnded(server, 1, 5000, TimeUnit.MILLISECONDS);
+
+        server.send(initMsg);
+        checkScenarioStepEnded(server, 2, 5000, TimeUnit.MILLISECONDS);
+        assertThat(server.getLastMessageRcvd().getType(), is(COMPLETED));
+
+        server.send(invokeMsg);
+        checkScenarioStepEnded(server, 6, 5000, TimeUnit.MILLISECONDS);
+        assertThat(server.getLastMessageRcvd().getType(), is(COMPLETED));
+        ProposalResponsePackage.Response response = ProposalResponsePackage.Response.parseFrom(server.getLastMessageRcvd().getPayload());
+        assertThat(response.getMessage(), is("OK response2"));
+        assertThat(response.getPayload().toStringUtf8(), is("3"));
+    }
+
     @Test
     public void testGetQueryResult() throws Exception {
         ChaincodeBase cb = new ChaincodeBase() {
@@ -0,0 +1,184 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.fvt;
+
+import com.google.protobuf.ByteString;
+import io.grpc.ServerBuilder;
+import org.hyperledger.fabric.protos.peer.Chaincode;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim;
+import org.hyperledger.fabric.protos.peer.ProposalResponsePackage;
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.chaincode.EmptyChaincode;
+import org.hyperledger.fabric.shim.impl.ChaincodeSupportServer;
+import org.hyperledger.fabric.shim.mock.peer.*;
+import org.hyperledger.fabric.shim.utils.MessageUtil;
+import org.hyperledger.fabric.shim.utils.TimeoutUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.Matchers.is;
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ChaincodeServerFVTest {
+
+    private final Chaincode.ChaincodeID chaincodeId = Chaincode.ChaincodeID.newBuilder().setName("testId").build();
+
+    ChaincodeSupportServer server;
+    ChaincodeMockPeerClient peer;
+
+    @After
+    public void afterTest() throws Exception {
+        if (peer != null) {
+            peer.stop();
+            peer = null;
+        }
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        List<ScenarioStep> scenario = new ArrayList<>();
+        scenario.add(new RegisterStep());
+
+        server = new ChaincodeSupportServer(ServerBuilder.forPort(0), chaincodeId, new EmptyChaincode());
+        server.start();
+        peer = ChaincodeMockPeerClient.connect(scenario, server.getPort());
+
+        checkScenarioStepEnded(peer, 1, 5000, TimeUnit.MILLISECONDS);
+
+        assertThat(peer.getLastMessageSend().getType(), is(READY));
+        assertThat(peer.getLastMessageRcvd().getType(), is(REGISTER));
+        assertThat(Chaincode.ChaincodeID.parseFrom(peer.getLastMessageRcvd().getPayload()), is(chaincodeId));
+    }
+
+    @Test
+    public void testInitAndInvoke() throws Exception {
+        ChaincodeBase cb = new ChaincodeBase() {
+            @Override
+            public Response init(ChaincodeStub stub) {
+                stub.putState("a", ByteString.copyFromUtf8("100").toByteArray());
+                return newSuccessResponse("OK response1");
+            }
+
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                String aVal = stub.getStringState("a");
+                return newSuccessResponse("OK response2", aVal.getBytes());
+            }
+        };
+
+        ByteString initPayload = Chaincode.ChaincodeInput.newBuilder()
+                .addArgs(ByteString.copyFromUtf8("init"))
+                .build().toByteString();
+        ChaincodeShim.ChaincodeMessage initMsg = MessageUtil.newEventMessage(INIT, "testChannel", "0", initPayload, null);
+        ByteString invokePayload = Chaincode.ChaincodeInput.newBuilder()
+                .addArgs(ByteString.copyFromUtf8("invoke"))
+                .build().toByteString();
+        ChaincodeShim.ChaincodeMessage invokeMsg = MessageUtil.newEventMessage(TRANSACTION, "testChannel", "1", invokePayload, null);
+
+        List<ScenarioStep> scenario = new ArrayList<>();
+        scenario.add(new RegisterStep());
+        scenario.add(new PutValueStep("100"));
+        scenario.add(new CompleteStep());
+        scenario.add(new GetValueStep("100"));
+        scenario.add(new CompleteStep());
+
+        server = new ChaincodeSupportServer(ServerBuilder.forPort(0), chaincodeId, cb);
+        server.start();
+        peer = ChaincodeMockPeerClient.connect(scenario, server.getPort());
+        checkScenarioStepEnded(peer, 1, 5000, TimeUnit.MILLISECONDS);
+
+        peer.send(initMsg);
+        checkScenarioStepEnded(peer, 3, 5000, TimeUnit.MILLISECONDS);
+        assertThat(peer.getLastMessageRcvd().getType(), is(COMPLETED));
+        assertThat(ProposalResponsePackage.Response.parseFrom(peer.getLastMessageRcvd().getPayload()).getMessage(), is("OK response1"));
+
+        peer.send(invokeMsg);
+        checkScenarioStepEnded(peer, 5, 5000, TimeUnit.MILLISECONDS);
+        assertThat(peer.getLastMessageRcvd().getType(), is(COMPLETED));
+        ProposalResponsePackage.Response response = ProposalResponsePackage.Response.parseFrom(peer.getLastMessageRcvd().getPayload());
+        assertThat(response.getMessage(), is("OK response2"));
+        assertThat(response.getPayload().toStringUtf8(), is("100"));
+    }
+
+    @Test
+    public void testClosedConnectionFailsPendingRequests() throws Exception {
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final CountDownLatch invoked = new CountDownLatch(1);
+        ChaincodeBase cb = new EmptyChaincode() {
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                try {
+                    stub.getState("a");
+                } catch (RuntimeException e) {
+                    failure.set(e);
+                } finally {
+                    invoked.countDown();
+                }
+                return newSuccessResponse();
+            }
+        };
+
+        ByteString invokePayload = Chaincode.ChaincodeInput.newBuilder()
+                .addArgs(ByteString.copyFromUtf8("invoke"))
+                .build().toByteString();
+        ChaincodeShim.ChaincodeMessage invokeMsg = MessageUtil.newEventMessage(TRANSACTION, "testChannel", "0", invokePayload, null);
+
+        List<ScenarioStep> scenario = new ArrayList<>();
+        scenario.add(new RegisterStep());
+
+        server = new ChaincodeSupportServer(ServerBuilder.forPort(0), chaincodeId, cb);
+        server.start();
+        peer = ChaincodeMockPeerClient.connect(scenario, server.getPort());
+        checkScenarioStepEnded(peer, 1, 5000, TimeUnit.MILLISECONDS);
+
+        peer.send(invokeMsg);
+        TimeoutUtil.runWithTimeout(new Thread(() -> {
+            while (peer.getLastMessageRcvd().getType() != GET_STATE) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }), 5000, TimeUnit.MILLISECONDS);
+
+        // the request is never answered, closing the connection fails it
+        peer.stop();
+        peer = null;
+        assertThat("Pending request was not failed", invoked.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(failure.get() != null, is(true));
+    }
+
+    public static void checkScenarioStepEnded(final ChaincodeMockPeerClient c, final int step, final int timeout, final TimeUnit units) throws Exception {
+        try {
+            TimeoutUtil.runWithTimeout(new Thread(() -> {
+                while (true) {
+                    if (c.getLastExecutedStep() == step) return;
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }), timeout, units);
+        } catch (TimeoutException e) {
+            fail("Got timeout, step " + step + " not finished");
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long MILLISECOND = 1000000;
+
+    @Test
+    public void testGrowsWhileLatencyIsSteady() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 200);
+        for (int i = 0; i < 2000; i++) {
+            limit.onSample(MILLISECOND, limit.getLimit());
+        }
+        assertThat(limit.getLimit(), greaterThan(100));
+        assertThat(limit.getLimit(), lessThanOrEqualTo(200));
+    }
+
+    @Test
+    public void testShrinksWhenLatencyGrows() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(100, 1, 200);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(MILLISECOND, limit.getLimit());
+        }
+        final int before = limit.getLimit();
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(5 * MILLISECOND, limit.getLimit());
+        }
+        assertThat(limit.getLimit(), lessThan(before * 3 / 4));
+    }
+
+    @Test
+    public void testSettlesWhereQueueingStarts() {
+        // latency grows with every transaction past 20
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 1000);
+        for (int i = 0; i < 100000; i++) {
+            limit.onSample((long) (MILLISECOND * Math.max(1.0, limit.getLimit() / 20.0)), limit.getLimit());
+        }
+        assertThat(limit.getLimit(), allOf(greaterThanOrEqualTo(20), lessThanOrEqualTo(40)));
+    }
+
+    @Test
+    public void testRecoversFromSlowerPeer() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(100, 1, 200);
+        for (int i = 0; i < 5000; i++) {
+            limit.onSample(5 * MILLISECOND, limit.getLimit());
+        }
+        // latency does not depend on the limit, so the limit grows back
+        assertThat(limit.getLimit(), greaterThan(100));
+    }
+
+    @Test
+    public void testIdleDoesNotGrow() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 200);
+        for (int i = 0; i < 2000; i++) {
+            assertFalse(limit.onSample(MILLISECOND, 1));
+        }
+        assertThat(limit.getLimit(), is(10));
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final List<String> rejected = new CopyOnWriteArrayList<>();
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testUnlimited() {
+        final AdmissionController controller = new AdmissionController(0, 0, 0, null, metrics);
+        for (int i = 0; i < 100; i++) {
+            submit(controller, "tx" + i);
+        }
+        assertThat(started.size(), is(100));
+        assertThat(rejected, is(empty()));
+        assertThat(metrics.getGauges().get("admission.running").getValue(), is(100L));
+    }
+
+    @Test
+    public void testQueueAndReject() {
+        final AdmissionController controller = new AdmissionController(1, 1, 0, null, metrics);
+        submit(controller, "tx1");
+        submit(controller, "tx2");
+        submit(controller, "tx3");
+        assertThat(started, contains("tx1"));
+        assertThat(rejected, contains("tx3"));
+        assertThat(controller.getQueued(), is(1L));
+        assertThat(metrics.counter("admission.rejected.queue_full").getCount(), is(1L));
+
+        controller.release();
+        assertThat(started, contains("tx1", "tx2"));
+        assertThat(controller.getRunning(), is(1L));
+        assertThat(controller.getQueued(), is(0L));
+        assertThat(metrics.histogram("admission.wait").getCount(), is(1L));
+
+        controller.release();
+        assertThat(controller.getRunning(), is(0L));
+    }
+
+    @Test
+    public void testQueueTime() throws Exception {
+        final AdmissionController controller = new AdmissionController(1, 10, 50, scheduler, metrics);
+        final CountDownLatch expired = new CountDownLatch(1);
+        submit(controller, "tx1");
+        controller.submit(() -> started.add("tx2"), reason -> {
+            rejected.add("tx2");
+            expired.countDown();
+        });
+
+        assertTrue("Queued transaction did not expire", expired.await(5, TimeUnit.SECONDS));
+        assertThat(started, contains("tx1"));
+        assertThat(controller.getQueued(), is(0L));
+        assertThat(metrics.counter("admission.rejected.queue_time").getCount(), is(1L));
+
+        // the expired transaction does not take the freed slot
+        controller.release();
+        assertThat(started, contains("tx1"));
+        assertThat(controller.getRunning(), is(0L));
+    }
+
+    @Test
+    public void testDrainAfterLimitGrows() {
+        final AtomicInteger limit = new AtomicInteger(1);
+        final AdmissionController controller = new AdmissionController(limit::get, 10, 0, null, metrics);
+        submit(controller, "tx1");
+        submit(controller, "tx2");
+        submit(controller, "tx3");
+        assertThat(started, contains("tx1"));
+        assertThat(metrics.getGauges().get("admission.limit").getValue(), is(1L));
+
+        limit.set(3);
+        controller.drain();
+        assertThat(started, contains("tx1", "tx2", "tx3"));
+        assertThat(controller.getRunning(), is(3L));
+    }
+
+    @Test
+    public void testChannelQuota() {
+        final AdmissionController controller = new AdmissionController("admission", () -> 0, 10, 0, null, metrics,
+                "channel", 1, 0, channelId -> 1);
+        submit(controller, "ch1", "tx1");
+        submit(controller, "ch1", "tx2");
+        submit(controller, "ch2", "tx3");
+        assertThat(started, contains("tx1", "tx3"));
+        assertThat(metrics.getGauges().get("channel.ch1.running").getValue(), is(1L));
+        assertThat(metrics.getGauges().get("channel.ch1.queued").getValue(), is(1L));
+
+        // the slot of another channel does not start it
+        controller.release("ch2");
+        assertThat(started, contains("tx1", "tx3"));
+        controller.release("ch1");
+        assertThat(started, contains("tx1", "tx3", "tx2"));
+        assertThat(metrics.getGauges().get("channel.ch1.queued").getValue(), is(0L));
+    }
+
+    @Test
+    public void testWeightedFairness() {
+        final AdmissionController controller = new AdmissionController("admission", () -> 1, 20, 0, null, metrics,
+                "channel", 0, 0, channelId -> "heavy".equals(channelId) ? 2 : 1);
+        submit(controller, "busy", "busy0");
+        for (int i = 1; i <= 6; i++) {
+            submit(controller, "busy", "busy" + i);
+        }
+        for (int i = 1; i <= 4; i++) {
+            submit(controller, "heavy", "heavy" + i);
+        }
+        submit(controller, "other", "other1");
+
+        for (int i = 0; i < 6; i++) {
+            controller.release(started.get(i).replaceAll("[0-9]", ""));
+        }
+        // the channel of weight 2 gets twice the slots of each channel of weight 1
+        assertThat(started.subList(1, 7), contains("busy1", "heavy1", "other1", "heavy2", "busy2", "heavy3"));
+        assertThat(metrics.counter("channel.busy.rejected").getCount(), is(0L));
+    }
+
+    @Test
+    public void testQueueBoundsOverAllChannels() {
+        final AdmissionController controller = new AdmissionController("admission", () -> 1, 3, 0, null, metrics,
+                "channel", 0, 2, channelId -> 1);
+        submit(controller, "ch1", "tx1");
+        submit(controller, "ch1", "tx2");
+        submit(controller, "ch1", "tx3");
+        // over the bound of its channel
+        submit(controller, "ch1", "tx4");
+        submit(controller, "ch2", "tx5");
+        // over the bound of all channels
+        submit(controller, "ch3", "tx6");
+
+        assertThat(started, contains("tx1"));
+        assertThat(rejected, contains("tx4", "tx6"));
+        assertThat(controller.getQueued(), is(3L));
+        assertThat(metrics.counter("channel.ch1.rejected").getCount(), is(1L));
+        assertThat(metrics.counter("channel.ch3.rejected").getCount(), is(1L));
+    }
+
+    private void submit(AdmissionController controller, String channelId, String txId) {
+        controller.submit(channelId, () -> started.add(txId), reason -> rejected.add(txId));
+    }
+
+    private void submit(AdmissionController controller, String txId) {
+        controller.submit(() -> started.add(txId), reason -> rejected.add(txId));
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.StatusRuntimeException;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeInput;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ChaincodeMessageMarshallerTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final ChaincodeMessageMarshaller marshaller = ChaincodeMessageMarshaller.INSTANCE;
+
+    @Test
+    public void testDrainAndParseLargePayload() throws Exception {
+        final ChaincodeMessage message = newMessage(512 * 1024);
+
+        final InputStream stream = marshaller.stream(message);
+        assertThat(stream.available(), is(message.getSerializedSize()));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(((Drainable) stream).drainTo(out), is(message.getSerializedSize()));
+        assertThat(stream.available(), is(0));
+
+        final ChaincodeMessage parsed = marshaller.parse(new KnownLengthInputStream(out.toByteArray()));
+        assertThat(parsed, is(message));
+    }
+
+    @Test
+    public void testParseUnknownLengthStream() throws Exception {
+        final ChaincodeMessage message = newMessage(10000);
+        assertThat(marshaller.parse(new ByteArrayInputStream(message.toByteArray())), is(message));
+    }
+
+    @Test
+    public void testReadFallback() throws Exception {
+        final ChaincodeMessage message = newMessage(100);
+        final InputStream stream = marshaller.stream(message);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = stream.read()) != -1) {
+            out.write(b);
+        }
+        assertThat(ChaincodeMessage.parseFrom(out.toByteArray()), is(message));
+    }
+
+    @Test
+    public void testInProcessParseReturnsSameMessage() {
+        final ChaincodeMessage message = newMessage(100);
+        assertThat(marshaller.parse(marshaller.stream(message)), sameInstance(message));
+    }
+
+    @Test
+    public void testParseAliasedNestedPayload() throws Exception {
+        final ChaincodeMessage message = newMessage(1000);
+        final ChaincodeMessage parsed = marshaller.parse(new KnownLengthInputStream(message.toByteArray()));
+        final ChaincodeInput input = ChaincodeMessageMarshaller.parseAliased(ChaincodeInput.parser(), parsed.getPayload());
+        assertThat(input.getArgsCount(), is(2));
+        assertThat(input.getArgs(0).toStringUtf8(), is("invoke"));
+        assertThat(input.getArgs(1).size(), is(1000));
+    }
+
+    @Test
+    public void testParseInvalidBytes() {
+        thrown.expect(StatusRuntimeException.class);
+        marshaller.parse(new KnownLengthInputStream(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff}));
+    }
+
+    private static ChaincodeMessage newMessage(int valueSize) {
+        final byte[] value = new byte[valueSize];
+        new Random(1).nextBytes(value);
+        return ChaincodeMessage.newBuilder()
+                .setType(ChaincodeMessage.Type.TRANSACTION)
+                .setChannelId("testChannel")
+                .setTxid("testTxId")
+                .setPayload(ChaincodeInput.newBuilder()
+                        .addArgs(ByteString.copyFromUtf8("invoke"))
+                        .addArgs(ByteString.copyFrom(value))
+                        .build().toByteString())
+                .build();
+    }
+
+    private static class KnownLengthInputStream extends ByteArrayInputStream implements KnownLength {
+        KnownLengthInputStream(byte[] buf) {
+            super(buf);
+        }
+    }
+
+}
@@ -8,8 +8,14 @@ package org.hyperledger.fabric.shim.impl;
 import com.google.protobuf.ByteString;
 import org.hyperledger.fabric.protos.peer.Chaincode;
 import org.hyperledger.fabric.protos.peer.ChaincodeShim;
+import org.hyperledger.fabric.protos.peer.ProposalResponsePackage;
+import org.hyperledger.fabric.shim.AsyncChaincodeBase;
+import org.hyperledger.fabric.shim.AsyncChaincodeStub;
 import org.hyperledger.fabric.shim.ChaincodeBase;
 import org.hyperledger.fabric.shim.ChaincodeBaseTest;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ExecutionClass;
+import org.hyperledger.fabric.shim.KeyPrefetcher;
 import org.hyperledger.fabric.shim.chaincode.EmptyChaincode;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -17,6 +23,20 @@ import org.junit.Test;
 import org.junit.contrib.java.lang.system.EnvironmentVariables;
 import org.junit.rules.ExpectedException;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+
 
 public class HandlerTest {
 
@@ -94,4 +114,434 @@ public class HandlerTest {
         Assert.assertEquals("Not correct handler state", Handler.CCState.READY, handler.getState());
 
     }
+
+    @Test
+    public void testStreamResetFailsPendingRequests() throws Exception {
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final CountDownLatch invoked = new CountDownLatch(1);
+        final CountDownLatch resumed = new CountDownLatch(1);
+        ChaincodeBase cb = new EmptyChaincode() {
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                if (!"invoke".equals(stub.getFunction())) {
+                    return newSuccessResponse();
+                }
+                try {
+                    stub.getState("a");
+                } catch (RuntimeException e) {
+                    failure.set(e);
+                } finally {
+                    invoked.countDown();
+                }
+                try {
+                    // returns once the new stream is ready
+                    resumed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return newSuccessResponse();
+            }
+        };
+
+        Chaincode.ChaincodeID chaincodeId = Chaincode.ChaincodeID.newBuilder().setName("mycc").build();
+        // transactions run one after the other
+        Handler handler = new Handler(chaincodeId, cb, new HandlerOptions().setDispatchExecutor(Executors.newSingleThreadExecutor()));
+        Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+
+        handler.onChaincodeMessage(newTransaction("tx1", "invoke"));
+        Assert.assertEquals(GET_STATE, handler.nextOutboundChaincodeMessage().getType());
+
+        handler.onStreamReset();
+
+        Assert.assertTrue("Pending request was not failed", invoked.await(5, TimeUnit.SECONDS));
+        Assert.assertNotNull("Pending request should fail on stream reset", failure.get());
+        Assert.assertEquals("Not correct handler state", Handler.CCState.CREATED, handler.getState());
+
+        ChaincodeShim.ChaincodeMessage register = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(REGISTER, register.getType());
+        Assert.assertEquals(chaincodeId, Chaincode.ChaincodeID.parseFrom(register.getPayload()));
+
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+        resumed.countDown();
+        handler.onChaincodeMessage(newTransaction("tx2", "other"));
+
+        // the result of the transaction of the lost stream is not sent on the new one
+        ChaincodeShim.ChaincodeMessage result = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(COMPLETED, result.getType());
+        Assert.assertEquals("tx2", result.getTxid());
+    }
+
+    @Test
+    public void testCancelledTransactionStaysCancelledAfterStreamReset() throws Exception {
+        final AtomicReference<RuntimeException> refused = new AtomicReference<>();
+        final CountDownLatch invoked = new CountDownLatch(1);
+        final CountDownLatch resumed = new CountDownLatch(1);
+        ChaincodeBase cb = new EmptyChaincode() {
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                if (!"invoke".equals(stub.getFunction())) {
+                    return newSuccessResponse();
+                }
+                try {
+                    // returns once the new stream is ready
+                    resumed.await(5, TimeUnit.SECONDS);
+                    stub.getState("a");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    refused.set(e);
+                } finally {
+                    invoked.countDown();
+                }
+                return newSuccessResponse();
+            }
+        };
+
+        Chaincode.ChaincodeID chaincodeId = Chaincode.ChaincodeID.newBuilder().setName("mycc").build();
+        Handler handler = new Handler(chaincodeId, cb, new HandlerOptions().setTransactionTimeout(100));
+        Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+
+        handler.onChaincodeMessage(newTransaction("tx1", "invoke"));
+        ChaincodeShim.ChaincodeMessage error = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(ERROR, error.getType());
+        Assert.assertEquals("tx1", error.getTxid());
+
+        // the deadline cancelled tx1 before the stream was lost, while the chaincode still runs
+        handler.onStreamReset();
+        Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+        resumed.countDown();
+
+        Assert.assertTrue("Chaincode did not finish", invoked.await(5, TimeUnit.SECONDS));
+        Assert.assertNotNull("Requests of a cancelled transaction should be refused on the new stream", refused.get());
+        handler.onChaincodeMessage(newTransaction("tx2", "other"));
+        ChaincodeShim.ChaincodeMessage result = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(COMPLETED, result.getType());
+        Assert.assertEquals("tx2", result.getTxid());
+    }
+
+    @Test
+    public void testAsyncChaincodeDoesNotHoldThreads() throws Exception {
+        AsyncChaincodeBase cb = new AsyncChaincodeBase() {
+            @Override
+            public CompletionStage<ChaincodeBase.Response> init(AsyncChaincodeStub stub) {
+                return completedSuccessResponse(null, null);
+            }
+
+            @Override
+            public CompletionStage<ChaincodeBase.Response> invoke(AsyncChaincodeStub stub) {
+                return stub.getState("a")
+                        .thenCompose(value -> stub.putState("b", value))
+                        .thenApply(ignored -> newSuccessResponse("done"));
+            }
+        };
+
+        Chaincode.ChaincodeID chaincodeId = Chaincode.ChaincodeID.newBuilder().setName("mycc").build();
+        Handler handler = new Handler(chaincodeId, cb, new HandlerOptions().setAsyncThreads(1));
+        Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+
+        // more transactions in flight than pool threads
+        final int transactions = 10;
+        for (int i = 0; i < transactions; i++) {
+            handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder()
+                    .setType(TRANSACTION)
+                    .setChannelId("mychannel")
+                    .setTxid("tx" + i)
+                    .setPayload(Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8("invoke")).build().toByteString())
+                    .build());
+        }
+        // play the peer, results may overtake queued requests
+        int completed = 0;
+        while (completed < transactions) {
+            ChaincodeShim.ChaincodeMessage message = handler.nextOutboundChaincodeMessage();
+            switch (message.getType()) {
+                case GET_STATE:
+                    handler.onChaincodeMessage(newResponse(message, ByteString.copyFromUtf8("100")));
+                    break;
+                case PUT_STATE:
+                    Assert.assertEquals("100", ChaincodeShim.PutState.parseFrom(message.getPayload()).getValue().toStringUtf8());
+                    handler.onChaincodeMessage(newResponse(message, ByteString.EMPTY));
+                    break;
+                case COMPLETED:
+                    Assert.assertEquals("done", ProposalResponsePackage.Response.parseFrom(message.getPayload()).getMessage());
+                    completed++;
+                    break;
+                default:
+                    Assert.fail("Unexpected " + message.getType());
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsWithinTransaction() throws Exception {
+        final int threads = 4;
+        final AtomicInteger misrouted = new AtomicInteger();
+        ChaincodeBase cb = new EmptyChaincode() {
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                final List<Thread> workers = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    final String key = "key" + i;
+                    final Thread worker = new Thread(() -> {
+                        if (!key.equals(stub.getStringState(key))) {
+                            misrouted.incrementAndGet();
+                        }
+                    });
+                    workers.add(worker);
+                    worker.start();
+                }
+                for (Thread worker : workers) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        return newErrorResponse(e);
+                    }
+                }
+                return newSuccessResponse("done");
+            }
+        };
+
+        Chaincode.ChaincodeID chaincodeId = Chaincode.ChaincodeID.newBuilder().setName("mycc").build();
+        Handler handler = new Handler(chaincodeId, cb);
+        Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder()
+                .setType(TRANSACTION)
+                .setChannelId("mychannel")
+                .setTxid("tx1")
+                .setPayload(Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8("invoke")).build().toByteString())
+                .build());
+
+        // requests reach the peer one at a time, each answered with its own key
+        for (int i = 0; i < threads; i++) {
+            ChaincodeShim.ChaincodeMessage request = handler.nextOutboundChaincodeMessage();
+            Assert.assertEquals(GET_STATE, request.getType());
+            String key = ChaincodeShim.GetState.parseFrom(request.getPayload()).getKey();
+            handler.onChaincodeMessage(newResponse(request, ByteString.copyFromUtf8(key)));
+        }
+        ChaincodeShim.ChaincodeMessage completed = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(COMPLETED, completed.getType());
+        Assert.assertEquals("done", ProposalResponsePackage.Response.parseFrom(completed.getPayload()).getMessage());
+        Assert.assertEquals("Responses routed to the wrong request", 0, misrouted.get());
+    }
+
+    @Test
+    public void testRequestTimeoutCancelsTransaction() throws Exception {
+        final AtomicReference<RuntimeException> timedOut = new AtomicReference<>();
+        final AtomicReference<RuntimeException> refused = new AtomicReference<>();
+        final CountDownLatch invoked = new CountDownLatch(1);
+        ChaincodeBase cb = new EmptyChaincode() {
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                try {
+                    stub.getState("a");
+                } catch (RuntimeException e) {
+                    timedOut.set(e);
+                }
+                try {
+                    stub.getState("b");
+                } catch (RuntimeException e) {
+                    refused.set(e);
+                }
+                invoked.countDown();
+                return newSuccessResponse();
+            }
+        };
+
+        HandlerOptions options = new HandlerOptions().setRequestTimeout(100);
+        Chaincode.ChaincodeID chaincodeId = Chaincode.ChaincodeID.newBuilder().setName("mycc").build();
+        Handler handler = new Handler(chaincodeId, cb, options);
+        Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder()
+                .setType(TRANSACTION)
+                .setChannelId("mychannel")
+                .setTxid("tx1")
+                .setPayload(Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8("invoke")).build().toByteString())
+                .build());
+        ChaincodeShim.ChaincodeMessage request = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(GET_STATE, request.getType());
+
+        // the request is never answered, the peer gets an ERROR in place of the result
+        ChaincodeShim.ChaincodeMessage error = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(ERROR, error.getType());
+        Assert.assertEquals("tx1", error.getTxid());
+        Assert.assertTrue(error.getPayload().toStringUtf8().contains("timed out"));
+
+        Assert.assertTrue("Chaincode did not finish", invoked.await(5, TimeUnit.SECONDS));
+        Assert.assertNotNull("Pending request should fail on timeout", timedOut.get());
+        Assert.assertNotNull("Requests of a cancelled transaction should be refused", refused.get());
+        Assert.assertEquals(1, options.getMetrics().counter("request.timeouts").getCount());
+
+        // a late response is dropped
+        handler.onChaincodeMessage(newResponse(request, ByteString.copyFromUtf8("late")));
+        Assert.assertEquals("Not correct handler state", Handler.CCState.READY, handler.getState());
+    }
+
+    @Test
+    public void testReadOnlyFunctionCannotWrite() throws Exception {
+        ChaincodeBase cb = new EmptyChaincode() {
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                try {
+                    stub.putStringState("a", "100");
+                    return newSuccessResponse("written");
+                } catch (IllegalStateException e) {
+                    return newSuccessResponse("refused");
+                }
+            }
+        };
+
+        HandlerOptions options = new HandlerOptions()
+                .setExecutionClassifier(function -> "query".equals(function) ? ExecutionClass.READ_ONLY : null);
+        Chaincode.ChaincodeID chaincodeId = Chaincode.ChaincodeID.newBuilder().setName("mycc").build();
+        Handler handler = new Handler(chaincodeId, cb, options);
+        Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder()
+                .setType(TRANSACTION)
+                .setChannelId("mychannel")
+                .setTxid("tx1")
+                .setPayload(Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8("query")).build().toByteString())
+                .build());
+
+        // the write is refused without a round trip to the peer
+        ChaincodeShim.ChaincodeMessage completed = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(COMPLETED, completed.getType());
+        Assert.assertEquals("refused", ProposalResponsePackage.Response.parseFrom(completed.getPayload()).getMessage());
+        Assert.assertEquals(1, options.getMetrics().histogram("transaction.latency.read_only").getCount());
+        Assert.assertEquals(0, options.getMetrics().histogram("transaction.latency.write").getCount());
+    }
+
+    @Test
+    public void testColocatedInvokeTakesCalleeResponse() throws Exception {
+        ChaincodeBase caller = new EmptyChaincode() {
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                return stub.invokeChaincode("callee", Collections.singletonList("get".getBytes(StandardCharsets.UTF_8)));
+            }
+        };
+        ChaincodeBase callee = new EmptyChaincode() {
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                return newSuccessResponse("from callee", "value".getBytes(StandardCharsets.UTF_8));
+            }
+        };
+
+        LocalInvocations localInvocations = new LocalInvocations(Arrays.asList("caller:1.0", "callee:1.0"));
+        HandlerOptions callerOptions = new HandlerOptions().setLocalInvocations(localInvocations);
+        HandlerOptions calleeOptions = new HandlerOptions().setLocalInvocations(localInvocations);
+        Handler callerHandler = new Handler(Chaincode.ChaincodeID.newBuilder().setName("caller:1.0").build(), caller, callerOptions);
+        Handler calleeHandler = new Handler(Chaincode.ChaincodeID.newBuilder().setName("callee:1.0").build(), callee, calleeOptions);
+        for (Handler handler : Arrays.asList(callerHandler, calleeHandler)) {
+            Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+            handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+            handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+        }
+
+        ChaincodeShim.ChaincodeMessage transaction = ChaincodeShim.ChaincodeMessage.newBuilder()
+                .setType(TRANSACTION)
+                .setChannelId("mychannel")
+                .setTxid("tx1")
+                .setPayload(Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8("call")).build().toByteString())
+                .build();
+        callerHandler.onChaincodeMessage(transaction);
+        ChaincodeShim.ChaincodeMessage invoke = callerHandler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(INVOKE_CHAINCODE, invoke.getType());
+
+        // the peer runs the callee in the same transaction and answers the caller with its result
+        calleeHandler.onChaincodeMessage(transaction);
+        ChaincodeShim.ChaincodeMessage calleeCompleted = calleeHandler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(COMPLETED, calleeCompleted.getType());
+        callerHandler.onChaincodeMessage(newResponse(invoke, calleeCompleted.toByteString()));
+
+        ChaincodeShim.ChaincodeMessage completed = callerHandler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(COMPLETED, completed.getType());
+        ProposalResponsePackage.Response response = ProposalResponsePackage.Response.parseFrom(completed.getPayload());
+        Assert.assertEquals("from callee", response.getMessage());
+        Assert.assertEquals("value", response.getPayload().toStringUtf8());
+        Assert.assertEquals(1, callerOptions.getMetrics().histogram("invoke_chaincode.latency.local").getCount());
+        Assert.assertEquals(0, callerOptions.getMetrics().histogram("invoke_chaincode.latency.remote").getCount());
+    }
+
+    @Test
+    public void testPrefetchedKeysAreReadOnce() throws Exception {
+        class TransferChaincode extends EmptyChaincode implements KeyPrefetcher {
+            @Override
+            public List<String> prefetchKeys(ChaincodeStub stub) {
+                return stub.getParameters();
+            }
+
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                // read in another order than prefetched
+                String b = stub.getStringState("b");
+                String a = stub.getStringState("a");
+                return newSuccessResponse("a=" + a + ",b=" + b);
+            }
+        }
+
+        HandlerOptions options = new HandlerOptions();
+        Handler handler = new Handler(Chaincode.ChaincodeID.newBuilder().setName("mycc").build(), new TransferChaincode(), options);
+        Assert.assertEquals(REGISTER, handler.nextOutboundChaincodeMessage().getType());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder().setType(READY).build());
+
+        handler.onChaincodeMessage(ChaincodeShim.ChaincodeMessage.newBuilder()
+                .setType(TRANSACTION)
+                .setChannelId("mychannel")
+                .setTxid("tx1")
+                .setPayload(Chaincode.ChaincodeInput.newBuilder()
+                        .addArgs(ByteString.copyFromUtf8("transfer"))
+                        .addArgs(ByteString.copyFromUtf8("a"))
+                        .addArgs(ByteString.copyFromUtf8("b"))
+                        .build().toByteString())
+                .build());
+
+        for (String key : Arrays.asList("a", "b")) {
+            ChaincodeShim.ChaincodeMessage request = handler.nextOutboundChaincodeMessage();
+            Assert.assertEquals(GET_STATE, request.getType());
+            Assert.assertEquals(key, ChaincodeShim.GetState.parseFrom(request.getPayload()).getKey());
+            handler.onChaincodeMessage(newResponse(request, ByteString.copyFromUtf8("a".equals(key) ? "1" : "2")));
+        }
+
+        // both reads are served by the prefetched values
+        ChaincodeShim.ChaincodeMessage completed = handler.nextOutboundChaincodeMessage();
+        Assert.assertEquals(COMPLETED, completed.getType());
+        Assert.assertEquals("a=1,b=2", ProposalResponsePackage.Response.parseFrom(completed.getPayload()).getMessage());
+        Assert.assertEquals(2, options.getMetrics().counter("prefetch.keys").getCount());
+        Assert.assertEquals(2, options.getMetrics().counter("prefetch.hits").getCount());
+    }
+
+    private static ChaincodeShim.ChaincodeMessage newTransaction(String txId, String function) {
+        return ChaincodeShim.ChaincodeMessage.newBuilder()
+                .setType(TRANSACTION)
+                .setChannelId("mychannel")
+                .setTxid(txId)
+                .setPayload(Chaincode.ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8(function)).build().toByteString())
+                .build();
+    }
+
+    private static ChaincodeShim.ChaincodeMessage newResponse(ChaincodeShim.ChaincodeMessage request, ByteString payload) {
+        return ChaincodeShim.ChaincodeMessage.newBuilder()
+                .setType(RESPONSE)
+                .setChannelId(request.getChannelId())
+                .setTxid(request.getTxid())
+                .setPayload(payload)
+                .build();
+    }
 }
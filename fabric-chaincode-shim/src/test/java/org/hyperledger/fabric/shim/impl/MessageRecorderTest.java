@@ -0,0 +1,121 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MessageRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndRead() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (MessageRecorder recorder = new MessageRecorder(directory, MessageRecorder.DEFAULT_MAX_FILE_SIZE, 1)) {
+            recorder.recordInbound(message(TRANSACTION, "1"));
+            recorder.recordOutbound(message(GET_STATE, "1"));
+            recorder.recordInbound(message(RESPONSE, "1"));
+            recorder.recordOutbound(message(COMPLETED, "1"));
+        }
+
+        final List<MessageTrace.Record> records = read(directory);
+        assertThat(records.size(), is(4));
+        assertThat(records.get(0).getDirection(), is(MessageTrace.Direction.INBOUND));
+        assertThat(records.get(1).getDirection(), is(MessageTrace.Direction.OUTBOUND));
+        assertThat(records.get(1).getMessage(), is(message(GET_STATE, "1")));
+        assertThat(records.get(3).getMessage().getType(), is(COMPLETED));
+        assertTrue(records.get(3).getNanos() >= records.get(0).getNanos());
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (MessageRecorder recorder = new MessageRecorder(directory, 100, 2)) {
+            for (int i = 0; i < 20; i++) {
+                recorder.recordInbound(message(TRANSACTION, Integer.toString(i)));
+            }
+        }
+
+        assertThat(directory.toFile().list().length, is(2));
+        final List<String> txIds = new ArrayList<>();
+        for (MessageTrace.Record record : read(directory)) {
+            txIds.add(record.getMessage().getTxid());
+        }
+        assertTrue(txIds.size() < 20);
+        assertThat(txIds.get(txIds.size() - 1), is("19"));
+        for (int i = 1; i < txIds.size(); i++) {
+            assertThat(Integer.parseInt(txIds.get(i)), is(Integer.parseInt(txIds.get(i - 1)) + 1));
+        }
+    }
+
+    @Test
+    public void testIncompleteRecord() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (MessageRecorder recorder = new MessageRecorder(directory, MessageRecorder.DEFAULT_MAX_FILE_SIZE, 1)) {
+            recorder.recordInbound(message(TRANSACTION, "1"));
+            recorder.recordInbound(message(TRANSACTION, "2"));
+        }
+        final Path file = directory.resolve(directory.toFile().list()[0]);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        final List<MessageTrace.Record> records = read(directory);
+        assertThat(records.size(), is(1));
+        assertThat(records.get(0).getMessage().getTxid(), is("1"));
+    }
+
+    @Test
+    public void testLatestRecording() throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (MessageRecorder recorder = new MessageRecorder(directory, MessageRecorder.DEFAULT_MAX_FILE_SIZE, 1)) {
+            recorder.recordInbound(message(TRANSACTION, "old"));
+        }
+        Thread.sleep(2);
+        try (MessageRecorder recorder = new MessageRecorder(directory, MessageRecorder.DEFAULT_MAX_FILE_SIZE, 1)) {
+            recorder.recordInbound(message(TRANSACTION, "new"));
+        }
+
+        final List<String> txIds = new ArrayList<>();
+        for (MessageTrace.Record record : read(directory)) {
+            txIds.add(record.getMessage().getTxid());
+        }
+        assertThat(txIds, contains("new"));
+    }
+
+    private static List<MessageTrace.Record> read(Path directory) throws Exception {
+        final List<MessageTrace.Record> records = new ArrayList<>();
+        MessageTrace.open(directory).forEach(records::add);
+        return records;
+    }
+
+    private static ChaincodeMessage message(ChaincodeMessage.Type type, String txId) {
+        return ChaincodeMessage.newBuilder()
+                .setType(type)
+                .setChannelId("channel")
+                .setTxid(txId)
+                .setPayload(ByteString.copyFromUtf8("payload of " + txId))
+                .build();
+    }
+
+}
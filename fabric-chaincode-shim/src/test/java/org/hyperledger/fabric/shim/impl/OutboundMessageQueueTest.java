@@ -0,0 +1,98 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.shim.metrics.MetricsRegistry;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class OutboundMessageQueueTest {
+
+    @Test
+    public void testCompletionsOvertakeRequests() throws Exception {
+        final OutboundMessageQueue queue = new OutboundMessageQueue(true, 16, new MetricsRegistry());
+        queue.add(message(QUERY_STATE_NEXT, "1"));
+        queue.add(message(GET_STATE, "2"));
+        queue.add(message(GET_STATE_BY_RANGE, "3"));
+        queue.add(message(PUT_STATE, "4"));
+        queue.add(message(COMPLETED, "5"), System.nanoTime());
+        queue.add(message(ERROR, "6"));
+
+        assertThat(takeTxIds(queue, 6), contains("5", "6", "2", "4", "1", "3"));
+    }
+
+    @Test
+    public void testFifoWhenNotPrioritized() throws Exception {
+        final OutboundMessageQueue queue = new OutboundMessageQueue(false, 16, new MetricsRegistry());
+        queue.add(message(QUERY_STATE_NEXT, "1"));
+        queue.add(message(GET_STATE, "2"));
+        queue.add(message(COMPLETED, "3"));
+
+        assertThat(takeTxIds(queue, 3), contains("1", "2", "3"));
+    }
+
+    @Test
+    public void testDiscardRequestsOfTransaction() throws Exception {
+        final OutboundMessageQueue queue = new OutboundMessageQueue(true, 16, new MetricsRegistry());
+        queue.add(message(GET_STATE, "1"));
+        queue.add(message(QUERY_STATE_NEXT, "1"));
+        queue.add(message(GET_STATE, "2"));
+        queue.add(message(COMPLETED, "3"));
+
+        assertEquals(2, queue.discardRequests("testChannel", "1"));
+        queue.add(message(ERROR, "1"));
+
+        assertEquals(3, queue.size());
+        assertThat(takeTxIds(queue, 3), contains("3", "1", "2"));
+    }
+
+    @Test
+    public void testLowPriorityIsNotStarved() throws Exception {
+        final OutboundMessageQueue queue = new OutboundMessageQueue(true, 2, new MetricsRegistry());
+        queue.add(message(QUERY_STATE_NEXT, "bulk"));
+        for (int i = 0; i < 4; i++) {
+            queue.add(message(COMPLETED, "c" + i));
+        }
+
+        assertThat(takeTxIds(queue, 5), contains("c0", "c1", "bulk", "c2", "c3"));
+    }
+
+    @Test
+    public void testWaitAndLatencyMetrics() throws Exception {
+        final MetricsRegistry metrics = new MetricsRegistry();
+        final OutboundMessageQueue queue = new OutboundMessageQueue(true, 16, metrics);
+        queue.add(message(GET_STATE, "1"));
+        queue.add(message(COMPLETED, "1"), System.nanoTime());
+        queue.add(message(GET_STATE_BY_RANGE, "2"));
+        takeTxIds(queue, 3);
+
+        assertEquals(1, metrics.histogram("outbound.wait.completion").getCount());
+        assertEquals(1, metrics.histogram("outbound.wait.point").getCount());
+        assertEquals(1, metrics.histogram("outbound.wait.bulk").getCount());
+        assertEquals(1, metrics.histogram("transaction.latency").getCount());
+        assertEquals(0, queue.size());
+    }
+
+    private static List<String> takeTxIds(OutboundMessageQueue queue, int count) throws InterruptedException {
+        final List<String> txIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            txIds.add(queue.take().getTxid());
+        }
+        return txIds;
+    }
+
+    private static ChaincodeMessage message(ChaincodeMessage.Type type, String txId) {
+        return ChaincodeMessage.newBuilder().setType(type).setChannelId("testChannel").setTxid(txId).build();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class ReconnectBackoffTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testDelayGrowsUpToMaximum() {
+        final ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, 0, new Random(42));
+        long previousUpperBound = 0;
+        for (int i = 0; i < 20; i++) {
+            final long delay = backoff.nextDelay();
+            assertThat(delay, lessThanOrEqualTo(1200L));
+            assertThat(delay, greaterThanOrEqualTo(80L));
+            previousUpperBound = Math.max(previousUpperBound, delay);
+        }
+        assertThat(previousUpperBound, greaterThan(800L));
+        assertEquals(20, backoff.getAttempts());
+        assertTrue("Unlimited attempts expected", backoff.hasMoreAttempts());
+    }
+
+    @Test
+    public void testDelayIsJittered() {
+        final ReconnectBackoff backoff = new ReconnectBackoff(1000, 1000, 0, new Random(7));
+        final long first = backoff.nextDelay();
+        boolean differs = false;
+        for (int i = 0; i < 10; i++) {
+            final long delay = backoff.nextDelay();
+            assertThat(delay, allOf(greaterThanOrEqualTo(800L), lessThanOrEqualTo(1200L)));
+            differs |= delay != first;
+        }
+        assertTrue("Delays should be jittered", differs);
+    }
+
+    @Test
+    public void testMaxAttemptsAndReset() {
+        final ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, 2);
+        assertTrue(backoff.hasMoreAttempts());
+        backoff.nextDelay();
+        backoff.nextDelay();
+        assertFalse(backoff.hasMoreAttempts());
+
+        backoff.reset();
+        assertTrue(backoff.hasMoreAttempts());
+        assertEquals(0, backoff.getAttempts());
+        assertThat(backoff.nextDelay(), lessThanOrEqualTo(120L));
+    }
+
+    @Test
+    public void testInvalidDelays() {
+        thrown.expect(IllegalArgumentException.class);
+        new ReconnectBackoff(1000, 100, 0);
+    }
+
+}
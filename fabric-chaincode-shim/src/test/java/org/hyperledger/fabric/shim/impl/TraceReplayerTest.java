@@ -0,0 +1,135 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeInput;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.GetState;
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.is;
+import static org.hyperledger.fabric.shim.Chaincode.Response.Status.SUCCESS;
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+import static org.junit.Assert.assertThat;
+
+public class TraceReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplay() throws Exception {
+        final TraceReplayer.Report report = new TraceReplayer(new ReadingChaincode("a"), MessageTrace.open(record()))
+                .setRecordedSpeed(false)
+                .setTimeout(10000)
+                .run();
+
+        assertThat(report.getTransactions(), is(2));
+        assertThat(report.getDivergent(), is(0L));
+        assertThat(report.getUnmatched(), is(0L));
+    }
+
+    @Test
+    public void testReplayAtRecordedSpeed() throws Exception {
+        final TraceReplayer.Report report = new TraceReplayer(new ReadingChaincode("a"), MessageTrace.open(record()))
+                .setTimeout(10000)
+                .run();
+
+        assertThat(report.getTransactions(), is(2));
+        assertThat(report.getDivergent(), is(0L));
+    }
+
+    @Test
+    public void testReplayOfChangedChaincode() throws Exception {
+        final TraceReplayer.Report report = new TraceReplayer(new ReadingChaincode("b"), MessageTrace.open(record()))
+                .setRecordedSpeed(false)
+                .setTimeout(10000)
+                .run();
+
+        assertThat(report.getTransactions(), is(2));
+        assertThat(report.getDivergent(), is(2L));
+        assertThat(report.getUnmatched(), is(2L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReplayOfDuplicateTransactions() throws Exception {
+        new TraceReplayer(new ReadingChaincode("a"), MessageTrace.open(record("tx1", "tx1")))
+                .setRecordedSpeed(false)
+                .setTimeout(10000)
+                .run();
+    }
+
+    /**
+     * Records two transactions of {@link ReadingChaincode} reading key a
+     */
+    private Path record() throws Exception {
+        return record("tx1", "tx2");
+    }
+
+    private Path record(String... txIds) throws Exception {
+        final Path directory = folder.getRoot().toPath();
+        try (MessageRecorder recorder = new MessageRecorder(directory, MessageRecorder.DEFAULT_MAX_FILE_SIZE, 1)) {
+            recorder.recordOutbound(ChaincodeMessage.newBuilder()
+                    .setType(REGISTER)
+                    .setPayload(ChaincodeID.newBuilder().setName("readcc").build().toByteString())
+                    .build());
+            recorder.recordInbound(ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+            recorder.recordInbound(ChaincodeMessage.newBuilder().setType(READY).build());
+            for (String txId : txIds) {
+                recorder.recordInbound(message(TRANSACTION, txId, ChaincodeInput.newBuilder()
+                        .addArgs(ByteString.copyFromUtf8("read"))
+                        .build().toByteString()));
+            }
+            for (String txId : txIds) {
+                recorder.recordOutbound(message(GET_STATE, txId, GetState.newBuilder()
+                        .setCollection("")
+                        .setKey("a")
+                        .build().toByteString()));
+                recorder.recordInbound(message(RESPONSE, txId, ByteString.copyFromUtf8("value of " + txId)));
+                recorder.recordOutbound(message(COMPLETED, txId,
+                        Handler.toProtoResponse(new Chaincode.Response(SUCCESS, "value of " + txId, null)).toByteString()));
+            }
+        }
+        return directory;
+    }
+
+    private static ChaincodeMessage message(ChaincodeMessage.Type type, String txId, ByteString payload) {
+        return ChaincodeMessage.newBuilder()
+                .setType(type)
+                .setChannelId("channel")
+                .setTxid(txId)
+                .setPayload(payload)
+                .build();
+    }
+
+    private static class ReadingChaincode extends ChaincodeBase {
+        private final String key;
+
+        ReadingChaincode(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public Response init(ChaincodeStub stub) {
+            return newSuccessResponse();
+        }
+
+        @Override
+        public Response invoke(ChaincodeStub stub) {
+            return newSuccessResponse(stub.getStringState(key));
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.impl;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.ledger.queryresult.KvQueryResult;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeInput;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResponse;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResultBytes;
+import org.hyperledger.fabric.protos.peer.ProposalResponsePackage;
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fails when a transaction through the {@link Handler} allocates more bytes than its budget
+ * in transaction-budgets.properties, to catch performance regressions of the shim. The test
+ * thread plays the peer with canned responses, the chaincode runs on a dispatch thread, and
+ * only these two threads are measured. Each transaction is warmed up, then measured a few times and the lowest
+ * figures are held against the budgets, as noise only adds to them.
+ * <p>
+ * A run with <code>-Pbudget.record=true</code> writes budgets of the measured figures times
+ * {@link #BUDGET_MARGIN} to build/transaction-budgets.properties instead of asserting. CPU time depends on the machine, it is only held against its budget
+ * with <code>-Pbudget.cpu=true</code>.
+ */
+public class TransactionBudgetTest {
+
+    private static final Logger logger = Logger.getLogger(TransactionBudgetTest.class.getName());
+
+    private static final int WARMUP_TRANSACTIONS = 3000;
+    private static final int MEASURED_TRANSACTIONS = 2000;
+    private static final int ROUNDS = 3;
+    private static final int KEYS = 10;
+    private static final int PAGES = 3;
+    private static final int PAGE_SIZE = 100;
+    // absorbs the differences between JVMs and runs
+    private static final double BUDGET_MARGIN = 1.25;
+    private static final ByteString VALUE = ByteString.copyFromUtf8("{\"owner\":\"alice\",\"amount\":100}");
+    private static final boolean RECORD = Boolean.getBoolean("budget.record");
+    private static final boolean CPU = Boolean.getBoolean("budget.cpu");
+    private static final Properties recorded = new Properties();
+
+    // logging left verbose by other tests would be measured too
+    private static final Logger shimLogger = Logger.getLogger("org.hyperledger.fabric.shim");
+
+    private final Properties budgets = new Properties();
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(this::newDispatchThread);
+    private Level shimLevel;
+    private Thread dispatchThread;
+    private final ByteString[] pages = new ByteString[PAGES];
+    private final ByteString closed = QueryResponse.newBuilder().setId("1").setHasMore(false).build().toByteString();
+    private Handler handler;
+    private long transactions;
+    private int nextPage;
+
+    @Before
+    public void setUp() throws IOException {
+        shimLevel = shimLogger.getLevel();
+        shimLogger.setLevel(Level.INFO);
+        try (InputStream in = getClass().getResourceAsStream("/transaction-budgets.properties")) {
+            budgets.load(in);
+        }
+        for (int page = 0; page < PAGES; page++) {
+            final QueryResponse.Builder response = QueryResponse.newBuilder().setId("1").setHasMore(page < PAGES - 1);
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                response.addResults(QueryResultBytes.newBuilder().setResultBytes(KvQueryResult.KV.newBuilder()
+                        .setNamespace("budgetcc")
+                        .setKey(format("key%05d", page * PAGE_SIZE + i))
+                        .setValue(VALUE)
+                        .build().toByteString()));
+            }
+            pages[page] = response.build().toByteString();
+        }
+        handler = new Handler(ChaincodeID.newBuilder().setName("budgetcc").build(), new BudgetChaincode(),
+                new HandlerOptions().setDispatchExecutor(dispatcher));
+        handler.nextOutboundChaincodeMessage();
+        handler.onChaincodeMessage(ChaincodeMessage.newBuilder().setType(REGISTERED).build());
+        handler.onChaincodeMessage(ChaincodeMessage.newBuilder().setType(READY).build());
+    }
+
+    @After
+    public void tearDown() {
+        if (handler != null) {
+            handler.onStreamReset();
+        }
+        dispatcher.shutdownNow();
+        shimLogger.setLevel(shimLevel);
+    }
+
+    private Thread newDispatchThread(Runnable runnable) {
+        dispatchThread = new Thread(runnable, "budget-dispatch");
+        dispatchThread.setDaemon(true);
+        return dispatchThread;
+    }
+
+    @AfterClass
+    public static void writeRecorded() throws IOException {
+        if (!RECORD || recorded.isEmpty()) {
+            return;
+        }
+        final File file = new File("build/transaction-budgets.properties");
+        try (OutputStream out = new FileOutputStream(file)) {
+            recorded.store(out, "Measured by TransactionBudgetTest");
+        }
+        logger.info(format("Recorded the measured budgets to %s", file.getAbsolutePath()));
+    }
+
+    @Test
+    public void testInit() {
+        assertWithinBudget("init", INIT, "init");
+    }
+
+    @Test
+    public void testReadWrite() {
+        assertWithinBudget("readWrite", TRANSACTION, "readWrite");
+    }
+
+    @Test
+    public void testRangeScan() {
+        assertWithinBudget("rangeScan", TRANSACTION, "rangeScan");
+    }
+
+    private void assertWithinBudget(String name, ChaincodeMessage.Type type, String function) {
+        final ByteString input = ChaincodeInput.newBuilder().addArgs(ByteString.copyFromUtf8(function)).build().toByteString();
+        for (int i = 0; i < WARMUP_TRANSACTIONS; i++) {
+            run(type, input);
+        }
+        long allocatedBytes = Long.MAX_VALUE;
+        long cpuNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final ResourceUsage before = ResourceUsage.measure(Thread.currentThread(), dispatchThread);
+            for (int i = 0; i < MEASURED_TRANSACTIONS; i++) {
+                run(type, input);
+            }
+            final ResourceUsage after = ResourceUsage.measure(Thread.currentThread(), dispatchThread);
+            allocatedBytes = Math.min(allocatedBytes, after.allocatedBytesSince(before) / MEASURED_TRANSACTIONS);
+            cpuNanos = Math.min(cpuNanos, after.threadCpuNanosSince(before) / MEASURED_TRANSACTIONS);
+        }
+        Assume.assumeTrue("The JVM does not measure thread allocations", allocatedBytes >= 0);
+        if (RECORD) {
+            recorded.setProperty("budget." + name + ".allocatedBytes", Long.toString((long) (allocatedBytes * BUDGET_MARGIN)));
+            recorded.setProperty("budget." + name + ".cpuMicros", Long.toString((long) (cpuNanos / 1000 * BUDGET_MARGIN)));
+            return;
+        }
+        final long allocatedBudget = budget(name + ".allocatedBytes");
+        final long cpuMicrosBudget = budget(name + ".cpuMicros");
+        logger.info(format("%s: %d bytes allocated (budget %d), %d us CPU (budget %d) per transaction",
+                name, allocatedBytes, allocatedBudget, cpuNanos / 1000, cpuMicrosBudget));
+        assertTrue(format("%s allocates %d bytes per transaction, over its budget of %d", name, allocatedBytes, allocatedBudget),
+                allocatedBytes <= allocatedBudget);
+        if (CPU && cpuNanos >= 0) {
+            assertTrue(format("%s uses %d us of CPU per transaction, over its budget of %d", name, cpuNanos / 1000, cpuMicrosBudget),
+                    cpuNanos <= cpuMicrosBudget * 1000);
+        }
+    }
+
+    private long budget(String name) {
+        final String key = "budget." + name;
+        return Long.parseLong(System.getProperty(key, budgets.getProperty(key)));
+    }
+
+    /**
+     * Sends an INIT or TRANSACTION and answers the requests of the chaincode until it completes
+     */
+    private void run(ChaincodeMessage.Type type, ByteString input) {
+        final String txId = "tx" + transactions++;
+        handler.onChaincodeMessage(ChaincodeMessage.newBuilder()
+                .setType(type)
+                .setChannelId("mychannel")
+                .setTxid(txId)
+                .setPayload(input)
+                .build());
+        while (true) {
+            final ChaincodeMessage message = handler.nextOutboundChaincodeMessage();
+            switch (message.getType()) {
+                case GET_STATE:
+                    respond(message, VALUE);
+                    break;
+                case PUT_STATE:
+                    respond(message, ByteString.EMPTY);
+                    break;
+                case GET_STATE_BY_RANGE:
+                    nextPage = 0;
+                    respond(message, pages[nextPage++]);
+                    break;
+                case QUERY_STATE_NEXT:
+                    respond(message, pages[nextPage++]);
+                    break;
+                case QUERY_STATE_CLOSE:
+                    respond(message, closed);
+                    break;
+                case COMPLETED:
+                    assertEquals(txId, message.getTxid());
+                    assertEquals(200, status(message));
+                    return;
+                default:
+                    throw new IllegalStateException(format("Unexpected %s: %s", message.getType(), message.getPayload().toStringUtf8()));
+            }
+        }
+    }
+
+    private void respond(ChaincodeMessage request, ByteString payload) {
+        handler.onChaincodeMessage(ChaincodeMessage.newBuilder()
+                .setType(RESPONSE)
+                .setChannelId(request.getChannelId())
+                .setTxid(request.getTxid())
+                .setPayload(payload)
+                .build());
+    }
+
+    private static int status(ChaincodeMessage completed) {
+        try {
+            return ProposalResponsePackage.Response.parseFrom(completed.getPayload()).getStatus();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class BudgetChaincode extends ChaincodeBase {
+
+        @Override
+        public Response init(ChaincodeStub stub) {
+            return newSuccessResponse();
+        }
+
+        @Override
+        public Response invoke(ChaincodeStub stub) {
+            switch (stub.getFunction()) {
+                case "readWrite":
+                    for (int i = 0; i < KEYS; i++) {
+                        final byte[] value = stub.getState("key" + i);
+                        stub.putState("key" + i, value);
+                    }
+                    return newSuccessResponse();
+                case "rangeScan":
+                    int results = 0;
+                    final QueryResultsIterator<KeyValue> range = stub.getStateByRange("key00000", "key99999");
+                    for (KeyValue kv : range) {
+                        results += kv.getValue().length > 0 ? 1 : 0;
+                    }
+                    try {
+                        range.close();
+                    } catch (Exception e) {
+                        return newErrorResponse(e);
+                    }
+                    return results == PAGES * PAGE_SIZE ? newSuccessResponse() : newErrorResponse("Got " + results + " results");
+                default:
+                    return newErrorResponse("Unknown function " + stub.getFunction());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 0.001);
+        assertThat(histogram.getValueAtPercentile(50), allOf(greaterThanOrEqualTo(5000L), lessThanOrEqualTo(5160L)));
+        assertThat(histogram.getValueAtPercentile(99), allOf(greaterThanOrEqualTo(9900L), lessThanOrEqualTo(10000L)));
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        final Histogram histogram = new Histogram();
+        histogram.record(3);
+        histogram.record(-1);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(3, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[]{0, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE}) {
+            final long upperBound = Histogram.bucketUpperBound(Histogram.bucketIndex(value));
+            assertThat(upperBound, greaterThanOrEqualTo(value));
+            assertThat((double) upperBound - value, lessThanOrEqualTo(value / 32.0));
+        }
+    }
+
+    @Test
+    public void testRegistryReport() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests").inc();
+        registry.gauge("limit", () -> 42);
+        registry.histogram("latency").record(10);
+        assertSame(registry.counter("requests"), registry.counter("requests"));
+        assertThat(registry.report(), allOf(
+                containsString("requests: 1"),
+                containsString("limit: 42"),
+                containsString("latency: count=1")));
+    }
+}
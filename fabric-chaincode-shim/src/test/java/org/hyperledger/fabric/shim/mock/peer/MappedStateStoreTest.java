@@ -0,0 +1,84 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import com.google.protobuf.ByteString;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MappedStateStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadAndRead() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        try (MappedStateStore.Loader loader = MappedStateStore.loader(dir, "")) {
+            for (int i = 0; i < 1000; i++) {
+                loader.add(String.format("key%04d", i), ByteString.copyFromUtf8("value" + i));
+            }
+        }
+        try (MappedStateStore.Loader loader = MappedStateStore.loader(dir, "private/collection")) {
+            loader.add("key0500", ByteString.copyFromUtf8("private"));
+        }
+
+        try (MappedStateStore store = MappedStateStore.open(dir)) {
+            assertThat(store.getLoadedKeys(""), is(1000L));
+            assertThat(store.get("", "key0500").toStringUtf8(), is("value500"));
+            assertThat(store.get("", "key1000"), is(nullValue()));
+            assertThat(store.get("private/collection", "key0500").toStringUtf8(), is("private"));
+            assertThat(keys(store.range("", null, null)).size(), is(1000));
+            assertThat(keys(store.range("", "key0998", null)), is(Arrays.asList("key0998", "key0999")));
+        }
+    }
+
+    @Test
+    public void testWritesOverLoadedKeys() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        try (MappedStateStore.Loader loader = MappedStateStore.loader(dir, "")) {
+            for (int i = 0; i < 10; i++) {
+                loader.add("key" + i, ByteString.copyFromUtf8("value" + i));
+            }
+        }
+
+        try (MappedStateStore store = MappedStateStore.open(dir)) {
+            store.put("", "key2", ByteString.copyFromUtf8("new"));
+            store.put("", "key2a", ByteString.copyFromUtf8("inserted"));
+            store.delete("", "key3");
+            assertThat(store.get("", "key2").toStringUtf8(), is("new"));
+            assertThat(store.get("", "key3"), is(nullValue()));
+            assertThat(keys(store.range("", "key1", "key5")), is(Arrays.asList("key1", "key2", "key2a", "key4")));
+            assertThat(store.range("", "key5", "key1").hasNext(), is(false));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoadOutOfOrder() throws Exception {
+        try (MappedStateStore.Loader loader = MappedStateStore.loader(folder.getRoot().toPath(), "")) {
+            loader.add("b", ByteString.EMPTY);
+            loader.add("a", ByteString.EMPTY);
+        }
+    }
+
+    private static List<String> keys(Iterator<Map.Entry<String, ByteString>> range) {
+        List<String> keys = new ArrayList<>();
+        range.forEachRemaining(entry -> keys.add(entry.getKey()));
+        return keys;
+    }
+}
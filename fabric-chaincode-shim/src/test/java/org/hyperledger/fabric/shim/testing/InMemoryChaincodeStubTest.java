@@ -0,0 +1,213 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.testing;
+
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyModification;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class InMemoryChaincodeStubTest {
+
+    @Test
+    public void testReadsSeeCommittedStateOnly() {
+        final InMemoryLedger ledger = new InMemoryLedger().putStringState("a", "1");
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+
+        stub.putStringState("a", "2");
+        stub.putStringState("b", "2");
+        assertThat(stub.getStringState("a"), is("1"));
+        assertThat(stub.getState("b").length, is(0));
+        assertThat(ledger.getStringState("a"), is("1"));
+
+        stub.commit();
+        assertThat(stub.getStringState("a"), is("2"));
+        assertThat(ledger.getStringState("b"), is("2"));
+        assertThat(ledger.getCommitted(), is(1L));
+    }
+
+    @Test
+    public void testRollback() {
+        final InMemoryLedger ledger = new InMemoryLedger().putStringState("a", "1");
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+        final String txId = stub.getTxId();
+
+        stub.delState("a");
+        stub.putPrivateData("collection", "a", "secret");
+        stub.setEvent("event", null);
+        assertThat(stub.getWrites().keySet(), containsInAnyOrder("", "collection"));
+        stub.rollback();
+
+        assertThat(stub.getTxId(), not(txId));
+        assertThat(stub.getWrites().isEmpty(), is(true));
+        assertThat(stub.getEvent(), nullValue());
+        assertThat(ledger.getStringState("a"), is("1"));
+        assertThat(ledger.getPrivateData("collection", "a"), nullValue());
+        assertThat(ledger.getCommitted(), is(0L));
+    }
+
+    @Test
+    public void testInvoke() {
+        final ChaincodeBase chaincode = new ChaincodeBase() {
+            @Override
+            public Response init(ChaincodeStub stub) {
+                return newSuccessResponse();
+            }
+
+            @Override
+            public Response invoke(ChaincodeStub stub) {
+                final List<String> params = stub.getParameters();
+                final int amount = Integer.parseInt(params.get(2));
+                final int from = Integer.parseInt(stub.getStringState(params.get(0))) - amount;
+                stub.putStringState(params.get(0), Integer.toString(from));
+                stub.putStringState(params.get(1), Integer.toString(Integer.parseInt(stub.getStringState(params.get(1))) + amount));
+                if (from < 0) {
+                    return newErrorResponse("Insufficient funds");
+                }
+                stub.setEvent(stub.getFunction(), params.get(2).getBytes(UTF_8));
+                return newSuccessResponse();
+            }
+        };
+        final InMemoryLedger ledger = new InMemoryLedger().putStringState("a", "100").putStringState("b", "100");
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+
+        assertThat(stub.invoke(chaincode, "transfer", "a", "b", "60").getStatus(), is(ChaincodeBase.Response.Status.SUCCESS));
+        assertThat(stub.getCommittedEvent().getEventName(), is("transfer"));
+        assertThat(stub.getCommittedEvent().getPayload().toStringUtf8(), is("60"));
+        assertThat(stub.invoke(chaincode, "transfer", "a", "b", "60").getStatus(), is(ChaincodeBase.Response.Status.INTERNAL_SERVER_ERROR));
+        assertThat(stub.getCommittedEvent().getPayload().toStringUtf8(), is("60"));
+        assertThat(ledger.getStringState("a"), is("40"));
+        assertThat(ledger.getStringState("b"), is("160"));
+        assertThat(ledger.getCommitted(), is(1L));
+    }
+
+    @Test
+    public void testGetStateByRange() {
+        final InMemoryLedger ledger = new InMemoryLedger();
+        for (String key : new String[]{"a", "b", "c", "d"}) {
+            ledger.putStringState(key, key);
+        }
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+        ledger.putStringState(stub.createCompositeKey("type", "a").toString(), "composite");
+
+        assertThat(keys(stub.getStateByRange("b", "d")), contains("b", "c"));
+        assertThat(keys(stub.getStateByRange("", "")), contains("a", "b", "c", "d"));
+        assertThat(keys(stub.getStateByRange("c", "")), contains("c", "d"));
+        assertThat(keys(stub.getStateByRange("d", "a")), empty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetStateByRangeOfCompositeKeys() {
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(new InMemoryLedger());
+        stub.getStateByRange(stub.createCompositeKey("type").toString(), "");
+    }
+
+    @Test
+    public void testGetStateByPartialCompositeKey() {
+        final InMemoryLedger ledger = new InMemoryLedger().putStringState("plain", "plain");
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+        for (String[] attributes : new String[][]{{"red", "1"}, {"red", "2"}, {"red\uffff", "3"}, {"red\ud83d\ude00", "4"}, {"blue", "5"}}) {
+            ledger.putStringState(stub.createCompositeKey("car", attributes).toString(), attributes[1]);
+        }
+        ledger.putStringState(stub.createCompositeKey("bike", "red").toString(), "6");
+
+        assertThat(values(stub.getStateByPartialCompositeKey("car", "red")), contains("1", "2"));
+        assertThat(values(stub.getStateByPartialCompositeKey("car")), contains("5", "1", "2", "3", "4"));
+        assertThat(values(stub.getStateByPartialCompositeKey(stub.createCompositeKey("bike").toString())), contains("6"));
+        assertThat(values(stub.getStateByPartialCompositeKey("bike")), contains("6"));
+    }
+
+    @Test
+    public void testPrivateData() {
+        final InMemoryLedger ledger = new InMemoryLedger().putPrivateData("collection", "a", "1".getBytes(UTF_8));
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+
+        assertThat(stub.getPrivateDataUTF8("collection", "a"), is("1"));
+        assertThat(stub.getPrivateData("other", "a").length, is(0));
+        assertThat(stub.getStringState("a").isEmpty(), is(true));
+        stub.putPrivateData("collection", "b", "2");
+        stub.putPrivateData("collection", stub.createCompositeKey("type", "c").toString(), "3");
+        stub.commit();
+
+        assertThat(keys(stub.getPrivateDataByRange("collection", "", "")), contains("a", "b"));
+        assertThat(values(stub.getPrivateDataByPartialCompositeKey("collection", "type")), contains("3"));
+        assertThat(ledger.getState("b"), nullValue());
+    }
+
+    @Test
+    public void testHistoryForKey() {
+        final InMemoryLedger ledger = new InMemoryLedger();
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+        final Instant timestamp = Instant.ofEpochSecond(1000);
+        stub.setTxTimestamp(timestamp);
+
+        stub.setTxId("tx1").putStringState("a", "1");
+        stub.commit();
+        stub.setTxId("tx2").putStringState("a", "2");
+        stub.rollback();
+        stub.setTxId("tx3").delState("a");
+        stub.commit();
+
+        final List<KeyModification> history = new ArrayList<>();
+        stub.getHistoryForKey("a").forEach(history::add);
+        assertThat(history.size(), is(2));
+        assertThat(history.get(0).getTxId(), is("tx3"));
+        assertThat(history.get(0).isDeleted(), is(true));
+        assertThat(history.get(1).getTxId(), is("tx1"));
+        assertThat(history.get(1).getStringValue(), is("1"));
+        assertThat(history.get(1).getTimestamp(), is(timestamp));
+        assertThat(ledger.getState("a"), nullValue());
+    }
+
+    @Test
+    public void testTransientAndArgs() {
+        final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(new InMemoryLedger())
+                .setArgs("function", "a", "b")
+                .setTransient(Collections.singletonMap("key", "secret".getBytes(UTF_8)))
+                .setCreator("creator".getBytes(UTF_8))
+                .setChannelId("mychannel");
+
+        assertThat(stub.getFunction(), is("function"));
+        assertThat(stub.getParameters(), contains("a", "b"));
+        assertThat(new String(stub.getArgs().get(1), UTF_8), is("a"));
+        assertThat(new String(stub.getTransient().get("key"), UTF_8), is("secret"));
+        assertThat(new String(stub.getCreator(), UTF_8), is("creator"));
+        assertThat(stub.getChannelId(), is("mychannel"));
+        stub.getTransient().get("key")[0] = 0;
+        assertThat(new String(stub.getTransient().get("key"), UTF_8), is("secret"));
+
+        stub.commit();
+        assertThat(stub.getFunction(), is("function"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testGetQueryResult() {
+        new InMemoryChaincodeStub(new InMemoryLedger()).getQueryResult("{}");
+    }
+
+    private static List<String> keys(Iterable<KeyValue> results) {
+        final List<String> keys = new ArrayList<>();
+        results.forEach(kv -> keys.add(kv.getKey()));
+        return keys;
+    }
+
+    private static List<String> values(Iterable<KeyValue> results) {
+        final List<String> values = new ArrayList<>();
+        results.forEach(kv -> values.add(kv.getStringValue()));
+        return values;
+    }
+
+}
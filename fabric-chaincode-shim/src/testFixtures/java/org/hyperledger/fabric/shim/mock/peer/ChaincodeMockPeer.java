@@ -0,0 +1,310 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim.mock.peer;
+
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim;
+import org.hyperledger.fabric.protos.peer.ChaincodeSupportGrpc;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Mock peer implementation
+ */
+public class ChaincodeMockPeer {
+    private static final Logger logger = Logger.getLogger(ChaincodeMockPeer.class.getName());
+
+    private final String address;
+    private final Server server;
+    private final ChaincodeMockPeerService service;
+    private final Supplier<ManagedChannelBuilder<?>> channelBuilder;
+
+    /**
+     * Constructor
+     *
+     * @param scenario list of scenario steps
+     * @param port     mock peer communication port
+     * @throws IOException
+     */
+    public ChaincodeMockPeer(List<ScenarioStep> scenario, int port) {
+        this(scenario, null, ServerBuilder.forPort(port), () -> NettyChannelBuilder.forAddress("127.0.0.1", port).usePlaintext(true), "port " + port);
+    }
+
+    /**
+     * Constructor of an in-process mock peer, no network port is used
+     *
+     * @param scenario list of scenario steps
+     * @param name     in-process server name
+     */
+    public ChaincodeMockPeer(List<ScenarioStep> scenario, String name) {
+        this(scenario, null, InProcessServerBuilder.forName(name), () -> InProcessChannelBuilder.forName(name), "in-process name " + name);
+    }
+
+    /**
+     * Constructor of an in-process mock peer answering every message with a responder
+     * instead of a scenario
+     *
+     * @param responder answers the messages of the chaincode
+     * @param name      in-process server name
+     */
+    public ChaincodeMockPeer(PeerResponder responder, String name) {
+        this(null, responder, InProcessServerBuilder.forName(name), () -> InProcessChannelBuilder.forName(name), "in-process name " + name);
+    }
+
+    private ChaincodeMockPeer(List<ScenarioStep> scenario, PeerResponder responder, ServerBuilder<?> serverBuilder, Supplier<ManagedChannelBuilder<?>> channelBuilder, String address) {
+        this.address = address;
+        this.service = new ChaincodeMockPeerService(scenario, responder);
+        this.server = serverBuilder.addService(this.service).build();
+        this.channelBuilder = channelBuilder;
+    }
+
+    /**
+     * Start serving requests.
+     */
+    public void start() throws IOException {
+        server.start();
+        logger.info("Server started, listening on " + address);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                // Use stderr here since the logger may has been reset by its JVM shutdown hook.
+                System.err.println("*** shutting down gRPC server since JVM is shutting down");
+                ChaincodeMockPeer.this.stop();
+                System.err.println("*** server shut down");
+            }
+        });
+    }
+
+    /**
+     * Stop serving requests and shutdown resources.
+     */
+    public void stop() {
+        final NetworkConditions conditions = service.networkConditions;
+        if (conditions != null) {
+            conditions.close();
+        }
+        if (server != null) {
+            server.shutdownNow();
+            try {
+                server.awaitTermination();
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    /**
+     * Send message from mock peer to chaincode (to start init, invoke, etc)
+     *
+     * @param msg
+     */
+    public void send(ChaincodeShim.ChaincodeMessage msg) {
+        final NetworkConditions conditions = service.networkConditions;
+        if (conditions == null) {
+            this.service.send("Mock peer => Sending message: ", msg);
+        } else {
+            conditions.toChaincode(msg, msg.getType(), () -> this.service.send("Mock peer => Sending message: ", msg));
+        }
+    }
+
+    /**
+     * Emulates a network between this mock peer and the chaincode, messages are
+     * exchanged without delay by default
+     *
+     * @param conditions latency, bandwidth and failures of the network, null for none
+     */
+    public void setNetworkConditions(NetworkConditions conditions) {
+        this.service.networkConditions = conditions;
+    }
+
+    /**
+     * Check last executed step number, to check where in scenario we stopped
+     *
+     * @return
+     */
+    public int getLastExecutedStep() {
+        return this.service.lastExecutedStepNumber;
+    }
+
+    /**
+     * @return last received message from chaincode
+     */
+    public ChaincodeShim.ChaincodeMessage getLastMessageRcvd() {
+        return this.service.lastMessageRcvd;
+    }
+
+    /**
+     * @return last message sent by peer to chaincode
+     */
+    public ChaincodeShim.ChaincodeMessage getLastMessageSend() {
+        return this.service.lastMessageSend;
+    }
+
+    /**
+     * Creates new isntanse of mock peer server, starts it and returns
+     *
+     * @param scenario
+     * @return
+     * @throws Exception
+     */
+    public static ChaincodeMockPeer startServer(List<ScenarioStep> scenario) throws Exception {
+        ChaincodeMockPeer server = new ChaincodeMockPeer(scenario, 7052);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Creates new instance of in-process mock peer server under a random name, starts it and returns
+     * Chaincode connects to it using {@link #newChannelBuilder()}
+     *
+     * @param scenario
+     * @return
+     * @throws Exception
+     */
+    public static ChaincodeMockPeer startInProcessServer(List<ScenarioStep> scenario) throws Exception {
+        ChaincodeMockPeer server = new ChaincodeMockPeer(scenario, "mock-peer-" + UUID.randomUUID());
+        server.start();
+        return server;
+    }
+
+    /**
+     * Creates new instance of in-process mock peer server answering with the responder, starts it and returns
+     *
+     * @param responder
+     * @return
+     * @throws Exception
+     */
+    public static ChaincodeMockPeer startInProcessServer(PeerResponder responder) throws Exception {
+        ChaincodeMockPeer server = new ChaincodeMockPeer(responder, "mock-peer-" + UUID.randomUUID());
+        server.start();
+        return server;
+    }
+
+    /**
+     * @return builder of a channel connected to this mock peer
+     */
+    public ManagedChannelBuilder<?> newChannelBuilder() {
+        return channelBuilder.get();
+    }
+
+    private static class ChaincodeMockPeerService extends ChaincodeSupportGrpc.ChaincodeSupportImplBase {
+        final List<ScenarioStep> scenario;
+        final PeerResponder responder;
+        int lastExecutedStepNumber;
+        ChaincodeShim.ChaincodeMessage lastMessageRcvd;
+        ChaincodeShim.ChaincodeMessage lastMessageSend;
+        StreamObserver<ChaincodeShim.ChaincodeMessage> observer;
+        volatile NetworkConditions networkConditions;
+
+
+        public ChaincodeMockPeerService(List<ScenarioStep> scenario, PeerResponder responder) {
+            this.scenario = scenario;
+            this.responder = responder;
+            this.lastExecutedStepNumber = 0;
+        }
+
+        /**
+         * Sends a message to the chaincode, the stream may be used by several threads.
+         * With a responder messages are only logged at FINE level, not to slow a load test down
+         */
+        synchronized void send(String log, ChaincodeShim.ChaincodeMessage msg) {
+            lastMessageSend = msg;
+            logger.log(responder == null ? Level.INFO : Level.FINE, () -> log + msg);
+            observer.onNext(msg);
+        }
+
+        /**
+         * Attaching observer to steams
+         *
+         * @param responseObserver
+         * @return
+         */
+        @Override
+        public StreamObserver<ChaincodeShim.ChaincodeMessage> register(final StreamObserver<ChaincodeShim.ChaincodeMessage> responseObserver) {
+            observer = responseObserver;
+            return new StreamObserver<ChaincodeShim.ChaincodeMessage>() {
+
+                /**
+                 * Handling incoming messages
+                 * @param chaincodeMessage
+                 */
+                @Override
+                public void onNext(ChaincodeShim.ChaincodeMessage chaincodeMessage) {
+                    final NetworkConditions conditions = networkConditions;
+                    if (conditions == null) {
+                        receive(chaincodeMessage);
+                    } else {
+                        conditions.toPeer(chaincodeMessage, () -> receive(chaincodeMessage));
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+
+                }
+
+                @Override
+                public void onCompleted() {
+
+                }
+            };
+        }
+
+        private void receive(ChaincodeShim.ChaincodeMessage chaincodeMessage) {
+            this.lastMessageRcvd = chaincodeMessage;
+            if (responder != null) {
+                logger.fine(() -> "Mock peer => Got message: " + chaincodeMessage);
+                for (ChaincodeShim.ChaincodeMessage m : responder.respond(chaincodeMessage)) {
+                    reply(chaincodeMessage, m);
+                }
+                return;
+            }
+            logger.info("Mock peer => Got message: " + chaincodeMessage);
+            if (this.scenario.size() > 0) {
+                ScenarioStep step = this.scenario.get(0);
+                this.scenario.remove(0);
+                if (step.expected(chaincodeMessage)) {
+                    List<ChaincodeShim.ChaincodeMessage> nextSteps = step.next();
+                    for (ChaincodeShim.ChaincodeMessage m : nextSteps) {
+                        reply(chaincodeMessage, m);
+                    }
+                }
+                this.lastExecutedStepNumber++;
+            }
+        }
+
+        private void reply(ChaincodeShim.ChaincodeMessage request, ChaincodeShim.ChaincodeMessage msg) {
+            final NetworkConditions conditions = networkConditions;
+            if (conditions == null) {
+                send("Mock peer => Sending response message: ", msg);
+                return;
+            }
+            final ChaincodeShim.ChaincodeMessage response;
+            if (msg.getType() == ChaincodeShim.ChaincodeMessage.Type.RESPONSE && conditions.injectError(request.getType())) {
+                response = msg.toBuilder()
+                        .setType(ChaincodeShim.ChaincodeMessage.Type.ERROR)
+                        .setPayload(ByteString.copyFromUtf8("Injected network error"))
+                        .build();
+            } else {
+                response = msg;
+            }
+            conditions.toChaincode(response, request.getType(), () -> send("Mock peer => Sending response message: ", response));
+        }
+    }
+
+}
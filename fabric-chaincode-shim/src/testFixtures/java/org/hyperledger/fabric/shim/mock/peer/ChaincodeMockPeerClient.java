@@ -0,0 +1,142 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+
+package org.hyperledger.fabric.shim.mock.peer;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim;
+import org.hyperledger.fabric.protos.peer.ChaincodeSupportGrpc;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Mock peer that connects to a chaincode running in server mode
+ * and plays back the scenario over the accepted stream.
+ */
+public class ChaincodeMockPeerClient {
+    private static final Logger logger = Logger.getLogger(ChaincodeMockPeerClient.class.getName());
+
+    private final List<ScenarioStep> scenario;
+    private final ManagedChannel channel;
+    private StreamObserver<ChaincodeShim.ChaincodeMessage> requestObserver;
+    private volatile int lastExecutedStepNumber;
+    private volatile ChaincodeShim.ChaincodeMessage lastMessageRcvd;
+    private volatile ChaincodeShim.ChaincodeMessage lastMessageSend;
+
+    /**
+     * Constructor
+     *
+     * @param scenario       list of scenario steps
+     * @param channelBuilder builder of the channel to the chaincode server
+     */
+    public ChaincodeMockPeerClient(List<ScenarioStep> scenario, ManagedChannelBuilder<?> channelBuilder) {
+        this.scenario = scenario;
+        this.channel = channelBuilder.build();
+    }
+
+    /**
+     * Open the stream to the chaincode server, chaincode is expected to send REGISTER first
+     */
+    public synchronized void connect() {
+        this.requestObserver = ChaincodeSupportGrpc.newStub(channel).register(new StreamObserver<ChaincodeShim.ChaincodeMessage>() {
+
+            /**
+             * Handling incoming messages
+             * @param chaincodeMessage
+             */
+            @Override
+            public void onNext(ChaincodeShim.ChaincodeMessage chaincodeMessage) {
+                logger.info("Mock peer client => Got message: " + chaincodeMessage);
+                lastMessageRcvd = chaincodeMessage;
+                if (scenario.size() > 0) {
+                    ScenarioStep step = scenario.remove(0);
+                    if (step.expected(chaincodeMessage)) {
+                        for (ChaincodeShim.ChaincodeMessage m : step.next()) {
+                            send(m);
+                        }
+                    }
+                    lastExecutedStepNumber++;
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+
+            }
+
+            @Override
+            public void onCompleted() {
+
+            }
+        });
+    }
+
+    /**
+     * Send message from mock peer to chaincode (to start init, invoke, etc)
+     *
+     * @param msg
+     */
+    public synchronized void send(ChaincodeShim.ChaincodeMessage msg) {
+        this.lastMessageSend = msg;
+        logger.info("Mock peer client => Sending message: " + msg);
+        this.requestObserver.onNext(msg);
+    }
+
+    /**
+     * Close the stream and the channel to the chaincode server
+     */
+    public void stop() {
+        synchronized (this) {
+            if (requestObserver != null) {
+                requestObserver.onCompleted();
+            }
+        }
+        try {
+            channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /**
+     * Check last executed step number, to check where in scenario we stopped
+     *
+     * @return
+     */
+    public int getLastExecutedStep() {
+        return this.lastExecutedStepNumber;
+    }
+
+    /**
+     * @return last received message from chaincode
+     */
+    public ChaincodeShim.ChaincodeMessage getLastMessageRcvd() {
+        return this.lastMessageRcvd;
+    }
+
+    /**
+     * @return last message sent by peer to chaincode
+     */
+    public ChaincodeShim.ChaincodeMessage getLastMessageSend() {
+        return this.lastMessageSend;
+    }
+
+    /**
+     * Creates new instance of mock peer client, connects it to the chaincode server and returns
+     *
+     * @param scenario
+     * @param port     port the chaincode server listens on
+     * @return
+     */
+    public static ChaincodeMockPeerClient connect(List<ScenarioStep> scenario, int port) {
+        ChaincodeMockPeerClient client = new ChaincodeMockPeerClient(scenario, ManagedChannelBuilder.forAddress("127.0.0.1", port).usePlaintext(true));
+        client.connect();
+        return client;
+    }
+}
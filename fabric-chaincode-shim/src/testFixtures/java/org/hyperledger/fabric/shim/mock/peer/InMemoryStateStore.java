@@ -0,0 +1,58 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * State held in sorted maps on the heap, one per collection.
+ */
+public class InMemoryStateStore implements StateStore {
+
+    private final Map<String, NavigableMap<String, ByteString>> collections = new ConcurrentHashMap<>();
+
+    @Override
+    public ByteString get(String collection, String key) {
+        return collection(collection).get(key);
+    }
+
+    @Override
+    public void put(String collection, String key, ByteString value) {
+        collection(collection).put(key, value);
+    }
+
+    @Override
+    public void delete(String collection, String key) {
+        collection(collection).remove(key);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, ByteString>> range(String collection, String startKey, String endKey) {
+        if (startKey != null && endKey != null && startKey.compareTo(endKey) >= 0) {
+            return Collections.emptyIterator();
+        }
+        NavigableMap<String, ByteString> range = collection(collection);
+        if (startKey != null) {
+            range = range.tailMap(startKey, true);
+        }
+        if (endKey != null) {
+            range = range.headMap(endKey, false);
+        }
+        return range.entrySet().iterator();
+    }
+
+    private NavigableMap<String, ByteString> collection(String collection) {
+        return collections.computeIfAbsent(collection, c -> new ConcurrentSkipListMap<>());
+    }
+
+}
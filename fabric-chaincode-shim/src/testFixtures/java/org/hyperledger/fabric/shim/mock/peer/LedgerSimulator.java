@@ -0,0 +1,429 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import org.hyperledger.fabric.protos.ledger.queryresult.KvQueryResult;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeID;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeSpec;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.QueryResultBytes;
+import org.hyperledger.fabric.protos.peer.ProposalResponsePackage;
+import org.hyperledger.fabric.shim.Chaincode;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.util.Arrays.asList;
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+
+/**
+ * Peer simulating a ledger, the state is kept in a {@link StateStore} with one keyspace
+ * per private data collection.
+ * <p>
+ * Every transaction runs against the committed state: like on a peer it does not read its
+ * own writes, which are buffered until the chaincode sends COMPLETED with a success
+ * status. The transaction then commits, unless a key it read was committed by another
+ * transaction since (MVCC read conflict). Keys returned by range queries count as read,
+ * phantom keys inserted into a range are not detected. A transaction ended by an ERROR
+ * message or an error status is discarded. Transactions of any number of channels and
+ * txids may run at once.
+ * <p>
+ * Range queries and key histories are returned in pages, further pages are fetched with
+ * QUERY_STATE_NEXT and a query is released by QUERY_STATE_CLOSE or when its transaction
+ * ends. The history of public keys is recorded from their commits.
+ * <p>
+ * Chaincodes the simulated one invokes are stood in for by functions set with
+ * {@link #setInvokedChaincode(String, Function)}, their reads and writes are not simulated.
+ * <p>
+ * Registers the chaincode like {@link RegisterStep}, and passes the COMPLETED and ERROR
+ * messages ending a transaction to a consumer once it is committed or discarded. Other
+ * requests, such as rich queries or invocations of unknown chaincodes, are answered with
+ * an ERROR.
+ */
+public class LedgerSimulator implements PeerResponder {
+
+    /**
+     * Results in a page of a query, as on a peer
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    // sent by the shim for an open start or end of a range
+    private static final String UNSPECIFIED_KEY = new String(Character.toChars(0x000001));
+
+    private final StateStore store;
+    private final Consumer<ChaincodeMessage> results;
+    private final Map<String, Transaction> transactions = new ConcurrentHashMap<>();
+    // keys of committed writes, keys never written are at version 0
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private final Map<String, List<KvQueryResult.KeyModification>> history = new ConcurrentHashMap<>();
+    private final Map<String, Function<List<ByteString>, Chaincode.Response>> invokedChaincodes = new ConcurrentHashMap<>();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private long lastVersion;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private boolean mvccValidation = true;
+    private volatile String namespace = "";
+
+    /**
+     * @param results called with the message ending each transaction
+     */
+    public LedgerSimulator(Consumer<ChaincodeMessage> results) {
+        this(new InMemoryStateStore(), results);
+    }
+
+    /**
+     * @param store   committed state
+     * @param results called with the message ending each transaction
+     */
+    public LedgerSimulator(StateStore store, Consumer<ChaincodeMessage> results) {
+        this.store = store;
+        this.results = results;
+    }
+
+    /**
+     * @param pageSize results returned per page of a query
+     */
+    public LedgerSimulator setPageSize(int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be positive");
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @param mvccValidation false to commit every successful transaction, even after a read conflict
+     */
+    public LedgerSimulator setMvccValidation(boolean mvccValidation) {
+        this.mvccValidation = mvccValidation;
+        return this;
+    }
+
+    /**
+     * Answers the invocations of a chaincode by a function
+     *
+     * @param name      name of the invoked chaincode, as passed to invokeChaincode
+     * @param chaincode response of the chaincode to the args of an invocation
+     */
+    public LedgerSimulator setInvokedChaincode(String name, Function<List<ByteString>, Chaincode.Response> chaincode) {
+        invokedChaincodes.put(name, chaincode);
+        return this;
+    }
+
+    /**
+     * Sets the public state of a key, to load fixtures before a run. No history is recorded.
+     */
+    public LedgerSimulator putState(String key, ByteString value) {
+        store.put("", key, value);
+        return this;
+    }
+
+    /**
+     * Sets the private data of a key, to load fixtures before a run
+     */
+    public LedgerSimulator putPrivateData(String collection, String key, ByteString value) {
+        store.put(collection, key, value);
+        return this;
+    }
+
+    /**
+     * @return committed public state of a key, null when it is not set
+     */
+    public ByteString getState(String key) {
+        return store.get("", key);
+    }
+
+    /**
+     * @return committed private data of a key, null when it is not set
+     */
+    public ByteString getPrivateData(String collection, String key) {
+        return store.get(collection, key);
+    }
+
+    /**
+     * @return transactions committed
+     */
+    public long getCommitted() {
+        return committed.get();
+    }
+
+    /**
+     * @return successful transactions not committed because of a read conflict
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    @Override
+    public List<ChaincodeMessage> respond(ChaincodeMessage msg) {
+        try {
+            switch (msg.getType()) {
+                case REGISTER:
+                    namespace = ChaincodeID.parseFrom(msg.getPayload()).getName();
+                    return asList(ChaincodeMessage.newBuilder().setType(REGISTERED).build(),
+                            ChaincodeMessage.newBuilder().setType(READY).build());
+                case GET_STATE: {
+                    final ChaincodeShim.GetState request = ChaincodeShim.GetState.parseFrom(msg.getPayload());
+                    final ByteString value = transaction(msg).read(request.getCollection(), request.getKey());
+                    return response(msg, value == null ? ByteString.EMPTY : value);
+                }
+                case PUT_STATE: {
+                    final ChaincodeShim.PutState request = ChaincodeShim.PutState.parseFrom(msg.getPayload());
+                    transaction(msg).write(request.getCollection(), request.getKey(), request.getValue());
+                    return response(msg, ByteString.EMPTY);
+                }
+                case DEL_STATE: {
+                    final ChaincodeShim.DelState request = ChaincodeShim.DelState.parseFrom(msg.getPayload());
+                    transaction(msg).write(request.getCollection(), request.getKey(), null);
+                    return response(msg, ByteString.EMPTY);
+                }
+                case GET_STATE_BY_RANGE: {
+                    final ChaincodeShim.GetStateByRange request = ChaincodeShim.GetStateByRange.parseFrom(msg.getPayload());
+                    return response(msg, transaction(msg).range(request).toByteString());
+                }
+                case GET_HISTORY_FOR_KEY: {
+                    final ChaincodeShim.GetHistoryForKey request = ChaincodeShim.GetHistoryForKey.parseFrom(msg.getPayload());
+                    return response(msg, transaction(msg).history(request.getKey()).toByteString());
+                }
+                case QUERY_STATE_NEXT: {
+                    final ChaincodeShim.QueryStateNext request = ChaincodeShim.QueryStateNext.parseFrom(msg.getPayload());
+                    final ChaincodeShim.QueryResponse page = transaction(msg).nextPage(request.getId());
+                    return page == null ? error(msg, "Query " + request.getId() + " not found") : response(msg, page.toByteString());
+                }
+                case QUERY_STATE_CLOSE: {
+                    final ChaincodeShim.QueryStateClose request = ChaincodeShim.QueryStateClose.parseFrom(msg.getPayload());
+                    transaction(msg).queries.remove(request.getId());
+                    return response(msg, ChaincodeShim.QueryResponse.newBuilder().setHasMore(false).setId(request.getId()).build().toByteString());
+                }
+                case INVOKE_CHAINCODE: {
+                    final ChaincodeSpec spec = ChaincodeSpec.parseFrom(msg.getPayload());
+                    final Function<List<ByteString>, Chaincode.Response> chaincode = invokedChaincodes.get(spec.getChaincodeId().getName());
+                    if (chaincode == null) {
+                        return error(msg, "Chaincode " + spec.getChaincodeId().getName() + " not found");
+                    }
+                    return response(msg, completed(msg, chaincode.apply(spec.getInput().getArgsList())).toByteString());
+                }
+                case COMPLETED:
+                    end(msg, isSuccess(msg));
+                    return Collections.emptyList();
+                case ERROR:
+                    end(msg, false);
+                    return Collections.emptyList();
+                default:
+                    return error(msg, "Unsupported message type " + msg.getType());
+            }
+        } catch (InvalidProtocolBufferException e) {
+            return error(msg, e.getMessage());
+        }
+    }
+
+    private Transaction transaction(ChaincodeMessage msg) {
+        return transactions.computeIfAbsent(txKey(msg), k -> new Transaction(msg.getTxid()));
+    }
+
+    private void end(ChaincodeMessage msg, boolean success) {
+        final Transaction transaction = transactions.remove(txKey(msg));
+        if (success) {
+            commit(transaction == null ? new Transaction(msg.getTxid()) : transaction);
+        }
+        results.accept(msg);
+    }
+
+    private synchronized void commit(Transaction transaction) {
+        if (mvccValidation) {
+            for (Map.Entry<String, Long> read : transaction.reads.entrySet()) {
+                if (!read.getValue().equals(versions.getOrDefault(read.getKey(), 0L))) {
+                    conflicts.incrementAndGet();
+                    return;
+                }
+            }
+        }
+        final long version = ++lastVersion;
+        final Timestamp timestamp = now();
+        for (Write write : transaction.writes.values()) {
+            if (write.value == null) {
+                store.delete(write.collection, write.key);
+            } else {
+                store.put(write.collection, write.key, write.value);
+            }
+            versions.put(versionKey(write.collection, write.key), version);
+            if (write.collection.isEmpty()) {
+                history.computeIfAbsent(write.key, k -> new CopyOnWriteArrayList<>()).add(KvQueryResult.KeyModification.newBuilder()
+                        .setTxId(transaction.txId)
+                        .setValue(write.value == null ? ByteString.EMPTY : write.value)
+                        .setTimestamp(timestamp)
+                        .setIsDelete(write.value == null)
+                        .build());
+            }
+        }
+        committed.incrementAndGet();
+    }
+
+    private static boolean isSuccess(ChaincodeMessage msg) {
+        try {
+            return ProposalResponsePackage.Response.parseFrom(msg.getPayload()).getStatus() < 400;
+        } catch (InvalidProtocolBufferException e) {
+            return false;
+        }
+    }
+
+    private static Timestamp now() {
+        final Instant now = Instant.now();
+        return Timestamp.newBuilder().setSeconds(now.getEpochSecond()).setNanos(now.getNano()).build();
+    }
+
+    private static String txKey(ChaincodeMessage msg) {
+        return msg.getChannelId() + '\0' + msg.getTxid();
+    }
+
+    private static String versionKey(String collection, String key) {
+        return collection + '\0' + key;
+    }
+
+    private static List<ChaincodeMessage> response(ChaincodeMessage msg, ByteString payload) {
+        return Collections.singletonList(ChaincodeMessage.newBuilder()
+                .setType(RESPONSE)
+                .setChannelId(msg.getChannelId())
+                .setTxid(msg.getTxid())
+                .setPayload(payload)
+                .build());
+    }
+
+    /**
+     * @return message the invoked chaincode ends its part of the transaction with
+     */
+    private static ChaincodeMessage completed(ChaincodeMessage msg, Chaincode.Response response) {
+        final ProposalResponsePackage.Response.Builder payload = ProposalResponsePackage.Response.newBuilder()
+                .setStatus(response.getStatus().getCode());
+        if (response.getMessage() != null) {
+            payload.setMessage(response.getMessage());
+        }
+        if (response.getPayload() != null) {
+            payload.setPayload(ByteString.copyFrom(response.getPayload()));
+        }
+        return ChaincodeMessage.newBuilder()
+                .setType(COMPLETED)
+                .setChannelId(msg.getChannelId())
+                .setTxid(msg.getTxid())
+                .setPayload(payload.build().toByteString())
+                .build();
+    }
+
+    private static List<ChaincodeMessage> error(ChaincodeMessage msg, String message) {
+        return Collections.singletonList(ChaincodeMessage.newBuilder()
+                .setType(ERROR)
+                .setChannelId(msg.getChannelId())
+                .setTxid(msg.getTxid())
+                .setPayload(ByteString.copyFromUtf8(message))
+                .build());
+    }
+
+    private static final class Write {
+        final String collection;
+        final String key;
+        // null for a delete
+        final ByteString value;
+
+        Write(String collection, String key, ByteString value) {
+            this.collection = collection;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Read and write sets and open queries of a running transaction, whose requests come
+     * one at a time.
+     */
+    private final class Transaction {
+        final String txId;
+        final Map<String, Long> reads = new HashMap<>();
+        final Map<String, Write> writes = new LinkedHashMap<>();
+        final Map<String, Iterator<ByteString>> queries = new HashMap<>();
+        int lastQueryId;
+
+        Transaction(String txId) {
+            this.txId = txId;
+        }
+
+        ByteString read(String collection, String key) {
+            // the version is taken first, a commit in between then shows as a conflict
+            reads.putIfAbsent(versionKey(collection, key), versions.getOrDefault(versionKey(collection, key), 0L));
+            return store.get(collection, key);
+        }
+
+        void write(String collection, String key, ByteString value) {
+            writes.put(versionKey(collection, key), new Write(collection, key, value));
+        }
+
+        ChaincodeShim.QueryResponse range(ChaincodeShim.GetStateByRange request) {
+            final String collection = request.getCollection();
+            final String startKey = request.getStartKey().isEmpty() ? null : request.getStartKey();
+            final String endKey = request.getEndKey().isEmpty() || request.getEndKey().equals(UNSPECIFIED_KEY) ? null : request.getEndKey();
+            final Iterator<Map.Entry<String, ByteString>> entries = store.range(collection, startKey, endKey);
+            return open(new Iterator<ByteString>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public ByteString next() {
+                    final Map.Entry<String, ByteString> entry = entries.next();
+                    reads.putIfAbsent(versionKey(collection, entry.getKey()), versions.getOrDefault(versionKey(collection, entry.getKey()), 0L));
+                    return KvQueryResult.KV.newBuilder()
+                            .setNamespace(namespace)
+                            .setKey(entry.getKey())
+                            .setValue(entry.getValue())
+                            .build().toByteString();
+                }
+            });
+        }
+
+        ChaincodeShim.QueryResponse history(String key) {
+            final List<KvQueryResult.KeyModification> modifications = new ArrayList<>(history.getOrDefault(key, Collections.emptyList()));
+            // the latest modification comes first, as on a peer
+            Collections.reverse(modifications);
+            return open(modifications.stream().map(KvQueryResult.KeyModification::toByteString).iterator());
+        }
+
+        ChaincodeShim.QueryResponse open(Iterator<ByteString> results) {
+            final String id = Integer.toString(++lastQueryId);
+            queries.put(id, results);
+            return nextPage(id);
+        }
+
+        ChaincodeShim.QueryResponse nextPage(String id) {
+            final Iterator<ByteString> results = queries.get(id);
+            if (results == null) {
+                return null;
+            }
+            final ChaincodeShim.QueryResponse.Builder page = ChaincodeShim.QueryResponse.newBuilder().setId(id);
+            for (int i = 0; i < pageSize && results.hasNext(); i++) {
+                page.addResults(QueryResultBytes.newBuilder().setResultBytes(results.next()));
+            }
+            page.setHasMore(results.hasNext());
+            if (!results.hasNext()) {
+                queries.remove(id);
+            }
+            return page.build();
+        }
+    }
+
+}
@@ -0,0 +1,367 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.fabric.protos.peer.Chaincode.ChaincodeInput;
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+import org.hyperledger.fabric.protos.peer.ProposalResponsePackage;
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage.Type.*;
+
+/**
+ * Drives a chaincode with TRANSACTION messages from an in-process mock peer, which answers
+ * its state requests from a {@link LedgerSimulator}. Up to a number of
+ * transactions are in flight at once, each one started as soon as another completes.
+ * The args of every transaction are picked at random from a weighted mix.
+ * <p>
+ * The latency of a transaction is measured from sending its TRANSACTION message to
+ * receiving its COMPLETED or ERROR message. Warmup transactions run first and are not
+ * reported.
+ * <pre>
+ * LoadGenerator.Report report = new LoadGenerator(new SimpleChaincode())
+ *         .putState("a", "1000000")
+ *         .putState("b", "1000000")
+ *         .addArgs(3, "invoke", "a", "b", "1")
+ *         .addArgs(1, "query", "a")
+ *         .setTransactions(100000)
+ *         .setConcurrency(64)
+ *         .run();
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+
+    private final ChaincodeBase chaincode;
+    private final LedgerSimulator ledger;
+    private final List<Function<Random, List<ByteString>>> mix = new ArrayList<>();
+    private final List<Integer> weights = new ArrayList<>();
+    private final Map<String, Long> started = new ConcurrentHashMap<>();
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private String channelId = "loadchannel";
+    private int transactions = 10000;
+    private int warmupTransactions = 1000;
+    private int concurrency = 16;
+    private long timeout = TimeUnit.MINUTES.toMillis(5);
+    private long seed = 42;
+    private NetworkConditions networkConditions;
+    private volatile ChaincodeMockPeer peer;
+    private volatile Phase phase;
+
+    /**
+     * @param chaincode chaincode to drive, started by {@link #run()}
+     */
+    public LoadGenerator(ChaincodeBase chaincode) {
+        this(chaincode, new InMemoryStateStore());
+    }
+
+    /**
+     * @param chaincode chaincode to drive, started by {@link #run()}
+     * @param store     committed state of the simulated ledger
+     */
+    public LoadGenerator(ChaincodeBase chaincode, StateStore store) {
+        this.chaincode = chaincode;
+        this.ledger = new LedgerSimulator(store, this::onResult);
+    }
+
+    /**
+     * Sets the public state of a key before the run
+     */
+    public LoadGenerator putState(String key, String value) {
+        ledger.putState(key, ByteString.copyFromUtf8(value));
+        return this;
+    }
+
+    /**
+     * Adds args to the mix of transactions
+     *
+     * @param weight share of the transactions run with these args, relative to the others
+     * @param args   function name and parameters
+     */
+    public LoadGenerator addArgs(int weight, String... args) {
+        final List<ByteString> input = toByteStrings(args);
+        return addToMix(weight, random -> input);
+    }
+
+    /**
+     * Adds args generated for each transaction to the mix, to pick keys from a distribution
+     * rather than from a fixed set
+     *
+     * @param weight share of the transactions run with these args, relative to the others
+     * @param args   function name and parameters of a transaction, from the random source of the run
+     */
+    public LoadGenerator addArgs(int weight, Function<Random, String[]> args) {
+        return addToMix(weight, random -> toByteStrings(args.apply(random)));
+    }
+
+    private LoadGenerator addToMix(int weight, Function<Random, List<ByteString>> args) {
+        if (weight <= 0) throw new IllegalArgumentException("weight must be positive");
+        mix.add(args);
+        weights.add(weight);
+        return this;
+    }
+
+    private static List<ByteString> toByteStrings(String[] args) {
+        final List<ByteString> input = new ArrayList<>(args.length);
+        for (String arg : args) {
+            input.add(ByteString.copyFromUtf8(arg));
+        }
+        return input;
+    }
+
+    public LoadGenerator setChannelId(String channelId) {
+        this.channelId = channelId;
+        return this;
+    }
+
+    /**
+     * @param transactions transactions to report on
+     */
+    public LoadGenerator setTransactions(int transactions) {
+        if (transactions <= 0) throw new IllegalArgumentException("transactions must be positive");
+        this.transactions = transactions;
+        return this;
+    }
+
+    /**
+     * @param warmupTransactions transactions to run before the reported ones
+     */
+    public LoadGenerator setWarmupTransactions(int warmupTransactions) {
+        if (warmupTransactions < 0) throw new IllegalArgumentException("warmupTransactions must not be negative");
+        this.warmupTransactions = warmupTransactions;
+        return this;
+    }
+
+    /**
+     * @param concurrency transactions in flight at once
+     */
+    public LoadGenerator setConcurrency(int concurrency) {
+        if (concurrency <= 0) throw new IllegalArgumentException("concurrency must be positive");
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param timeout milliseconds the warmup and the reported transactions may each take
+     */
+    public LoadGenerator setTimeout(long timeout) {
+        if (timeout <= 0) throw new IllegalArgumentException("timeout must be positive");
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @param seed seed of the random choice of args, runs with the same seed send the same transactions
+     */
+    public LoadGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param networkConditions network emulated between the mock peer and the chaincode, null for none
+     */
+    public LoadGenerator setNetworkConditions(NetworkConditions networkConditions) {
+        this.networkConditions = networkConditions;
+        return this;
+    }
+
+    /**
+     * @return ledger simulated by the mock peer, to configure it or check the outcome of a run
+     */
+    public LedgerSimulator getLedger() {
+        return ledger;
+    }
+
+    /**
+     * Starts the mock peer and the chaincode, then runs the warmup and the reported transactions.
+     *
+     * @return throughput and latencies of the reported transactions
+     */
+    public Report run() throws Exception {
+        if (mix.isEmpty()) throw new IllegalStateException("No args were added");
+        peer = ChaincodeMockPeer.startInProcessServer(this::respond);
+        peer.setNetworkConditions(networkConditions);
+        try {
+            chaincode.start(new String[]{"-i", "loadcc"}, peer.newChannelBuilder());
+            if (!registered.await(timeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("Chaincode did not register");
+            }
+            final Random random = new Random(seed);
+            if (warmupTransactions > 0) {
+                runPhase(new Phase("warmup", warmupTransactions), random);
+                logger.info(format("Completed %d warmup transactions", warmupTransactions));
+            }
+            final Phase measured = new Phase("tx", transactions);
+            final long conflicts = ledger.getConflicts();
+            final long elapsedNanos = runPhase(measured, random);
+            return new Report(transactions, measured.failed.get(), ledger.getConflicts() - conflicts, elapsedNanos, measured.latencies);
+        } finally {
+            peer.stop();
+        }
+    }
+
+    private long runPhase(Phase phase, Random random) throws Exception {
+        this.phase = phase;
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < phase.transactions; i++) {
+            if (!phase.inFlight.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException(format("No transaction completed in %d ms", timeout));
+            }
+            final String txId = phase.name + i;
+            final ChaincodeInput input = ChaincodeInput.newBuilder().addAllArgs(nextArgs(random)).build();
+            started.put(txId, System.nanoTime());
+            peer.send(ChaincodeMessage.newBuilder()
+                    .setType(TRANSACTION)
+                    .setChannelId(channelId)
+                    .setTxid(txId)
+                    .setPayload(input.toByteString())
+                    .build());
+        }
+        if (!phase.completed.await(timeout, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException(format("%d %s transactions did not complete", phase.completed.getCount(), phase.name));
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    private List<ByteString> nextArgs(Random random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int pick = random.nextInt(total);
+        for (int i = 0; i < mix.size(); i++) {
+            pick -= weights.get(i);
+            if (pick < 0) {
+                return mix.get(i).apply(random);
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private List<ChaincodeMessage> respond(ChaincodeMessage msg) {
+        if (msg.getType() != REGISTER) {
+            return ledger.respond(msg);
+        }
+        // transactions may only be sent once the chaincode got the READY message
+        for (ChaincodeMessage m : ledger.respond(msg)) {
+            peer.send(m);
+        }
+        registered.countDown();
+        return Collections.emptyList();
+    }
+
+    private void onResult(ChaincodeMessage msg) {
+        final Long startNanos = started.remove(msg.getTxid());
+        final Phase phase = this.phase;
+        if (startNanos == null || phase == null) {
+            return;
+        }
+        phase.latencies.recordSince(startNanos);
+        if (isFailure(msg)) {
+            phase.failed.incrementAndGet();
+        }
+        phase.inFlight.release();
+        phase.completed.countDown();
+    }
+
+    private static boolean isFailure(ChaincodeMessage msg) {
+        if (msg.getType() != COMPLETED) {
+            return true;
+        }
+        try {
+            return ProposalResponsePackage.Response.parseFrom(msg.getPayload()).getStatus() >= 400;
+        } catch (InvalidProtocolBufferException e) {
+            return true;
+        }
+    }
+
+    private class Phase {
+        final String name;
+        final int transactions;
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final CountDownLatch completed;
+        final AtomicLong failed = new AtomicLong();
+        final Histogram latencies = new Histogram();
+
+        Phase(String name, int transactions) {
+            this.name = name;
+            this.transactions = transactions;
+            this.completed = new CountDownLatch(transactions);
+        }
+    }
+
+    /**
+     * Outcome of a run, latencies are in microseconds
+     */
+    public static class Report {
+        private final int transactions;
+        private final long failed;
+        private final long conflicts;
+        private final long elapsedNanos;
+        private final Histogram latencies;
+
+        Report(int transactions, long failed, long conflicts, long elapsedNanos, Histogram latencies) {
+            this.transactions = transactions;
+            this.failed = failed;
+            this.conflicts = conflicts;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+        }
+
+        public int getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * @return transactions ended by an ERROR message or with an error status
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return successful transactions the ledger did not commit because of a read conflict
+         */
+        public long getConflicts() {
+            return conflicts;
+        }
+
+        public double getThroughput() {
+            return transactions * 1e9 / elapsedNanos;
+        }
+
+        public long getLatencyAtPercentile(double percentile) {
+            return latencies.getValueAtPercentile(percentile);
+        }
+
+        @Override
+        public String toString() {
+            return format("%d transactions (%d failed, %d read conflicts) in %.2f s, %.0f tx/s, latency p50=%d us p99=%d us p999=%d us max=%d us",
+                    transactions, failed, conflicts, elapsedNanos / 1e9, getThroughput(),
+                    getLatencyAtPercentile(50), getLatencyAtPercentile(99), getLatencyAtPercentile(99.9), latencies.getMax());
+        }
+    }
+
+}
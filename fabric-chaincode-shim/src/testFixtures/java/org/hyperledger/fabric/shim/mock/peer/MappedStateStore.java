@@ -0,0 +1,438 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static java.lang.String.format;
+
+/**
+ * State whose bulk is kept in memory-mapped files, so ledgers of tens of millions of keys
+ * can be simulated without a large heap.
+ * <p>
+ * The keys of each collection are bulk loaded once, in order, into a segment of two
+ * files named after the hex encoded collection: {@code state<hex>.dat} holds the keys and
+ * values, {@code state<hex>.idx} the offset of each of them. Reads binary search the index, and range iteration walks
+ * the mapped files, handing out values that wrap the mapping instead of copies. Writes
+ * of the transactions committed later are kept on the heap, over the segments.
+ * <p>
+ * Keys are ordered by code point, which is the byte order of their UTF-8 encoding, as
+ * on a peer.
+ * <pre>
+ * try (MappedStateStore.Loader loader = MappedStateStore.loader(dir, "")) {
+ *     for (int i = 0; i &lt; 50_000_000; i++) {
+ *         loader.add(format("asset%09d", i), value(i));
+ *     }
+ * }
+ * LedgerSimulator ledger = new LedgerSimulator(MappedStateStore.open(dir), results);
+ * </pre>
+ */
+public class MappedStateStore implements StateStore, Closeable {
+
+    /**
+     * Code point order of strings, the order of their UTF-8 bytes
+     */
+    public static final Comparator<String> KEY_ORDER = MappedStateStore::compareKeys;
+
+    private static final String DATA_SUFFIX = ".dat";
+    private static final String INDEX_SUFFIX = ".idx";
+    // records never span the boundary of two mappings
+    private static final long CHUNK_SIZE = 1L << 30;
+    // written over a key, the identity marks it deleted
+    private static final ByteString DELETED = ByteString.copyFrom(new byte[1]);
+
+    private final Map<String, Segment> segments;
+    private final Map<String, NavigableMap<String, ByteString>> writes = new ConcurrentHashMap<>();
+
+    private MappedStateStore(Map<String, Segment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Maps the segments loaded into a directory
+     *
+     * @param directory directory of the segments written by {@link #loader(Path, String)}
+     */
+    public static MappedStateStore open(Path directory) throws IOException {
+        final Map<String, Segment> segments = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + INDEX_SUFFIX)) {
+            for (Path index : files) {
+                final String name = index.getFileName().toString();
+                final String collection = decodeCollection(name.substring(0, name.length() - INDEX_SUFFIX.length()));
+                segments.put(collection, new Segment(directory.resolve(name.substring(0, name.length() - INDEX_SUFFIX.length()) + DATA_SUFFIX), index));
+            }
+        }
+        return new MappedStateStore(segments);
+    }
+
+    /**
+     * Starts bulk loading the segment of a collection into a directory, replacing the one
+     * loaded before. Keys must be added in {@link #KEY_ORDER}.
+     *
+     * @param collection collection of the keys, the empty string for the public state
+     */
+    public static Loader loader(Path directory, String collection) throws IOException {
+        Files.createDirectories(directory);
+        final String name = encodeCollection(collection);
+        return new Loader(directory.resolve(name + DATA_SUFFIX), directory.resolve(name + INDEX_SUFFIX));
+    }
+
+    /**
+     * @return keys loaded into the segment of a collection
+     */
+    public long getLoadedKeys(String collection) {
+        final Segment segment = segments.get(collection);
+        return segment == null ? 0 : segment.size;
+    }
+
+    @Override
+    public ByteString get(String collection, String key) {
+        final ByteString written = writes(collection).get(key);
+        if (written != null) {
+            return written == DELETED ? null : written;
+        }
+        final Segment segment = segments.get(collection);
+        return segment == null ? null : segment.get(key);
+    }
+
+    @Override
+    public void put(String collection, String key, ByteString value) {
+        writes(collection).put(key, value);
+    }
+
+    @Override
+    public void delete(String collection, String key) {
+        writes(collection).put(key, DELETED);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, ByteString>> range(String collection, String startKey, String endKey) {
+        if (startKey != null && endKey != null && compareKeys(startKey, endKey) >= 0) {
+            return Collections.emptyIterator();
+        }
+        NavigableMap<String, ByteString> written = writes(collection);
+        if (startKey != null) {
+            written = written.tailMap(startKey, true);
+        }
+        if (endKey != null) {
+            written = written.headMap(endKey, false);
+        }
+        final Segment segment = segments.get(collection);
+        final Iterator<Map.Entry<String, ByteString>> loaded = segment == null ? Collections.emptyIterator() : segment.range(startKey, endKey);
+        return new MergingIterator(loaded, written.entrySet().iterator());
+    }
+
+    /**
+     * Releases the files, values read from them must not be used afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private NavigableMap<String, ByteString> writes(String collection) {
+        return writes.computeIfAbsent(collection, c -> new ConcurrentSkipListMap<>(KEY_ORDER));
+    }
+
+    private static int compareKeys(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            final int ca = a.codePointAt(i);
+            final int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    // collection names may hold characters not allowed in file names
+    private static String encodeCollection(String collection) {
+        final StringBuilder name = new StringBuilder("state");
+        for (byte b : collection.getBytes(StandardCharsets.UTF_8)) {
+            name.append(format("%02x", b & 0xff));
+        }
+        return name.toString();
+    }
+
+    private static String decodeCollection(String name) {
+        final byte[] bytes = new byte[(name.length() - "state".length()) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(name.substring("state".length() + 2 * i, "state".length() + 2 * i + 2), 16);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the segment of a collection. Each record is the length and UTF-8 bytes of a
+     * key followed by the length and bytes of its value.
+     */
+    public static final class Loader implements Closeable {
+        private final Path data;
+        private final Path index;
+        private final Path dataTemp;
+        private final Path indexTemp;
+        private final DataOutputStream dataOut;
+        private final DataOutputStream indexOut;
+        private long position;
+        private byte[] lastKey;
+
+        private Loader(Path data, Path index) throws IOException {
+            this.data = data;
+            this.index = index;
+            this.dataTemp = data.resolveSibling(data.getFileName() + ".tmp");
+            this.indexTemp = index.resolveSibling(index.getFileName() + ".tmp");
+            this.dataOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dataTemp), 1 << 20));
+            this.indexOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexTemp), 1 << 16));
+        }
+
+        public Loader add(String key, ByteString value) throws IOException {
+            final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            if (lastKey != null && compareBytes(lastKey, 0, lastKey.length, ByteBuffer.wrap(keyBytes)) >= 0) {
+                throw new IllegalArgumentException(format("Key %s is not after the key added before", key));
+            }
+            final long length = 2 * Integer.BYTES + keyBytes.length + (long) value.size();
+            if (length > CHUNK_SIZE) {
+                throw new IllegalArgumentException(format("Value of key %s is too large", key));
+            }
+            if (position / CHUNK_SIZE != (position + length - 1) / CHUNK_SIZE) {
+                final long padding = CHUNK_SIZE - position % CHUNK_SIZE;
+                for (long i = 0; i < padding; i++) {
+                    dataOut.write(0);
+                }
+                position += padding;
+            }
+            indexOut.writeLong(position);
+            dataOut.writeInt(keyBytes.length);
+            dataOut.write(keyBytes);
+            dataOut.writeInt(value.size());
+            value.writeTo(dataOut);
+            position += length;
+            lastKey = keyBytes;
+            return this;
+        }
+
+        public Loader add(String key, byte[] value) throws IOException {
+            return add(key, UnsafeByteOperations.unsafeWrap(value));
+        }
+
+        /**
+         * Completes the segment, it is then picked up by {@link #open(Path)}
+         */
+        @Override
+        public void close() throws IOException {
+            dataOut.close();
+            indexOut.close();
+            Files.move(dataTemp, data, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(indexTemp, index, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Compares the bytes of a key with the bytes of a buffer, unsigned
+     */
+    private static int compareBytes(byte[] key, int offset, int length, ByteBuffer other) {
+        final int n = Math.min(length, other.remaining());
+        for (int i = 0; i < n; i++) {
+            final int cmp = Integer.compare(key[offset + i] & 0xff, other.get(other.position() + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, other.remaining());
+    }
+
+    private static final class Segment implements Closeable {
+        private final FileChannel dataChannel;
+        private final FileChannel indexChannel;
+        private final ByteBuffer[] data;
+        private final ByteBuffer[] index;
+        private final long size;
+
+        Segment(Path dataFile, Path indexFile) throws IOException {
+            this.dataChannel = FileChannel.open(dataFile, StandardOpenOption.READ);
+            this.indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ);
+            this.data = map(dataChannel);
+            this.index = map(indexChannel);
+            this.size = indexChannel.size() / Long.BYTES;
+        }
+
+        private static ByteBuffer[] map(FileChannel channel) throws IOException {
+            final List<ByteBuffer> chunks = new ArrayList<>();
+            for (long position = 0; position < channel.size(); position += CHUNK_SIZE) {
+                chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, channel.size() - position)));
+            }
+            return chunks.toArray(new ByteBuffer[0]);
+        }
+
+        ByteString get(String key) {
+            final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            final long i = lowerBound(keyBytes);
+            return i < size && compareBytes(keyBytes, 0, keyBytes.length, key(i)) == 0 ? value(i) : null;
+        }
+
+        Iterator<Map.Entry<String, ByteString>> range(String startKey, String endKey) {
+            final long start = startKey == null ? 0 : lowerBound(startKey.getBytes(StandardCharsets.UTF_8));
+            final byte[] end = endKey == null ? null : endKey.getBytes(StandardCharsets.UTF_8);
+            return new Iterator<Map.Entry<String, ByteString>>() {
+                long next = start;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size && (end == null || compareBytes(end, 0, end.length, key(next)) > 0);
+                }
+
+                @Override
+                public Map.Entry<String, ByteString> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    final ByteBuffer key = key(next);
+                    final byte[] keyBytes = new byte[key.remaining()];
+                    key.get(keyBytes);
+                    final ByteString value = value(next);
+                    next++;
+                    return new AbstractMap.SimpleImmutableEntry<>(new String(keyBytes, StandardCharsets.UTF_8), value);
+                }
+            };
+        }
+
+        /**
+         * @return index of the first key not before the given one
+         */
+        private long lowerBound(byte[] keyBytes) {
+            long low = 0;
+            long high = size;
+            while (low < high) {
+                final long mid = (low + high) >>> 1;
+                if (compareBytes(keyBytes, 0, keyBytes.length, key(mid)) > 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private long offset(long i) {
+            final long position = i * Long.BYTES;
+            return index[(int) (position / CHUNK_SIZE)].getLong((int) (position % CHUNK_SIZE));
+        }
+
+        private ByteBuffer key(long i) {
+            final long offset = offset(i);
+            final ByteBuffer chunk = data[(int) (offset / CHUNK_SIZE)];
+            final int position = (int) (offset % CHUNK_SIZE);
+            return slice(chunk, position + Integer.BYTES, chunk.getInt(position));
+        }
+
+        private ByteString value(long i) {
+            final long offset = offset(i);
+            final ByteBuffer chunk = data[(int) (offset / CHUNK_SIZE)];
+            final int keyPosition = (int) (offset % CHUNK_SIZE);
+            final int valuePosition = keyPosition + Integer.BYTES + chunk.getInt(keyPosition);
+            return UnsafeByteOperations.unsafeWrap(slice(chunk, valuePosition + Integer.BYTES, chunk.getInt(valuePosition)));
+        }
+
+        private static ByteBuffer slice(ByteBuffer chunk, int position, int length) {
+            final ByteBuffer slice = chunk.duplicate();
+            slice.limit(position + length).position(position);
+            return slice.slice();
+        }
+
+        @Override
+        public void close() throws IOException {
+            dataChannel.close();
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * Merges the loaded keys with the keys written since, which take precedence
+     */
+    private static final class MergingIterator implements Iterator<Map.Entry<String, ByteString>> {
+        private final Iterator<Map.Entry<String, ByteString>> loaded;
+        private final Iterator<Map.Entry<String, ByteString>> written;
+        private Map.Entry<String, ByteString> nextLoaded;
+        private Map.Entry<String, ByteString> nextWritten;
+        private Map.Entry<String, ByteString> next;
+
+        MergingIterator(Iterator<Map.Entry<String, ByteString>> loaded, Iterator<Map.Entry<String, ByteString>> written) {
+            this.loaded = loaded;
+            this.written = written;
+            this.nextLoaded = loaded.hasNext() ? loaded.next() : null;
+            this.nextWritten = written.hasNext() ? written.next() : null;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, ByteString> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            final Map.Entry<String, ByteString> result = next;
+            advance();
+            return result;
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && (nextLoaded != null || nextWritten != null)) {
+                final int cmp = nextLoaded == null ? 1 : nextWritten == null ? -1 : compareKeys(nextLoaded.getKey(), nextWritten.getKey());
+                if (cmp < 0) {
+                    next = nextLoaded;
+                    nextLoaded = loaded.hasNext() ? loaded.next() : null;
+                } else {
+                    if (cmp == 0) {
+                        nextLoaded = loaded.hasNext() ? loaded.next() : null;
+                    }
+                    if (nextWritten.getValue() != DELETED) {
+                        next = nextWritten;
+                    }
+                    nextWritten = written.hasNext() ? written.next() : null;
+                }
+            }
+        }
+    }
+
+}
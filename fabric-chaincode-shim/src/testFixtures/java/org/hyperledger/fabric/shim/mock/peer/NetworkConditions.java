@@ -0,0 +1,227 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import org.hyperledger.fabric.protos.peer.ChaincodeShim.ChaincodeMessage;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Emulates the network between a mock peer and its chaincode, see
+ * {@link ChaincodeMockPeer#setNetworkConditions(NetworkConditions)}.
+ * <p>
+ * Each direction is a link of its own that delivers messages in order, like the gRPC
+ * stream. A message is delayed by the one-way latency of its type plus a random jitter,
+ * and waits for the messages before it to be transmitted when the link has a bandwidth.
+ * A response travels with the latency of the request it answers, so a request of a type
+ * takes twice its latency to be answered. Messages of a type may be dropped, and requests
+ * may be answered with an ERROR instead of their response.
+ * <pre>
+ * new NetworkConditions()
+ *         .setLatency(2500, TimeUnit.MICROSECONDS)
+ *         .setJitter(500, TimeUnit.MICROSECONDS)
+ *         .setBandwidth(12_500_000)
+ *         .setErrorRate(ChaincodeMessage.Type.PUT_STATE, 0.001);
+ * </pre>
+ */
+public class NetworkConditions {
+
+    private long latencyNanos;
+    private final Map<ChaincodeMessage.Type, Long> typeLatencyNanos = new EnumMap<>(ChaincodeMessage.Type.class);
+    private long jitterNanos;
+    private long bytesPerSecond;
+    private final Map<ChaincodeMessage.Type, Double> dropRates = new EnumMap<>(ChaincodeMessage.Type.class);
+    private final Map<ChaincodeMessage.Type, Double> errorRates = new EnumMap<>(ChaincodeMessage.Type.class);
+    private Random random = new Random();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Link toPeer = new Link("mock-peer-inbound");
+    private final Link toChaincode = new Link("mock-peer-outbound");
+
+    /**
+     * @param latency one-way latency of every message type without a latency of its own
+     */
+    public synchronized NetworkConditions setLatency(long latency, TimeUnit unit) {
+        if (latency < 0) throw new IllegalArgumentException("latency must not be negative");
+        this.latencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * @param type    type of the messages, for a response the type of the request it answers
+     * @param latency one-way latency of the messages
+     */
+    public synchronized NetworkConditions setLatency(ChaincodeMessage.Type type, long latency, TimeUnit unit) {
+        if (latency < 0) throw new IllegalArgumentException("latency must not be negative");
+        typeLatencyNanos.put(type, unit.toNanos(latency));
+        return this;
+    }
+
+    /**
+     * @param jitter most a message may be delayed beyond its latency, at random
+     */
+    public synchronized NetworkConditions setJitter(long jitter, TimeUnit unit) {
+        if (jitter < 0) throw new IllegalArgumentException("jitter must not be negative");
+        this.jitterNanos = unit.toNanos(jitter);
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond bandwidth of each direction, 0 for no limit
+     */
+    public synchronized NetworkConditions setBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 0) throw new IllegalArgumentException("bytesPerSecond must not be negative");
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param type type of the messages, in either direction
+     * @param rate share of the messages that are lost, between 0 and 1
+     */
+    public synchronized NetworkConditions setDropRate(ChaincodeMessage.Type type, double rate) {
+        dropRates.put(type, checkRate(rate));
+        return this;
+    }
+
+    /**
+     * @param type type of the requests from the chaincode
+     * @param rate share of the requests answered with an ERROR, between 0 and 1
+     */
+    public synchronized NetworkConditions setErrorRate(ChaincodeMessage.Type type, double rate) {
+        errorRates.put(type, checkRate(rate));
+        return this;
+    }
+
+    /**
+     * @param seed seed of the jitter, drops and errors, for repeatable runs
+     */
+    public synchronized NetworkConditions setSeed(long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * @return messages lost so far
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return requests answered with an ERROR so far
+     */
+    public long getInjectedErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Delivers a message of the chaincode to the peer
+     */
+    void toPeer(ChaincodeMessage message, Runnable delivery) {
+        deliver(toPeer, message, message.getType(), delivery);
+    }
+
+    /**
+     * Delivers a message of the peer to the chaincode
+     *
+     * @param requestType type of the request the message answers, its own type otherwise
+     */
+    void toChaincode(ChaincodeMessage message, ChaincodeMessage.Type requestType, Runnable delivery) {
+        deliver(toChaincode, message, requestType, delivery);
+    }
+
+    /**
+     * @return whether the answer to a request is replaced by an ERROR
+     */
+    synchronized boolean injectError(ChaincodeMessage.Type requestType) {
+        if (random.nextDouble() < errorRates.getOrDefault(requestType, 0.0)) {
+            errors.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stops the links, messages not delivered yet are lost
+     */
+    void close() {
+        toPeer.executor.shutdownNow();
+        toChaincode.executor.shutdownNow();
+    }
+
+    private void deliver(Link link, ChaincodeMessage message, ChaincodeMessage.Type type, Runnable delivery) {
+        synchronized (this) {
+            if (random.nextDouble() < dropRates.getOrDefault(message.getType(), 0.0)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            final long now = System.nanoTime();
+            final long start = Math.max(now, link.idleNanos);
+            link.idleNanos = start + (bytesPerSecond == 0 ? 0 : message.getSerializedSize() * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+            final long jitter = jitterNanos == 0 ? 0 : (long) (random.nextDouble() * jitterNanos);
+            // the stream never reorders messages
+            link.lastDeliveryNanos = Math.max(link.idleNanos + typeLatencyNanos.getOrDefault(type, latencyNanos) + jitter, link.lastDeliveryNanos);
+            link.deliveries.add(new Delivery(link.lastDeliveryNanos, delivery));
+            link.executor.schedule(link::deliverDue, link.lastDeliveryNanos - now, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static double checkRate(double rate) {
+        if (rate < 0 || rate > 1) throw new IllegalArgumentException("rate must be between 0 and 1");
+        return rate;
+    }
+
+    private static final class Delivery {
+        final long dueNanos;
+        final Runnable delivery;
+
+        Delivery(long dueNanos, Runnable delivery) {
+            this.dueNanos = dueNanos;
+            this.delivery = delivery;
+        }
+    }
+
+    private final class Link {
+        final ScheduledExecutorService executor;
+        // due in order, each one is run by the first delivery task after it is due
+        final Queue<Delivery> deliveries = new ArrayDeque<>();
+        // System.nanoTime() readings, which may be negative
+        long idleNanos = Long.MIN_VALUE;
+        long lastDeliveryNanos = Long.MIN_VALUE;
+
+        Link(String name) {
+            this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void deliverDue() {
+            while (true) {
+                final Delivery next;
+                synchronized (NetworkConditions.this) {
+                    next = deliveries.peek();
+                    if (next == null || next.dueNanos - System.nanoTime() > 0) {
+                        return;
+                    }
+                    deliveries.remove();
+                }
+                next.delivery.run();
+            }
+        }
+    }
+
+}
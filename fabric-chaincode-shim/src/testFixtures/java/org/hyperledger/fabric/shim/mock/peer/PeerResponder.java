@@ -0,0 +1,24 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import org.hyperledger.fabric.protos.peer.ChaincodeShim;
+
+import java.util.List;
+
+/**
+ * Answers the messages of a chaincode in place of a fixed scenario, so a mock peer can
+ * serve any number of transactions, see {@link ChaincodeMockPeer#startInProcessServer(PeerResponder)}.
+ * Messages of one chaincode stream are passed one at a time.
+ */
+public interface PeerResponder {
+
+    /**
+     * @param msg message from chaincode
+     * @return messages sent back to the chaincode, may be empty
+     */
+    List<ChaincodeShim.ChaincodeMessage> respond(ChaincodeShim.ChaincodeMessage msg);
+}
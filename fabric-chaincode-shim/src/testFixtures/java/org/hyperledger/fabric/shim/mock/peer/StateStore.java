@@ -0,0 +1,35 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.mock.peer;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Committed state of a {@link LedgerSimulator}, keys sorted within each collection.
+ * The public state is the collection named by an empty string. Implementations must
+ * allow reads while a transaction is committed.
+ */
+public interface StateStore {
+
+    /**
+     * @return value of the key, null when it is not set
+     */
+    ByteString get(String collection, String key);
+
+    void put(String collection, String key, ByteString value);
+
+    void delete(String collection, String key);
+
+    /**
+     * @param startKey first key, null to start at the first key of the collection
+     * @param endKey   key the range ends before, null to run to the last key of the collection
+     * @return keys of the range in order, with their values
+     */
+    Iterator<Map.Entry<String, ByteString>> range(String collection, String startKey, String endKey);
+}
@@ -0,0 +1,33 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.shim.tools;
+
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.impl.MessageTrace;
+import org.hyperledger.fabric.shim.impl.TraceReplayer;
+
+import java.nio.file.Paths;
+
+/**
+ * Replays a trace directory to a chaincode from the command line, see {@link TraceReplayer}.
+ * Arguments: class name of the chaincode, trace directory and <code>recorded</code> or <code>max</code>.
+ */
+public class ReplayTrace {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: ReplayTrace <chaincode class> <trace directory> [recorded|max]");
+            System.exit(1);
+        }
+        final Chaincode chaincode = (Chaincode) Class.forName(args[0]).newInstance();
+        final TraceReplayer.Report report = new TraceReplayer(chaincode, MessageTrace.open(Paths.get(args[1])))
+                .setRecordedSpeed(args.length < 3 || !args[2].equals("max"))
+                .run();
+        System.out.println(report);
+        System.exit(0);
+    }
+
+}
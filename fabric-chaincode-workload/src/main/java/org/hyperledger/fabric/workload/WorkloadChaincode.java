@@ -0,0 +1,191 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.workload;
+
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Chaincode with the operations of YCSB-style workloads, to benchmark the shim with a
+ * representative and repeatable target. Records are numbered, the record n is stored under
+ * the composite key <code>record~group~n</code> with {@link #GROUP_SIZE} records per group,
+ * so that groups can be scanned.
+ * <p>
+ * Functions, with record numbers and sizes in bytes as decimal strings:
+ * <ul>
+ * <li>read record - returns the value of a record as payload</li>
+ * <li>update record size - writes a record without reading it</li>
+ * <li>readModifyWrite record size - reads a record, then writes it</li>
+ * <li>scan record limit - reads up to limit records of the group of a record</li>
+ * <li>writeMany record count size - writes count records, starting at a record</li>
+ * <li>invoke chaincode args... - invokes another chaincode on the same channel, returns its response</li>
+ * </ul>
+ */
+public class WorkloadChaincode extends ChaincodeBase {
+
+    /**
+     * Object type of the composite keys of the records
+     */
+    public static final String RECORD = "record";
+
+    /**
+     * Records per group of composite keys
+     */
+    public static final int GROUP_SIZE = 100;
+
+    @Override
+    public Response init(ChaincodeStub stub) {
+        return newSuccessResponse();
+    }
+
+    @Override
+    public Response invoke(ChaincodeStub stub) {
+        try {
+            final String func = stub.getFunction();
+            final List<String> params = stub.getParameters();
+            switch (func) {
+                case "read":
+                    return read(stub, params);
+                case "update":
+                    return update(stub, params);
+                case "readModifyWrite":
+                    return readModifyWrite(stub, params);
+                case "scan":
+                    return scan(stub, params);
+                case "writeMany":
+                    return writeMany(stub, params);
+                case "invoke":
+                    return invokeChaincode(stub, params);
+                default:
+                    return newErrorResponse("Invalid invoke function name. Expecting one of: "
+                            + "[\"read\", \"update\", \"readModifyWrite\", \"scan\", \"writeMany\", \"invoke\"]");
+            }
+        } catch (Throwable e) {
+            return newErrorResponse(e);
+        }
+    }
+
+    private Response read(ChaincodeStub stub, List<String> params) {
+        checkParameters(params, 1);
+        final byte[] value = stub.getState(recordKey(Long.parseLong(params.get(0))));
+        if (value == null || value.length == 0) {
+            return newErrorResponse("Record " + params.get(0) + " not found");
+        }
+        return newSuccessResponse(value);
+    }
+
+    private Response update(ChaincodeStub stub, List<String> params) {
+        checkParameters(params, 2);
+        final long record = Long.parseLong(params.get(0));
+        stub.putState(recordKey(record), value(record, Integer.parseInt(params.get(1))));
+        return newSuccessResponse();
+    }
+
+    private Response readModifyWrite(ChaincodeStub stub, List<String> params) {
+        checkParameters(params, 2);
+        final long record = Long.parseLong(params.get(0));
+        final String key = recordKey(record);
+        final byte[] value = stub.getState(key);
+        if (value == null || value.length == 0) {
+            return newErrorResponse("Record " + record + " not found");
+        }
+        // the new value depends on the old one, as an update of a field would
+        final byte[] modified = value(record + value[0], Integer.parseInt(params.get(1)));
+        stub.putState(key, modified);
+        return newSuccessResponse();
+    }
+
+    private Response scan(ChaincodeStub stub, List<String> params) throws Exception {
+        checkParameters(params, 2);
+        final long record = Long.parseLong(params.get(0));
+        final int limit = Integer.parseInt(params.get(1));
+        int results = 0;
+        long bytes = 0;
+        final QueryResultsIterator<KeyValue> group = stub.getStateByPartialCompositeKey(RECORD, group(record));
+        // closed explicitly as the scan may stop before the last result
+        try {
+            for (KeyValue kv : group) {
+                bytes += kv.getValue().length;
+                if (++results == limit) {
+                    break;
+                }
+            }
+        } finally {
+            group.close();
+        }
+        return newSuccessResponse(results + " records, " + bytes + " bytes");
+    }
+
+    private Response writeMany(ChaincodeStub stub, List<String> params) {
+        checkParameters(params, 3);
+        final long record = Long.parseLong(params.get(0));
+        final int count = Integer.parseInt(params.get(1));
+        final int size = Integer.parseInt(params.get(2));
+        for (long r = record; r < record + count; r++) {
+            stub.putState(recordKey(r), value(r, size));
+        }
+        return newSuccessResponse();
+    }
+
+    private Response invokeChaincode(ChaincodeStub stub, List<String> params) {
+        if (params.isEmpty()) {
+            return newErrorResponse("Incorrect number of arguments. Expecting the name of a chaincode");
+        }
+        return stub.invokeChaincodeWithStringArgs(params.get(0), params.subList(1, params.size()));
+    }
+
+    private static void checkParameters(List<String> params, int expected) {
+        if (params.size() != expected) {
+            throw new IllegalArgumentException("Incorrect number of arguments. Expecting " + expected);
+        }
+    }
+
+    /**
+     * @return composite key of a record
+     */
+    public static String recordKey(long record) {
+        return new CompositeKey(RECORD, group(record), String.format("%010d", record)).toString();
+    }
+
+    private static String group(long record) {
+        return String.format("%06d", record / GROUP_SIZE);
+    }
+
+    /**
+     * @return printable value of a size, which differs between records
+     */
+    public static byte[] value(long record, int size) {
+        final byte[] value = new byte[size];
+        long x = record * 0x9E3779B97F4A7C15L + 1;
+        for (int i = 0; i < size; i++) {
+            // xorshift, so that values do not compress to nothing
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            value[i] = (byte) ('a' + (x >>> 1) % 26);
+        }
+        return value;
+    }
+
+    /**
+     * @return {@link #value(long, int)} as a string
+     */
+    public static String stringValue(long record, int size) {
+        return new String(value(record, size), UTF_8);
+    }
+
+    public static void main(String[] args) {
+        new WorkloadChaincode().start(args);
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.workload;
+
+import org.hyperledger.fabric.shim.Chaincode;
+import org.hyperledger.fabric.shim.mock.peer.LoadGenerator;
+
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Workloads of {@link WorkloadChaincode}, A to F after the core workloads of YCSB, followed
+ * by the shapes of chaincode YCSB does not cover. {@link #configure} loads the records into
+ * the ledger of a {@link LoadGenerator} and adds the mix of transactions.
+ */
+public enum Workload {
+
+    A("update heavy: 50% reads, 50% updates", 10000, 1000) {
+        @Override
+        void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize) {
+            load.addArgs(50, random -> read(records.apply(random)));
+            load.addArgs(50, random -> update(records.apply(random), valueSize));
+        }
+    },
+    B("read mostly: 95% reads, 5% updates", 10000, 1000) {
+        @Override
+        void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize) {
+            load.addArgs(95, random -> read(records.apply(random)));
+            load.addArgs(5, random -> update(records.apply(random), valueSize));
+        }
+    },
+    C("read only: 100% reads", 10000, 1000) {
+        @Override
+        void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize) {
+            load.addArgs(1, random -> read(records.apply(random)));
+        }
+    },
+    E("short ranges: 95% scans of up to 20 records over composite keys, 5% updates", 10000, 1000) {
+        @Override
+        void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize) {
+            load.addArgs(95, random -> new String[]{"scan", Long.toString(records.apply(random)), "20"});
+            load.addArgs(5, random -> update(records.apply(random), valueSize));
+        }
+    },
+    F("read-modify-write: 50% reads, 50% read-modify-writes", 10000, 1000) {
+        @Override
+        void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize) {
+            load.addArgs(50, random -> read(records.apply(random)));
+            load.addArgs(50, random -> new String[]{"readModifyWrite", Long.toString(records.apply(random)), Integer.toString(valueSize)});
+        }
+    },
+    LARGE_VALUES("large values: 50% reads, 50% updates of 256 KiB records", 100, 256 * 1024) {
+        @Override
+        void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize) {
+            A.addArgs(load, records, valueSize);
+        }
+    },
+    SMALL_WRITES("many small writes: 100% writes of 50 records of 16 bytes", 10000, 16) {
+        @Override
+        void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize) {
+            load.addArgs(1, random -> new String[]{"writeMany", Long.toString(records.apply(random)), "50", Integer.toString(valueSize)});
+        }
+    },
+    CROSS_CHAINCODE("cross-chaincode calls: 50% reads, 50% reads through another chaincode", 10000, 1000) {
+        @Override
+        void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize) {
+            // the invoked chaincode is stood in for by the mock peer, the call itself is measured
+            final byte[] value = WorkloadChaincode.value(0, valueSize);
+            load.getLedger().setInvokedChaincode(CALLEE, args -> new Chaincode.Response(Chaincode.Response.Status.SUCCESS, null, value));
+            load.addArgs(50, random -> read(records.apply(random)));
+            load.addArgs(50, random -> new String[]{"invoke", CALLEE, "read", Long.toString(records.apply(random))});
+        }
+    };
+
+    /**
+     * Name of the chaincode invoked by {@link #CROSS_CHAINCODE}
+     */
+    public static final String CALLEE = "callee";
+
+    private final String description;
+    private final int records;
+    private final int valueSize;
+
+    Workload(String description, int records, int valueSize) {
+        this.description = description;
+        this.records = records;
+        this.valueSize = valueSize;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return records loaded unless set otherwise
+     */
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * @return bytes of a record unless set otherwise
+     */
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    /**
+     * Loads the records and adds the transactions of this workload
+     *
+     * @param load      load generator driving a {@link WorkloadChaincode}
+     * @param records   records to load, 0 for the default of the workload
+     * @param valueSize bytes of a record, 0 for the default of the workload
+     * @param zipfian   true to pick records from a Zipfian distribution, false for a uniform one
+     * @return the load generator
+     */
+    public LoadGenerator configure(LoadGenerator load, int records, int valueSize, boolean zipfian) {
+        final int recordCount = records > 0 ? records : this.records;
+        final int size = valueSize > 0 ? valueSize : this.valueSize;
+        for (int i = 0; i < recordCount; i++) {
+            load.putState(WorkloadChaincode.recordKey(i), WorkloadChaincode.stringValue(i, size));
+        }
+        if (zipfian) {
+            final ZipfianGenerator generator = new ZipfianGenerator(recordCount, ZipfianGenerator.DEFAULT_THETA);
+            addArgs(load, generator::next, size);
+        } else {
+            addArgs(load, random -> (long) random.nextInt(recordCount), size);
+        }
+        return load;
+    }
+
+    abstract void addArgs(LoadGenerator load, Function<Random, Long> records, int valueSize);
+
+    private static String[] read(long record) {
+        return new String[]{"read", Long.toString(record)};
+    }
+
+    private static String[] update(long record, int valueSize) {
+        return new String[]{"update", Long.toString(record), Integer.toString(valueSize)};
+    }
+
+}
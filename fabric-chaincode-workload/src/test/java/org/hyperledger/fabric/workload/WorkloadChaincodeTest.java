@@ -0,0 +1,68 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.workload;
+
+import org.hyperledger.fabric.shim.Chaincode.Response;
+import org.hyperledger.fabric.shim.testing.InMemoryChaincodeStub;
+import org.hyperledger.fabric.shim.testing.InMemoryLedger;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class WorkloadChaincodeTest {
+
+    private final WorkloadChaincode chaincode = new WorkloadChaincode();
+    private final InMemoryLedger ledger = new InMemoryLedger();
+    private final InMemoryChaincodeStub stub = new InMemoryChaincodeStub(ledger);
+
+    @Test
+    public void testReadAndUpdate() {
+        assertThat(stub.invoke(chaincode, "read", "1").getStatus(), is(Response.Status.INTERNAL_SERVER_ERROR));
+
+        assertThat(stub.invoke(chaincode, "update", "1", "10").getStatus(), is(Response.Status.SUCCESS));
+        final Response read = stub.invoke(chaincode, "read", "1");
+        assertThat(read.getStatus(), is(Response.Status.SUCCESS));
+        assertThat(read.getPayload(), is(WorkloadChaincode.value(1, 10)));
+    }
+
+    @Test
+    public void testReadModifyWrite() {
+        ledger.putState(WorkloadChaincode.recordKey(7), WorkloadChaincode.value(7, 10));
+
+        assertThat(stub.invoke(chaincode, "readModifyWrite", "7", "20").getStatus(), is(Response.Status.SUCCESS));
+        assertThat(ledger.getState(WorkloadChaincode.recordKey(7)).length, is(20));
+        assertThat(stub.invoke(chaincode, "readModifyWrite", "8", "20").getStatus(), is(Response.Status.INTERNAL_SERVER_ERROR));
+    }
+
+    @Test
+    public void testScanAndWriteMany() {
+        assertThat(stub.invoke(chaincode, "writeMany", "95", "10", "4").getStatus(), is(Response.Status.SUCCESS));
+        assertThat(ledger.getState(WorkloadChaincode.recordKey(104)).length, is(4));
+        assertThat(ledger.getState(WorkloadChaincode.recordKey(105)), nullValue());
+
+        // records 95 to 99 are in the first group, 100 to 104 in the second
+        assertThat(stub.invoke(chaincode, "scan", "0", "20").getMessage(), is("5 records, 20 bytes"));
+        assertThat(stub.invoke(chaincode, "scan", "150", "3").getMessage(), is("3 records, 12 bytes"));
+    }
+
+    @Test
+    public void testInvalidArgs() {
+        assertThat(stub.invoke(chaincode, "update", "1").getStatus(), is(Response.Status.INTERNAL_SERVER_ERROR));
+        assertThat(stub.invoke(chaincode, "delete", "1").getStatus(), is(Response.Status.INTERNAL_SERVER_ERROR));
+        assertThat(stub.invoke(chaincode, "invoke").getStatus(), is(Response.Status.INTERNAL_SERVER_ERROR));
+    }
+
+    @Test
+    public void testValues() {
+        assertThat(WorkloadChaincode.value(1, 100), is(WorkloadChaincode.value(1, 100)));
+        assertThat(WorkloadChaincode.value(1, 100), not(WorkloadChaincode.value(2, 100)));
+        assertThat(WorkloadChaincode.stringValue(1, 100).matches("[a-z]{100}"), is(true));
+    }
+
+}
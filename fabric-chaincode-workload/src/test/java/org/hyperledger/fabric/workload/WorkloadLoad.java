@@ -0,0 +1,39 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.workload;
+
+import org.hyperledger.fabric.shim.mock.peer.LoadGenerator;
+
+/**
+ * Runs a {@link Workload} of {@link WorkloadChaincode} against an in-process mock peer.
+ * Arguments: workload, transactions, transactions in flight at once, records and value size
+ * in bytes (0 for the defaults of the workload) and the distribution of the records picked,
+ * zipfian or uniform.
+ */
+public class WorkloadLoad {
+
+    public static void main(String[] args) throws Exception {
+        Workload workload = Workload.valueOf(args.length > 0 ? args[0] : "A");
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int records = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        int valueSize = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        String distribution = args.length > 5 ? args[5] : "zipfian";
+        if (!distribution.equals("zipfian") && !distribution.equals("uniform")) {
+            throw new IllegalArgumentException("Unknown distribution " + distribution + ", expecting one of: zipfian, uniform");
+        }
+
+        LoadGenerator load = new LoadGenerator(new WorkloadChaincode())
+                .setTransactions(transactions)
+                .setWarmupTransactions(Math.min(transactions, 10000))
+                .setConcurrency(concurrency);
+        workload.configure(load, records, valueSize, distribution.equals("zipfian"));
+
+        System.out.println(workload + " (" + workload.getDescription() + "), " + distribution + ": " + load.run());
+        System.exit(0);
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.workload;
+
+import org.hyperledger.fabric.shim.mock.peer.LoadGenerator;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class WorkloadTest {
+
+    @Test
+    public void testWorkloads() throws Exception {
+        for (Workload workload : Workload.values()) {
+            final LoadGenerator load = new LoadGenerator(new WorkloadChaincode())
+                    .setWarmupTransactions(0)
+                    .setTransactions(100)
+                    .setConcurrency(1)
+                    .setTimeout(10000);
+            workload.configure(load, 200, 100, true);
+            final LoadGenerator.Report report = load.run();
+
+            assertThat(workload + " failed", report.getFailed(), is(0L));
+            assertThat(workload + " committed", load.getLedger().getCommitted(), is(100L));
+        }
+    }
+
+    @Test
+    public void testZipfianSkew() {
+        final ZipfianGenerator generator = new ZipfianGenerator(1000, ZipfianGenerator.DEFAULT_THETA);
+        final Random random = new Random(42);
+        final int[] picks = new int[1000];
+        int hottest = 0;
+        for (int i = 0; i < 100000; i++) {
+            assertThat(generator.nextRank(random), lessThan(1000L));
+            final int record = (int) generator.next(random);
+            if (++picks[record] > picks[hottest]) {
+                hottest = record;
+            }
+        }
+        // about 13% of the picks go to the hottest of 1000 records, 0.1% if uniform
+        assertThat(picks[hottest], greaterThan(10000));
+        assertThat(picks[hottest], lessThan(16000));
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+Copyright IBM Corp. All Rights Reserved.
+
+SPDX-License-Identifier: Apache-2.0
+*/
+package org.hyperledger.fabric.workload;
+
+import java.util.Random;
+
+/**
+ * Picks record numbers from a Zipfian distribution, as YCSB does: few hot records take
+ * most of the picks. The algorithm is the one of Gray et al., "Quickly Generating
+ * Billion-Record Synthetic Databases", which draws in constant time once the zeta
+ * constant of the record count is computed.
+ * <p>
+ * The ranks are scrambled by a hash, otherwise the hot records would be the first ones and
+ * share the first groups of composite keys.
+ */
+public class ZipfianGenerator {
+
+    /**
+     * Skew of YCSB
+     */
+    public static final double DEFAULT_THETA = 0.99;
+
+    private final long items;
+    private final double theta;
+    private final double alpha;
+    private final double zetan;
+    private final double eta;
+
+    /**
+     * @param items records picked from, numbered from 0
+     * @param theta skew, between 0 (uniform) excluded and 1 excluded
+     */
+    public ZipfianGenerator(long items, double theta) {
+        if (items <= 0) throw new IllegalArgumentException("items must be positive");
+        if (theta <= 0 || theta >= 1) throw new IllegalArgumentException("theta must be between 0 and 1");
+        this.items = items;
+        this.theta = theta;
+        this.alpha = 1 / (1 - theta);
+        this.zetan = zeta(items, theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    /**
+     * @return record number, from 0 to items excluded
+     */
+    public long next(Random random) {
+        return scramble(nextRank(random));
+    }
+
+    /**
+     * @return rank of a record, 0 being the hottest one
+     */
+    long nextRank(Random random) {
+        final double u = random.nextDouble();
+        final double uz = u * zetan;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < 1 + Math.pow(0.5, theta)) {
+            return 1;
+        }
+        return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private long scramble(long rank) {
+        // FNV-1a of the rank, two ranks may end on the same record like in YCSB
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash ^= (rank >>> (i * 8)) & 0xff;
+            hash *= 0x100000001B3L;
+        }
+        return Math.floorMod(hash, items);
+    }
+
+}